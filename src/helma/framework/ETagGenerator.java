@@ -0,0 +1,250 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.framework;
+
+import helma.util.Base64;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Decides which responses get an automatic ETag header and computes the
+ * hash of the response body. The hash is updated incrementally while the
+ * response buffer is encoded, and the underlying digests are kept per thread
+ * so they don't have to be created for every response.
+ *
+ * The generator is configured with the following app.properties settings:
+ * <ul>
+ * <li><code>autoETags</code> - set to false to disable automatic ETags</li>
+ * <li><code>autoETags.algorithm</code> - <code>md5</code> (the default) or
+ *     <code>crc32</code> for a faster, non-cryptographic hash</li>
+ * <li><code>autoETags.maxSize</code> - the maximum response size for which
+ *     ETags are computed, counted in characters for text and in bytes for
+ *     binary responses, 0 for no limit (the default)</li>
+ * <li><code>autoETags.contentTypes</code> - comma separated list of content
+ *     type prefixes for which ETags are computed, e.g. <code>text/,
+ *     application/json</code>. By default, all responses are considered.</li>
+ * </ul>
+ */
+public final class ETagGenerator {
+
+    // the thread local MD5 digests
+    private static final ThreadLocal md5Digests = new ThreadLocal() {
+        protected Object initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException nsa) {
+                // MD5 should always be available
+                throw new RuntimeException(nsa.toString());
+            }
+        }
+    };
+
+    // the thread local CRC32 checksums
+    private static final ThreadLocal crcDigests = new ThreadLocal() {
+        protected Object initialValue() {
+            return new CRC32();
+        }
+    };
+
+    private volatile boolean enabled = true;
+    private volatile boolean useCrc = false;
+    private volatile long maxSize = 0;
+    private volatile String[] contentTypes = null;
+
+    // statistics
+    private final AtomicLong computed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong hashedBytes = new AtomicLong();
+    private final AtomicLong hashTime = new AtomicLong();
+
+    /**
+     * Read the ETag settings from the application properties.
+     *
+     * @param props the application properties
+     */
+    public void updateProperties(Properties props) {
+        enabled = "true".equals(props.getProperty("autoETags", "true"));
+        useCrc = "crc32".equalsIgnoreCase(props.getProperty("autoETags.algorithm", "md5").trim());
+        String size = props.getProperty("autoETags.maxSize");
+        try {
+            maxSize = size == null ? 0 : Long.parseLong(size.trim());
+        } catch (NumberFormatException x) {
+            maxSize = 0;
+        }
+        String types = props.getProperty("autoETags.contentTypes");
+        if (types == null || types.trim().length() == 0) {
+            contentTypes = null;
+        } else {
+            StringTokenizer st = new StringTokenizer(types, ",; ");
+            String[] list = new String[st.countTokens()];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = st.nextToken().toLowerCase();
+            }
+            contentTypes = list;
+        }
+    }
+
+    /**
+     * Check whether automatic ETags are enabled at all.
+     *
+     * @return true if automatic ETags are enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Check whether an ETag should be computed for a response with the
+     * given content type and size. Responses that are rejected are counted
+     * as skipped.
+     *
+     * @param contentType the content type of the response, may be null
+     * @param size the size of the response body, as far as known
+     * @return true if an ETag should be computed
+     */
+    public boolean accepts(String contentType, long size) {
+        if (!enabled) {
+            return false;
+        }
+        if ((maxSize > 0 && size > maxSize) || !acceptsContentType(contentType)) {
+            skipped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean acceptsContentType(String contentType) {
+        String[] types = contentTypes;
+        if (types == null) {
+            return true;
+        }
+        if (contentType == null) {
+            contentType = "text/html";
+        }
+        contentType = contentType.toLowerCase();
+        for (int i = 0; i < types.length; i++) {
+            if (contentType.startsWith(types[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start a new hash using the current thread's digest.
+     *
+     * @return the hash to update with the response body
+     */
+    public Hash createHash() {
+        return new Hash(useCrc);
+    }
+
+    /**
+     * Get the ETag statistics of this generator.
+     *
+     * @return a map containing counts and the time spent hashing in milliseconds
+     */
+    public Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("computed", computed.get());
+        stats.put("skipped", skipped.get());
+        stats.put("hashedBytes", hashedBytes.get());
+        stats.put("hashTime", hashTime.get() / 1000000L);
+        stats.put("algorithm", useCrc ? "crc32" : "md5");
+        return stats;
+    }
+
+    /**
+     * Reset the ETag statistics.
+     */
+    public void resetStatistics() {
+        computed.set(0);
+        skipped.set(0);
+        hashedBytes.set(0);
+        hashTime.set(0);
+    }
+
+    /**
+     * An incrementally computed hash of a response body. A hash must be used
+     * by the thread that created it, since it works on a thread local digest.
+     */
+    public final class Hash {
+
+        private final MessageDigest md5;
+        private final CRC32 crc;
+        private long length = 0;
+        private long nanos = 0;
+
+        Hash(boolean useCrc) {
+            if (useCrc) {
+                crc = (CRC32) crcDigests.get();
+                crc.reset();
+                md5 = null;
+            } else {
+                md5 = (MessageDigest) md5Digests.get();
+                md5.reset();
+                crc = null;
+            }
+        }
+
+        /**
+         * Update the hash with a part of the response body.
+         *
+         * @param b the byte array
+         * @param off the offset of the first byte
+         * @param len the number of bytes
+         */
+        public void update(byte[] b, int off, int len) {
+            long start = System.nanoTime();
+            if (md5 != null) {
+                md5.update(b, off, len);
+            } else {
+                crc.update(b, off, len);
+            }
+            length += len;
+            nanos += System.nanoTime() - start;
+        }
+
+        /**
+         * Finish the hash and return the quoted ETag value.
+         *
+         * @return the ETag header value
+         */
+        public String getETag() {
+            long start = System.nanoTime();
+            String value;
+            if (md5 != null) {
+                value = new String(Base64.encode(md5.digest()));
+            } else {
+                // the length makes collisions of the 32 bit checksum less likely
+                value = Long.toString(crc.getValue(), 36) + "-" + Long.toString(length, 36);
+            }
+            nanos += System.nanoTime() - start;
+            computed.incrementAndGet();
+            hashedBytes.addAndGet(length);
+            hashTime.addAndGet(nanos);
+            return "\"" + value + "\"";
+        }
+    }
+}
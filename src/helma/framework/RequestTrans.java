@@ -53,6 +53,9 @@ public class RequestTrans implements Serializable {
     final HttpServletRequest request;
     final HttpServletResponse response;
 
+    // callback for sending headers of streamed responses, may be null
+    private transient ResponseHeaderWriter headerWriter;
+
     // the path info of the request
     private final String path;
 
@@ -360,6 +363,24 @@ public class RequestTrans implements Serializable {
         return response;
     }
 
+    /**
+     * Set the callback used to send the status and headers of a streamed
+     * response. This is set by the servlet client for HTTP requests.
+     * @param headerWriter the header writer
+     */
+    public void setHeaderWriter(ResponseHeaderWriter headerWriter) {
+        this.headerWriter = headerWriter;
+    }
+
+    /**
+     * Get the callback used to send the status and headers of a streamed
+     * response. Returns null if the response can't be streamed.
+     * @return the header writer
+     */
+    public ResponseHeaderWriter getHeaderWriter() {
+        return headerWriter;
+    }
+
     /**
      *  The hash code is computed from the session id if available. This is used to
      *  detect multiple identic requests.
@@ -124,6 +124,14 @@ public class ResponseBean implements Serializable {
         res.resetBuffer();
     }
 
+    /**
+     * In streaming mode, send the content written so far to the client.
+     * Otherwise, this does nothing.
+     */
+    public void flush() {
+        res.flush();
+    }
+
     /**
      * Returns the ServletResponse instance for this Response.
      * Returns null for internal and XML-RPC requests.
@@ -270,6 +278,26 @@ public class ResponseBean implements Serializable {
         res.setCacheable(cache);
     }
 
+    /**
+     * Return true if the response is sent to the client while it is being written
+     *
+     * @return true if streaming mode is enabled
+     */
+    public boolean getStreaming() {
+        return res.isStreaming();
+    }
+
+    /**
+     * Enable or disable streaming mode for this response. Streamed responses
+     * are sent to the client in chunks while they are being written, without
+     * Content-Length and automatic ETag headers.
+     *
+     * @param streaming true to enable streaming mode
+     */
+    public void setStreaming(boolean streaming) {
+        res.setStreaming(streaming);
+    }
+
     /**
      * Get the current charset/encoding name for the response
      *
@@ -630,7 +658,7 @@ public class ResponseBean implements Serializable {
         if (tx != null) {
             String tname = tx.getTransactionName();
             tx.commit();
-            tx.begin(tname);
+            tx.begin(tname, true);
         }
     }
 
@@ -644,7 +672,7 @@ public class ResponseBean implements Serializable {
         if (tx != null) {
             String tname = tx.getTransactionName();
             tx.abort();
-            tx.begin(tname);
+            tx.begin(tname, true);
         }
     }
 
@@ -0,0 +1,38 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.framework;
+
+import java.io.IOException;
+
+/**
+ * Callback used by a streaming {@link ResponseTrans} to send the HTTP status
+ * and headers to the client before the first part of the response body is
+ * written. Implementations are registered with the {@link RequestTrans} by
+ * the servlet client.
+ */
+public interface ResponseHeaderWriter {
+
+    /**
+     * Send the status, headers and cookies of the given response. The content
+     * length is not known at this point and must not be set.
+     *
+     * @param res the response about to be streamed
+     * @throws IOException if the headers couldn't be written
+     */
+    public void writeHeaders(ResponseTrans res) throws IOException;
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.framework;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+
+/**
+ * Encodes the content of a response buffer incrementally and writes it to
+ * the servlet output stream. This is used by {@link ResponseTrans} in
+ * streaming mode, so the response body never has to be materialized as
+ * a whole. The byte buffers used for encoding are pooled.
+ */
+final class ResponseStream {
+
+    // size of the pooled byte buffers
+    static final int BUFFER_SIZE = 8192;
+
+    // maximum number of idle byte buffers kept in the pool
+    private static final int MAX_POOLED_BUFFERS = 32;
+
+    // idle byte buffers
+    private static final LinkedList pool = new LinkedList();
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder;
+    private ByteBuffer bytes;
+    private long length = 0;
+
+    /**
+     * Create a new response stream.
+     *
+     * @param out the output stream to write to
+     * @param charset the name of the charset to encode the response with
+     */
+    ResponseStream(OutputStream out, String charset) {
+        this.out = out;
+        // replace unmappable characters, like String.getBytes() does
+        this.encoder = Charset.forName(charset).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = getBuffer();
+    }
+
+    /**
+     * Encode the content of the given buffer and write it to the output stream.
+     * Characters that can't be encoded yet, i.e. the first half of a surrogate
+     * pair at the end of the buffer, are left in the buffer.
+     *
+     * @param buffer the buffer to write
+     * @param endOfInput true if this is the last content of the response
+     * @throws IOException if writing to the output stream failed
+     */
+    void write(StringBuffer buffer, boolean endOfInput) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+            drain();
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+                drain();
+            }
+        }
+        drain();
+        out.flush();
+        buffer.delete(0, chars.position());
+    }
+
+    /**
+     * Write the encoded bytes to the output stream.
+     */
+    private void drain() throws IOException {
+        bytes.flip();
+        int count = bytes.remaining();
+        if (count > 0) {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), count);
+            length += count;
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Release the byte buffer of this stream. The output stream itself is
+     * closed by the servlet container.
+     */
+    void close() {
+        if (bytes != null) {
+            releaseBuffer(bytes);
+            bytes = null;
+        }
+    }
+
+    /**
+     * Get the number of bytes written to the output stream.
+     *
+     * @return the number of bytes written
+     */
+    long getLength() {
+        return length;
+    }
+
+    private static ByteBuffer getBuffer() {
+        synchronized (pool) {
+            if (!pool.isEmpty()) {
+                return (ByteBuffer) pool.removeFirst();
+            }
+        }
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED_BUFFERS) {
+                pool.addFirst(buffer);
+            }
+        }
+    }
+}
@@ -114,6 +114,24 @@ public final class ResponseTrans extends Writer implements Serializable {
     // the message digest used to generate composed digests for ETag headers
     private transient MessageDigest digest;
 
+    // flag to signal that the response body should be streamed to the client
+    private boolean streaming = false;
+
+    // the stream used to write the response body in streaming mode, once started
+    private transient ResponseStream stream;
+
+    // set as soon as status and headers have been sent in streaming mode
+    private transient boolean streamStarted = false;
+
+    // set if writing to the stream failed, e.g. because the client went away
+    private transient boolean streamFailed = false;
+
+    // number of active holds that keep the response buffer from being streamed
+    private transient int streamHolds = 0;
+
+    // number of buffers pushed by pushBuffer()
+    private transient int pushedBuffers = 0;
+
     // the skin current or last rendered skin
     private transient volatile Skin activeSkin;
 
@@ -182,13 +200,21 @@ public final class ResponseTrans extends Writer implements Serializable {
 
     /**
      * Reset the response object to its initial empty state.
+     *
+     * @throws IllegalStateException if the response has started to be streamed
      */
     public synchronized void reset() {
+        if (streamStarted) {
+            throw new IllegalStateException("Can't reset response, it is already " +
+                    "being streamed to the client");
+        }
         if (buffer != null) {
             buffer.setLength(0);
         }
 
         buffers = null;
+        pushedBuffers = 0;
+        streamHolds = 0;
         response = null;
         cacheable = true;
         redir = forward = message = null;
@@ -224,6 +250,7 @@ public final class ResponseTrans extends Writer implements Serializable {
         if (buffer != null) {
             buffers.push(buffer);
         }
+        pushedBuffers += 1;
 
         if (buf != null) {
             buffer = buf;
@@ -258,6 +285,9 @@ public final class ResponseTrans extends Writer implements Serializable {
         StringBuffer buf = buffer;
         // restore the previous buffer, which may be null
         buffer = buffers.empty() ? null : (StringBuffer) buffers.pop();
+        if (pushedBuffers > 0) {
+            pushedBuffers -= 1;
+        }
         return buf;
     }
 
@@ -281,6 +311,7 @@ public final class ResponseTrans extends Writer implements Serializable {
                 buffer = new StringBuffer(Math.max(str.length() + 100, INITIAL_BUFFER_SIZE));
             }
             buffer.append(str);
+            checkStream();
         }
     }
 
@@ -306,6 +337,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             buffer = new StringBuffer(Math.max(length + 100, INITIAL_BUFFER_SIZE));
         }
         buffer.append(chars, offset, length);
+        checkStream();
     }
 
     /**
@@ -327,6 +359,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             buffer = new StringBuffer(INITIAL_BUFFER_SIZE);
         }
         buffer.append((char) c);
+        checkStream();
     }
 
     /**
@@ -352,6 +385,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             buffer = new StringBuffer(INITIAL_BUFFER_SIZE);
         }
         buffer.append(newLine);
+        checkStream();
     }
 
     /**
@@ -363,6 +397,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             buffer = new StringBuffer(INITIAL_BUFFER_SIZE);
         }
         buffer.append(newLine);
+        checkStream();
     }
 
     /**
@@ -396,6 +431,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             }
 
             HtmlEncoder.encodeAll(str, buffer);
+            checkStream();
         }
     }
 
@@ -411,6 +447,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             }
 
             HtmlEncoder.encode(str, buffer);
+            checkStream();
         }
     }
 
@@ -427,6 +464,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             }
 
             HtmlEncoder.encodeXml(str, buffer);
+            checkStream();
         }
     }
 
@@ -442,6 +480,7 @@ public final class ResponseTrans extends Writer implements Serializable {
             }
 
             HtmlEncoder.encodeAll(str, buffer, false);
+            checkStream();
         }
     }
 
@@ -628,8 +667,119 @@ public final class ResponseTrans extends Writer implements Serializable {
         writeBinary(xresproc.encodeException(x, charset));
     }
 
-    public void flush() {
-        // does nothing!
+    /**
+     * In streaming mode, send the content of the response buffer to the client.
+     * Otherwise, this does nothing.
+     */
+    public synchronized void flush() {
+        if (streaming && buffer != null && buffer.length() > 0 && canStream()) {
+            writeStream(false);
+        }
+    }
+
+    /**
+     * Enable or disable streaming mode for this response. In streaming mode,
+     * the response body is sent to the client in chunks while it is being
+     * written, rather than after the request has been processed. Streamed
+     * responses have no Content-Length and no automatic ETag header. Once
+     * streaming has started, status, headers and cookies can't be changed
+     * anymore.
+     *
+     * @param streaming true to enable streaming mode
+     */
+    public synchronized void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Check whether streaming mode is enabled for this response.
+     *
+     * @return true if streaming mode is enabled
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Check whether the response body has started to be streamed to the client.
+     *
+     * @return true if status and headers have already been sent
+     */
+    public synchronized boolean isStreamStarted() {
+        return streamStarted;
+    }
+
+    /**
+     * Give up a response that has started to be streamed when the request
+     * fails. The output not sent yet is discarded and nothing more is written.
+     */
+    public synchronized void failStream() {
+        streamFailed = true;
+        if (buffer != null) {
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Keep the response buffer from being streamed. This is used while the content
+     * of the buffer is still being worked on, for instance when a macro's output
+     * is wrapped with prefix and suffix. Calls must be balanced with
+     * {@link #releaseStream()}.
+     */
+    public synchronized void holdStream() {
+        streamHolds += 1;
+    }
+
+    /**
+     * Release a hold acquired with {@link #holdStream()}.
+     */
+    public synchronized void releaseStream() {
+        if (streamHolds > 0) {
+            streamHolds -= 1;
+        }
+    }
+
+    /**
+     * Check if the response buffer can currently be streamed.
+     */
+    private boolean canStream() {
+        return streamHolds == 0 && pushedBuffers == 0 && !streamFailed &&
+               redir == null && forward == null &&
+               (stream != null || reqtrans.getHeaderWriter() != null);
+    }
+
+    /**
+     * Stream the response buffer if streaming is enabled and it has grown
+     * beyond the chunk size.
+     */
+    private void checkStream() {
+        if (streaming && buffer.length() >= ResponseStream.BUFFER_SIZE && canStream()) {
+            writeStream(false);
+        }
+    }
+
+    /**
+     * Write the response buffer to the client, sending the headers first
+     * if this is the first part of the response.
+     */
+    private void writeStream(boolean endOfInput) {
+        try {
+            if (stream == null) {
+                streamStarted = true;
+                HttpServletResponse res = reqtrans.getServletResponse();
+                if (charset == null) {
+                    charset = app.getCharset();
+                }
+                reqtrans.getHeaderWriter().writeHeaders(this);
+                stream = new ResponseStream(res.getOutputStream(), charset);
+            }
+            stream.write(buffer, endOfInput);
+        } catch (Exception x) {
+            // the client probably went away, discard the rest of the output
+            app.logEvent("Error streaming response: " + x);
+            streamFailed = true;
+            buffer.setLength(0);
+        }
     }
 
     /**
@@ -647,6 +797,36 @@ public final class ResponseTrans extends Writer implements Serializable {
      * @throws UnsupportedEncodingException if the charset is not a valid encoding name
      */
     public synchronized void close(String defaultCharset) throws UnsupportedEncodingException {
+        // finish streamed response
+        if (stream != null) {
+            // if debug buffer exists, append it to main buffer
+            if (contentType != null &&
+                    contentType.startsWith("text/html") &&
+                    debugBuffer != null) {
+                debugBuffer.append("</div>");
+                getBuffer().append(debugBuffer);
+            }
+            if (response != null) {
+                app.logEvent("Can't send binary content, response is already streamed");
+            }
+            if (redir != null) {
+                app.logEvent("Can't redirect to " + redir + ", response is already streamed");
+            }
+            pushedBuffers = streamHolds = 0;
+            if (!streamFailed) {
+                if (buffer == null) {
+                    buffer = new StringBuffer();
+                }
+                writeStream(true);
+            }
+            stream.close();
+            buffer = null;
+            // let attached requests know they can't reuse this response
+            response = null;
+            notifyAll();
+            return;
+        }
+
         // if the response was already written and committed by the application
         // there's no point in closing the response buffer
         HttpServletResponse res = reqtrans.getServletResponse();
@@ -661,6 +841,18 @@ public final class ResponseTrans extends Writer implements Serializable {
 
         boolean encodingError = false;
 
+        // if etag is not set, compute a hash of the response body and check it,
+        // but only if not a redirect or error
+        ETagGenerator etags = app.getETagGenerator();
+        boolean autoETag = etags.isEnabled() &&
+                etag == null &&
+                lastModified == -1 &&
+                status == 200 &&
+                redir == null;
+        ETagGenerator.Hash hash = null;
+        // whether the generator already decided about hashing this response
+        boolean checked = false;
+
         // only close if the response hasn't been closed yet, and if no
         // response was generated using writeBinary().
         if (response == null) {
@@ -687,11 +879,27 @@ public final class ResponseTrans extends Writer implements Serializable {
 
             // get the buffer's bytes in the specified encoding
             if (buffer != null) {
+                if (autoETag) {
+                    // decide now, so the hash can be computed while encoding
+                    autoETag = etags.accepts(contentType, buffer.length());
+                    checked = true;
+                    if (autoETag) {
+                        hash = etags.createHash();
+                    }
+                }
                 try {
-                    response = buffer.toString().getBytes(charset);
+                    if (hash != null) {
+                        response = encodeBuffer(charset, hash);
+                    } else {
+                        response = buffer.toString().getBytes(charset);
+                    }
                 } catch (UnsupportedEncodingException uee) {
                     encodingError = true;
                     response = buffer.toString().getBytes();
+                    if (hash != null) {
+                        hash = etags.createHash();
+                        hash.update(response, 0, response.length);
+                    }
                 }
 
                 // make sure this is done only once, even with more requsts attached
@@ -701,20 +909,15 @@ public final class ResponseTrans extends Writer implements Serializable {
             }
         }
 
-        boolean autoETags = "true".equals(app.getProperty("autoETags", "true"));
-        // if etag is not set, calc MD5 digest and check it, but only if
-        // not a redirect or error
-        if (autoETags &&
-                etag == null &&
-                lastModified == -1 &&
-                status == 200 &&
-                redir == null) {
+        // hash binary content and empty responses
+        if (autoETag && !checked && etags.accepts(contentType, response.length)) {
+            hash = etags.createHash();
+            hash.update(response, 0, response.length);
+        }
+
+        if (hash != null) {
             try {
-                digest = MessageDigest.getInstance("MD5");
-                // if (contentType != null)
-                //     digest.update (contentType.getBytes());
-                byte[] b = digest.digest(response);
-                etag = "\"" + new String(Base64.encode(b)) + "\"";
+                etag = hash.getETag();
                 // only set response to 304 not modified if no cookies were set
                 if (reqtrans.hasETag(etag) && countCookies() == 0) {
                     response = new byte[0];
@@ -734,6 +937,35 @@ public final class ResponseTrans extends Writer implements Serializable {
         }
     }
 
+    /**
+     * Encode the response buffer, updating the given hash with the encoded
+     * bytes as they are produced.
+     */
+    private byte[] encodeBuffer(String charset, final ETagGenerator.Hash hash)
+            throws UnsupportedEncodingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.length() + 16) {
+            public void write(byte[] b, int off, int len) {
+                hash.update(b, off, len);
+                super.write(b, off, len);
+            }
+        };
+        ResponseStream encoder;
+        try {
+            encoder = new ResponseStream(out, charset);
+        } catch (IllegalArgumentException unsupported) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        try {
+            encoder.write(buffer, true);
+        } catch (IOException iox) {
+            // can't happen with a byte array output stream
+            throw new RuntimeException(iox.toString());
+        } finally {
+            encoder.close();
+        }
+        return out.toByteArray();
+    }
+
     /**
      * If we just attached to evaluation we call this instead of close because only the primary thread
      * is responsible for closing the result
@@ -98,6 +98,18 @@ public final class Application implements Runnable {
      */
     protected Stack freeThreads;
     protected Vector allThreads;
+
+    /**
+     * Requests waiting for a free evaluator, in order of arrival.
+     * Access is guarded by the freeThreads monitor.
+     */
+    private final LinkedList evaluatorWaiters = new LinkedList();
+
+    // statistics for requests that had to wait for an evaluator,
+    // guarded by the freeThreads monitor
+    private long queuedRequestCount = 0;
+    private long rejectedRequestCount = 0;
+    private long evaluatorWaitTime = 0;
     boolean running = false;
     boolean debug;
     long starttime;
@@ -167,6 +179,9 @@ public final class Application implements Runnable {
     // the set of prototype/function pairs which are allowed to be called via XML-RPC
     private HashSet xmlrpcAccess;
 
+    // decides which responses get automatic ETags and computes them
+    private final ETagGenerator etagGenerator = new ETagGenerator();
+
     // the name under which this app serves XML-RPC requests. Defaults to the app name
     private String xmlrpcHandlerName;
 
@@ -489,6 +504,9 @@ public final class Application implements Runnable {
     public synchronized void start() {
         starttime = System.currentTimeMillis();
 
+        // start reloading the nodes cached before the last shutdown
+        nmgr.startCacheWarmup();
+
         // as first thing, invoke global onStart() function
         RequestEvaluator eval = null;
         try {
@@ -537,9 +555,10 @@ public final class Application implements Runnable {
             }
         }
 
-        // remove evaluators
+        // remove evaluators and release requests waiting for one
         allThreads.removeAllElements();
         freeThreads.clear();
+        wakeEvaluatorWaiters();
 
         // shut down node manager and embedded db
         try {
@@ -548,6 +567,11 @@ public final class Application implements Runnable {
             System.err.println("Error shutting down embedded db: " + dbx);
         }
 
+        // close idle pooled connections of relational db sources
+        for (Enumeration e = dbSources.elements(); e.hasMoreElements();) {
+            ((DbSource) e.nextElement()).shutdown();
+        }
+
         // tell the extensions that we're stopped.
         if (Server.getServer() != null) {
             Vector extensions = Server.getServer().getExtensions();
@@ -596,59 +620,99 @@ public final class Application implements Runnable {
     }
 
     /**
-     * Returns a free evaluator to handle a request.
+     * Returns a free evaluator to handle a request. If all evaluators are busy
+     * and maxThreads has been reached, the calling thread is queued and handed
+     * the next evaluator that is released, in order of arrival. Requests are
+     * rejected with a ServiceUnavailableException if the queue already holds
+     * maxQueuedRequests requests or no evaluator becomes available within
+     * maxThreadWait milliseconds.
      */
     public RequestEvaluator getEvaluator() {
         if (!running) {
             throw new ApplicationStoppedException();
         }
 
-        // first try
-        try {
-            return (RequestEvaluator) freeThreads.pop();
-        } catch (EmptyStackException nothreads) {
-            int maxThreads = 50;
+        EvaluatorWaiter waiter;
+        long waitStart;
 
-            String maxThreadsProp = props.getProperty("maxThreads");
-            if (maxThreadsProp != null) {
-                try {
-                    maxThreads = Integer.parseInt(maxThreadsProp);
-                } catch (Exception ignore) {
-                    logEvent("Couldn't parse maxThreads property: " + maxThreadsProp);
-                }
+        synchronized (freeThreads) {
+            // only take a free evaluator if nobody is queued before us
+            if (!freeThreads.isEmpty() && evaluatorWaiters.isEmpty()) {
+                return (RequestEvaluator) freeThreads.pop();
             }
 
-            synchronized (this) {
-                // allocate a new evaluator
-                if (allThreads.size() < maxThreads) {
-                    logEvent("Starting engine " + (allThreads.size() + 1) +
-                             " for " + name);
+            int maxThreads = getIntProperty("maxThreads", 50);
 
-                    RequestEvaluator ev = new RequestEvaluator(this);
+            // allocate a new evaluator
+            if (allThreads.size() < maxThreads) {
+                logEvent("Starting engine " + (allThreads.size() + 1) +
+                         " for " + name);
 
-                    allThreads.addElement(ev);
+                RequestEvaluator ev = new RequestEvaluator(this);
+
+                allThreads.addElement(ev);
 
-                    return (ev);
+                return (ev);
+            }
+
+            // we can't create a new evaluator, so we queue up and wait
+            // until one is handed to us by releaseEvaluator().
+            int maxQueued = getIntProperty("maxQueuedRequests", -1);
+            if (maxQueued > -1 && evaluatorWaiters.size() >= maxQueued) {
+                rejectedRequestCount += 1;
+                throw new ServiceUnavailableException("Maximum Thread count reached, " +
+                        evaluatorWaiters.size() + " requests queued.");
+            }
+
+            waiter = new EvaluatorWaiter();
+            evaluatorWaiters.addLast(waiter);
+            queuedRequestCount += 1;
+            waitStart = System.currentTimeMillis();
+        }
+
+        long maxWait = getIntProperty("maxThreadWait", 12000);
+        long deadline = waitStart + maxWait;
+        boolean interrupted = false;
+
+        synchronized (waiter) {
+            long remaining = maxWait;
+            while (waiter.evaluator == null && running && remaining > 0) {
+                try {
+                    waiter.wait(remaining);
+                } catch (InterruptedException inter) {
+                    interrupted = true;
+                    break;
                 }
+                remaining = deadline - System.currentTimeMillis();
             }
         }
 
-        // we can't create a new evaluator, so we wait if one becomes available.
-        // give it 3 more tries, waiting 3 seconds each time.
-        for (int i = 0; i < 4; i++) {
-            try {
-                Thread.sleep(3000);
+        synchronized (freeThreads) {
+            evaluatorWaitTime += System.currentTimeMillis() - waitStart;
+            RequestEvaluator ev;
+            synchronized (waiter) {
+                ev = waiter.evaluator;
+            }
+            if (ev == null) {
+                evaluatorWaiters.remove(waiter);
+            } else if (!interrupted && running) {
+                return ev;
+            } else {
+                // we were handed an evaluator but can't use it, pass it on
+                handOverEvaluator(ev);
+            }
 
-                return (RequestEvaluator) freeThreads.pop();
-            } catch (EmptyStackException nothreads) {
-                // do nothing
-            } catch (InterruptedException inter) {
+            if (!running) {
+                throw new ApplicationStoppedException();
+            } else if (interrupted) {
                 throw new RuntimeException("Thread interrupted.");
             }
+            rejectedRequestCount += 1;
         }
 
         // no luck, give up.
-        throw new RuntimeException("Maximum Thread count reached.");
+        throw new ServiceUnavailableException("Maximum Thread count reached, waited " +
+                maxWait + " millis for a free evaluator.");
     }
 
     /**
@@ -657,8 +721,58 @@ public final class Application implements Runnable {
     public void releaseEvaluator(RequestEvaluator ev) {
         if (ev != null) {
             ev.recycle();
+            synchronized (freeThreads) {
+                handOverEvaluator(ev);
+            }
+        }
+    }
+
+    /**
+     * Hand an evaluator to the first queued request, or push it back on
+     * the stack of free evaluators if no request is waiting. Must be called
+     * while holding the freeThreads monitor.
+     */
+    private void handOverEvaluator(RequestEvaluator ev) {
+        if (evaluatorWaiters.isEmpty()) {
             freeThreads.push(ev);
+        } else {
+            EvaluatorWaiter waiter = (EvaluatorWaiter) evaluatorWaiters.removeFirst();
+            synchronized (waiter) {
+                waiter.evaluator = ev;
+                waiter.notify();
+            }
+        }
+    }
+
+    /**
+     * Wake up all requests waiting for an evaluator. Called when the
+     * application is stopped.
+     */
+    private void wakeEvaluatorWaiters() {
+        synchronized (freeThreads) {
+            for (Iterator it = evaluatorWaiters.iterator(); it.hasNext(); ) {
+                EvaluatorWaiter waiter = (EvaluatorWaiter) it.next();
+                synchronized (waiter) {
+                    waiter.notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get an integer app property, returning the default value if the
+     * property is not set or can't be parsed.
+     */
+    private int getIntProperty(String propname, int defvalue) {
+        String prop = props.getProperty(propname);
+        if (prop != null) {
+            try {
+                return Integer.parseInt(prop.trim());
+            } catch (NumberFormatException ignore) {
+                logEvent("Couldn't parse " + propname + " property: " + prop);
+            }
         }
+        return defvalue;
     }
 
     /**
@@ -672,15 +786,15 @@ public final class Application implements Runnable {
 
         int current = allThreads.size();
 
-        synchronized (allThreads) {
+        synchronized (freeThreads) {
             if (n > current) {
                 int toBeCreated = n - current;
 
                 for (int i = 0; i < toBeCreated; i++) {
                     RequestEvaluator ev = new RequestEvaluator(this);
 
-                    freeThreads.push(ev);
                     allThreads.addElement(ev);
+                    handOverEvaluator(ev);
                 }
             } else if (n < current) {
                 int toBeDestroyed = current - n;
@@ -756,6 +870,13 @@ public final class Application implements Runnable {
         } catch (ApplicationStoppedException stopped) {
             // let the servlet know that this application has gone to heaven
             throw stopped;
+        } catch (ServiceUnavailableException busy) {
+            // all evaluators are busy, shed load
+            errorCount += 1;
+            logEvent(busy.getMessage());
+            res = new ResponseTrans(this, req);
+            res.reportError(busy);
+            res.setStatus(503);
         } catch (Exception x) {
             errorCount += 1;
             res = new ResponseTrans(this, req);
@@ -835,12 +956,60 @@ public final class Application implements Runnable {
     }
 
     /**
-     * Returns a map of cache statistics
+     * Returns a map of cache statistics, including hit and miss counts
+     * and a per-prototype breakdown in the "prototypes" entry.
      */
     public Map getCacheStatistics() {
         return nmgr.getCacheStatistics();
     }
 
+    /**
+     * Reset the hit, miss and load time counters of the node cache.
+     */
+    public void resetCacheStatistics() {
+        nmgr.resetCacheStatistics();
+    }
+
+    /**
+     * Returns a map of SQL statement statistics. The "statements" entry lists
+     * the latency percentiles and row counts per statement type, table and
+     * relation, ordered by total time, and "slowQueries" lists the most recent
+     * statements exceeding the <code>slowQueryThreshold</code>.
+     */
+    public Map getSqlStatistics() {
+        return nmgr.getSqlStatistics();
+    }
+
+    /**
+     * Returns the SQL statement statistics in the Prometheus text exposition
+     * format, to be served by an action for metrics collection.
+     */
+    public String getSqlMetrics() {
+        return nmgr.getSqlMetrics();
+    }
+
+    /**
+     * Reset the SQL statement statistics.
+     */
+    public void resetSqlStatistics() {
+        nmgr.resetSqlStatistics();
+    }
+
+    /**
+     * Returns the generator used for automatic response ETags.
+     */
+    public ETagGenerator getETagGenerator() {
+        return etagGenerator;
+    }
+
+    /**
+     * Returns a map of automatic ETag statistics, including the number of
+     * computed and skipped ETags and the time spent hashing response bodies.
+     */
+    public Map getETagStatistics() {
+        return etagGenerator.getStatistics();
+    }
+
     /**
      *  Set the application's root element to an arbitrary object. After this is called
      *  with a non-null object, the helma node manager will be bypassed. This function
@@ -1964,6 +2133,9 @@ public final class Application implements Runnable {
 
             xmlrpcAccess = xra;
 
+            // update automatic ETag settings
+            etagGenerator.updateProperties(props);
+
             // if node manager exists, update it
             if (nmgr != null) {
                 nmgr.updateProperties(props);
@@ -2127,6 +2299,44 @@ public final class Application implements Runnable {
         return errorCount;
     }
 
+    /**
+     * Returns the number of requests currently waiting for a free evaluator.
+     */
+    public int countQueuedRequests() {
+        synchronized (freeThreads) {
+            return evaluatorWaiters.size();
+        }
+    }
+
+    /**
+     * Returns the total number of requests that had to wait for a free evaluator.
+     */
+    public long getQueuedRequestCount() {
+        synchronized (freeThreads) {
+            return queuedRequestCount;
+        }
+    }
+
+    /**
+     * Returns the number of requests that were rejected because no
+     * evaluator was available.
+     */
+    public long getRejectedRequestCount() {
+        synchronized (freeThreads) {
+            return rejectedRequestCount;
+        }
+    }
+
+    /**
+     * Returns the total time in milliseconds requests spent waiting
+     * for a free evaluator.
+     */
+    public long getEvaluatorWaitTime() {
+        synchronized (freeThreads) {
+            return evaluatorWaitTime;
+        }
+    }
+
     /**
      *
      *
@@ -2173,6 +2383,13 @@ public final class Application implements Runnable {
         }
     }
 
+    /**
+     * Placeholder for a request waiting for a free evaluator.
+     */
+    static class EvaluatorWaiter {
+        RequestEvaluator evaluator;
+    }
+
     class CronRunner extends Thread {
         RequestEvaluator thisEvaluator;
         CronJob job;
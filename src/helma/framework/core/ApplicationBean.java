@@ -457,6 +457,34 @@ public class ApplicationBean implements Serializable {
         return app.getErrorCount();
     }
 
+    /**
+     * @return the number of requests currently waiting for a free evaluator
+     */
+    public int getQueuedRequests() {
+        return app.countQueuedRequests();
+    }
+
+    /**
+     * @return the number of requests that had to wait for a free evaluator
+     */
+    public long getQueuedRequestCount() {
+        return app.getQueuedRequestCount();
+    }
+
+    /**
+     * @return the number of requests rejected because no evaluator was available
+     */
+    public long getRejectedRequestCount() {
+        return app.getRejectedRequestCount();
+    }
+
+    /**
+     * @return the total time in milliseconds requests waited for a free evaluator
+     */
+    public long getEvaluatorWaitTime() {
+        return app.getEvaluatorWaitTime();
+    }
+
     /**
      * @return the wrapped helma.framework.core.Application object
      */
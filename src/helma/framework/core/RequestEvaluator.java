@@ -551,6 +551,17 @@ public final class RequestEvaluator implements Runnable {
                         abortTransaction();
                         done = true;
                     } catch (ConcurrencyException x) {
+                        if (res.isStreamStarted()) {
+                            // part of the response has been sent, the request can't be retried
+                            if (localThread != thread) {
+                                return;
+                            }
+                            abortTransaction();
+                            failStreamedRequest(res, txname, x);
+                            done = true;
+                            continue;
+                        }
+
                         res.reset();
 
                         if (++tries < 8) {
@@ -597,6 +608,14 @@ public final class RequestEvaluator implements Runnable {
                             return;
                         }
 
+                        if (res.isStreamStarted()) {
+                            // part of the response has been sent, so we can't
+                            // replace it with an error page
+                            failStreamedRequest(res, txname, x);
+                            done = true;
+                            continue;
+                        }
+
                         res.reset();
 
                         // check if we tried to process the error already,
@@ -648,6 +667,17 @@ public final class RequestEvaluator implements Runnable {
         }
     }
 
+    /**
+     * Fail a request whose response has started to be streamed to the client.
+     * Such a request can neither be retried nor answered with an error page,
+     * so the rest of its output is discarded.
+     */
+    private void failStreamedRequest(ResponseTrans res, String txname, Throwable x) {
+        app.errorCount += 1;
+        app.logError(txname + " failed after its response was streamed: " + x, x);
+        res.failStream();
+    }
+
     /**
      * Called by the transactor thread when it has successfully fulfilled a request.
      * @throws Exception transaction couldn't be committed
@@ -780,8 +810,12 @@ public final class RequestEvaluator implements Runnable {
         wait(app.requestTimeout);
 
         if (reqtype != NONE && stopTransactor()) {
-            res.reset();
-            res.reportError("Request timed out");
+            if (res.isStreamStarted()) {
+                res.failStream();
+            } else {
+                res.reset();
+                res.reportError("Request timed out");
+            }
         }
 
         session.commit(this, app.sessionMgr);
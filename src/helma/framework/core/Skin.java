@@ -748,18 +748,24 @@ public final class Skin {
          * if necessary.
          */
         Object invokeAsParameter(RenderContext cx) throws Exception {
-            StandardParams stdParams = standardParams.render(cx);            
-            Object value = invokeAsMacro(cx, stdParams, true);
-            if (stdParams.prefix != null || stdParams.suffix != null) {
-                ResponseTrans res = cx.reval.getResponse();
-                res.pushBuffer(null);
-                writeResponse(value, cx.reval, stdParams, true);
-                return res.popString();
-            } else if (stdParams.defaultValue != null &&
-                    (value == null || "".equals(value))) {
-                return stdParams.defaultValue;
-            } else {
-                return value;
+            ResponseTrans res = cx.reval.getResponse();
+            // keep the response from being streamed while we use buffer offsets
+            res.holdStream();
+            try {
+                StandardParams stdParams = standardParams.render(cx);
+                Object value = invokeAsMacro(cx, stdParams, true);
+                if (stdParams.prefix != null || stdParams.suffix != null) {
+                    res.pushBuffer(null);
+                    writeResponse(value, cx.reval, stdParams, true);
+                    return res.popString();
+                } else if (stdParams.defaultValue != null &&
+                        (value == null || "".equals(value))) {
+                    return stdParams.defaultValue;
+                } else {
+                    return value;
+                }
+            } finally {
+                res.releaseStream();
             }
         }
 
@@ -768,7 +774,10 @@ public final class Skin {
          */
         void render(RenderContext cx)
                 throws RedirectException, UnsupportedEncodingException {
-            StringBuffer buffer = cx.reval.getResponse().getBuffer();
+            ResponseTrans res = cx.reval.getResponse();
+            // keep the response from being streamed while we use buffer offsets
+            res.holdStream();
+            StringBuffer buffer = res.getBuffer();
             // remember length of response buffer before calling macro
             int bufLength = buffer.length();
             try {
@@ -824,6 +833,8 @@ public final class Skin {
                         .append(": ").append(msg).toString();
                 cx.reval.getResponse().write(" [" + msg + "] ");
                 app.logError(msg, x);
+            } finally {
+                res.releaseStream();
             }
         }
 
@@ -0,0 +1,697 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A simple TCP channel that delivers records to a fixed set of peers, used to
+ * broadcast cache invalidations within a cluster. A record is an array of
+ * strings whose first element describes its kind.
+ *
+ * Each peer has its own queue and sender thread. Queued records are sent in
+ * batches, and each batch carries a sequence number that is acknowledged by
+ * the receiver after the batch has been handled, so batches from one sender
+ * are handled in order and exactly once. If the connection to a peer breaks,
+ * the sender reconnects and resends the unacknowledged batch along with
+ * everything queued in the meantime.
+ *
+ * If a peer's queue overflows, its content is replaced with a single reset
+ * record. Receivers also call {@link Handler#reset(String)} when a known
+ * sender reconnects with a new epoch, i.e. after it has been restarted, since
+ * records queued by the previous instance may have been lost.
+ */
+final class ClusterChannel {
+
+    /**
+     * Receives the records sent by peers.
+     */
+    interface Handler {
+        /**
+         * Handle a batch of records.
+         *
+         * @param sender the id of the sending channel
+         * @param records the records, each an array of strings
+         */
+        void received(String sender, List records);
+
+        /**
+         * Called when records from the given sender may have been lost.
+         *
+         * @param sender the id of the sending channel
+         */
+        void reset(String sender);
+    }
+
+    // the record that replaces the queue of a peer that overflowed
+    static final String[] RESET_RECORD = new String[] {"R"};
+
+    private static final int MAGIC = 0x484c4d43;
+    private static final int VERSION = 1;
+    private static final int MAX_BATCH = 1000;
+    private static final int MAX_FIELDS = 16;
+
+    private final String id;
+    private final String group;
+    private final String secret;
+    private final Handler handler;
+    private final Log log;
+    // identifies this instance of the channel to receivers
+    private final long epoch = System.currentTimeMillis();
+
+    private int batchDelay = 20;
+    private int maxPending = 10000;
+
+    private volatile boolean running = false;
+    private ServerSocket server;
+    private final ArrayList peers = new ArrayList();
+    private final ArrayList connections = new ArrayList();
+    // sender id -> SenderState
+    private final HashMap senders = new HashMap();
+
+    // statistics
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong sentRecords = new AtomicLong();
+    private final AtomicLong receivedBatches = new AtomicLong();
+    private final AtomicLong receivedRecords = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    /**
+     * Create a new channel.
+     *
+     * @param id the unique id of this channel within the cluster
+     * @param group the name of the cluster, peers with a different name are rejected
+     * @param secret a shared secret peers have to present, or null
+     * @param handler the handler for received records
+     */
+    ClusterChannel(String id, String group, String secret, Handler handler) {
+        this.id = id;
+        this.group = group;
+        this.secret = secret == null ? "" : secret;
+        this.handler = handler;
+        this.log = LogFactory.getLog("helma.objectmodel.db.ClusterChannel." + group);
+    }
+
+    /**
+     * Configure batching.
+     *
+     * @param batchDelay milliseconds to wait for more records before a batch is sent
+     * @param maxPending maximum number of records queued per peer
+     */
+    void configure(int batchDelay, int maxPending) {
+        this.batchDelay = Math.max(0, batchDelay);
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    /**
+     * Listen for connections from peers.
+     *
+     * @param address the address to bind to, or null for all addresses
+     * @param port the port, or 0 for any free port
+     * @return the port the channel is listening on
+     * @throws IOException if the server socket couldn't be opened
+     */
+    synchronized int listen(InetAddress address, int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(address, port));
+        return server.getLocalPort();
+    }
+
+    /**
+     * Add a peer to send records to.
+     *
+     * @param host the peer's host name
+     * @param port the peer's port
+     */
+    synchronized void addPeer(String host, int port) {
+        peers.add(new Peer(host, port));
+    }
+
+    /**
+     * Start the threads of this channel.
+     */
+    synchronized void start() {
+        running = true;
+        if (server != null) {
+            startThread(new Runnable() {
+                public void run() {
+                    accept();
+                }
+            }, "ClusterChannel-" + id + "-accept");
+        }
+        for (int i = 0; i < peers.size(); i++) {
+            Peer peer = (Peer) peers.get(i);
+            startThread(peer, "ClusterChannel-" + id + "-" + peer);
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue records for delivery to all peers.
+     *
+     * @param records the records, each an array of strings
+     */
+    void publish(List records) {
+        Object[] list;
+        synchronized (this) {
+            list = peers.toArray();
+        }
+        for (int i = 0; i < list.length; i++) {
+            ((Peer) list[i]).enqueue(records);
+        }
+    }
+
+    /**
+     * Stop this channel, waiting up to the given time for queued records to
+     * be delivered.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     */
+    void stop(long timeout) {
+        Object[] list;
+        synchronized (this) {
+            list = peers.toArray();
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < list.length; i++) {
+            ((Peer) list[i]).awaitDelivery(deadline);
+        }
+        running = false;
+        for (int i = 0; i < list.length; i++) {
+            ((Peer) list[i]).shutdown();
+        }
+        Object[] cons;
+        synchronized (this) {
+            cons = connections.toArray();
+            connections.clear();
+            closeQuietly(server);
+            server = null;
+        }
+        for (int i = 0; i < cons.length; i++) {
+            closeQuietly((Socket) cons[i]);
+        }
+    }
+
+    /**
+     * Get the statistics of this channel.
+     *
+     * @return a map with batch and record counts, and the state of each peer
+     */
+    Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("id", id);
+        stats.put("sentBatches", sentBatches.get());
+        stats.put("sentRecords", sentRecords.get());
+        stats.put("receivedBatches", receivedBatches.get());
+        stats.put("receivedRecords", receivedRecords.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("overflows", overflows.get());
+        stats.put("resets", resets.get());
+        stats.put("reconnects", reconnects.get());
+        Object[] list;
+        synchronized (this) {
+            list = peers.toArray();
+        }
+        Map<String,Object> peerStats = new HashMap<String,Object>();
+        for (int i = 0; i < list.length; i++) {
+            Peer peer = (Peer) list[i];
+            peerStats.put(peer.toString(), peer.getStatistics());
+        }
+        stats.put("peers", peerStats);
+        return stats;
+    }
+
+    /**
+     * Accept connections from peers until the channel is stopped.
+     */
+    private void accept() {
+        while (running) {
+            ServerSocket ss;
+            synchronized (this) {
+                ss = server;
+            }
+            if (ss == null) {
+                return;
+            }
+            try {
+                final Socket socket = ss.accept();
+                synchronized (this) {
+                    connections.add(socket);
+                }
+                startThread(new Runnable() {
+                    public void run() {
+                        receive(socket);
+                    }
+                }, "ClusterChannel-" + id + "-receive");
+            } catch (IOException x) {
+                if (running) {
+                    log.error("Error accepting cluster connection", x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle a connection from a peer.
+     */
+    private void receive(Socket socket) {
+        String sender = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid cluster handshake from " +
+                        socket.getInetAddress());
+            }
+            String peerGroup = in.readUTF();
+            String peerSecret = in.readUTF();
+            sender = in.readUTF();
+            long senderEpoch = in.readLong();
+            if (!group.equals(peerGroup) || !secret.equals(peerSecret)) {
+                out.writeBoolean(false);
+                out.flush();
+                throw new IOException("Rejected cluster connection from " + sender +
+                        " at " + socket.getInetAddress());
+            }
+
+            SenderState state = getSenderState(sender, senderEpoch);
+            synchronized (state) {
+                out.writeBoolean(true);
+                out.writeLong(state.lastSeq);
+                out.flush();
+            }
+
+            while (running) {
+                long seq = in.readLong();
+                int count = in.readInt();
+                if (count < 0 || count > MAX_BATCH) {
+                    throw new IOException("Invalid batch size " + count + " from " + sender);
+                }
+                List records = new ArrayList(count);
+                for (int i = 0; i < count; i++) {
+                    records.add(readRecord(in));
+                }
+                synchronized (state) {
+                    if (state.epoch != senderEpoch) {
+                        // the sender has reconnected with a new epoch
+                        throw new IOException("Stale connection from " + sender);
+                    }
+                    if (seq <= state.lastSeq) {
+                        duplicates.incrementAndGet();
+                    } else {
+                        if (state.lastSeq > 0 && seq != state.lastSeq + 1) {
+                            resets.incrementAndGet();
+                            handler.reset(sender);
+                        }
+                        receivedBatches.incrementAndGet();
+                        receivedRecords.addAndGet(count);
+                        try {
+                            handler.received(sender, records);
+                        } catch (RuntimeException x) {
+                            log.error("Error handling cluster records from " + sender, x);
+                        }
+                        state.lastSeq = seq;
+                    }
+                }
+                out.writeLong(seq);
+                out.flush();
+            }
+        } catch (IOException x) {
+            if (running) {
+                log.info("Cluster connection from " + (sender == null ? "unknown peer" : sender) +
+                        " closed: " + x);
+            }
+        } finally {
+            synchronized (this) {
+                connections.remove(socket);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Get the state of a sender, resetting it if the sender has a new epoch.
+     */
+    private SenderState getSenderState(String sender, long senderEpoch) {
+        SenderState state;
+        synchronized (senders) {
+            state = (SenderState) senders.get(sender);
+            if (state == null) {
+                state = new SenderState(senderEpoch);
+                senders.put(sender, state);
+                return state;
+            }
+        }
+        synchronized (state) {
+            if (state.epoch != senderEpoch) {
+                // the sender has been restarted and may have lost queued records
+                state.epoch = senderEpoch;
+                state.lastSeq = 0;
+                resets.incrementAndGet();
+                handler.reset(sender);
+            }
+        }
+        return state;
+    }
+
+    private static void writeRecord(DataOutputStream out, String[] record)
+            throws IOException {
+        out.writeByte(record.length);
+        for (int i = 0; i < record.length; i++) {
+            out.writeBoolean(record[i] != null);
+            if (record[i] != null) {
+                out.writeUTF(record[i]);
+            }
+        }
+    }
+
+    private static String[] readRecord(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0 || length > MAX_FIELDS) {
+            throw new IOException("Invalid record length " + length);
+        }
+        String[] record = new String[length];
+        for (int i = 0; i < length; i++) {
+            record[i] = in.readBoolean() ? in.readUTF() : null;
+        }
+        return record;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * The epoch and last handled sequence number of a sender.
+     */
+    static class SenderState {
+        long epoch;
+        long lastSeq = 0;
+
+        SenderState(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * A batch of records with its sequence number.
+     */
+    static class Batch {
+        final long seq;
+        final List records;
+
+        Batch(long seq, List records) {
+            this.seq = seq;
+            this.records = records;
+        }
+    }
+
+    /**
+     * A peer records are sent to, with its queue and sender thread.
+     */
+    final class Peer implements Runnable {
+        final String host;
+        final int port;
+
+        // queued records
+        private final LinkedList queue = new LinkedList();
+        // the batch that has been sent but not acknowledged yet
+        private Batch inFlight;
+        private long seq = 0;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private Thread thread;
+        private volatile boolean connected = false;
+
+        Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Add records to the queue, replacing the queue with a reset record
+         * if it overflows.
+         */
+        synchronized void enqueue(List records) {
+            if (queue.size() + records.size() > maxPending) {
+                overflows.incrementAndGet();
+                queue.clear();
+                queue.add(RESET_RECORD);
+            } else {
+                queue.addAll(records);
+            }
+            notifyAll();
+        }
+
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            long backoff = 500;
+            while (running) {
+                try {
+                    if (socket == null) {
+                        connect();
+                        backoff = 500;
+                    }
+                    Batch batch = inFlight == null ? nextBatch() : inFlight;
+                    if (batch == null) {
+                        continue;
+                    }
+                    send(batch);
+                    synchronized (this) {
+                        inFlight = null;
+                        notifyAll();
+                    }
+                } catch (IOException x) {
+                    boolean wasConnected = connected;
+                    close();
+                    if (!running) {
+                        break;
+                    }
+                    if (wasConnected) {
+                        log.warn("Lost cluster connection to " + this + ": " + x);
+                    } else if (log.isDebugEnabled()) {
+                        log.debug("Can't connect to cluster peer " + this + ": " + x);
+                    }
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ix) {
+                        // check running flag
+                    }
+                    backoff = Math.min(backoff * 2, 10000);
+                }
+            }
+            close();
+        }
+
+        /**
+         * Open the connection and do the handshake. A batch that was in flight
+         * when the previous connection broke is dropped if the receiver has
+         * already handled it.
+         */
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(host, port), 5000);
+                s.setTcpNoDelay(true);
+                s.setSoTimeout(30000);
+                DataInputStream din = new DataInputStream(
+                        new BufferedInputStream(s.getInputStream()));
+                DataOutputStream dout = new DataOutputStream(
+                        new BufferedOutputStream(s.getOutputStream()));
+                dout.writeInt(MAGIC);
+                dout.writeInt(VERSION);
+                dout.writeUTF(group);
+                dout.writeUTF(secret);
+                dout.writeUTF(id);
+                dout.writeLong(epoch);
+                dout.flush();
+                if (!din.readBoolean()) {
+                    throw new IOException("Connection rejected by " + this);
+                }
+                long lastSeq = din.readLong();
+                synchronized (this) {
+                    if (inFlight != null && inFlight.seq <= lastSeq) {
+                        inFlight = null;
+                        notifyAll();
+                    }
+                    socket = s;
+                    in = din;
+                    out = dout;
+                }
+            } catch (IOException x) {
+                closeQuietly(s);
+                throw x;
+            }
+            if (seq > 0) {
+                reconnects.incrementAndGet();
+            }
+            connected = true;
+            log.info("Connected to cluster peer " + this);
+        }
+
+        /**
+         * Wait for queued records and take up to MAX_BATCH of them, waiting
+         * for the batch delay to collect more records first. The batch is
+         * kept as in flight batch until it has been acknowledged.
+         */
+        private synchronized Batch nextBatch() {
+            try {
+                while (running && queue.isEmpty()) {
+                    wait(1000);
+                }
+                if (running && batchDelay > 0 && queue.size() < MAX_BATCH) {
+                    wait(batchDelay);
+                }
+            } catch (InterruptedException ix) {
+                return null;
+            }
+            if (queue.isEmpty()) {
+                return null;
+            }
+            // drop duplicate records within the batch
+            LinkedHashSet unique = new LinkedHashSet();
+            while (!queue.isEmpty() && unique.size() < MAX_BATCH) {
+                unique.add(Arrays.asList((String[]) queue.removeFirst()));
+            }
+            List records = new ArrayList(unique.size());
+            for (Iterator it = unique.iterator(); it.hasNext(); ) {
+                List record = (List) it.next();
+                records.add(record.toArray(new String[record.size()]));
+            }
+            seq += 1;
+            inFlight = new Batch(seq, records);
+            return inFlight;
+        }
+
+        /**
+         * Send a batch and wait for its acknowledgement.
+         */
+        private void send(Batch batch) throws IOException {
+            out.writeLong(batch.seq);
+            out.writeInt(batch.records.size());
+            for (int i = 0; i < batch.records.size(); i++) {
+                writeRecord(out, (String[]) batch.records.get(i));
+            }
+            out.flush();
+            long ack = in.readLong();
+            if (ack != batch.seq) {
+                throw new IOException("Unexpected acknowledgement " + ack +
+                        " for batch " + batch.seq);
+            }
+            sentBatches.incrementAndGet();
+            sentRecords.addAndGet(batch.records.size());
+        }
+
+        /**
+         * Wait until all queued records have been delivered or the deadline
+         * has passed.
+         */
+        synchronized void awaitDelivery(long deadline) {
+            while (!queue.isEmpty() || inFlight != null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException ix) {
+                    return;
+                }
+            }
+        }
+
+        synchronized void shutdown() {
+            notifyAll();
+            if (thread != null) {
+                thread.interrupt();
+            }
+            closeQuietly(socket);
+        }
+
+        private synchronized void close() {
+            connected = false;
+            closeQuietly(socket);
+            socket = null;
+            in = null;
+            out = null;
+        }
+
+        synchronized Map<String,Object> getStatistics() {
+            Map<String,Object> stats = new HashMap<String,Object>();
+            stats.put("connected", connected);
+            stats.put("pending", queue.size() + (inFlight == null ? 0 : inFlight.records.size()));
+            stats.put("lastBatch", seq);
+            return stats;
+        }
+
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A pool of JDBC connections for one {@link DbSource} or one of its read
+ * replicas. Connections are borrowed
+ * by transactors for the duration of a transaction and by non-transactor threads
+ * for the lifetime of the thread. The pool is configured through the following
+ * db.properties entries, all prefixed with the db source name:
+ *
+ * <ul>
+ * <li><code>pool.maxSize</code> - maximum number of connections, 0 for no limit (default)</li>
+ * <li><code>pool.minSize</code> - number of idle connections kept open regardless
+ *     of the idle timeout (default 0)</li>
+ * <li><code>pool.maxWait</code> - seconds to wait for a connection if maxSize is
+ *     reached (default 10)</li>
+ * <li><code>pool.idleTimeout</code> - seconds after which idle connections are
+ *     closed (default 600)</li>
+ * <li><code>pool.validationInterval</code> - seconds after which a connection is
+ *     validated again before it is handed out (default 60)</li>
+ * <li><code>pool.validationQuery</code> - statement executed to validate a connection
+ *     (default <code>SELECT 1 FROM DUAL</code> for Oracle, <code>SELECT 1</code>
+ *     otherwise)</li>
+ * <li><code>pool.leakThreshold</code> - seconds after which a borrowed connection
+ *     is reported as possibly leaked, 0 to disable (default 300)</li>
+ * <li><code>pool.statementCacheSize</code> - number of prepared statements cached
+ *     per connection, 0 to disable (default 50)</li>
+ * </ul>
+ */
+final class ConnectionPool {
+
+    private final DbSource source;
+    // the replica this pool connects to, null for the primary database
+    private final DbSource.Replica replica;
+    // the name used in log and error messages
+    private final String name;
+    private final Log log;
+
+    // idle connections, most recently used first
+    private final LinkedList idle = new LinkedList();
+    // borrowed connections mapped to their pool entries
+    private final HashMap borrowed = new HashMap();
+    // number of connections currently being opened
+    private int opening = 0;
+    // incremented when the db source is reconfigured
+    private int generation = 0;
+
+    private int maxSize = 0;
+    private int minSize = 0;
+    private long maxWait = 10000L;
+    private long idleTimeout = 600000L;
+    private long validationInterval = 60000L;
+    private String validationQuery = "SELECT 1";
+    private long leakThreshold = 300000L;
+    private long lastLeakCheck = 0L;
+    private int statementCacheSize = 50;
+
+    // statistics
+    private long created = 0;
+    private long closed = 0;
+    private long checkouts = 0;
+    private long waits = 0;
+    private long timeouts = 0;
+    private long validationFailures = 0;
+    private long leaks = 0;
+    private long statementHits = 0;
+    private long statementMisses = 0;
+
+    /**
+     * Create a connection pool for the given db source.
+     * @param source the db source
+     */
+    ConnectionPool(DbSource source) {
+        this(source, null);
+    }
+
+    /**
+     * Create a connection pool for a read replica of the given db source.
+     * @param source the db source
+     * @param replica the replica, or null for the primary database
+     */
+    ConnectionPool(DbSource source, DbSource.Replica replica) {
+        this.source = source;
+        this.replica = replica;
+        this.name = replica == null ? source.getName() :
+                source.getName() + ".replica." + replica.getIndex();
+        this.log = LogFactory.getLog("helma.objectmodel.db.ConnectionPool." + name);
+    }
+
+    /**
+     * Read the pool settings from the db source's sub-properties.
+     * @param props the db source properties without the db source name prefix
+     */
+    synchronized void configure(Properties props) {
+        maxSize = getInt(props, "pool.maxSize", 0);
+        minSize = getInt(props, "pool.minSize", 0);
+        maxWait = getInt(props, "pool.maxWait", 10) * 1000L;
+        idleTimeout = getInt(props, "pool.idleTimeout", 600) * 1000L;
+        validationInterval = getInt(props, "pool.validationInterval", 60) * 1000L;
+        validationQuery = props.getProperty("pool.validationQuery");
+        if (validationQuery == null || validationQuery.trim().length() == 0) {
+            validationQuery = source.isOracle() ? "SELECT 1 FROM DUAL" : "SELECT 1";
+        }
+        leakThreshold = getInt(props, "pool.leakThreshold", 300) * 1000L;
+        statementCacheSize = getInt(props, "pool.statementCacheSize", 50);
+    }
+
+    /**
+     * Get the logger of this pool.
+     */
+    Log getLog() {
+        return log;
+    }
+
+    private int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException x) {
+                log.error("Invalid value for " + source.getName() + "." + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new one if no idle connection
+     * is available and the pool hasn't reached its maximum size.
+     *
+     * @param longLived true if the connection is held for the lifetime of a thread,
+     *                  which excludes it from leak detection
+     * @return a validated connection
+     * @throws SQLException if no connection could be obtained
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     */
+    Connection getConnection(boolean longLived)
+            throws SQLException, ClassNotFoundException {
+        long deadline = System.currentTimeMillis() + maxWait;
+
+        while (true) {
+            Entry entry = null;
+            ArrayList expired = new ArrayList();
+
+            try {
+                synchronized (this) {
+                    getIdleOrReserve(deadline, expired);
+                    if (!idle.isEmpty()) {
+                        entry = (Entry) idle.removeFirst();
+                    }
+                }
+            } finally {
+                // close expired idle connections outside the lock, closing
+                // a dead network connection may block
+                for (int i = 0; i < expired.size(); i++) {
+                    close((Connection) expired.get(i));
+                }
+            }
+
+            if (entry == null) {
+                entry = openConnection();
+            } else if (!validate(entry)) {
+                continue;
+            }
+
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                entry.borrowedAt = now;
+                entry.owner = Thread.currentThread().getName();
+                entry.longLived = longLived;
+                entry.reported = false;
+                borrowed.put(entry.connection, entry);
+                checkouts += 1;
+                checkLeaks(now);
+            }
+            return entry.connection;
+        }
+    }
+
+    /**
+     * Wait until there is either an idle connection or room for opening a new
+     * one. In the latter case, a slot is reserved by incrementing the opening
+     * counter. Must be called while holding the lock on this object.
+     */
+    private void getIdleOrReserve(long deadline, ArrayList expired)
+            throws SQLException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            closeIdleConnections(now, expired);
+            if (!idle.isEmpty()) {
+                return;
+            }
+            if (maxSize <= 0 || borrowed.size() + opening < maxSize) {
+                opening += 1;
+                return;
+            }
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                timeouts += 1;
+                throw new SQLException("Timed out waiting for a connection to " +
+                        name + " (" + maxSize + " connections in use)");
+            }
+            waits += 1;
+            try {
+                wait(remaining);
+            } catch (InterruptedException ix) {
+                throw new SQLException("Interrupted while waiting for a connection to " +
+                        name);
+            }
+        }
+    }
+
+    /**
+     * Open a new physical connection. The caller must have reserved a slot
+     * by incrementing the opening counter.
+     */
+    private Entry openConnection() throws SQLException, ClassNotFoundException {
+        Connection con = null;
+        try {
+            con = replica == null ? source.openConnection() : replica.openConnection();
+        } finally {
+            synchronized (this) {
+                opening -= 1;
+                if (con == null) {
+                    // let others try to get the slot we reserved
+                    notifyAll();
+                } else {
+                    created += 1;
+                }
+            }
+        }
+        Entry entry = new Entry(con);
+        synchronized (this) {
+            entry.generation = generation;
+        }
+        entry.lastValidated = System.currentTimeMillis();
+        return entry;
+    }
+
+    /**
+     * Validate an idle connection if it wasn't validated recently, closing it if
+     * it is broken.
+     * @return true if the connection is usable
+     */
+    private boolean validate(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.lastValidated <= validationInterval) {
+            return true;
+        }
+        if (isValid(entry.connection)) {
+            entry.lastValidated = now;
+            return true;
+        }
+        synchronized (this) {
+            validationFailures += 1;
+        }
+        close(entry.connection);
+        return false;
+    }
+
+    /**
+     * Check if a connection is still usable by executing the validation query.
+     */
+    private boolean isValid(Connection con) {
+        String query;
+        synchronized (this) {
+            query = validationQuery;
+        }
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            Statement stmt = con.createStatement();
+            try {
+                stmt.execute(query);
+            } finally {
+                stmt.close();
+            }
+            return true;
+        } catch (SQLException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a connection held by a non-transactor thread is still
+     * usable, validating it if the validation interval has passed.
+     *
+     * @param con a connection borrowed from this pool
+     * @return true if the connection can still be used
+     */
+    boolean checkConnection(Connection con) {
+        Entry entry;
+        synchronized (this) {
+            entry = (Entry) borrowed.get(con);
+            if (entry == null || entry.generation != generation) {
+                return false;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.lastValidated <= validationInterval) {
+            return true;
+        }
+        if (isValid(con)) {
+            entry.lastValidated = now;
+            return true;
+        }
+        synchronized (this) {
+            validationFailures += 1;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the given connection is currently borrowed from this pool.
+     *
+     * @param con a connection
+     * @return true if the connection was borrowed from this pool
+     */
+    synchronized boolean isBorrowed(Connection con) {
+        return borrowed.containsKey(con);
+    }
+
+    /**
+     * Get a prepared statement for the given SQL from the statement cache of a
+     * borrowed connection, preparing and caching it if it isn't cached yet.
+     * Cached statements must not be closed by the caller, use
+     * {@link #releaseStatement(Connection, PreparedStatement)} instead.
+     *
+     * @param con a connection borrowed from this pool
+     * @param sql the SQL statement
+     * @return the prepared statement
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    PreparedStatement prepareStatement(Connection con, String sql)
+            throws SQLException {
+        Entry entry;
+        synchronized (this) {
+            entry = (Entry) borrowed.get(con);
+            if (entry == null || statementCacheSize <= 0) {
+                entry = null;
+            } else if (entry.statements != null && entry.statements.containsKey(sql)) {
+                statementHits += 1;
+            } else {
+                statementMisses += 1;
+            }
+        }
+        if (entry == null) {
+            return con.prepareStatement(sql);
+        }
+        // statement caches are only accessed by the thread holding the connection
+        if (entry.statements == null) {
+            entry.statements = new StatementCache(statementCacheSize);
+        }
+        PreparedStatement stmt = (PreparedStatement) entry.statements.get(sql);
+        if (stmt == null) {
+            stmt = con.prepareStatement(sql);
+            entry.statements.put(sql, stmt);
+        } else if (entry.statements.active.contains(stmt)) {
+            // the cached statement is still executing a nested query,
+            // use a separate statement that is closed on release
+            return con.prepareStatement(sql);
+        }
+        entry.statements.active.add(stmt);
+        return stmt;
+    }
+
+    /**
+     * Release a statement obtained through {@link #prepareStatement(Connection, String)}.
+     * Cached statements are cleared for reuse, statements that aren't cached are closed.
+     *
+     * @param con the connection the statement was prepared on
+     * @param stmt the statement
+     */
+    void releaseStatement(Connection con, PreparedStatement stmt) {
+        Entry entry;
+        synchronized (this) {
+            entry = (Entry) borrowed.get(con);
+        }
+        try {
+            if (entry != null && entry.statements != null &&
+                    entry.statements.active.remove(stmt)) {
+                stmt.clearParameters();
+            } else {
+                stmt.close();
+            }
+        } catch (SQLException x) {
+            // remove the statement so it isn't handed out again
+            if (entry != null && entry.statements != null) {
+                entry.statements.active.remove(stmt);
+                entry.statements.values().remove(stmt);
+            }
+            try {
+                stmt.close();
+            } catch (SQLException ignore) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Return a borrowed connection to the pool.
+     *
+     * @param con the connection
+     * @param revalidate true if the connection should be validated before
+     *                   it is handed out again, e.g. after an aborted transaction
+     */
+    void releaseConnection(Connection con, boolean revalidate) {
+        boolean usable;
+        try {
+            usable = !con.isClosed();
+        } catch (SQLException x) {
+            usable = false;
+        }
+        synchronized (this) {
+            Entry entry = (Entry) borrowed.remove(con);
+            if (entry != null && usable && entry.generation == generation) {
+                entry.owner = null;
+                entry.lastUsed = System.currentTimeMillis();
+                if (revalidate) {
+                    entry.lastValidated = 0L;
+                }
+                idle.addFirst(entry);
+                notifyAll();
+                return;
+            }
+            notifyAll();
+        }
+        close(con);
+    }
+
+    /**
+     * Close a borrowed connection and remove it from the pool.
+     * @param con the connection
+     */
+    void discardConnection(Connection con) {
+        synchronized (this) {
+            borrowed.remove(con);
+            notifyAll();
+        }
+        close(con);
+    }
+
+    /**
+     * Called when the db source has been reconfigured. Closes idle connections
+     * and makes sure borrowed ones are closed when they are returned.
+     */
+    void reset() {
+        Object[] entries;
+        synchronized (this) {
+            generation += 1;
+            entries = idle.toArray();
+            idle.clear();
+        }
+        for (int i = 0; i < entries.length; i++) {
+            close(((Entry) entries[i]).connection);
+        }
+    }
+
+    /**
+     * Remove connections that have been idle for longer than the idle timeout,
+     * keeping at least minSize idle connections. The removed connections are
+     * added to the expired list for the caller to close. Must be called while
+     * holding the lock on this object.
+     */
+    private void closeIdleConnections(long now, ArrayList expired) {
+        while (idle.size() > minSize) {
+            Entry last = (Entry) idle.getLast();
+            if (now - last.lastUsed <= idleTimeout) {
+                break;
+            }
+            idle.removeLast();
+            expired.add(last.connection);
+        }
+    }
+
+    /**
+     * Log borrowed connections that have been held longer than the leak threshold.
+     * Must be called while holding the lock on this object.
+     */
+    private void checkLeaks(long now) {
+        if (leakThreshold <= 0 || now - lastLeakCheck < 10000L) {
+            return;
+        }
+        lastLeakCheck = now;
+        for (Iterator it = borrowed.values().iterator(); it.hasNext(); ) {
+            Entry entry = (Entry) it.next();
+            if (!entry.longLived && !entry.reported &&
+                    now - entry.borrowedAt > leakThreshold) {
+                entry.reported = true;
+                leaks += 1;
+                log.warn("Connection to " + name + " held by thread " +
+                        entry.owner + " for " + ((now - entry.borrowedAt) / 1000) +
+                        " seconds, possible connection leak");
+            }
+        }
+    }
+
+    private void close(Connection con) {
+        synchronized (this) {
+            closed += 1;
+        }
+        try {
+            con.close();
+        } catch (Exception ignore) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Return a map with statistics about this pool.
+     */
+    synchronized Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("idle", idle.size());
+        stats.put("borrowed", borrowed.size());
+        stats.put("maxSize", maxSize);
+        stats.put("created", created);
+        stats.put("closed", closed);
+        stats.put("checkouts", checkouts);
+        stats.put("waits", waits);
+        stats.put("timeouts", timeouts);
+        stats.put("validationFailures", validationFailures);
+        stats.put("leaks", leaks);
+        stats.put("statementCacheSize", statementCacheSize);
+        stats.put("statementHits", statementHits);
+        stats.put("statementMisses", statementMisses);
+        return stats;
+    }
+
+    /**
+     * Close all idle connections. Borrowed connections are closed as they
+     * are returned.
+     */
+    void shutdown() {
+        reset();
+    }
+
+    /**
+     * A pooled connection along with its bookkeeping data.
+     */
+    static class Entry {
+        final Connection connection;
+        int generation;
+        long lastUsed;
+        long lastValidated;
+        long borrowedAt;
+        String owner;
+        boolean longLived;
+        boolean reported;
+        // prepared statements, created on first use
+        StatementCache statements;
+
+        Entry(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A LRU cache of prepared statements keyed by their SQL. Statements
+     * dropped from the cache are closed.
+     */
+    static class StatementCache extends LinkedHashMap {
+        private static final long serialVersionUID = 3290458817736412153L;
+
+        final int capacity;
+        // statements currently handed out
+        final HashSet active = new HashSet();
+
+        StatementCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            if (size() > capacity && !active.contains(eldest.getValue())) {
+                try {
+                    ((PreparedStatement) eldest.getValue()).close();
+                } catch (SQLException ignore) {
+                    // nothing to do
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
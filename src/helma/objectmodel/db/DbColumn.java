@@ -30,6 +30,7 @@ public final class DbColumn {
     private final boolean isId;
     private final boolean isPrototype;
     private final boolean isName;
+    private final boolean isVersion;
 
     /**
      * Constructor
@@ -46,6 +47,7 @@ public final class DbColumn {
         isId = name.equalsIgnoreCase(dbmap.getIDField());
         isPrototype = name.equalsIgnoreCase(dbmap.getPrototypeField());
         isName = name.equalsIgnoreCase(dbmap.getNameField());
+        isVersion = name.equalsIgnoreCase(dbmap.getVersionField());
     }
 
     /**
@@ -90,13 +92,20 @@ public final class DbColumn {
         return isName;
     }
 
+    /**
+     * Returns true if this column serves as row version field for the prototype.
+     */
+    public boolean isVersionField() {
+        return isVersion;
+    }
+
     /**
      * Returns true if this field is mapped by the prototype's db mapping.
      */
     public boolean isMapped() {
         // Note: not sure if check for primitive or reference relation is really
         // needed, but we did it before, so we leave it in for safety.
-        return isId || isPrototype || isName || 
+        return isId || isPrototype || isName || isVersion ||
                (relation != null && relation.isPrimitiveOrReference());
     }
 
@@ -52,6 +52,18 @@ public final class DbKey implements Key, Serializable {
         this.storageName = (dbmap == null) ? null : dbmap.getStorageTypeName();
     }
 
+    /**
+     * make a key for a persistent Object from an interned storage name and id.
+     * This is used to recreate keys for ids stored without their key.
+     */
+    DbKey(String storageName, String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("id null in DbKey");
+        }
+        this.id = id;
+        this.storageName = storageName;
+    }
+
     /**
      *
      *
@@ -20,8 +20,11 @@ import helma.framework.core.Application;
 import helma.framework.core.Prototype;
 import helma.util.ResourceProperties;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A DbMapping describes how a certain type of  Nodes is to mapped to a
@@ -72,6 +75,9 @@ public final class DbMapping {
     // list of columns to fetch from db
     private DbColumn[] columns = null;
 
+    // slot layout of node properties mapped to columns
+    private volatile PropertyMap.Layout propertyLayout = null;
+
     // Map of db columns by name
     private HashMap columnMap;
 
@@ -92,6 +98,9 @@ public final class DbMapping {
     // db field used to identify name of prototype to use for object instantiation
     private String protoField;
 
+    // db field holding the row version for optimistic concurrency control
+    private String versionField;
+
     // Used to map prototype ids to prototype names for
     // prototypes which extend the prototype represented by
     // this DbMapping.
@@ -106,16 +115,35 @@ public final class DbMapping {
     // descriptor for key generation method
     private String idgen;
 
+    // number of ids reserved at once for block id generation
+    private int idBlockSize;
+
     // remember last key generated for this table
     private long lastID;
 
+    // ids reserved for this table by block id generation
+    private final IDBlock idBlock = new IDBlock();
+
     // timestamp of last modification of the mapping (type.properties)
     // init value is -1 so we know we have to run update once even if
     // the underlying properties file is non-existent
     long lastTypeChange = -1;
 
-    // timestamp of last modification of an object of this type
-    long lastDataChange = 0;
+    // serial number of the last modification of an object of this type
+    private final AtomicLong lastDataChange = new AtomicLong();
+
+    // number of hashed counters for keyed data changes, must be a power of 2
+    static final int KEYED_CHANGE_SLOTS = 4096;
+
+    // serial number of data changes that aren't tracked by keyed column values
+    private final AtomicLong unkeyedDataChange = new AtomicLong();
+
+    // hashed counters of data changes by column value, for columns used as
+    // foreign keys by collections. Slot collisions only cause extra refetches.
+    private final AtomicLongArray keyedDataChanges = new AtomicLongArray(KEYED_CHANGE_SLOTS);
+
+    // upper case names of columns whose values are tracked in keyedDataChanges
+    private volatile String[] keyedColumns = new String[0];
 
     // Set of mappings that depend on us and should be forwarded last data change events
     HashSet dependentMappings = new HashSet();
@@ -220,12 +248,29 @@ public final class DbMapping {
     public synchronized void update() {
         // read in properties
         readBasicProperties();
-        idgen = props.getProperty("_idgen");
+        String newIdgen = props.getProperty("_idgen");
+        if (newIdgen == null ? idgen != null : !newIdgen.equals(idgen)) {
+            // don't hand out ids reserved with another method
+            synchronized (idBlock) {
+                idBlock.clear();
+            }
+        }
+        idgen = newIdgen;
+        idBlockSize = 0;
+        String blockSize = props.getProperty("_idgen.blocksize");
+        if (blockSize != null) {
+            try {
+                idBlockSize = Integer.parseInt(blockSize.trim());
+            } catch (NumberFormatException x) {
+                app.logError("Invalid _idgen.blocksize in " + typename + ": " + blockSize);
+            }
+        }
         // if id field is null, we assume "ID" as default. We don't set it
         // however, so that if null we check the parent prototype first.
         idField = props.getProperty("_id");
         nameField = props.getProperty("_name");
         protoField = props.getProperty("_prototype");
+        versionField = props.getProperty("_version");
 
         parentSetting = props.getProperty("_parent");
         if (parentSetting != null) {
@@ -299,6 +344,7 @@ public final class DbMapping {
 
         // null the cached columns and select string
         columns = null;
+        propertyLayout = null;
         columnMap.clear();
         selectString = insertString = updateString = null;
 
@@ -468,9 +514,26 @@ public final class DbMapping {
      * Get a JDBC connection for this DbMapping.
      */
     public Connection getConnection() throws ClassNotFoundException, SQLException {
+        return getCheckedDbSource().getConnection();
+    }
+
+    /**
+     * Get a JDBC connection for read-only queries for this DbMapping. This
+     * may be a connection to a read replica of the DbMapping's data source.
+     *
+     * @see DbSource#getReadConnection()
+     */
+    public Connection getReadConnection() throws ClassNotFoundException, SQLException {
+        return getCheckedDbSource().getReadConnection();
+    }
+
+    /**
+     * Get the DbSource for this DbMapping, throwing an exception if it isn't available.
+     */
+    private DbSource getCheckedDbSource() throws SQLException {
         if (dbSourceName == null) {
             if (parentMapping != null) {
-                return parentMapping.getConnection();
+                return parentMapping.getCheckedDbSource();
             } else {
                 throw new SQLException("Tried to get Connection from non-relational embedded data source.");
             }
@@ -489,7 +552,7 @@ public final class DbMapping {
             throw new SQLException("Datasource not defined or unable to load driver: " + dbSourceName + ".");
         }
 
-        return dbSource.getConnection();
+        return dbSource;
     }
 
     /**
@@ -591,6 +654,19 @@ public final class DbMapping {
         return protoField;
     }
 
+    /**
+     * Get the column holding the row version of objects of this type. If set,
+     * updates only succeed if the row still has the version the object was
+     * read with, and a ConcurrencyException is thrown otherwise.
+     */
+    public String getVersionField() {
+        if ((versionField == null) && (parentMapping != null)) {
+            return parentMapping.getVersionField();
+        }
+
+        return versionField;
+    }
+
     /**
      * Translate a database column name to an object property name according to this mapping.
      */
@@ -902,6 +978,34 @@ public final class DbMapping {
         return idgen;
     }
 
+    /**
+     * Get the number of ids to reserve at once for block id generation,
+     * as defined by the <code>_idgen.blocksize</code> property.
+     *
+     * @return the block size, or 0 if not defined
+     */
+    public int getIDBlockSize() {
+        if ((idgen == null) && (parentMapping != null)) {
+            return parentMapping.getIDBlockSize();
+        }
+
+        return idBlockSize;
+    }
+
+    /**
+     * Get the block of ids reserved for the table of this mapping. Mappings
+     * that inherit their storage share the block of their parent mapping.
+     *
+     * @return the id block
+     */
+    IDBlock getIDBlock() {
+        if (inheritsStorage()) {
+            return parentMapping.getIDBlock();
+        }
+
+        return idBlock;
+    }
+
     /**
      *
      *
@@ -968,11 +1072,23 @@ public final class DbMapping {
                 list.add(col);
             }
             columns = (DbColumn[]) list.toArray(new DbColumn[list.size()]);
+            propertyLayout = new PropertyMap.Layout(columns);
         }
 
         return columns;
     }
 
+    /**
+     * Get the slot layout for storing the column properties of nodes of this type.
+     * This doesn't query the database, so null is returned if the columns of the
+     * table haven't been loaded yet.
+     *
+     * @return the property layout, or null
+     */
+    PropertyMap.Layout getPropertyLayout() {
+        return propertyLayout;
+    }
+
     /**
      *  Return the array of relations that are fetched with objects of this type.
      */
@@ -1288,7 +1404,38 @@ public final class DbMapping {
         if (inheritsStorage()) {
             return parentMapping.getLastDataChange();
         } else {
-            return lastDataChange;
+            return lastDataChange.get();
+        }
+    }
+
+    /**
+     * Get a serial number of data changes that can't be attributed to values
+     * of keyed columns. Collections with keyed invalidation combine this
+     * with {@link #getKeyedDataChange(String, String)}.
+     *
+     * @return serial number of unkeyed data changes
+     */
+    public long getUnkeyedDataChange() {
+        if (inheritsStorage()) {
+            return parentMapping.getUnkeyedDataChange();
+        } else {
+            return unkeyedDataChange.get();
+        }
+    }
+
+    /**
+     * Get a serial number of data changes in rows that had the given value
+     * in the given keyed column.
+     *
+     * @param column the column name
+     * @param value the column value
+     * @return serial number of data changes for the column value
+     */
+    public long getKeyedDataChange(String column, String value) {
+        if (inheritsStorage()) {
+            return parentMapping.getKeyedDataChange(column, value);
+        } else {
+            return keyedDataChanges.get(keyedChangeSlot(column, value));
         }
     }
 
@@ -1301,14 +1448,39 @@ public final class DbMapping {
         if (inheritsStorage()) {
             parentMapping.setLastDataChange();
         } else {
-            lastDataChange += 1;
-            // propagate data change timestamp to mappings that depend on us
-            if (!dependentMappings.isEmpty()) {
-                Iterator it = dependentMappings.iterator();
-                while(it.hasNext()) {
-                    DbMapping dbmap = (DbMapping) it.next();
-                    dbmap.setIndirectDataChange();
-                }
+            lastDataChange.incrementAndGet();
+            unkeyedDataChange.incrementAndGet();
+            propagateDataChange();
+        }
+    }
+
+    /**
+     * Record a data change in a row that has the given value in the given
+     * keyed column. This only invalidates collections whose constraints
+     * refer to that value, plus collections that don't use keyed invalidation.
+     *
+     * @param column the keyed column name
+     * @param value the column value
+     */
+    public void setKeyedDataChange(String column, String value) {
+        if (inheritsStorage()) {
+            parentMapping.setKeyedDataChange(column, value);
+        } else {
+            lastDataChange.incrementAndGet();
+            keyedDataChanges.incrementAndGet(keyedChangeSlot(column, value));
+            propagateDataChange();
+        }
+    }
+
+    /**
+     * Propagate a data change to mappings that depend on us.
+     */
+    private void propagateDataChange() {
+        if (!dependentMappings.isEmpty()) {
+            Iterator it = dependentMappings.iterator();
+            while(it.hasNext()) {
+                DbMapping dbmap = (DbMapping) it.next();
+                dbmap.setIndirectDataChange();
             }
         }
     }
@@ -1323,8 +1495,113 @@ public final class DbMapping {
         if (inheritsStorage()) {
             parentMapping.setIndirectDataChange();
         } else {
-            lastDataChange += 1;
+            lastDataChange.incrementAndGet();
+            unkeyedDataChange.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register a column as being used as foreign key by a collection, so
+     * changes are tracked by the column's values.
+     *
+     * @param column the column name
+     */
+    void addKeyedColumn(String column) {
+        if (inheritsStorage()) {
+            parentMapping.addKeyedColumn(column);
+            return;
+        }
+        column = column.toUpperCase();
+        synchronized (keyedDataChanges) {
+            String[] columns = keyedColumns;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(column)) {
+                    return;
+                }
+            }
+            String[] newColumns = new String[columns.length + 1];
+            System.arraycopy(columns, 0, newColumns, 0, columns.length);
+            newColumns[columns.length] = column;
+            keyedColumns = newColumns;
+        }
+    }
+
+    /**
+     * Collect the values of keyed columns of a node that is about to be
+     * written to the database. The values are added to the list as
+     * column/value string pairs.
+     *
+     * @param node the node
+     * @param isUpdate true if the node is updated or deleted rather than inserted
+     * @param values the list to add column/value pairs to
+     * @return false if the change can't be attributed to keyed values, either
+     *         because no columns are keyed, a value can't be determined or a
+     *         keyed value of an updated or deleted node has changed
+     */
+    boolean collectKeyedValues(Node node, boolean isUpdate, List values) {
+        if (!isRelational()) {
+            return false;
+        }
+        DbMapping root = this;
+        while (root.inheritsStorage()) {
+            root = root.parentMapping;
+        }
+        String[] columns = root.keyedColumns;
+        if (columns.length == 0) {
+            return false;
+        }
+        int size = values.size();
+        for (int i = 0; i < columns.length; i++) {
+            String value;
+            if (columns[i].equalsIgnoreCase(getIDField())) {
+                value = node.getID();
+            } else {
+                String propName = columnNameToProperty(columns[i]);
+                if (propName == null) {
+                    truncate(values, size);
+                    return false;
+                }
+                Property prop = node.getProperty(propName);
+                if (prop != null && prop.dirty && isUpdate) {
+                    // we don't know the old value
+                    truncate(values, size);
+                    return false;
+                }
+                value = prop == null ? null : prop.getStringValue();
+            }
+            values.add(columns[i]);
+            values.add(value);
+        }
+        return true;
+    }
+
+    private static void truncate(List list, int size) {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
+        }
+    }
+
+    /**
+     * Get the slot of the keyed change counters for a column value. Numeric
+     * values are normalized so that e.g. 5 and 5.0 use the same slot.
+     */
+    private static int keyedChangeSlot(String column, String value) {
+        if (value != null && value.length() > 0) {
+            char c = value.charAt(0);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                try {
+                    BigDecimal number = new BigDecimal(value.trim());
+                    value = number.signum() == 0 ?
+                            "0" : number.stripTrailingZeros().toPlainString();
+                } catch (NumberFormatException notANumber) {
+                    // use value as is
+                }
+            }
         }
+        int h = column.toUpperCase().hashCode() * 31 + (value == null ? 0 : value.hashCode());
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & (KEYED_CHANGE_SLOTS - 1);
     }
 
     /**
@@ -1522,8 +1799,25 @@ public final class DbMapping {
      */
     protected void appendCondition(StringBuffer q, String column, String[] values)
             throws SQLException, ClassNotFoundException {
+        appendCondition(q, column, values, null);
+    }
+
+    /**
+     * Append a sql-condition for the given column which must have
+     * one of the values contained inside the given Set to the given
+     * StringBuffer. If params is not null, the values are rendered as
+     * <code>?</code> placeholders and added to params.
+     * @param q the StringBuffer to append to
+     * @param column the column which must match one of the values
+     * @param values the list of values
+     * @param params the bind values of the query, or null to render literal values
+     * @throws SQLException
+     */
+    protected void appendCondition(StringBuffer q, String column, String[] values,
+                                   QueryParameters params)
+            throws SQLException, ClassNotFoundException {
         if (values.length == 1) {
-            appendCondition(q, column, values[0]);
+            appendCondition(q, column, values[0], params);
             return;
         }
         if (column.indexOf('(') == -1 && column.indexOf('.') == -1) {
@@ -1531,7 +1825,23 @@ public final class DbMapping {
         }
         q.append(column).append(" in (");
 
-        if (needsQuotes(column)) {
+        if (params != null) {
+            boolean quotes = needsQuotes(column);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    q.append(", ");
+                if (values[i] == null) {
+                    q.append(quotes ? "'null'" : "null");
+                } else {
+                    q.append("?");
+                    if (quotes) {
+                        params.addString(values[i]);
+                    } else {
+                        params.addNumber(values[i]);
+                    }
+                }
+            }
+        } else if (needsQuotes(column)) {
             for (int i = 0; i < values.length; i++) {
                 if (i > 0)
                     q.append(", ");
@@ -1557,12 +1867,52 @@ public final class DbMapping {
      */
     protected void appendCondition(StringBuffer q, String column, String val)
             throws SQLException, ClassNotFoundException {
+        appendCondition(q, column, val, null);
+    }
+
+    /**
+     * Append a sql-condition for the given column which must have
+     * the value given to the given StringBuffer. If params is not null
+     * and the value is not null, the value is rendered as <code>?</code>
+     * placeholder and added to params.
+     * @param q the StringBuffer to append to
+     * @param column the column which must match one of the values
+     * @param val the value
+     * @param params the bind values of the query, or null to render a literal value
+     * @throws SQLException
+     */
+    protected void appendCondition(StringBuffer q, String column, String val,
+                                   QueryParameters params)
+            throws SQLException, ClassNotFoundException {
+        appendCondition(q, column, " = ", val, params);
+    }
+
+    /**
+     * Append a sql-condition comparing the given column with the given value
+     * using the given comparison operator, e.g. <code>" > "</code>.
+     * @param q the StringBuffer to append to
+     * @param column the column to compare
+     * @param operator the comparison operator, including surrounding whitespace
+     * @param val the value
+     * @param params the bind values of the query, or null to render a literal value
+     * @throws SQLException
+     */
+    protected void appendCondition(StringBuffer q, String column, String operator,
+                                   String val, QueryParameters params)
+            throws SQLException, ClassNotFoundException {
         if (column.indexOf('(') == -1 && column.indexOf('.') == -1) {
             q.append(getTableName()).append(".");
         }
-        q.append(column).append(" = ");
+        q.append(column).append(operator);
         
-        if (needsQuotes(column)) {
+        if (params != null && val != null) {
+            q.append("?");
+            if (needsQuotes(column)) {
+                params.addString(val);
+            } else {
+                params.addNumber(val);
+            }
+        } else if (needsQuotes(column)) {
             q.append("'").append(escapeString(val)).append("'");
         } else {
             q.append(checkNumber(val));
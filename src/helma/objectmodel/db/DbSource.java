@@ -20,14 +20,31 @@ import helma.util.ResourceProperties;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  This class describes a releational data source (URL, driver, user and password).
+ *
+ *  A db source may declare read replicas in db.properties using numbered
+ *  <code>replica.&lt;n&gt;.url</code> entries, starting with 1, each with optional
+ *  <code>replica.&lt;n&gt;.user</code> and <code>replica.&lt;n&gt;.password</code>
+ *  entries that default to the primary's credentials. Reads obtained through
+ *  {@link #getReadConnection()} are spread over the available replicas in round
+ *  robin order. A replica that can't provide a connection is skipped for
+ *  <code>replica.retryInterval</code> seconds (default 30).
  */
 public class DbSource {
     private static ResourceProperties defaultProps = null;
@@ -37,12 +54,29 @@ public class DbSource {
     protected String url;
     private String driver;
     private boolean isOracle, isMySQL, isPostgreSQL, isH2;
+    private boolean preparedStatements;
+    // fetch settings for collection queries
+    private int fetchSize;
+    private boolean streaming, cursorFetch;
+    // connections auto-commit was turned off for by a streaming select
+    private final Set fetchConnections = Collections.synchronizedSet(new HashSet());
     private long lastRead = 0L;
     private Hashtable dbmappings = new Hashtable();
     // compute hashcode statically because it's expensive and we need it often
     private int hashcode;
     // thread local connection holder for non-transactor threads
-    private ThreadLocal connection;
+    private final ThreadLocal connection = new ThreadLocal();
+    // the pool of connections to this db source
+    private final ConnectionPool pool;
+    // the read replicas of this db source
+    private volatile Replica[] replicas = new Replica[0];
+    // milliseconds a failed replica is skipped before it is tried again,
+    // configured in seconds by replica.retryInterval
+    private volatile long replicaRetryInterval = 30000L;
+    // fetch size used for streaming selects if none is configured
+    static final int DEFAULT_STREAMING_FETCH_SIZE = 500;
+    // used to pick replicas in round robin order
+    private final AtomicInteger nextReplica = new AtomicInteger();
 
     /**
      * Creates a new DbSource object.
@@ -55,73 +89,283 @@ public class DbSource {
              throws ClassNotFoundException {
         this.name = name;
         this.props = props;
+        this.pool = new ConnectionPool(this);
         init();
     }
 
     /**
-     * Get a JDBC connection to the db source.
+     * Get a JDBC connection to the db source. Threads running a transactor
+     * borrow a connection from the pool for the duration of the transaction,
+     * other threads keep one for as long as they live.
      *
      * @return a JDBC connection
      *
      * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
      * @throws SQLException if the connection couldn't be created
      */
-    public synchronized Connection getConnection()
+    public Connection getConnection()
             throws ClassNotFoundException, SQLException {
-        Connection con;
+        checkPropertiesUpdated();
+
         Transactor tx = Transactor.getInstance();
-        if (tx != null) {
-            con = tx.getConnection(this);
-        } else {
-            con = getThreadLocalConnection();
+        if (tx == null) {
+            return getThreadLocalConnection();
         }
 
-        boolean fileUpdated = props.lastModified() > lastRead ||
-                (defaultProps != null && defaultProps.lastModified() > lastRead);
-
-        if (con == null || con.isClosed() || fileUpdated) {
-            init();
-            con = DriverManager.getConnection(url, conProps);
+        Connection con = tx.getConnection(this);
+        if (con == null || con.isClosed()) {
+            con = pool.getConnection(false);
 
             // If we wanted to use SQL transactions, we'd set autoCommit to
             // false here and make commit/rollback invocations in Transactor methods;
-            // System.err.println ("Created new Connection to "+url);
-            if (tx != null) {
-                tx.registerConnection(this, con);
-            } else {
-                connection.set(con);
-            }
+            tx.registerConnection(this, con);
         }
 
         return con;
     }
 
     /**
-     * Used for connections not managed by a Helma transactor
-     * @return a thread local tested connection, or null
+     * Get a JDBC connection for read-only queries. If this db source has read
+     * replicas, the connection is borrowed from one of them, unless the current
+     * transactor has modified objects or written to this db source before, in
+     * which case reads have to see the transactor's own changes and go to the
+     * primary database. Threads not running a transactor always use the primary.
+     *
+     * @return a JDBC connection to either a replica or the primary database
+     *
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     * @throws SQLException if the connection couldn't be created
+     */
+    public Connection getReadConnection()
+            throws ClassNotFoundException, SQLException {
+        checkPropertiesUpdated();
+
+        Replica[] reps = replicas;
+        Transactor tx = Transactor.getInstance();
+        if (reps.length == 0 || tx == null || tx.readsFromPrimary(this)) {
+            return getConnection();
+        }
+
+        Connection con = tx.getReplicaConnection(this);
+        if (con != null && !con.isClosed()) {
+            return con;
+        }
+
+        con = borrowReplicaConnection(reps);
+        if (con == null) {
+            // no replica available, fall back to the primary database
+            return getConnection();
+        }
+        tx.registerReplicaConnection(this, con);
+        return con;
+    }
+
+    /**
+     * Borrow a connection from the next available replica.
+     *
+     * @return a connection, or null if no replica is available
+     */
+    private Connection borrowReplicaConnection(Replica[] reps) {
+        long now = System.currentTimeMillis();
+        int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % reps.length;
+        for (int i = 0; i < reps.length; i++) {
+            Replica replica = reps[(start + i) % reps.length];
+            if (replica.downUntil > now) {
+                continue;
+            }
+            try {
+                return replica.pool.getConnection(false);
+            } catch (Exception x) {
+                replica.markDown(now, x);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the pool the given connection was borrowed from.
      */
-    private Connection getThreadLocalConnection() {
-        if (connection == null) {
-            connection = new ThreadLocal();
-            return null;
+    private ConnectionPool getPool(Connection con) {
+        Replica[] reps = replicas;
+        for (int i = 0; i < reps.length; i++) {
+            if (reps[i].pool.isBorrowed(con)) {
+                return reps[i].pool;
+            }
         }
+        return pool;
+    }
+
+    /**
+     * Used for connections not managed by a Helma transactor
+     * @return a thread local tested connection
+     */
+    private Connection getThreadLocalConnection()
+            throws ClassNotFoundException, SQLException {
         Connection con = (Connection) connection.get();
         if (con != null) {
             // test if connection is still ok
-            try {
-                Statement stmt = con.createStatement();
-                stmt.execute("SELECT 1");
-                stmt.close();
-            } catch (SQLException sx) {
-                try {
-                    con.close();
-                } catch (SQLException ignore) {/* nothing to do */}
-                return null;
+            if (pool.checkConnection(con)) {
+                return con;
             }
+            pool.discardConnection(con);
         }
+        con = pool.getConnection(true);
+        connection.set(con);
         return con;
     }
 
+    /**
+     * Open a new physical connection to the database. This is called
+     * by the connection pool.
+     *
+     * @return a new JDBC connection
+     * @throws SQLException if the connection couldn't be created
+     */
+    Connection openConnection() throws SQLException {
+        String conUrl;
+        Properties conProperties;
+        synchronized (this) {
+            conUrl = url;
+            conProperties = conProps;
+        }
+        return DriverManager.getConnection(conUrl, conProperties);
+    }
+
+    /**
+     * Return a connection borrowed by a transactor to the pool.
+     *
+     * @param con the connection
+     * @param revalidate true if the connection should be validated before it is reused
+     */
+    void releaseConnection(Connection con, boolean revalidate) {
+        pool.releaseConnection(con, revalidate);
+    }
+
+    /**
+     * Close a connection borrowed by a transactor and remove it from the pool.
+     *
+     * @param con the connection
+     */
+    void discardConnection(Connection con) {
+        pool.discardConnection(con);
+    }
+
+    /**
+     * Return a replica connection borrowed by a transactor to its pool.
+     * The connection is closed if its replica has been removed in the meantime.
+     *
+     * @param con the connection
+     * @param revalidate true if the connection should be validated before it is reused
+     */
+    void releaseReplicaConnection(Connection con, boolean revalidate) {
+        ConnectionPool replicaPool = getPool(con);
+        if (replicaPool != pool) {
+            replicaPool.releaseConnection(con, revalidate);
+        } else {
+            closeQuietly(con);
+        }
+    }
+
+    /**
+     * Close a replica connection borrowed by a transactor and remove it from its pool.
+     *
+     * @param con the connection
+     */
+    void discardReplicaConnection(Connection con) {
+        ConnectionPool replicaPool = getPool(con);
+        if (replicaPool != pool) {
+            replicaPool.discardConnection(con);
+        } else {
+            closeQuietly(con);
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (Exception ignore) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Get a prepared statement for the given SQL on a connection obtained
+     * from this db source. Statements are cached per pooled connection and
+     * must be released using {@link #releaseStatement(Connection, PreparedStatement)}
+     * rather than closed.
+     *
+     * @param con a connection obtained through {@link #getConnection()}
+     * @param sql the SQL statement
+     * @return the prepared statement
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql)
+            throws SQLException {
+        return getPool(con).prepareStatement(con, sql);
+    }
+
+    /**
+     * Release a statement obtained through {@link #prepareStatement(Connection, String)}.
+     *
+     * @param con the connection the statement was prepared on
+     * @param stmt the statement
+     */
+    public void releaseStatement(Connection con, PreparedStatement stmt) {
+        getPool(con).releaseStatement(con, stmt);
+    }
+
+    /**
+     * Re-initialize the db source and discard pooled connections if
+     * db.properties has been modified.
+     */
+    private synchronized void checkPropertiesUpdated() throws ClassNotFoundException {
+        boolean fileUpdated = props.lastModified() > lastRead ||
+                (defaultProps != null && defaultProps.lastModified() > lastRead);
+
+        if (fileUpdated) {
+            init();
+            pool.reset();
+        }
+    }
+
+    /**
+     * Return a map with statistics about this db source's connection pool.
+     *
+     * @return the connection pool statistics
+     */
+    public Map getPoolStatistics() {
+        Map<String,Object> stats = pool.getStatistics();
+        Replica[] reps = replicas;
+        if (reps.length > 0) {
+            List replicaStats = new ArrayList();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < reps.length; i++) {
+                Map<String,Object> map = new HashMap<String,Object>();
+                map.put("url", reps[i].url);
+                map.put("available", reps[i].downUntil <= now);
+                map.put("failures", reps[i].failures.get());
+                map.put("pool", reps[i].pool.getStatistics());
+                replicaStats.add(map);
+            }
+            stats.put("replicas", replicaStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Close the idle connections in this db source's connection pools.
+     */
+    public void shutdown() {
+        pool.shutdown();
+        shutdownReplicas(replicas);
+    }
+
+    private static void shutdownReplicas(Replica[] reps) {
+        for (int i = 0; i < reps.length; i++) {
+            reps[i].pool.shutdown();
+        }
+    }
+
     /**
      * Set the db properties to newProps, and return the old properties.
      * @param newProps the new properties to use for this db source
@@ -133,6 +377,7 @@ public class DbSource {
         ResourceProperties oldProps = props;
         props = newProps;
         init();
+        pool.reset();
         return oldProps;
     }
 
@@ -165,9 +410,31 @@ public class DbSource {
                   driver.startsWith("org.gjt.mm.mysql");
         isPostgreSQL = driver.equals("org.postgresql.Driver");
         isH2 = driver.equals("org.h2.Driver");
+        // check if relational selects should use prepared statements with bind values
+        preparedStatements = "true".equalsIgnoreCase(subProps.getProperty("preparedStatements"));
+        // fetch size and streaming cursors for collection queries
+        try {
+            String size = subProps.getProperty("fetchSize");
+            fetchSize = size == null ? 0 : Integer.parseInt(size.trim());
+        } catch (NumberFormatException x) {
+            fetchSize = 0;
+        }
+        streaming = "true".equalsIgnoreCase(subProps.getProperty("streaming"));
+        // MySQL only uses server side cursors for positive fetch sizes with useCursorFetch
+        cursorFetch = url.indexOf("useCursorFetch=true") > -1 ||
+                      "true".equalsIgnoreCase(subProps.getProperty("useCursorFetch"));
         // test if driver class is available
         Class.forName(driver);
 
+        // set up connection pool
+        pool.configure(subProps);
+
+        if (streaming && isMySQL && !cursorFetch) {
+            pool.getLog().warn("Streaming is enabled for " + name + " without " +
+                    "useCursorFetch=true, rows are streamed one by one and the " +
+                    "connection can't run other statements while a result is read");
+        }
+
         // set up driver connection properties
         conProps=new Properties();
         String prop = subProps.getProperty("user");
@@ -187,11 +454,44 @@ public class DbSource {
             if ("url".equalsIgnoreCase(key) ||
                 "driver".equalsIgnoreCase(key) ||
                 "user".equalsIgnoreCase(key) ||
-                "password".equalsIgnoreCase(key)) {
+                "password".equalsIgnoreCase(key) ||
+                "preparedStatements".equalsIgnoreCase(key) ||
+                "fetchSize".equalsIgnoreCase(key) ||
+                "streaming".equalsIgnoreCase(key) ||
+                key.toLowerCase().startsWith("pool.") ||
+                key.toLowerCase().startsWith("replica.")) {
                 continue;
             }
             conProps.setProperty(key, subProps.getProperty(key));
         }
+
+        // set up read replicas, closing the pools of the previous ones
+        String retry = subProps.getProperty("replica.retryInterval");
+        try {
+            replicaRetryInterval = retry == null ? 30000L : Long.parseLong(retry.trim()) * 1000L;
+        } catch (NumberFormatException x) {
+            replicaRetryInterval = 30000L;
+        }
+        ArrayList list = new ArrayList();
+        for (int i = 1; subProps.getProperty("replica." + i + ".url") != null; i++) {
+            Properties replicaProps = new Properties();
+            replicaProps.putAll(conProps);
+            String prefix = "replica." + i + ".";
+            prop = subProps.getProperty(prefix + "user");
+            if (prop != null) {
+                replicaProps.put("user", prop);
+            }
+            prop = subProps.getProperty(prefix + "password");
+            if (prop != null) {
+                replicaProps.put("password", prop);
+            }
+            Replica replica = new Replica(i, subProps.getProperty(prefix + "url"), replicaProps);
+            replica.pool.configure(subProps);
+            list.add(replica);
+        }
+        Replica[] oldReplicas = replicas;
+        replicas = (Replica[]) list.toArray(new Replica[list.size()]);
+        shutdownReplicas(oldReplicas);
     }
 
     /**
@@ -257,6 +557,75 @@ public class DbSource {
         return isH2;
     }
 
+    /**
+     * Check if relational selects on this DbSource should be executed as
+     * prepared statements with bind values. This is enabled by setting
+     * <code>preparedStatements</code> to true in db.properties.
+     *
+     * @return true if prepared statements should be used
+     */
+    public boolean usePreparedStatements() {
+        return preparedStatements;
+    }
+
+    /**
+     * Configure a select statement loading a collection or a batch of nodes
+     * to fetch its rows in chunks of the configured fetch size. The fetch size
+     * and streaming flag are set with <code>fetchSize</code> and
+     * <code>streaming</code> in db.properties and can be overridden with the
+     * <code>fetchsize</code> and <code>streaming</code> options of a relation.
+     *
+     * With streaming enabled, rows are read through a cursor instead of being
+     * buffered completely by the driver before the first row is returned.
+     * PostgreSQL only uses cursors within a transaction, so auto-commit is
+     * turned off until {@link #releaseFetch(Connection)} is called. MySQL
+     * uses cursors if <code>useCursorFetch=true</code> is set, otherwise rows
+     * are streamed one by one and the connection can't run other statements
+     * until the result set is closed.
+     *
+     * @param con the connection the statement belongs to
+     * @param stmt the statement
+     * @param rel the relation being loaded, or null to use the db source settings
+     * @throws SQLException if a setting is rejected by the driver
+     */
+    void configureFetch(Connection con, Statement stmt, Relation rel)
+            throws SQLException {
+        int size = rel != null && rel.fetchSize > 0 ? rel.fetchSize : fetchSize;
+        boolean stream = rel != null && rel.streaming != null ?
+                rel.streaming.booleanValue() : streaming;
+
+        if (stream) {
+            if (size <= 0) {
+                size = DEFAULT_STREAMING_FETCH_SIZE;
+            }
+            if (isMySQL && !cursorFetch) {
+                stmt.setFetchSize(Integer.MIN_VALUE);
+                return;
+            }
+            if (isPostgreSQL && con.getAutoCommit()) {
+                con.setAutoCommit(false);
+                fetchConnections.add(con);
+            }
+        }
+        stmt.setFetchSize(Math.max(0, size));
+    }
+
+    /**
+     * Restore auto-commit on a connection after a streaming select
+     * configured by {@link #configureFetch(Connection, Statement, Relation)}
+     * has been closed. Connections whose auto-commit mode wasn't changed
+     * by configureFetch(), e.g. those in a transaction of the Transactor,
+     * are left alone.
+     *
+     * @param con the connection
+     * @throws SQLException if auto-commit couldn't be restored
+     */
+    void releaseFetch(Connection con) throws SQLException {
+        if (fetchConnections.remove(con) && !con.getAutoCommit()) {
+            con.setAutoCommit(true);
+        }
+    }
+
     /**
      * Register a dbmapping by its table name.
      *
@@ -278,6 +647,15 @@ public class DbSource {
         return (DbMapping) dbmappings.get(tablename.toUpperCase());
     }
 
+    /**
+     * Get the number of read replicas of this db source.
+     *
+     * @return the number of replicas
+     */
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
     /**
      * Returns a hash code value for the object.
      */
@@ -291,4 +669,47 @@ public class DbSource {
     public boolean equals(Object obj) {
         return obj instanceof DbSource && subProps.equals(((DbSource) obj).subProps);
     }
+
+    /**
+     * A read replica of this db source with its own connection pool.
+     */
+    final class Replica {
+        final int index;
+        final String url;
+        final Properties props;
+        final ConnectionPool pool;
+        // the time until which this replica is skipped after a failure
+        volatile long downUntil = 0L;
+        final AtomicInteger failures = new AtomicInteger();
+
+        Replica(int index, String url, Properties props) {
+            this.index = index;
+            this.url = url;
+            this.props = props;
+            this.pool = new ConnectionPool(DbSource.this, this);
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        /**
+         * Open a new physical connection to this replica. This is called
+         * by the replica's connection pool.
+         */
+        Connection openConnection() throws SQLException {
+            return DriverManager.getConnection(url, props);
+        }
+
+        /**
+         * Skip this replica for the retry interval after it failed to
+         * provide a connection.
+         */
+        void markDown(long now, Exception x) {
+            failures.incrementAndGet();
+            downUntil = now + replicaRetryInterval;
+            pool.getLog().warn("Replica " + url + " of " + name + " is unavailable, " +
+                    "retrying in " + (replicaRetryInterval / 1000) + " seconds: " + x);
+        }
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+/**
+ * A range of IDs reserved in the database for one table. IDs are handed
+ * out from memory until the range is used up, at which point the node
+ * manager reserves a new range. Callers must synchronize on the block
+ * while taking IDs and reserving new ranges.
+ */
+final class IDBlock {
+
+    // next id to hand out
+    private long next = 0;
+    // first id beyond the reserved range
+    private long limit = 0;
+
+    /**
+     * Take the next ID from this block.
+     *
+     * @return the next ID, or -1 if the block is used up
+     */
+    long next() {
+        return next < limit ? next++ : -1;
+    }
+
+    /**
+     * Set a newly reserved range of IDs.
+     *
+     * @param start the first ID of the range
+     * @param limit the first ID beyond the range
+     */
+    void reserve(long start, long limit) {
+        this.next = start;
+        this.limit = limit;
+    }
+
+    /**
+     * Discard the remaining IDs, e.g. after the id generator setting has changed.
+     */
+    void clear() {
+        next = limit = 0;
+    }
+}
@@ -40,7 +40,7 @@ public final class Node implements INode {
     private SubnodeList subnodes;
 
     // Named subnodes (properties) of this node
-    private Hashtable propMap;
+    private PropertyMap propMap;
 
     protected long created;
     protected long lastmodified;
@@ -62,6 +62,10 @@ public final class Node implements INode {
     String subnodeRelation = null;
     long lastNameCheck = 0;
     long lastParentSet = 0;
+    // row version of relational nodes with a version column, -1 if the column is null
+    long rowVersion = 0;
+    // set on nodes loaded by the cache warm-up until onInit() has been invoked
+    volatile boolean needsInit = false;
     private volatile Transactor lock;
     private volatile int state;
     private static long idgen = 0;
@@ -168,7 +172,7 @@ public final class Node implements INode {
      * Initializer used for nodes being instanced from an embedded or relational database.
      */
     public synchronized void init(DbMapping dbm, String id, String name,
-                                  String prototype, Hashtable propMap) {
+                                  String prototype, PropertyMap propMap) {
         this.dbmap = dbm;
         this.prototype = prototype;
         this.id = id;
@@ -192,7 +196,7 @@ public final class Node implements INode {
      * used by Xml deserialization
      */
     public synchronized void setPropMap(Hashtable propMap) {
-        this.propMap = propMap;
+        this.propMap = propMap == null ? null : new PropertyMap(propMap);
     }
 
     /**
@@ -1443,8 +1447,13 @@ public final class Node implements INode {
      */
     public SubnodeList createSubnodeList() {
         Relation subrel = dbmap == null ? null : dbmap.getSubnodeRelation();
-        subnodes = subrel == null || !subrel.lazyLoading ?
-                new SubnodeList(this) : new SegmentedSubnodeList(this);
+        if (subrel != null && subrel.compactLoading) {
+            subnodes = new CompactSubnodeList(this);
+        } else if (subrel != null && subrel.lazyLoading) {
+            subnodes = new SegmentedSubnodeList(this);
+        } else {
+            subnodes = new SubnodeList(this);
+        }
         return subnodes;
     }
 
@@ -1482,6 +1491,32 @@ public final class Node implements INode {
         subnodes.prefetch(startIndex, length);
     }
 
+    /**
+     * Get a cursor that iterates over the subnodes of this node in batches
+     * of the given size, ordered by primary key. This only works for
+     * relational collections that are not grouped.
+     *
+     * @param batchSize the number of nodes loaded with each query
+     * @param keepCached true to keep processed nodes in the node cache
+     * @return a cursor over the subnodes of this node
+     * @throws RuntimeException if the collection can't be iterated with a cursor
+     */
+    public NodeCursor getCursor(int batchSize, boolean keepCached) {
+        if (state == TRANSIENT || state == NEW) {
+            throw new RuntimeException("Cursors are only supported for persistent objects");
+        }
+        DbMapping dbmap = getDbMapping();
+        Relation rel = dbmap == null ? null : dbmap.getSubnodeRelation();
+        if (rel == null || subnodeRelation != null || rel.otherType == null ||
+                !rel.otherType.isRelational()) {
+            throw new RuntimeException("Cursors are only supported for relational collections");
+        }
+        if (rel.groupby != null) {
+            throw new RuntimeException("Cursors are not supported for grouped collections");
+        }
+        return new NodeCursor(this, rel, batchSize, keepCached);
+    }
+
     /**
      * Enumerate through the subnodes of this node.
      * @return an enumeration of this node's subnodes
@@ -1557,11 +1592,22 @@ public final class Node implements INode {
     }
 
     /**
+     * Get the properties of this node as a Hashtable. For nodes of relational
+     * types, this is a copy, so changes to it don't affect the node.
      *
-     *
-     * @return ...
+     * @return the properties keyed by name, or null if the node has none
      */
     public Hashtable getPropMap() {
+        PropertyMap map = propMap;
+        return map == null ? null : map.toHashtable();
+    }
+
+    /**
+     * Get the property map of this node.
+     *
+     * @return the property map, or null if the node has no properties
+     */
+    public PropertyMap getPropertyMap() {
         return propMap;
     }
 
@@ -1603,7 +1649,7 @@ public final class Node implements INode {
 
         // 1) check if the property is contained in the propMap
         Property prop = propMap == null ? null : 
-            (Property) propMap.get(correctPropertyName(propname));
+            propMap.get(correctPropertyName(propname));
 
         if (prop != null) {
             if (rel != null) {
@@ -1632,7 +1678,7 @@ public final class Node implements INode {
             n.setDbMapping(rel.getVirtualMapping());
             n.setParent(this);
             setNode(propname, n);
-            return (Property) propMap.get(correctPropertyName(propname));
+            return propMap.get(correctPropertyName(propname));
         }
 
         // 2) check if this is a create-on-demand node property
@@ -1795,12 +1841,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setValue(value, type);
@@ -1831,12 +1877,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
         String oldvalue = null;
 
         if (prop != null) {
@@ -1943,12 +1989,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setIntegerValue(value);
@@ -1981,12 +2027,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setFloatValue(value);
@@ -2019,12 +2065,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setBooleanValue(value);
@@ -2057,12 +2103,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setDateValue(value);
@@ -2095,12 +2141,12 @@ public final class Node implements INode {
         }
 
         if (propMap == null) {
-            propMap = new Hashtable();
+            propMap = createPropertyMap();
         }
 
         propname = propname.trim();
         String p2 = correctPropertyName(propname);
-        Property prop = (Property) propMap.get(p2);
+        Property prop = propMap.get(p2);
 
         if (prop != null) {
             prop.setJavaObjectValue(value);
@@ -2200,7 +2246,7 @@ public final class Node implements INode {
             }
         }
 
-        Property prop = (propMap == null) ? null : (Property) propMap.get(p2);
+        Property prop = (propMap == null) ? null : propMap.get(p2);
 
         if (prop != null) {
             if ((prop.getType() == IProperty.NODE) &&
@@ -2229,7 +2275,7 @@ public final class Node implements INode {
                 !rel.otherType.isRelational()) {
             // the node must be stored as explicit property
             if (propMap == null) {
-                propMap = new Hashtable();
+                propMap = createPropertyMap();
             }
 
             propMap.put(p2, prop);
@@ -2264,6 +2310,39 @@ public final class Node implements INode {
         }
     }
 
+    /**
+     * Set the row version of this node after it was written to the database.
+     * If a property is mapped to the version column, it is set to the new
+     * version as well, without marking the node as modified.
+     *
+     * @param version the row version now stored in the database
+     * @param propname the corrected name of the property mapped to the version
+     *                 column, or null
+     */
+    synchronized void setRowVersion(long version, String propname) {
+        rowVersion = version;
+        if (propname != null) {
+            if (propMap == null) {
+                propMap = createPropertyMap();
+            }
+            Property prop = propMap.get(propname);
+            if (prop == null) {
+                prop = new Property(propname, this);
+                propMap.put(propname, prop);
+            }
+            prop.setIntegerValue(version);
+            prop.dirty = false;
+        }
+    }
+
+    /**
+     * Create the property map for this node, using the slot layout of
+     * the node's type if available.
+     */
+    private PropertyMap createPropertyMap() {
+        return new PropertyMap(dbmap == null ? null : dbmap.getPropertyLayout());
+    }
+
     private boolean isPersistableProperty(String propname) {
         return propname.length() > 0 && propname.charAt(0) != '_';
     }
@@ -2282,9 +2361,9 @@ public final class Node implements INode {
 
             if (propMap != null) {
                 if (relational) {
-                    p = (Property) propMap.get(correctPropertyName(propname));
+                    p = propMap.get(correctPropertyName(propname));
                 } else {
-                    p = (Property) propMap.remove(correctPropertyName(propname));
+                    p = propMap.remove(correctPropertyName(propname));
                 }
             }
 
@@ -0,0 +1,183 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects hit, miss, load and eviction counters for the node cache,
+ * as well as counters for batched reference loading and collection refetches,
+ * broken down by prototype. Counters are updated without locking so they
+ * can stay enabled on busy production servers.
+ */
+final class NodeCacheStatistics {
+
+    // name used for lookups whose prototype is unknown, e.g. cached null nodes
+    static final String UNKNOWN = "[unknown]";
+
+    // per prototype counters
+    private final ConcurrentHashMap counters = new ConcurrentHashMap();
+
+    /**
+     * Record a successful lookup in the shared node cache.
+     */
+    void hit(String prototype) {
+        getCounter(prototype).hits.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that missed the shared node cache, along with the
+     * time it took to load the node from the database.
+     */
+    void miss(String prototype, long loadMillis) {
+        Counter c = getCounter(prototype);
+        c.misses.incrementAndGet();
+        c.loadTime.addAndGet(loadMillis);
+    }
+
+    /**
+     * Record a batched load of referenced nodes. Each node beyond the
+     * first one loaded by the batch saves a single node query.
+     */
+    void batchLoad(String prototype, int loaded, long loadMillis) {
+        Counter c = getCounter(prototype);
+        c.batches.incrementAndGet();
+        c.batchLoadTime.addAndGet(loadMillis);
+        if (loaded > 1) {
+            c.savedQueries.addAndGet(loaded - 1);
+        }
+    }
+
+    /**
+     * Record a collection update, either one that refetched the collection
+     * from the database or one that found the cached collection still valid.
+     */
+    void collectionUpdate(String prototype, boolean refetched) {
+        Counter c = getCounter(prototype);
+        if (refetched) {
+            c.refetches.incrementAndGet();
+        } else {
+            c.skippedRefetches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a node explicitly evicted from the node cache.
+     */
+    void evict(String prototype) {
+        getCounter(prototype).evictions.incrementAndGet();
+    }
+
+    /**
+     * Reset all counters.
+     */
+    void reset() {
+        counters.clear();
+    }
+
+    private Counter getCounter(String prototype) {
+        if (prototype == null) {
+            prototype = UNKNOWN;
+        }
+        Counter c = (Counter) counters.get(prototype);
+        if (c == null) {
+            c = new Counter();
+            Counter existing = (Counter) counters.putIfAbsent(prototype, c);
+            if (existing != null) {
+                c = existing;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Add the totals and the per prototype breakdown to the given map.
+     * The per prototype statistics are stored as a map of maps under the
+     * <code>prototypes</code> key.
+     */
+    void addStatistics(Map<String,Object> stats) {
+        long hits = 0, misses = 0, evictions = 0, loadTime = 0;
+        long batches = 0, savedQueries = 0, refetches = 0, skippedRefetches = 0;
+        Map<String,Object> prototypes = new HashMap<String,Object>();
+        for (Iterator it = counters.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            Counter c = (Counter) entry.getValue();
+            Map<String,Object> protoStats = c.toMap();
+            prototypes.put((String) entry.getKey(), protoStats);
+            hits += c.hits.get();
+            misses += c.misses.get();
+            evictions += c.evictions.get();
+            loadTime += c.loadTime.get();
+            batches += c.batches.get();
+            savedQueries += c.savedQueries.get();
+            refetches += c.refetches.get();
+            skippedRefetches += c.skippedRefetches.get();
+        }
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", ratio(hits, misses));
+        stats.put("explicitEvictions", evictions);
+        stats.put("loadTime", loadTime);
+        stats.put("batchLoads", batches);
+        stats.put("savedQueries", savedQueries);
+        stats.put("collectionRefetches", refetches);
+        stats.put("skippedRefetches", skippedRefetches);
+        stats.put("prototypes", prototypes);
+    }
+
+    static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * The counters for one prototype
+     */
+    static class Counter {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong loadTime = new AtomicLong();
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong batchLoadTime = new AtomicLong();
+        final AtomicLong savedQueries = new AtomicLong();
+        final AtomicLong refetches = new AtomicLong();
+        final AtomicLong skippedRefetches = new AtomicLong();
+
+        Map<String,Object> toMap() {
+            Map<String,Object> map = new HashMap<String,Object>();
+            long h = hits.get();
+            long m = misses.get();
+            map.put("hits", h);
+            map.put("misses", m);
+            map.put("hitRatio", ratio(h, m));
+            map.put("evictions", evictions.get());
+            map.put("loadTime", loadTime.get());
+            map.put("averageLoadTime", m == 0 ? 0.0 : (double) loadTime.get() / m);
+            map.put("batchLoads", batches.get());
+            map.put("batchLoadTime", batchLoadTime.get());
+            map.put("savedQueries", savedQueries.get());
+            map.put("collectionRefetches", refetches.get());
+            map.put("skippedRefetches", skippedRefetches.get());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.objectmodel.IProperty;
+import helma.util.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A compact binary encoding of clean relational nodes. The encoding contains
+ * the node's prototype, id, name and row version along with the values of
+ * all properties mapped to a column, which is the state a node has after it
+ * has been fetched from the database. Nodes with values that can't be encoded, e.g.
+ * references to transient nodes or Java objects other than byte arrays,
+ * are rejected.
+ */
+final class NodeCodec {
+
+    // encoding version, checked when decoding
+    private static final byte VERSION = 2;
+
+    private NodeCodec() {}
+
+    /**
+     * Encode a relational node.
+     *
+     * @param node the node
+     * @return the encoded node, or null if the node can't be encoded
+     */
+    static byte[] encodeRelational(Node node) {
+        DbMapping dbmap = node.getDbMapping();
+        PropertyMap props = node.getPropertyMap();
+        if (dbmap == null || !dbmap.isRelational() || node.getPrototype() == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bout);
+            out.writeByte(VERSION);
+            out.writeUTF(node.getPrototype());
+            out.writeLong(dbmap.getLastTypeChange());
+            out.writeUTF(node.getID());
+            StringUtils.writeString(out, node.getName());
+            out.writeLong(node.rowVersion);
+
+            Property[] values = props == null ? new Property[0] : props.toArray();
+            int count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (isMapped(dbmap, values[i])) {
+                    count += 1;
+                }
+            }
+            out.writeInt(count);
+            for (int i = 0; i < values.length; i++) {
+                if (isMapped(dbmap, values[i])) {
+                    out.writeUTF(values[i].getName());
+                    if (!writeValue(out, values[i])) {
+                        return null;
+                    }
+                }
+            }
+            out.flush();
+            return bout.toByteArray();
+        } catch (IOException x) {
+            // can't happen with a byte array stream
+            return null;
+        } catch (ClassCastException x) {
+            // value doesn't match the property type
+            return null;
+        }
+    }
+
+    /**
+     * Check if a property is mapped to a column of the given type, so it
+     * would be set on a node fetched from the database.
+     */
+    private static boolean isMapped(DbMapping dbmap, Property prop) {
+        if (prop == null || prop.getName() == null) {
+            return false;
+        }
+        Relation rel = dbmap.propertyToRelation(prop.getName());
+        return rel != null && rel.isPrimitiveOrReference() && !rel.isComplexReference();
+    }
+
+    /**
+     * Decode a relational node.
+     *
+     * @param data the encoded node
+     * @param nmgr the node manager to create the node for
+     * @return the node, or null if its type has changed since it was encoded
+     * @throws IOException if the data is corrupt
+     */
+    static Node decodeRelational(byte[] data, NodeManager nmgr) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readByte() != VERSION) {
+            throw new IOException("Unsupported node encoding");
+        }
+        String protoName = in.readUTF();
+        DbMapping dbmap = nmgr.getDbMapping(protoName);
+        if (dbmap == null || dbmap.getLastTypeChange() != in.readLong()) {
+            // the type.properties have changed, the encoded properties may be stale
+            return null;
+        }
+        String id = in.readUTF();
+        String name = StringUtils.readString(in);
+        long rowVersion = in.readLong();
+
+        Node node = new Node(nmgr.safe);
+        PropertyMap props = new PropertyMap(dbmap.getPropertyLayout());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Property prop = new Property(in.readUTF(), node);
+            readValue(in, prop);
+            // mark property as clean, like one fresh from the db
+            prop.dirty = false;
+            props.put(nmgr.app.correctPropertyName(prop.getName()), prop);
+        }
+        node.init(dbmap, id, name, protoName, props);
+        node.rowVersion = rowVersion;
+        return node;
+    }
+
+    private static boolean writeValue(DataOutputStream out, Property prop)
+            throws IOException {
+        int type = prop.getType();
+        Object value = prop.getValue();
+        out.writeByte(type);
+        out.writeBoolean(value != null);
+        if (value == null) {
+            return true;
+        }
+        switch (type) {
+            case IProperty.STRING:
+                StringUtils.writeString(out, (String) value);
+                return true;
+            case IProperty.BOOLEAN:
+                out.writeBoolean(((Boolean) value).booleanValue());
+                return true;
+            case IProperty.DATE:
+                out.writeLong(((Date) value).getTime());
+                return true;
+            case IProperty.INTEGER:
+                out.writeLong(((Long) value).longValue());
+                return true;
+            case IProperty.FLOAT:
+                out.writeDouble(((Double) value).doubleValue());
+                return true;
+            case IProperty.NODE:
+                NodeHandle handle = (NodeHandle) value;
+                if (handle.hasNode() || !(handle.getKey() instanceof DbKey)) {
+                    return false;
+                }
+                DbKey key = (DbKey) handle.getKey();
+                StringUtils.writeString(out, key.getStorageName());
+                out.writeUTF(key.getID());
+                return true;
+            case IProperty.JAVAOBJECT:
+                if (!(value instanceof byte[])) {
+                    return false;
+                }
+                byte[] bytes = (byte[]) value;
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void readValue(DataInputStream in, Property prop)
+            throws IOException {
+        int type = in.readByte();
+        Object value = null;
+        if (in.readBoolean()) {
+            switch (type) {
+                case IProperty.STRING:
+                    value = StringUtils.readString(in);
+                    break;
+                case IProperty.BOOLEAN:
+                    value = in.readBoolean() ? Boolean.TRUE : Boolean.FALSE;
+                    break;
+                case IProperty.DATE:
+                    value = new Date(in.readLong());
+                    break;
+                case IProperty.INTEGER:
+                    value = new Long(in.readLong());
+                    break;
+                case IProperty.FLOAT:
+                    value = new Double(in.readDouble());
+                    break;
+                case IProperty.NODE:
+                    String storage = StringUtils.readString(in);
+                    // storage names of keys are interned
+                    value = new NodeHandle(new DbKey(storage == null ? null : storage.intern(),
+                                                     in.readUTF()));
+                    break;
+                case IProperty.JAVAOBJECT:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    value = bytes;
+                    break;
+                default:
+                    throw new IOException("Invalid property type: " + type);
+            }
+        }
+        prop.setValue(value, type);
+    }
+}
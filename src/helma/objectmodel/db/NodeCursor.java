@@ -0,0 +1,148 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a relational collection in batches using keyset pagination,
+ * i.e. each batch selects the objects with a primary key greater than the
+ * last key of the previous batch, ordered by primary key. Unlike the subnode
+ * list, a cursor never loads the full id list of the collection, so it can be
+ * used to process collections with millions of objects.
+ *
+ * Nodes loaded into the node cache by a batch are removed from the cache when
+ * the cursor moves on to the next batch, unless the cursor was created to
+ * keep them cached. Nodes that have been modified stay in the cache.
+ */
+public final class NodeCursor {
+
+    private final Node home;
+    private final Relation rel;
+    private final int batchSize;
+    private final boolean keepCached;
+
+    // the current batch of nodes
+    private List batch = Collections.EMPTY_LIST;
+    // the nodes the current batch added to the node cache
+    private final List loaded = new ArrayList();
+    private int position = 0;
+    private String lastKey = null;
+    private boolean exhausted = false;
+    private int count = 0;
+
+    /**
+     * Create a new cursor.
+     *
+     * @param home the node holding the collection
+     * @param rel the collection relation
+     * @param batchSize the number of nodes loaded with each query
+     * @param keepCached true to keep processed nodes in the node cache
+     */
+    NodeCursor(Node home, Relation rel, int batchSize, boolean keepCached) {
+        this.home = home;
+        this.rel = rel;
+        this.batchSize = Math.max(1, batchSize);
+        this.keepCached = keepCached;
+    }
+
+    /**
+     * Check whether there are more nodes, loading the next batch if necessary.
+     *
+     * @return true if there are more nodes
+     */
+    public boolean hasNext() {
+        if (position < batch.size()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        fetch();
+        return position < batch.size();
+    }
+
+    /**
+     * Get the next node.
+     *
+     * @return the next node
+     * @throws NoSuchElementException if there are no more nodes
+     */
+    public Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        count += 1;
+        return (Node) batch.get(position++);
+    }
+
+    /**
+     * Get the number of nodes returned by this cursor so far.
+     *
+     * @return the number of nodes returned by next()
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of nodes loaded with each query.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Stop iterating and release the nodes of the current batch.
+     */
+    public void close() {
+        release();
+        batch = Collections.EMPTY_LIST;
+        position = 0;
+        exhausted = true;
+    }
+
+    private void fetch() {
+        release();
+        batch = home.nmgr.getNodeBatch(home, rel, lastKey, batchSize, loaded);
+        position = 0;
+        if (batch.size() < batchSize) {
+            exhausted = true;
+        }
+        if (!batch.isEmpty()) {
+            lastKey = ((Node) batch.get(batch.size() - 1)).getID();
+        }
+    }
+
+    private void release() {
+        if (!keepCached) {
+            for (int i = 0; i < loaded.size(); i++) {
+                home.nmgr.releaseNode((Node) loaded.get(i));
+            }
+        }
+        loaded.clear();
+    }
+
+    public String toString() {
+        return "NodeCursor[" + home + ", " + count + " nodes]";
+    }
+}
@@ -0,0 +1,702 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.framework.core.Application;
+import helma.util.CacheMap;
+import helma.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A second node cache tier that keeps clean relational nodes dropped from
+ * the node cache in serialized, compressed form outside of the Java heap.
+ * A node found in this cache is decoded, removed from it and registered
+ * with the node cache again, which is a lot cheaper than fetching it
+ * from the database.
+ *
+ * Nodes are appended to direct byte buffer slabs. When the byte budget is
+ * exhausted, the oldest slab is recycled and all nodes stored in it are
+ * dropped. The index maps key hash codes to slab locations and keeps the
+ * keys themselves in the slabs, so it only takes a few bytes of heap per
+ * node. Nodes dropped by the node cache are encoded on a background
+ * thread, so the thread that caused the node cache to rotate isn't delayed.
+ *
+ * The cache is configured with the following app.properties settings,
+ * which are read when the application starts:
+ * <ul>
+ * <li><code>offHeapCache.size</code> - the byte budget, with an optional
+ *     <code>k</code>, <code>m</code> or <code>g</code> suffix. The cache
+ *     is disabled if this isn't set (the default).</li>
+ * <li><code>offHeapCache.slabSize</code> - the size of a slab, 4m by default</li>
+ * <li><code>offHeapCache.compress</code> - set to false to store nodes
+ *     without compressing them</li>
+ * </ul>
+ * The cache only works with node cache implementations that report the
+ * nodes they drop, i.e. <code>helma.util.CacheMap</code> and
+ * <code>helma.util.SegmentedCacheMap</code>.
+ */
+final class OffHeapNodeCache implements CacheMap.EvictionListener, Runnable {
+
+    // index markers for empty and deleted entries
+    private static final long EMPTY = -1;
+    private static final long DELETED = -2;
+
+    // record header: length, hash, flags, raw payload length, key length
+    private static final int HEADER_SIZE = 17;
+    private static final int FLAG_COMPRESSED = 1;
+
+    // payloads smaller than this are stored uncompressed
+    private static final int MIN_COMPRESS_SIZE = 64;
+
+    // maximum number of dropped tables waiting to be encoded
+    private static final int MAX_QUEUED_TABLES = 4;
+
+    // the thread local inflaters used to decompress nodes
+    private static final ThreadLocal inflaters = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final NodeManager nmgr;
+    private final Application app;
+    private final boolean compress;
+
+    // the slabs, allocated on demand, and the number of bytes used in each
+    private final ByteBuffer[] slabs;
+    private final int[] slabUsed;
+    private final int slabSize;
+    private int maxSlabs;
+    private int currentSlab = -1;
+
+    // the index of hash codes and slab locations
+    private int[] hashes;
+    private long[] locations;
+    private int entries = 0;
+    private int deleted = 0;
+
+    // keys removed from this cache mapped to the number of removals at the
+    // time, kept as long as a dropped table may still hold a stale copy
+    private final HashMap removedKeys = new HashMap();
+    private long removals = 0;
+    // the number of removals when the last dropped table was queued
+    private long lastQueuedRemovals = 0;
+    // the removal count the table being encoded was queued after, or -1
+    private long encodingSince = -1;
+
+    // incremented when the cache is cleared
+    private long generation = 0;
+
+    // dropped tables waiting to be encoded by the worker thread
+    private final LinkedList queue = new LinkedList();
+    private Thread worker;
+    private volatile boolean running = true;
+    private final Deflater deflater;
+
+    // statistics, guarded by this
+    private long hits = 0;
+    private long misses = 0;
+    private long stores = 0;
+    private long rejected = 0;
+    private long recycled = 0;
+    private long rawBytes = 0;
+    private long storedBytes = 0;
+    private long droppedTables = 0;
+
+    OffHeapNodeCache(NodeManager nmgr, long budget, int slabSize, boolean compress) {
+        this.nmgr = nmgr;
+        this.app = nmgr == null ? null : nmgr.app;
+        this.slabSize = slabSize;
+        this.compress = compress;
+        this.maxSlabs = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / slabSize));
+        this.slabs = new ByteBuffer[maxSlabs];
+        this.slabUsed = new int[maxSlabs];
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        clearIndex(1024);
+    }
+
+    /**
+     * Create and start an off-heap node cache if the application properties
+     * define a byte budget for it.
+     *
+     * @param nmgr the node manager
+     * @param props the application properties
+     * @return the running cache, or null if it isn't configured
+     */
+    static OffHeapNodeCache create(NodeManager nmgr, Properties props) {
+        long budget = parseSize(props.getProperty("offHeapCache.size"), 0);
+        if (budget <= 0) {
+            return null;
+        }
+        long slabSize = parseSize(props.getProperty("offHeapCache.slabSize"), 4 << 20);
+        slabSize = Math.max(64 << 10, Math.min(slabSize, Math.min(budget, 1 << 30)));
+        boolean compress = !"false".equalsIgnoreCase(props.getProperty("offHeapCache.compress"));
+
+        OffHeapNodeCache cache = new OffHeapNodeCache(nmgr, budget, (int) slabSize, compress);
+        cache.worker = new Thread(cache, "OffHeapNodeCache-" + nmgr.app.getName());
+        cache.worker.setDaemon(true);
+        cache.worker.start();
+        nmgr.app.logEvent("Started off-heap node cache with " + (budget >> 20) + " MB in " +
+                cache.maxSlabs + " slabs");
+        return cache;
+    }
+
+    /**
+     * Parse a byte size with an optional k, m or g suffix.
+     */
+    static long parseSize(String value, long defaultValue) {
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        value = value.trim().toLowerCase();
+        long factor = 1;
+        char unit = value.charAt(value.length() - 1);
+        if (unit == 'k') {
+            factor = 1L << 10;
+        } else if (unit == 'm') {
+            factor = 1L << 20;
+        } else if (unit == 'g') {
+            factor = 1L << 30;
+        }
+        if (factor > 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(value) * factor;
+        } catch (NumberFormatException x) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Queue the entries dropped by the node cache to be stored in this cache.
+     * If the worker can't keep up, the oldest queued table is discarded.
+     */
+    public void evicted(Map entries) {
+        synchronized (queue) {
+            DroppedTable table;
+            synchronized (this) {
+                // removals since the previous table was queued also count for
+                // this one, as they may have raced with the rotation dropping it
+                table = new DroppedTable(entries, lastQueuedRemovals);
+                lastQueuedRemovals = removals;
+                if (queue.size() >= MAX_QUEUED_TABLES) {
+                    queue.removeFirst();
+                    droppedTables += 1;
+                }
+            }
+            queue.addLast(table);
+            queue.notify();
+        }
+    }
+
+    /**
+     * The worker loop encoding dropped tables.
+     */
+    public void run() {
+        while (running) {
+            DroppedTable table;
+            synchronized (queue) {
+                while (running && queue.isEmpty()) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException ir) {
+                        // check running flag
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                table = (DroppedTable) queue.removeFirst();
+            }
+            try {
+                storeAll(table);
+            } catch (RuntimeException x) {
+                app.logError("Error storing nodes in off-heap cache", x);
+            }
+        }
+    }
+
+    /**
+     * Encode and store the clean relational nodes of a table dropped by the node
+     * cache, skipping nodes that have been removed since the table was queued.
+     */
+    private void storeAll(DroppedTable table) {
+        long startGeneration;
+        synchronized (this) {
+            encodingSince = table.since;
+            startGeneration = generation;
+        }
+        try {
+            for (Iterator it = table.entries.entrySet().iterator(); running && it.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                if (!(entry.getKey() instanceof DbKey) || !(entry.getValue() instanceof Node)) {
+                    continue;
+                }
+                DbKey key = (DbKey) entry.getKey();
+                Node node = (Node) entry.getValue();
+                if (node.isNullNode() || node.getState() != Node.CLEAN ||
+                        !key.equals(node.getKey())) {
+                    continue;
+                }
+                byte[] payload = NodeCodec.encodeRelational(node);
+                byte[] keyBytes = encodeKey(key);
+                byte[] record = payload == null ? null : createRecord(key, keyBytes, payload);
+                synchronized (this) {
+                    if (generation != startGeneration || !running) {
+                        // cleared or shut down, drop the rest of the table
+                        return;
+                    } else if (record == null || record.length > slabSize) {
+                        rejected += 1;
+                    } else if (!isRemovedSince(key, table.since)) {
+                        store(key.hashCode(), keyBytes, record, payload.length);
+                    }
+                }
+            }
+        } finally {
+            synchronized (queue) {
+                synchronized (this) {
+                    encodingSince = -1;
+                    pruneRemovedKeys();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a key has been removed after the given number of removals.
+     * Must be called while holding the lock on this object.
+     */
+    private boolean isRemovedSince(DbKey key, long since) {
+        Long removal = (Long) removedKeys.get(key);
+        return removal != null && removal.longValue() > since;
+    }
+
+    /**
+     * Forget removals that no queued table or table being encoded needs to
+     * know about. Must be called while holding the locks on the queue and
+     * on this object.
+     */
+    private void pruneRemovedKeys() {
+        long oldest = lastQueuedRemovals;
+        if (!queue.isEmpty()) {
+            // tables are queued in order, the first one is the oldest
+            oldest = Math.min(oldest, ((DroppedTable) queue.getFirst()).since);
+        }
+        if (encodingSince > -1) {
+            oldest = Math.min(oldest, encodingSince);
+        }
+        for (Iterator it = removedKeys.values().iterator(); it.hasNext(); ) {
+            if (((Long) it.next()).longValue() <= oldest) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Create the record for a node, compressing the payload if that pays off.
+     */
+    byte[] createRecord(DbKey key, byte[] keyBytes, byte[] payload) {
+        int flags = 0;
+        byte[] data = payload;
+        if (deflater != null && payload.length >= MIN_COMPRESS_SIZE) {
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] buffer = new byte[payload.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (deflater.finished() && length < payload.length) {
+                data = new byte[length];
+                System.arraycopy(buffer, 0, data, 0, length);
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + data.length);
+        record.putInt(record.capacity());
+        record.putInt(key.hashCode());
+        record.put((byte) flags);
+        record.putInt(payload.length);
+        record.putInt(keyBytes.length);
+        record.put(keyBytes);
+        record.put(data);
+        return record.array();
+    }
+
+    static byte[] encodeKey(DbKey key) {
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bout);
+            StringUtils.writeString(out, key.getStorageName());
+            StringUtils.writeString(out, key.getID());
+            return bout.toByteArray();
+        } catch (IOException x) {
+            // can't happen with a byte array stream
+            throw new RuntimeException(x.toString());
+        }
+    }
+
+    /**
+     * Get a node from this cache. If the node is found, it is removed from this
+     * cache, since the caller is expected to register it with the node cache.
+     *
+     * @param key the node's key
+     * @return the decoded node, or null if it isn't contained in this cache
+     */
+    Node get(DbKey key) {
+        try {
+            byte[] data = take(key);
+            return data == null ? null : NodeCodec.decodeRelational(data, nmgr);
+        } catch (Exception x) {
+            app.logError("Error decoding node " + key + " from off-heap cache", x);
+            return null;
+        }
+    }
+
+    /**
+     * Remove the record for a key and return its uncompressed payload.
+     */
+    byte[] take(DbKey key) throws DataFormatException {
+        byte[] keyBytes = encodeKey(key);
+        byte[] data;
+        int flags, rawLength;
+        synchronized (this) {
+            int pos = find(key.hashCode(), keyBytes);
+            if (pos < 0) {
+                misses += 1;
+                return null;
+            }
+            long loc = locations[pos];
+            ByteBuffer slab = slabs[(int) (loc >>> 32)].duplicate();
+            int offset = (int) loc;
+            int length = slab.getInt(offset);
+            flags = slab.get(offset + 8);
+            rawLength = slab.getInt(offset + 9);
+            int dataOffset = offset + HEADER_SIZE + keyBytes.length;
+            data = new byte[offset + length - dataOffset];
+            slab.position(dataOffset);
+            slab.get(data);
+            removeAt(pos);
+            hits += 1;
+        }
+
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            Inflater inflater = (Inflater) inflaters.get();
+            inflater.reset();
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated node data");
+                }
+                length += n;
+            }
+            data = raw;
+        }
+        return data;
+    }
+
+    /**
+     * Remove a node from this cache, e.g. because it has been changed.
+     *
+     * @param key the node's key
+     */
+    void remove(Key key) {
+        if (!(key instanceof DbKey)) {
+            return;
+        }
+        DbKey dbkey = (DbKey) key;
+        synchronized (this) {
+            int pos = find(dbkey.hashCode(), encodeKey(dbkey));
+            if (pos > -1) {
+                removeAt(pos);
+            }
+            // make sure the worker doesn't store a stale copy of the node
+            // from a table that was dropped before the removal
+            removals += 1;
+            removedKeys.put(dbkey, Long.valueOf(removals));
+        }
+    }
+
+    /**
+     * Remove all nodes from this cache. Allocated slabs are kept for reuse.
+     */
+    void clear() {
+        synchronized (queue) {
+            queue.clear();
+        }
+        synchronized (this) {
+            clearIndex(1024);
+            for (int i = 0; i < slabUsed.length; i++) {
+                slabUsed[i] = 0;
+            }
+            currentSlab = -1;
+            // make the worker drop the table it is currently encoding
+            generation += 1;
+        }
+    }
+
+    /**
+     * Stop the worker thread and release the slabs.
+     */
+    void shutdown() {
+        running = false;
+        synchronized (queue) {
+            queue.clear();
+            queue.notifyAll();
+        }
+        synchronized (this) {
+            clearIndex(16);
+            for (int i = 0; i < slabs.length; i++) {
+                // direct buffers are freed when they're garbage collected
+                slabs[i] = null;
+                slabUsed[i] = 0;
+            }
+            currentSlab = -1;
+        }
+    }
+
+    /**
+     * Store a record, recycling the oldest slab if the budget is exhausted.
+     * Must be called while holding the lock on this object.
+     */
+    void store(int hash, byte[] keyBytes, byte[] record, int rawLength) {
+        int existing = find(hash, keyBytes);
+        if (existing > -1) {
+            removeAt(existing);
+        }
+        if (currentSlab < 0 || slabUsed[currentSlab] + record.length > slabSize) {
+            if (!nextSlab()) {
+                rejected += 1;
+                return;
+            }
+        }
+        int offset = slabUsed[currentSlab];
+        ByteBuffer slab = slabs[currentSlab].duplicate();
+        slab.position(offset);
+        slab.put(record);
+        slabUsed[currentSlab] = offset + record.length;
+        insert(hash, ((long) currentSlab << 32) | offset);
+        stores += 1;
+        rawBytes += rawLength;
+        storedBytes += record.length;
+    }
+
+    /**
+     * Switch to the next slab, allocating or recycling it.
+     */
+    private boolean nextSlab() {
+        int next = (currentSlab + 1) % maxSlabs;
+        if (slabs[next] == null) {
+            try {
+                slabs[next] = ByteBuffer.allocateDirect(slabSize);
+            } catch (OutOfMemoryError oom) {
+                // limited by -XX:MaxDirectMemorySize, work with what we've got
+                if (next == 0) {
+                    return false;
+                }
+                app.logError("Can't allocate more than " + next + " off-heap cache slabs");
+                maxSlabs = next;
+                next = 0;
+            }
+        }
+        if (slabUsed[next] > 0) {
+            recycle(next);
+        }
+        currentSlab = next;
+        return true;
+    }
+
+    /**
+     * Drop all nodes stored in a slab.
+     */
+    private void recycle(int slabIndex) {
+        ByteBuffer slab = slabs[slabIndex];
+        int offset = 0;
+        int used = slabUsed[slabIndex];
+        while (offset < used) {
+            int length = slab.getInt(offset);
+            int hash = slab.getInt(offset + 4);
+            int pos = findLocation(hash, ((long) slabIndex << 32) | offset);
+            if (pos > -1) {
+                removeAt(pos);
+                recycled += 1;
+            }
+            offset += length;
+        }
+        slabUsed[slabIndex] = 0;
+    }
+
+    private void clearIndex(int capacity) {
+        hashes = new int[capacity];
+        locations = new long[capacity];
+        Arrays.fill(locations, EMPTY);
+        entries = 0;
+        deleted = 0;
+    }
+
+    private static int indexFor(int hash, int length) {
+        int h = hash ^ (hash >>> 16);
+        return h & (length - 1);
+    }
+
+    /**
+     * Find the index position of the record with the given key.
+     */
+    private int find(int hash, byte[] keyBytes) {
+        int mask = locations.length - 1;
+        for (int pos = indexFor(hash, locations.length); ; pos = (pos + 1) & mask) {
+            long loc = locations[pos];
+            if (loc == EMPTY) {
+                return -1;
+            }
+            if (loc >= 0 && hashes[pos] == hash && keyEquals(loc, keyBytes)) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * Find the index position of the record at the given slab location.
+     */
+    private int findLocation(int hash, long location) {
+        int mask = locations.length - 1;
+        for (int pos = indexFor(hash, locations.length); ; pos = (pos + 1) & mask) {
+            long loc = locations[pos];
+            if (loc == EMPTY) {
+                return -1;
+            }
+            if (loc == location) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * Compare the key of the record at the given location with a key.
+     */
+    private boolean keyEquals(long location, byte[] keyBytes) {
+        ByteBuffer slab = slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        if (slab.getInt(offset + 13) != keyBytes.length) {
+            return false;
+        }
+        offset += HEADER_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (slab.get(offset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int hash, long location) {
+        if ((entries + deleted + 1) * 4 > locations.length * 3) {
+            rehash(entries * 4 >= locations.length ? locations.length * 2 : locations.length);
+        }
+        int mask = locations.length - 1;
+        int pos = indexFor(hash, locations.length);
+        while (locations[pos] >= 0) {
+            pos = (pos + 1) & mask;
+        }
+        if (locations[pos] == DELETED) {
+            deleted -= 1;
+        }
+        hashes[pos] = hash;
+        locations[pos] = location;
+        entries += 1;
+    }
+
+    private void removeAt(int pos) {
+        locations[pos] = DELETED;
+        entries -= 1;
+        deleted += 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        clearIndex(capacity);
+        for (int i = 0; i < oldLocations.length; i++) {
+            if (oldLocations[i] >= 0) {
+                insert(oldHashes[i], oldLocations[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the statistics of this cache.
+     *
+     * @return a map with the size, memory usage and hit counts of this cache
+     */
+    synchronized Map<String,Object> getStatistics() {
+        long allocated = 0, used = 0;
+        for (int i = 0; i < slabs.length; i++) {
+            if (slabs[i] != null) {
+                allocated += slabSize;
+                used += slabUsed[i];
+            }
+        }
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("size", entries);
+        stats.put("capacity", (long) maxSlabs * slabSize);
+        stats.put("allocated", allocated);
+        stats.put("used", used);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", NodeCacheStatistics.ratio(hits, misses));
+        stats.put("stores", stores);
+        stats.put("rejected", rejected);
+        stats.put("recycled", recycled);
+        stats.put("droppedTables", droppedTables);
+        stats.put("compress", compress);
+        stats.put("compressionRatio", storedBytes == 0 ? 1.0 : (double) rawBytes / storedBytes);
+        stats.put("indexBytes", (long) locations.length * 12);
+        return stats;
+    }
+
+    /**
+     * A table dropped by the node cache, waiting to be encoded.
+     */
+    static final class DroppedTable {
+        final Map entries;
+        // removals after this count may not be reflected in the entries
+        final long since;
+
+        DroppedTable(Map entries, long since) {
+            this.entries = entries;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The properties of a Node. Properties mapped to a column of a relational
+ * type are stored in a slot array addressed by the column layout of the
+ * type's DbMapping, which avoids a hash table entry per property and a
+ * synchronized lookup per read. Properties that aren't part of the layout,
+ * as well as all properties of nodes stored in the embedded database,
+ * are kept in a Hashtable that is only allocated when needed.
+ *
+ * Property names passed to this class must already be corrected with
+ * Application.correctPropertyName().
+ *
+ * Writes are synchronized on the map. Reads don't lock, they see either
+ * the old or the new property of a slot that is being written.
+ */
+public final class PropertyMap {
+
+    // the slot layout, or null if this map only uses the hashtable
+    private final Layout layout;
+
+    // the properties stored in the slots of the layout
+    private final Property[] slots;
+
+    // properties not contained in the layout, allocated on demand
+    private Hashtable extras;
+
+    /**
+     * Create a property map for the given slot layout.
+     *
+     * @param layout the slot layout, or null to store all properties in a hashtable
+     */
+    PropertyMap(Layout layout) {
+        this.layout = layout;
+        this.slots = layout == null ? null : new Property[layout.size()];
+    }
+
+    /**
+     * Create a property map that stores its properties in the given hashtable.
+     * Properties added to the hashtable later are visible through this map.
+     * This is used by the embedded XML database.
+     *
+     * @param table the hashtable holding the properties
+     */
+    PropertyMap(Hashtable table) {
+        this.layout = null;
+        this.slots = null;
+        this.extras = table;
+    }
+
+    /**
+     * Get a property.
+     *
+     * @param name the corrected property name
+     * @return the property, or null if it isn't set
+     */
+    public Property get(String name) {
+        if (layout != null) {
+            int slot = layout.indexOf(name);
+            if (slot > -1) {
+                return slots[slot];
+            }
+        }
+        Hashtable table = extras;
+        return table == null ? null : (Property) table.get(name);
+    }
+
+    /**
+     * Set a property.
+     *
+     * @param name the corrected property name
+     * @param prop the property
+     * @return the property previously stored under the name, or null
+     */
+    public synchronized Property put(String name, Property prop) {
+        if (layout != null) {
+            int slot = layout.indexOf(name);
+            if (slot > -1) {
+                Property old = slots[slot];
+                slots[slot] = prop;
+                return old;
+            }
+        }
+        return (Property) getExtras().put(name, prop);
+    }
+
+    /**
+     * Remove a property.
+     *
+     * @param name the corrected property name
+     * @return the removed property, or null if it wasn't set
+     */
+    public synchronized Property remove(String name) {
+        if (layout != null) {
+            int slot = layout.indexOf(name);
+            if (slot > -1) {
+                Property old = slots[slot];
+                slots[slot] = null;
+                return old;
+            }
+        }
+        Hashtable table = extras;
+        return table == null ? null : (Property) table.remove(name);
+    }
+
+    /**
+     * Get the number of properties set in this map.
+     *
+     * @return the number of properties
+     */
+    public int size() {
+        int size = 0;
+        if (slots != null) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null) {
+                    size += 1;
+                }
+            }
+        }
+        Hashtable table = extras;
+        return table == null ? size : size + table.size();
+    }
+
+    /**
+     * Check if no properties are set in this map.
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get an enumeration of the names of the properties set in this map.
+     *
+     * @return the property names
+     */
+    public Enumeration keys() {
+        return new MapEnumeration(true);
+    }
+
+    /**
+     * Get an enumeration of the properties set in this map.
+     *
+     * @return the properties
+     */
+    public Enumeration elements() {
+        return new MapEnumeration(false);
+    }
+
+    /**
+     * Get an array containing the properties set in this map.
+     *
+     * @return the properties
+     */
+    public Property[] toArray() {
+        List list = new ArrayList();
+        for (Enumeration en = elements(); en.hasMoreElements(); ) {
+            list.add(en.nextElement());
+        }
+        return (Property[]) list.toArray(new Property[list.size()]);
+    }
+
+    /**
+     * Get the properties of this map as a Hashtable. For a map backed by a
+     * Hashtable, this is the backing table itself, otherwise a copy.
+     *
+     * @return the properties keyed by name
+     */
+    public synchronized Hashtable toHashtable() {
+        if (layout == null) {
+            return getExtras();
+        }
+        Hashtable table = new Hashtable();
+        for (Enumeration en = keys(); en.hasMoreElements(); ) {
+            String name = (String) en.nextElement();
+            Property prop = get(name);
+            if (prop != null) {
+                table.put(name, prop);
+            }
+        }
+        return table;
+    }
+
+    private synchronized Hashtable getExtras() {
+        if (extras == null) {
+            extras = new Hashtable(5);
+        }
+        return extras;
+    }
+
+    public String toString() {
+        StringBuffer b = new StringBuffer("{");
+        for (Enumeration en = keys(); en.hasMoreElements(); ) {
+            String name = (String) en.nextElement();
+            b.append(name).append('=').append(get(name));
+            if (en.hasMoreElements()) {
+                b.append(", ");
+            }
+        }
+        return b.append('}').toString();
+    }
+
+    /**
+     * Enumerates the slots followed by the extra properties.
+     */
+    class MapEnumeration implements Enumeration {
+
+        final boolean keys;
+        final Enumeration extraEnum;
+        int slot = 0;
+
+        MapEnumeration(boolean keys) {
+            this.keys = keys;
+            Hashtable table = extras;
+            extraEnum = table == null ? null : (keys ? table.keys() : table.elements());
+            skipEmptySlots();
+        }
+
+        private void skipEmptySlots() {
+            while (slots != null && slot < slots.length && slots[slot] == null) {
+                slot += 1;
+            }
+        }
+
+        public boolean hasMoreElements() {
+            return (slots != null && slot < slots.length) ||
+                   (extraEnum != null && extraEnum.hasMoreElements());
+        }
+
+        public Object nextElement() {
+            if (slots != null && slot < slots.length) {
+                Object next = keys ? (Object) layout.getName(slot) : slots[slot];
+                slot += 1;
+                skipEmptySlots();
+                return next;
+            }
+            if (extraEnum != null) {
+                return extraEnum.nextElement();
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * The slot layout of the properties of a relational type, assigning a slot
+     * to each property that is mapped to a column of the type's table. Slots are
+     * looked up in an open addressing table that is immutable once created,
+     * so lookups don't need any locking.
+     */
+    static final class Layout {
+
+        // property names by slot
+        private final String[] names;
+
+        // hash table of property names and their slots
+        private final String[] table;
+        private final int[] tableSlots;
+        private final int mask;
+
+        /**
+         * Create the layout for the columns of a relational type.
+         *
+         * @param columns the columns of the type's table
+         */
+        Layout(DbColumn[] columns) {
+            this(propertyNames(columns));
+        }
+
+        /**
+         * Create a layout with a slot for each of the given property names.
+         *
+         * @param names the distinct, corrected property names
+         */
+        Layout(String[] names) {
+            this.names = names;
+            int capacity = 4;
+            while (capacity < names.length * 2) {
+                capacity <<= 1;
+            }
+            table = new String[capacity];
+            tableSlots = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < names.length; i++) {
+                int index = hash(names[i]) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = names[i];
+                tableSlots[index] = i;
+            }
+        }
+
+        private static String[] propertyNames(DbColumn[] columns) {
+            List list = new ArrayList(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                Relation rel = columns[i].getRelation();
+                if (rel != null && rel.isPrimitiveOrReference()
+                        && rel.propName != null && !list.contains(rel.propName)) {
+                    list.add(rel.propName);
+                }
+            }
+            return (String[]) list.toArray(new String[list.size()]);
+        }
+
+        /**
+         * Get the slot of a property.
+         *
+         * @param name the corrected property name
+         * @return the slot, or -1 if the property isn't part of this layout
+         */
+        int indexOf(String name) {
+            int index = hash(name) & mask;
+            String key;
+            while ((key = table[index]) != null) {
+                if (key == name || key.equals(name)) {
+                    return tableSlots[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Get the name of the property stored in a slot.
+         */
+        String getName(int slot) {
+            return names[slot];
+        }
+
+        /**
+         * Get the number of slots in this layout.
+         */
+        int size() {
+            return names.length;
+        }
+
+        private static int hash(String name) {
+            int h = name.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
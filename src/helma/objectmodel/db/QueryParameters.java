@@ -0,0 +1,107 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Collects the bind values of a query while its SQL string is rendered
+ * with <code>?</code> placeholders, so the query can be run as a
+ * PreparedStatement whose text only depends on the shape of the query.
+ */
+final class QueryParameters {
+
+    private final ArrayList values = new ArrayList();
+
+    /**
+     * Add a string value for a column that needs quotes.
+     * @param value the value
+     */
+    void addString(String value) {
+        values.add(value);
+    }
+
+    /**
+     * Add a value for a numeric column. The value is checked to be
+     * a valid numeric literal.
+     * @param value the value
+     * @throws IllegalArgumentException if value is not a number
+     */
+    void addNumber(String value) throws IllegalArgumentException {
+        String str = DbMapping.checkNumber(value);
+        if (str.indexOf('.') < 0) {
+            try {
+                values.add(new Long(str.startsWith("+") ? str.substring(1) : str));
+                return;
+            } catch (NumberFormatException tooLarge) {
+                // fall through to BigDecimal
+            }
+        }
+        values.add(new BigDecimal(str));
+    }
+
+    /**
+     * Return the number of collected values.
+     */
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * Return the collected values as an array.
+     */
+    Object[] toArray() {
+        return values.toArray();
+    }
+
+    /**
+     * Bind the collected values to a prepared statement.
+     * @param stmt the statement
+     * @throws SQLException if a value couldn't be bound
+     */
+    void bind(PreparedStatement stmt) throws SQLException {
+        bind(stmt, 1);
+    }
+
+    /**
+     * Bind the collected values to a prepared statement, starting at the
+     * given parameter index.
+     * @param stmt the statement
+     * @param firstIndex the index of the first parameter to bind
+     * @throws SQLException if a value couldn't be bound
+     */
+    void bind(PreparedStatement stmt, int firstIndex) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            int index = firstIndex + i;
+            if (value instanceof Long) {
+                stmt.setLong(index, ((Long) value).longValue());
+            } else if (value instanceof BigDecimal) {
+                stmt.setBigDecimal(index, (BigDecimal) value);
+            } else {
+                stmt.setString(index, (String) value);
+            }
+        }
+    }
+
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -83,8 +83,20 @@ public final class Relation {
     boolean virtual;
     boolean readonly;
     boolean lazyLoading;
+    boolean compactLoading;
     boolean aggressiveLoading;
     boolean aggressiveCaching;
+    // max number of referenced nodes loaded together in one query, 0 to disable
+    int batchSize = 0;
+    // whether collection changes are tracked by the values of the constraint columns
+    boolean keyedInvalidation = false;
+    // seconds to keep count and id query results in the query cache,
+    // -1 to use the application default, 0 to disable caching
+    int cacheTtl = -1;
+    // rows fetched per round trip by collection queries, 0 to use the db source setting
+    int fetchSize = 0;
+    // whether collection queries read rows through a cursor, null to use the db source setting
+    Boolean streaming = null;
     boolean isPrivate = false;
     boolean referencesPrimaryKey = false;
     String updateCriteria;
@@ -130,8 +142,14 @@ public final class Relation {
         this.accessName =               rel.accessName;
         this.logicalOperator =          rel.logicalOperator;
         this.lazyLoading =              rel.lazyLoading;
+        this.compactLoading =           rel.compactLoading;
         this.aggressiveLoading =        rel.aggressiveLoading;
         this.aggressiveCaching =        rel.aggressiveCaching;
+        this.batchSize =                rel.batchSize;
+        this.keyedInvalidation =        rel.keyedInvalidation;
+        this.cacheTtl =                 rel.cacheTtl;
+        this.fetchSize =                rel.fetchSize;
+        this.streaming =                rel.streaming;
         this.updateCriteria =           rel.updateCriteria;
         this.autoSorted =               rel.autoSorted;
     }
@@ -230,6 +248,9 @@ public final class Relation {
             if (reftype == COLLECTION) {
                 referencesPrimaryKey = (accessName == null) ||
                         accessName.equalsIgnoreCase(otherType.getIDField());
+                keyedInvalidation = initKeyedInvalidation();
+            } else {
+                keyedInvalidation = false;
             }
 
             // if DbMapping for virtual nodes has already been created,
@@ -242,7 +263,28 @@ public final class Relation {
             }
         } else {
             referencesPrimaryKey = false;
+            keyedInvalidation = false;
+        }
+    }
+
+    /**
+     * Check whether changes to this collection can be tracked by the values of
+     * the foreign columns it is constrained on. If so, the columns are registered
+     * as keyed columns with the other type.
+     */
+    private boolean initKeyedInvalidation() {
+        if (constraints.length == 0 || groupby != null || !otherType.isRelational()) {
+            return false;
+        }
+        for (int i = 0; i < constraints.length; i++) {
+            if (constraints[i].localKeyIsPrototype() || constraints[i].foreignKeyIsPrototype()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < constraints.length; i++) {
+            otherType.addKeyedColumn(constraints[i].foreignColumn(otherType));
         }
+        return true;
     }
 
     /**
@@ -304,16 +346,20 @@ public final class Relation {
             loading = loading.trim();
             if ("aggressive".equalsIgnoreCase(loading)) {
                 aggressiveLoading = true;
-                lazyLoading = false;
+                lazyLoading = compactLoading = false;
             } else if ("lazy".equalsIgnoreCase(loading)) {
                 lazyLoading = true;
+                aggressiveLoading = compactLoading = false;
+            } else if ("compact".equalsIgnoreCase(loading)) {
+                // lazy loading with ids packed into a long array
+                lazyLoading = compactLoading = true;
                 aggressiveLoading = false;
             } else {
                 System.err.println("Unsupported loadmode property in " + ownType + ": " + loading);
-                aggressiveLoading = lazyLoading = false;
+                aggressiveLoading = lazyLoading = compactLoading = false;
             }
         } else {
-            aggressiveLoading = lazyLoading = false;
+            aggressiveLoading = lazyLoading = compactLoading = false;
         }
 
         String caching = props.getProperty("cachemode");
@@ -321,6 +367,21 @@ public final class Relation {
         aggressiveCaching = (caching != null) &&
                             "aggressive".equalsIgnoreCase(caching.trim());
 
+        // get the number of referenced objects to load in one query
+        batchSize = getIntegerProperty("batchsize", props, 0);
+
+        // get the time to live of cached query results
+        cacheTtl = getIntegerProperty("cachettl", props, -1);
+
+        // get the fetch size and streaming mode of collection queries
+        fetchSize = getIntegerProperty("fetchsize", props, 0);
+        Object stream = props.get("streaming");
+        if (stream instanceof Boolean) {
+            streaming = (Boolean) stream;
+        } else {
+            streaming = stream == null ? null : Boolean.valueOf(stream.toString().trim());
+        }
+
         // get order property
         order = props.getProperty("order");
 
@@ -555,6 +616,15 @@ public final class Relation {
         return isPrivate;
     }
 
+    /**
+     *  Get the maximum number of nodes referenced through this relation that
+     *  are loaded together with a single query, as set by the <code>batchsize</code>
+     *  option. Returns 0 if references are loaded one by one.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     /**
      *  Check whether aggressive loading is set for this relation
      */
@@ -958,7 +1028,18 @@ public final class Relation {
      */
     public void buildQuery(StringBuffer q, Node home, boolean useOrder, boolean isCount)
             throws SQLException, ClassNotFoundException {
-        buildQuery(q, home, otherType, null, useOrder, isCount);
+        buildQuery(q, home, otherType, null, useOrder, isCount, null);
+    }
+
+    /**
+     *  Build the second half of an SQL select statement according to this relation
+     *  and a local object. If params is not null, key and constraint values are
+     *  rendered as bind variables and added to params.
+     */
+    public void buildQuery(StringBuffer q, Node home, boolean useOrder, boolean isCount,
+                           QueryParameters params)
+            throws SQLException, ClassNotFoundException {
+        buildQuery(q, home, otherType, null, useOrder, isCount, params);
     }
 
     /**
@@ -968,6 +1049,17 @@ public final class Relation {
     public void buildQuery(StringBuffer q, Node home, DbMapping otherDbm, String kstr,
                            boolean useOrder, boolean isCount)
             throws SQLException, ClassNotFoundException {
+        buildQuery(q, home, otherDbm, kstr, useOrder, isCount, null);
+    }
+
+    /**
+     *  Build the second half of an SQL select statement according to this relation
+     *  and a local object. If params is not null, key and constraint values are
+     *  rendered as bind variables and added to params.
+     */
+    public void buildQuery(StringBuffer q, Node home, DbMapping otherDbm, String kstr,
+                           boolean useOrder, boolean isCount, QueryParameters params)
+            throws SQLException, ClassNotFoundException {
         String prefix = " WHERE ";
         Node nonvirtual = home.getNonVirtualParent();
 
@@ -976,13 +1068,13 @@ public final class Relation {
 
             String accessColumn = (accessName == null) ?
                     otherDbm.getIDField() : accessName;
-            otherDbm.appendCondition(q, accessColumn, kstr);
+            otherDbm.appendCondition(q, accessColumn, kstr, params);
 
             prefix = " AND ";
         }
 
         // render the constraints and filter
-        renderConstraints(q, home, nonvirtual, otherDbm, prefix);
+        renderConstraints(q, home, nonvirtual, otherDbm, prefix, params);
 
         // add joined fetch constraints
         ownType.addJoinConstraints(q, prefix);
@@ -1018,6 +1110,57 @@ public final class Relation {
 
     }
 
+    /**
+     *  Build the second half of a keyset paginated SQL select statement. This
+     *  renders the constraints and filter of this relation and selects the
+     *  first batchSize objects with a primary key greater than lastKey, ordered
+     *  by primary key. The order, maxSize and offset settings of this relation
+     *  are ignored.
+     *
+     * @param q the string buffer to append to
+     * @param home the node holding the collection
+     * @param lastKey the last key of the previous batch, or null for the first batch
+     * @param batchSize the maximum number of objects to select
+     * @param params the bind values of the query, or null to render literal values
+     */
+    public void buildKeysetQuery(StringBuffer q, Node home, String lastKey,
+                                 int batchSize, QueryParameters params)
+            throws SQLException, ClassNotFoundException {
+        q.append(" WHERE ");
+        int start = q.length();
+
+        // render the constraints and filter
+        renderConstraints(q, home, home.getNonVirtualParent(), otherType, "", params);
+
+        String idField = otherType.getIDField();
+        if (lastKey != null) {
+            if (q.length() > start) {
+                q.append(" AND ");
+            }
+            otherType.appendCondition(q, idField, " > ", lastKey, params);
+        }
+
+        if (q.length() == start) {
+            q.setLength(start - 7);
+            ownType.addJoinConstraints(q, " WHERE ");
+        } else {
+            ownType.addJoinConstraints(q, " AND ");
+        }
+
+        q.append(" ORDER BY ");
+        if (idField.indexOf('(') == -1 && idField.indexOf('.') == -1) {
+            q.append(otherType.getTableName()).append('.');
+        }
+        q.append(idField);
+
+        if (otherType.isOracle()) {
+            q.insert(0, "SELECT * FROM (");
+            q.append(") WHERE ROWNUM <= ").append(batchSize);
+        } else {
+            q.append(" LIMIT ").append(batchSize);
+        }
+    }
+
     protected void appendAdditionalTables(StringBuffer q) {
         if (additionalTables != null) {
             q.append(additionalTablesJoined ? ' ' : ',');
@@ -1087,7 +1230,24 @@ public final class Relation {
      */
     public void renderConstraints(StringBuffer q, Node home, String prefix)
                              throws SQLException, ClassNotFoundException {
-        renderConstraints(q, home, home.getNonVirtualParent(), otherType, prefix);
+        renderConstraints(q, home, home.getNonVirtualParent(), otherType, prefix, null);
+    }
+
+    /**
+     * Render contraints and filter conditions to an SQL query string buffer.
+     *
+     * @param q the query string
+     * @param home our home node
+     * @param prefix the prefix to use to append to the existing query (e.g. " AND ")
+     * @param params the bind values of the query, or null to render literal values
+     *
+     * @throws SQLException sql related exception
+     * @throws ClassNotFoundException driver class not found
+     */
+    public void renderConstraints(StringBuffer q, Node home, String prefix,
+                                  QueryParameters params)
+                             throws SQLException, ClassNotFoundException {
+        renderConstraints(q, home, home.getNonVirtualParent(), otherType, prefix, params);
     }
 
     /**
@@ -1105,6 +1265,28 @@ public final class Relation {
     public void renderConstraints(StringBuffer q, Node home, Node nonvirtual,
                                   DbMapping otherDbm, String prefix)
                              throws SQLException, ClassNotFoundException {
+        renderConstraints(q, home, nonvirtual, otherDbm, prefix, null);
+    }
+
+    /**
+     * Render contraints and filter conditions to an SQL query string buffer.
+     * Constraint values are rendered as bind variables if params is not null.
+     * Filter values are always rendered literally, as the filter may put its
+     * own quotes around them.
+     *
+     * @param q the query string
+     * @param home our home node
+     * @param nonvirtual our non-virtual home nod
+     * @param otherDbm the DbMapping of the remote Node
+     * @param prefix the prefix to use to append to the existing query (e.g. " AND ")
+     * @param params the bind values of the query, or null to render literal values
+     *
+     * @throws SQLException sql related exception
+     * @throws ClassNotFoundException driver class not found
+     */
+    public void renderConstraints(StringBuffer q, Node home, Node nonvirtual,
+                                  DbMapping otherDbm, String prefix, QueryParameters params)
+                             throws SQLException, ClassNotFoundException {
 
         if (constraints.length > 1 && logicalOperator != AND) {
             q.append(prefix);
@@ -1119,7 +1301,7 @@ public final class Relation {
                 continue;
             }
             q.append(prefix);
-            constraints[i].addToQuery(q, home, nonvirtual, otherDbm);
+            constraints[i].addToQuery(q, home, nonvirtual, otherDbm, params);
             prefix = logicalOperator;
         }
 
@@ -1471,6 +1653,40 @@ public final class Relation {
         return "Relation " + ownType+"."+propName + " -> " + target + c;
     }
 
+    /**
+     * Get a serial number of data changes in the other type's table that may
+     * affect the content of this collection for the given home node. With keyed
+     * invalidation, only changes to rows with matching constraint values count.
+     *
+     * @param home the node holding the collection
+     * @return a number that changes whenever the collection may have changed
+     */
+    long getDataChange(Node home) {
+        if (keyedInvalidation && groupby == null) {
+            Node nonvirtual = home.getNonVirtualParent();
+            if (nonvirtual != null) {
+                try {
+                    long checksum = otherType.getUnkeyedDataChange();
+                    for (int i = 0; i < constraints.length; i++) {
+                        Constraint c = constraints[i];
+                        if (c.isGroupby) {
+                            return otherType.getLastDataChange();
+                        }
+                        String local = c.localValue(nonvirtual);
+                        checksum = checksum * 31 +
+                                otherType.getKeyedDataChange(c.foreignColumn(otherType), local);
+                        // also notice changes of the local value itself
+                        checksum = checksum * 31 + (local == null ? 0 : local.hashCode());
+                    }
+                    return checksum;
+                } catch (SQLException invalidLocalKey) {
+                    // fall back to table wide data changes
+                }
+            }
+        }
+        return otherType.getLastDataChange();
+    }
+
     /**
      * The Constraint class represents a part of the where clause in the query used to
      * establish a relation between database mapped objects.
@@ -1486,31 +1702,40 @@ public final class Relation {
             isGroupby = groupby;
         }
 
-        public void addToQuery(StringBuffer q, INode home, INode nonvirtual, DbMapping otherDbm)
+        public void addToQuery(StringBuffer q, INode home, INode nonvirtual, DbMapping otherDbm,
+                               QueryParameters params)
                         throws SQLException, ClassNotFoundException {
-            String local;
-            INode ref = isGroupby ? home : nonvirtual;
+            String local = localValue(isGroupby ? home : nonvirtual);
+            otherDbm.appendCondition(q, foreignColumn(otherDbm), local, params);
+        }
 
+        /**
+         * Get the value of the local key on the given node.
+         */
+        String localValue(INode ref) throws SQLException {
             if (localKeyIsPrimary(ref.getDbMapping())) {
-                local = ref.getID();
+                return ref.getID();
             } else if (localKeyIsPrototype()) {
-                local = ref.getDbMapping().getStorageTypeName();
+                return ref.getDbMapping().getStorageTypeName();
             } else {
                 String homeprop = ownType.columnNameToProperty(localKey);
                 if (homeprop == null) {
                     throw new SQLException("Invalid local name '" + localKey +
                             "' on " + ownType);
                 }
-                local = ref.getString(homeprop);
+                return ref.getString(homeprop);
             }
+        }
 
-            String columnName;
+        /**
+         * Get the name of the foreign column in the given mapping.
+         */
+        String foreignColumn(DbMapping otherDbm) {
             if (foreignKeyIsPrimary()) {
-                columnName = otherDbm.getIDField();
+                return otherDbm.getIDField();
             } else {
-                columnName = foreignKey;
+                return foreignKey;
             }
-            otherDbm.appendCondition(q, columnName, local);
         }
 
         public boolean foreignKeyIsPrimary() {
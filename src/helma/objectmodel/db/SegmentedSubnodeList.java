@@ -225,15 +225,18 @@ public class SegmentedSubnodeList extends SubnodeList {
                         remainder : SEGLENGTH;
                     segments[s] = new Segment(s * SEGLENGTH, length);
                 }
-                list = new ArrayList((int) size + 5);
+                list = createList((int) size + 5);
                 for (int i = 0; i < size; i++) {
                     list.add(null);
                 }
+                countUpdate(true);
             } else {
                 segments = null;
                 super.update();
             }
             lastSubnodeFetch = lastChange;
+        } else {
+            countUpdate(false);
         }
     }
 
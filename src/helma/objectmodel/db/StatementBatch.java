@@ -0,0 +1,151 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Collects INSERT, UPDATE and DELETE statements issued during a transactor
+ * commit and sends them to the database using JDBC batch updates.
+ *
+ * Consecutive writes with the same SQL on the same connection are added to
+ * the same batch. As soon as a write with different SQL comes along, the
+ * pending batch is executed, so statements always reach the database in
+ * the order the nodes were modified and constraints between rows of
+ * different tables are honored.
+ */
+final class StatementBatch {
+
+    private final NodeManager nmgr;
+    private final int maxSize;
+
+    // the statement currently collecting batched writes
+    private PreparedStatement stmt;
+    private Connection con;
+    private String sql;
+    private String type;
+    private String table;
+    private int count;
+
+    /**
+     * Create a new statement batch.
+     *
+     * @param nmgr the node manager, used for sql logging
+     * @param maxSize the maximum number of statements sent in one batch
+     */
+    StatementBatch(NodeManager nmgr, int maxSize) {
+        this.nmgr = nmgr;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a prepared statement for the given SQL. If the SQL and connection
+     * match the pending batch, its statement is returned. Otherwise the
+     * pending batch is executed and a new statement is prepared.
+     *
+     * @param con the connection
+     * @param sql the SQL statement
+     * @param type the statement type used in the sql log, e.g. "INSERT"
+     * @param table the table name used in the sql log
+     * @return the statement to bind values to
+     * @throws SQLException if executing the pending batch or preparing the statement failed
+     */
+    PreparedStatement prepare(Connection con, String sql, String type, String table)
+            throws SQLException {
+        if (stmt != null && con == this.con && sql.equals(this.sql)) {
+            return stmt;
+        }
+        flush();
+        stmt = con.prepareStatement(sql);
+        this.con = con;
+        this.sql = sql;
+        this.type = type;
+        this.table = table;
+        return stmt;
+    }
+
+    /**
+     * Add the values bound to the current statement to the batch, executing
+     * the batch if it reached its maximum size.
+     *
+     * @throws SQLException if executing the batch failed
+     */
+    void add() throws SQLException {
+        stmt.addBatch();
+        count += 1;
+        if (count >= maxSize) {
+            execute();
+        }
+    }
+
+    /**
+     * Execute the pending batch and close its statement.
+     *
+     * @throws SQLException if executing the batch failed
+     */
+    void flush() throws SQLException {
+        try {
+            execute();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Execute the statements collected in the pending batch.
+     */
+    private void execute() throws SQLException {
+        if (count == 0) {
+            return;
+        }
+        int size = count;
+        int rows = 0;
+        count = 0;
+        long logTimeStart = System.nanoTime();
+        try {
+            int[] results = stmt.executeBatch();
+            for (int i = 0; i < results.length; i++) {
+                // drivers may not report the number of rows per statement
+                rows += results[i] == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, results[i]);
+            }
+        } finally {
+            nmgr.logSqlStatement(type + "_BATCH", table, null, logTimeStart,
+                                 rows, sql + " [" + size + "]", null);
+        }
+    }
+
+    /**
+     * Close the current statement, dropping any statements that haven't
+     * been executed yet. This is called on commit failure.
+     */
+    void close() {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (Exception ignore) {
+                // nothing to do
+            }
+        }
+        stmt = null;
+        con = null;
+        sql = null;
+        count = 0;
+    }
+}
@@ -43,7 +43,16 @@ public class SubnodeList implements Serializable {
      */
     public SubnodeList(Node node) {
         this.node = node;
-        this.list = new ArrayList();
+        this.list = createList(10);
+    }
+
+    /**
+     * Create the list used to hold the NodeHandles of this collection.
+     * @param capacity the initial capacity
+     * @return a new empty list
+     */
+    protected List createList(int capacity) {
+        return new ArrayList(capacity);
     }
 
     /**
@@ -132,9 +141,23 @@ public class SubnodeList implements Serializable {
             if (rel != null && rel.aggressiveLoading && rel.groupby == null) {
                 list = node.nmgr.getNodes(node, rel);
             } else {
-                list = node.nmgr.getNodeIDs(node, rel);
+                list = node.nmgr.getNodeIDs(node, rel, createList(10));
             }
             lastSubnodeFetch = lastChange;
+            countUpdate(true);
+        } else {
+            countUpdate(false);
+        }
+    }
+
+    /**
+     * Record whether an update of this list refetched its content.
+     * @param refetched true if the list was refetched from the database
+     */
+    protected void countUpdate(boolean refetched) {
+        DbMapping dbmap = getSubnodeMapping();
+        if (dbmap != null && dbmap.isRelational()) {
+            node.nmgr.countCollectionUpdate(dbmap.getTypeName(), refetched);
         }
     }
 
@@ -165,7 +188,7 @@ public class SubnodeList implements Serializable {
         long checkSum = lastSubnodeChange + node.dbmap.getLastTypeChange();
         Relation rel = getSubnodeRelation();
         return rel == null || rel.aggressiveCaching ?
-                checkSum : checkSum + rel.otherType.getLastDataChange();
+                checkSum : checkSum + rel.getDataChange(node);
     }
 
     protected synchronized void markAsChanged() {
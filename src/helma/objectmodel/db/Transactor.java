@@ -20,7 +20,6 @@ import helma.objectmodel.DatabaseException;
 import helma.objectmodel.ITransaction;
 
 import java.sql.Connection;
-import java.sql.Statement;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -44,6 +43,17 @@ public class Transactor {
     // List of nodes whose child index has been modified
     private Set parentNodes;
 
+    // Ids of referenced nodes that haven't been loaded yet, grouped by
+    // storage name, used to load references in batches
+    private Map pendingReferences;
+
+    // Maximum number of pending reference ids remembered per table
+    private static final int MAX_PENDING_REFERENCES = 1000;
+
+    // The data changes applied by the commit in progress, while node change
+    // listeners are notified
+    private DataChanges committedDataChanges;
+
     // Is a transaction in progress?
     private volatile boolean active;
     private volatile boolean killed;
@@ -51,11 +61,19 @@ public class Transactor {
     // Transaction for the embedded database
     protected ITransaction txn;
 
-    // Transactions for SQL data sources
+    // Connections borrowed from the SQL data sources' connection pools
     private Map<DbSource, Connection> sqlConnections;
 
-    // Set of SQL connections that already have been verified
-    private Map<DbSource, Long> testedConnections;
+    // Connections written by the commit in progress, whose writes are
+    // committed or rolled back together. Null if no commit is writing.
+    private List<Connection> writeConnections;
+
+    // Read connections borrowed from the SQL data sources' replicas
+    private Map<DbSource, Connection> replicaConnections;
+
+    // SQL data sources written by this transactor, which must not be read
+    // from replicas for the rest of the request
+    private Set<DbSource> writtenSources;
 
     // when did the current transaction start?
     private long tstart;
@@ -80,9 +98,11 @@ public class Transactor {
         dirtyNodes = new LinkedHashMap();
         cleanNodes = new HashMap();
         parentNodes = new HashSet();
+        pendingReferences = new HashMap();
 
         sqlConnections = new HashMap<DbSource, Connection>();
-        testedConnections = new HashMap<DbSource, Long>();
+        replicaConnections = new HashMap<DbSource, Connection>();
+        writtenSources = new HashSet<DbSource>();
         active = false;
         killed = false;
     }
@@ -233,44 +253,61 @@ public class Transactor {
     }
 
     /**
-     * Register a db connection with this transactor thread.
+     * Register a db connection with this transactor thread. The connection
+     * is returned to the db source's pool when the transaction ends.
      * @param src the db source
      * @param con the connection
      */
     public void registerConnection(DbSource src, Connection con) {
-        sqlConnections.put(src, con);
-        // we assume a freshly created connection is ok.
-        testedConnections.put(src, new Long(System.currentTimeMillis()));
+        Connection old = sqlConnections.put(src, con);
+        if (old != null && old != con) {
+            src.discardConnection(old);
+        }
     }
 
     /**
      * Get a db connection that was previously registered with this transactor thread.
+     * Connections are validated by the db source's connection pool before they
+     * are handed out, so no further checks are done here.
      * @param src the db source
      * @return the connection
      */
     public Connection getConnection(DbSource src) {
-        Connection con = sqlConnections.get(src);
-        Long tested = testedConnections.get(src);
-        long now = System.currentTimeMillis();
-        if (con != null && (tested == null || now - tested.longValue() > 60000)) {
-            // Check if the connection is still alive by executing a simple statement.
-            try {
-                Statement stmt = con.createStatement();
-                if (src.isOracle()) {
-                    stmt.execute("SELECT 1 FROM DUAL");
-                } else {
-                    stmt.execute("SELECT 1");
-                }
-                stmt.close();
-                testedConnections.put(src, new Long(now));
-            } catch (SQLException sx) {
-                try {
-                    con.close();
-                } catch (SQLException ignore) {/* nothing to do */}
-                return null;
-            }
+        return sqlConnections.get(src);
+    }
+
+    /**
+     * Register a db connection borrowed from a replica of a db source with this
+     * transactor thread. The connection is returned to the replica's pool when
+     * the transaction ends.
+     * @param src the db source
+     * @param con the replica connection
+     */
+    public void registerReplicaConnection(DbSource src, Connection con) {
+        Connection old = replicaConnections.put(src, con);
+        if (old != null && old != con) {
+            src.discardReplicaConnection(old);
         }
-        return con;
+    }
+
+    /**
+     * Get a replica connection that was previously registered with this transactor thread.
+     * @param src the db source
+     * @return the replica connection
+     */
+    public Connection getReplicaConnection(DbSource src) {
+        return replicaConnections.get(src);
+    }
+
+    /**
+     * Check whether reads from the given db source must go to the primary
+     * database because this transactor has modified objects that haven't been
+     * committed yet, or has written to the db source earlier in the request.
+     * @param src the db source
+     * @return true if replicas must not be used
+     */
+    public boolean readsFromPrimary(DbSource src) {
+        return !dirtyNodes.isEmpty() || writtenSources.contains(src);
     }
 
     /**
@@ -282,6 +319,21 @@ public class Transactor {
      * @throws Exception ...
      */
     public synchronized void begin(String name) throws Exception {
+        begin(name, false);
+    }
+
+    /**
+     * Start a new transaction with the given name.
+     *
+     * @param name The name of the transaction. This is usually the request
+     * path for the underlying HTTP request.
+     * @param continued true if the transaction continues the request of the
+     * previous transaction, so db sources written by the previous transaction
+     * keep being read from the primary database rather than from replicas
+     *
+     * @throws Exception ...
+     */
+    public synchronized void begin(String name, boolean continued) throws Exception {
         if (killed) {
             throw new DatabaseException("Transaction started on killed thread");
         } else if (active) {
@@ -291,6 +343,9 @@ public class Transactor {
         dirtyNodes.clear();
         cleanNodes.clear();
         parentNodes.clear();
+        if (!continued) {
+            writtenSources.clear();
+        }
         txn = nmgr.db.beginTransaction();
         active = true;
         tstart = System.currentTimeMillis();
@@ -327,21 +382,73 @@ public class Transactor {
         }
 
         if (!dirtyNodes.isEmpty()) {
-            Object[] dirty = dirtyNodes.values().toArray();
+            // run callbacks before anything is written, so they never see
+            // a partly written commit or writes still pending in a batch
+            Object[] dirty = invokeOnPersist();
 
-            // the set to collect DbMappings to be marked as changed
-            HashSet dirtyDbMappings = new HashSet();
+            // collects DbMappings and keyed column values to be marked as changed
+            DataChanges dataChanges = new DataChanges();
             Log eventLog = nmgr.app.getEventLog();
+            // collects relational writes into JDBC batches
+            StatementBatch batch = nmgr.createStatementBatch();
+            boolean written = false;
+            writeConnections = new ArrayList<Connection>();
+
+            try {
+                for (int i = 0; i < dirty.length; i++) {
+                    Node node = (Node) dirty[i];
+
+                    // update nodes in db
+                    int nstate = node.getState();
 
+                    if (nstate == Node.NEW || nstate == Node.MODIFIED || nstate == Node.DELETED) {
+                        markWritten(node.getDbMapping());
+                    }
+
+                    if (nstate == Node.NEW) {
+                        nmgr.insertNode(nmgr.db, txn, node, batch);
+                        dataChanges.prepare(node, false);
+                        dataChanges.add(node);
+                    } else if (nstate == Node.MODIFIED) {
+                        // collect keyed values before updateNode clears the dirty flags
+                        dataChanges.prepare(node, true);
+                        // only mark DbMapping as dirty if updateNode returns true
+                        if (nmgr.updateNode(nmgr.db, txn, node, batch)) {
+                            dataChanges.add(node);
+                        }
+                    } else if (nstate == Node.DELETED) {
+                        // a keyed value changed before the delete is treated
+                        // like one changed by an update, its old value is unknown
+                        dataChanges.prepare(node, true);
+                        nmgr.deleteNode(nmgr.db, txn, node, batch);
+                        dataChanges.add(node);
+                    }
+                }
+
+                // send remaining batched writes to the database
+                if (batch != null) {
+                    batch.flush();
+                }
+                commitConnections();
+                written = true;
+            } finally {
+                if (batch != null) {
+                    batch.close();
+                }
+                if (!written) {
+                    // e.g. a ConcurrencyException from a versioned update: nothing
+                    // must be stored, so the request can be retried with fresh data
+                    rollbackConnections();
+                }
+                writeConnections = null;
+            }
+
+            // all writes have been executed, update node states and the cache
             for (int i = 0; i < dirty.length; i++) {
                 Node node = (Node) dirty[i];
-
-                // update nodes in db
                 int nstate = node.getState();
 
                 if (nstate == Node.NEW) {
-                    nmgr.insertNode(nmgr.db, txn, node);
-                    dirtyDbMappings.add(node.getDbMapping());
                     node.setState(Node.CLEAN);
 
                     // register node with nodemanager cache
@@ -357,10 +464,6 @@ public class Transactor {
                                 node.getID());
                     }
                 } else if (nstate == Node.MODIFIED) {
-                    // only mark DbMapping as dirty if updateNode returns true
-                    if (nmgr.updateNode(nmgr.db, txn, node)) {
-                        dirtyDbMappings.add(node.getDbMapping());
-                    }
                     node.setState(Node.CLEAN);
 
                     // update node with nodemanager cache
@@ -376,9 +479,6 @@ public class Transactor {
                                 node.getID());
                     }
                 } else if (nstate == Node.DELETED) {
-                    nmgr.deleteNode(nmgr.db, txn, node);
-                    dirtyDbMappings.add(node.getDbMapping());
-
                     // remove node from nodemanager cache
                     nmgr.evictNode(node);
 
@@ -397,13 +497,8 @@ public class Transactor {
             }
 
             // set last data change times in db-mappings
-            // long now = System.currentTimeMillis();
-            for (Iterator i = dirtyDbMappings.iterator(); i.hasNext(); ) {
-                DbMapping dbm = (DbMapping) i.next();
-                if (dbm != null) {
-                    dbm.setLastDataChange();
-                }
-            }
+            dataChanges.apply();
+            committedDataChanges = dataChanges;
         }
 
         long now = System.currentTimeMillis();
@@ -423,9 +518,12 @@ public class Transactor {
             nmgr.fireNodeChangeEvent(insertedNodes, updatedNodes,
                                      deletedNodes, modifiedParentNodes);
         }
+        committedDataChanges = null;
 
         // clear the node collections
         recycle();
+        // return JDBC connections to the pools
+        releaseConnections(false);
 
         if (active) {
             active = false;
@@ -447,6 +545,84 @@ public class Transactor {
         tname = null;
     }
 
+    /**
+     * Enlist a connection in the database transaction of the commit in
+     * progress, turning off its auto-commit mode. Does nothing if no commit
+     * is writing.
+     *
+     * @param con a connection about to be written
+     * @throws SQLException if auto-commit couldn't be turned off
+     */
+    void enlistConnection(Connection con) throws SQLException {
+        if (writeConnections != null && !writeConnections.contains(con)) {
+            if (con.getAutoCommit()) {
+                con.setAutoCommit(false);
+            }
+            writeConnections.add(con);
+        }
+    }
+
+    /**
+     * Commit the database transactions of the connections written by the
+     * commit in progress. Connections are committed one after the other, so
+     * a failure to commit one db source doesn't undo the others.
+     */
+    private void commitConnections() throws SQLException {
+        for (int i = 0; i < writeConnections.size(); i++) {
+            Connection con = writeConnections.get(i);
+            con.commit();
+            con.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Roll back the database transactions of the connections written by
+     * the commit in progress.
+     */
+    private void rollbackConnections() {
+        for (int i = 0; i < writeConnections.size(); i++) {
+            Connection con = writeConnections.get(i);
+            try {
+                // skip connections that were committed before a later one failed
+                if (!con.getAutoCommit()) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (Exception x) {
+                nmgr.app.logError("Error rolling back transaction " + tname, x);
+            }
+        }
+    }
+
+    /**
+     * Invoke the onPersist() callbacks of new and modified nodes. Nodes that
+     * become dirty in a callback are written with this commit, and get their
+     * own callback invoked.
+     *
+     * @return the dirty nodes to be written
+     */
+    private Object[] invokeOnPersist() {
+        IdentityHashMap invoked = new IdentityHashMap();
+        Object[] dirty;
+        boolean invokedAny;
+
+        do {
+            dirty = dirtyNodes.values().toArray();
+            invokedAny = false;
+            for (int i = 0; i < dirty.length; i++) {
+                Node node = (Node) dirty[i];
+                int nstate = node.getState();
+                if ((nstate == Node.NEW || nstate == Node.MODIFIED) &&
+                        invoked.put(node, node) == null) {
+                    nmgr.invokeOnPersist(node);
+                    invokedAny = true;
+                }
+            }
+        } while (invokedAny);
+
+        return dirty;
+    }
+
     /**
      * Abort the current transaction, rolling back all changes made.
      */
@@ -473,8 +649,15 @@ public class Transactor {
 
         // clear the node collections
         recycle();
-        // close any JDBC connections associated with this transactor thread
-        closeConnections();
+        if (Thread.currentThread() == thread) {
+            // return JDBC connections to the pools, making sure they're
+            // validated before they're used again
+            releaseConnections(true);
+        } else {
+            // we're aborted from another thread that may still be using
+            // the connections, so close them
+            closeConnections();
+        }
 
         if (active) {
             active = false;
@@ -526,16 +709,67 @@ public class Transactor {
         }
     }
 
+    /**
+     * Get the data changes applied by the commit in progress. This is only
+     * available to node change listeners called by the commit.
+     *
+     * @return the data changes, or null
+     */
+    DataChanges getCommittedDataChanges() {
+        return committedDataChanges;
+    }
+
+    /**
+     * Remember that the db source of the given mapping has been written,
+     * so it isn't read from replicas for the rest of the request.
+     */
+    private void markWritten(DbMapping dbm) {
+        if (dbm != null && dbm.isRelational()) {
+            DbSource src = dbm.getDbSource();
+            if (src != null) {
+                writtenSources.add(src);
+            }
+        }
+    }
+
+    /**
+     * Returns all JDBC connections held by this transactor to their pools.
+     * @param revalidate true if the connections should be validated before
+     *                   they are used again
+     */
+    private synchronized void releaseConnections(boolean revalidate) {
+        if (sqlConnections != null && !sqlConnections.isEmpty()) {
+            for (Iterator i = sqlConnections.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                DbSource src = (DbSource) entry.getKey();
+                src.releaseConnection((Connection) entry.getValue(), revalidate);
+            }
+
+            sqlConnections.clear();
+        }
+        if (replicaConnections != null && !replicaConnections.isEmpty()) {
+            for (Iterator i = replicaConnections.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                DbSource src = (DbSource) entry.getKey();
+                src.releaseReplicaConnection((Connection) entry.getValue(), revalidate);
+            }
+
+            replicaConnections.clear();
+        }
+    }
+
     /**
      * Closes all open JDBC connections
      */
-    public void closeConnections() {
+    public synchronized void closeConnections() {
         if (sqlConnections != null) {
-            for (Iterator i = sqlConnections.values().iterator(); i.hasNext();) {
+            for (Iterator i = sqlConnections.entrySet().iterator(); i.hasNext();) {
                 try {
-                    Connection con = (Connection) i.next();
+                    Map.Entry entry = (Map.Entry) i.next();
+                    DbSource src = (DbSource) entry.getKey();
+                    Connection con = (Connection) entry.getValue();
 
-                    con.close();
+                    src.discardConnection(con);
                     nmgr.app.logEvent("Closing DB connection: " + con);
                 } catch (Exception ignore) {
                     // exception closing db connection, ignore
@@ -543,7 +777,22 @@ public class Transactor {
             }
 
             sqlConnections.clear();
-            testedConnections.clear();
+        }
+        if (replicaConnections != null) {
+            for (Iterator i = replicaConnections.entrySet().iterator(); i.hasNext();) {
+                try {
+                    Map.Entry entry = (Map.Entry) i.next();
+                    DbSource src = (DbSource) entry.getKey();
+                    Connection con = (Connection) entry.getValue();
+
+                    src.discardReplicaConnection(con);
+                    nmgr.app.logEvent("Closing DB replica connection: " + con);
+                } catch (Exception ignore) {
+                    // exception closing db connection, ignore
+                }
+            }
+
+            replicaConnections.clear();
         }
     }
 
@@ -557,6 +806,48 @@ public class Transactor {
         dirtyNodes.clear();
         cleanNodes.clear();
         parentNodes.clear();
+        pendingReferences.clear();
+    }
+
+    /**
+     * Register the key of a node referenced by a node loaded in this transaction.
+     * When one of the registered nodes is requested, the node manager loads it
+     * along with the other pending references to the same table.
+     *
+     * @param key the key of the referenced node
+     * @param batchSize the maximum number of nodes to load with one query
+     */
+    void addPendingReference(DbKey key, int batchSize) {
+        PendingReferences refs = (PendingReferences) pendingReferences.get(key.getStorageName());
+        if (refs == null) {
+            refs = new PendingReferences();
+            pendingReferences.put(key.getStorageName(), refs);
+        }
+        refs.batchSize = Math.max(refs.batchSize, batchSize);
+        if (refs.ids.size() < MAX_PENDING_REFERENCES) {
+            refs.ids.add(key.getID());
+        }
+    }
+
+    /**
+     * Take the ids of pending references to the table of the given key, starting
+     * with the key's own id. Returns null if the key isn't a pending reference.
+     *
+     * @param key the key of the requested node
+     * @return a list of at most batchSize ids, or null
+     */
+    List takePendingReferences(DbKey key) {
+        PendingReferences refs = (PendingReferences) pendingReferences.get(key.getStorageName());
+        if (refs == null || !refs.ids.remove(key.getID())) {
+            return null;
+        }
+        List ids = new ArrayList();
+        ids.add(key.getID());
+        for (Iterator it = refs.ids.iterator(); it.hasNext() && ids.size() < refs.batchSize; ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
     }
 
     /**
@@ -575,4 +866,88 @@ public class Transactor {
     public String toString() {
         return "Transactor[" + tname + "]";
     }
+
+    /**
+     * Pending reference ids for one table
+     */
+    static class PendingReferences {
+        final LinkedHashSet ids = new LinkedHashSet();
+        int batchSize;
+    }
+
+    /**
+     * Collects the data changes of a commit. Changes of rows whose keyed column
+     * values are known are recorded by these values, so only collections
+     * constrained on them are invalidated. Other changes mark the whole
+     * DbMapping as changed.
+     */
+    static class DataChanges {
+        // DbMappings with changes that can't be attributed to keyed values
+        final HashSet dbMappings = new HashSet();
+        // DbMapping, column, value triples of keyed changes
+        final ArrayList keyedChanges = new ArrayList();
+        // column/value pairs of the node passed to prepare()
+        final ArrayList values = new ArrayList();
+        boolean keyed;
+
+        /**
+         * Collect the keyed values of a node before it is written.
+         */
+        void prepare(Node node, boolean isUpdate) {
+            DbMapping dbm = node.getDbMapping();
+            values.clear();
+            keyed = dbm != null && dbm.collectKeyedValues(node, isUpdate, values);
+        }
+
+        /**
+         * Record the change of the node passed to the last call of prepare().
+         */
+        void add(Node node) {
+            DbMapping dbm = node.getDbMapping();
+            if (dbm == null) {
+                return;
+            }
+            if (keyed) {
+                for (int i = 0; i < values.size(); i += 2) {
+                    keyedChanges.add(dbm);
+                    keyedChanges.add(values.get(i));
+                    keyedChanges.add(values.get(i + 1));
+                }
+            } else {
+                dbMappings.add(dbm);
+            }
+        }
+
+        /**
+         * Add the collected changes as cluster invalidation records to the given list.
+         */
+        void addRecords(List records) {
+            for (Iterator i = dbMappings.iterator(); i.hasNext(); ) {
+                DbMapping dbm = (DbMapping) i.next();
+                if (dbm.isRelational()) {
+                    records.add(new String[] {"D", dbm.getTypeName()});
+                }
+            }
+            for (int i = 0; i < keyedChanges.size(); i += 3) {
+                DbMapping dbm = (DbMapping) keyedChanges.get(i);
+                records.add(new String[] {"C", dbm.getTypeName(),
+                        (String) keyedChanges.get(i + 1), (String) keyedChanges.get(i + 2)});
+            }
+        }
+
+        /**
+         * Mark the collected changes in the DbMappings.
+         */
+        void apply() {
+            for (Iterator i = dbMappings.iterator(); i.hasNext(); ) {
+                DbMapping dbm = (DbMapping) i.next();
+                dbm.setLastDataChange();
+            }
+            for (int i = 0; i < keyedChanges.size(); i += 3) {
+                DbMapping dbm = (DbMapping) keyedChanges.get(i);
+                dbm.setKeyedDataChange((String) keyedChanges.get(i + 1),
+                                       (String) keyedChanges.get(i + 2));
+            }
+        }
+    }
 }
@@ -134,6 +134,23 @@ public final class WrappedNodeManager {
         }
     }
 
+    /**
+     * Get the list of nodes contained in the collection of the given
+     * Node specified by the given Relation, adding them to the given list.
+     *
+     * @param home the parent node
+     * @param rel the relation
+     * @param list the list to add the node handles to
+     * @return the list
+     */
+    public List getNodeIDs(Node home, Relation rel, List list) {
+        try {
+            return nmgr.getNodeIDs(home, rel, list);
+        } catch (Exception x) {
+            throw new RuntimeException("Error retrieving NodeIDs", x);
+        }
+    }
+
     /**
      * @see helma.objectmodel.db.NodeManager#updateSubnodeList(Node, Relation)
      */
@@ -170,6 +187,39 @@ public final class WrappedNodeManager {
         }
     }
 
+    /**
+     * Load the next batch of nodes for a cursor.
+     *
+     * @see helma.objectmodel.db.NodeManager#getNodeBatch(Node, Relation, String, int, List)
+     */
+    public List getNodeBatch(Node home, Relation rel, String lastKey, int batchSize,
+                             List loaded) {
+        try {
+            return nmgr.getNodeBatch(home, rel, lastKey, batchSize, loaded);
+        } catch (Exception x) {
+            throw new RuntimeException("Error retrieving node batch", x);
+        }
+    }
+
+    /**
+     * Remove a node loaded by a cursor from the node cache.
+     *
+     * @param node the node
+     */
+    public void releaseNode(Node node) {
+        nmgr.releaseNode(node);
+    }
+
+    /**
+     * Record whether a collection had to be refetched when it was accessed.
+     *
+     * @param prototype the prototype of the collection's nodes
+     * @param refetched true if the collection was refetched
+     */
+    public void countCollectionUpdate(String prototype, boolean refetched) {
+        nmgr.countCollectionUpdate(prototype, refetched);
+    }
+
     /**
      * Delete a node from the database
      *
@@ -0,0 +1,346 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import helma.objectmodel.INode;
+import helma.objectmodel.IProperty;
+import helma.objectmodel.db.DbKey;
+import helma.objectmodel.db.DbMapping;
+import helma.objectmodel.db.Key;
+import helma.objectmodel.db.Node;
+import helma.objectmodel.db.NodeHandle;
+import helma.objectmodel.db.NodeManager;
+import helma.objectmodel.db.Property;
+import helma.objectmodel.db.PropertyMap;
+import helma.objectmodel.db.SubnodeList;
+import helma.util.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * A binary encoding of embedded database nodes, used in place of the XML
+ * format written by {@link XmlWriter} and read by {@link XmlDatabaseReader}.
+ * It contains the same information as the XML format: the node's id, name,
+ * prototype and timestamps, a reference to its parent, its primitive and
+ * node reference properties, and references to its subnodes. Referenced
+ * nodes are encoded by their key, so they don't have to be fetched when a
+ * node is written.
+ *
+ * Encoded nodes start with a header that can't appear at the start of an
+ * XML document, so readers can tell the two formats apart with
+ * {@link #isBinary(byte[])}.
+ */
+public final class BinaryNodeCodec {
+
+    // marker at the start of encoded nodes
+    private static final byte[] MAGIC = {0, 'H', 'N', 'B'};
+    // encoding version, checked when decoding
+    private static final byte VERSION = 1;
+
+    private final NodeManager nmgr;
+
+    /**
+     * Create a codec for the nodes of a node manager.
+     *
+     * @param nmgr the node manager
+     */
+    public BinaryNodeCodec(NodeManager nmgr) {
+        this.nmgr = nmgr;
+    }
+
+    /**
+     * Check whether data is a binary encoded node.
+     *
+     * @param data the data
+     * @return true if the data starts with the binary node header
+     */
+    public static boolean isBinary(byte[] data) {
+        if (data == null || data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode a node.
+     *
+     * @param node the node
+     * @return the encoded node
+     * @throws IOException if the node couldn't be encoded
+     */
+    public byte[] encode(INode node) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bout);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        StringUtils.writeString(out, node.getID());
+        StringUtils.writeString(out, node.getName());
+        String prototype = node.getPrototype();
+        StringUtils.writeString(out, prototype == null || "".equals(prototype) ? "hopobject" : prototype);
+        out.writeLong(node.created());
+        out.writeLong(node.lastModified());
+
+        writeReference(out, node.getParent());
+
+        List props = getProperties(node);
+        out.writeInt(props.size());
+        for (int i = 0; i < props.size(); i++) {
+            Object[] entry = (Object[]) props.get(i);
+            StringUtils.writeString(out, (String) entry[0]);
+            writeValue(out, (IProperty) entry[1]);
+        }
+
+        SubnodeList subnodes = getSubnodes(node);
+        int count = subnodes == null ? 0 : subnodes.size();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            writeReference(out, subnodes.get(i));
+        }
+
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Get the properties to encode as a list of name and property pairs.
+     * Like the XML format, this skips internal properties starting with
+     * an underscore and Java object properties.
+     */
+    private List getProperties(INode node) {
+        List list = new ArrayList();
+        Enumeration e;
+        if (node instanceof Node) {
+            PropertyMap props = ((Node) node).getPropertyMap();
+            if (props == null) {
+                return list;
+            }
+            e = props.keys();
+        } else {
+            e = node.properties();
+        }
+        while (e.hasMoreElements()) {
+            String key = (String) e.nextElement();
+            if (key.charAt(0) == '_') {
+                continue;
+            }
+            IProperty prop = node.get(key);
+            if (prop != null && prop.getType() != IProperty.JAVAOBJECT) {
+                list.add(new Object[] {key, prop});
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the subnodes to encode, or null if the subnodes are stored
+     * in a relational database.
+     */
+    private SubnodeList getSubnodes(INode node) {
+        if (!(node instanceof Node)) {
+            return null;
+        }
+        Node dbNode = (Node) node;
+        DbMapping smap = dbNode.getDbMapping() == null ?
+                null : dbNode.getDbMapping().getSubnodeMapping();
+        if (smap != null && smap.isRelational()) {
+            return null;
+        }
+        return dbNode.getSubnodeList();
+    }
+
+    private void writeValue(DataOutputStream out, IProperty prop) throws IOException {
+        int type = prop.getType();
+        out.writeByte(type);
+        switch (type) {
+            case IProperty.STRING:
+                StringUtils.writeString(out, prop.getStringValue());
+                break;
+            case IProperty.BOOLEAN:
+                out.writeBoolean(prop.getBooleanValue());
+                break;
+            case IProperty.DATE:
+                Date date = prop.getDateValue();
+                out.writeBoolean(date != null);
+                if (date != null) {
+                    out.writeLong(date.getTime());
+                }
+                break;
+            case IProperty.INTEGER:
+                out.writeLong(prop.getIntegerValue());
+                break;
+            case IProperty.FLOAT:
+                out.writeDouble(prop.getFloatValue());
+                break;
+            case IProperty.NODE:
+                if (prop instanceof Property) {
+                    writeReference(out, ((Property) prop).getNodeHandle());
+                } else {
+                    writeReference(out, prop.getNodeValue());
+                }
+                break;
+            default:
+                throw new IOException("Can't encode property type " + type);
+        }
+    }
+
+    /**
+     * Write a reference to a node by its handle, avoiding to fetch the node
+     * if the handle contains its key.
+     */
+    private void writeReference(DataOutputStream out, NodeHandle handle) throws IOException {
+        Key key = handle == null ? null : handle.getKey();
+        if (key instanceof DbKey) {
+            out.writeBoolean(true);
+            StringUtils.writeString(out, key.getStorageName());
+            StringUtils.writeString(out, key.getID());
+        } else {
+            writeReference(out, handle == null ? null : handle.getNode(nmgr.safe));
+        }
+    }
+
+    /**
+     * Write a reference to a node, using the same key the XML reader
+     * would create for it.
+     */
+    private void writeReference(DataOutputStream out, INode node) throws IOException {
+        out.writeBoolean(node != null);
+        if (node != null) {
+            DbMapping dbmap = node instanceof Node ?
+                    ((Node) node).getDbMapping() : nmgr.getDbMapping(node.getPrototype());
+            StringUtils.writeString(out, dbmap == null ? null : dbmap.getStorageTypeName());
+            StringUtils.writeString(out, node.getID());
+        }
+    }
+
+    /**
+     * Decode a node. If the data isn't a binary encoded node, it is
+     * read as XML.
+     *
+     * @param data the encoded node
+     * @return the node
+     * @throws IOException if the data couldn't be decoded
+     */
+    public Node decode(byte[] data) throws IOException {
+        if (!isBinary(data)) {
+            return readXml(new ByteArrayInputStream(data));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(MAGIC.length);
+        if (in.readByte() != VERSION) {
+            throw new IOException("Unsupported node encoding");
+        }
+        String id = StringUtils.readString(in);
+        String name = StringUtils.readString(in);
+        String prototype = StringUtils.readString(in);
+        long created = in.readLong();
+        long lastModified = in.readLong();
+        Node node = new Node(name, id, prototype, nmgr.safe, created, lastModified);
+
+        NodeHandle parent = readReference(in);
+        if (parent != null) {
+            node.setParentHandle(parent);
+        }
+
+        int count = in.readInt();
+        if (count > 0) {
+            DbMapping dbmap = node.getDbMapping();
+            Hashtable propMap = new Hashtable(count * 2);
+            for (int i = 0; i < count; i++) {
+                String propName = StringUtils.readString(in);
+                Property prop = new Property(propName, node);
+                readValue(in, prop);
+                propMap.put(dbmap == null ? propName :
+                        dbmap.getApplication().correctPropertyName(propName), prop);
+            }
+            node.setPropMap(propMap);
+        }
+
+        count = in.readInt();
+        if (count > 0) {
+            SubnodeList subnodes = node.createSubnodeList();
+            for (int i = 0; i < count; i++) {
+                subnodes.add(readReference(in));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Read a node from an XML stream.
+     */
+    Node readXml(InputStream in) throws IOException {
+        try {
+            return new XmlDatabaseReader(nmgr).read(in);
+        } catch (javax.xml.parsers.ParserConfigurationException x) {
+            throw new IOException(x.toString());
+        } catch (org.xml.sax.SAXException x) {
+            throw new IOException(x.toString());
+        }
+    }
+
+    private void readValue(DataInputStream in, Property prop) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case IProperty.STRING:
+                prop.setStringValue(StringUtils.readString(in));
+                break;
+            case IProperty.BOOLEAN:
+                prop.setBooleanValue(in.readBoolean());
+                break;
+            case IProperty.DATE:
+                prop.setDateValue(in.readBoolean() ? new Date(in.readLong()) : null);
+                break;
+            case IProperty.INTEGER:
+                prop.setIntegerValue(in.readLong());
+                break;
+            case IProperty.FLOAT:
+                prop.setFloatValue(in.readDouble());
+                break;
+            case IProperty.NODE:
+                prop.setNodeHandle(readReference(in));
+                break;
+            default:
+                throw new IOException("Invalid property type: " + type);
+        }
+    }
+
+    private NodeHandle readReference(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String storage = StringUtils.readString(in);
+        String id = StringUtils.readString(in);
+        // the storage name is the name of the type holding the storage
+        DbMapping dbmap = storage == null ? null : nmgr.getDbMapping(storage);
+        return new NodeHandle(new DbKey(dbmap, id));
+    }
+}
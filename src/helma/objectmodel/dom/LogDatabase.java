@@ -0,0 +1,622 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import helma.objectmodel.*;
+import helma.objectmodel.db.NodeManager;
+import helma.objectmodel.db.Node;
+import helma.framework.core.Application;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An embedded database that keeps nodes in an append-only log of segment
+ * files instead of one XML file per node. All writes of a transaction are
+ * appended with a single write, and transactions committing at the same
+ * time share a single sync. Nodes are stored in the same XML format as in
+ * {@link XmlDatabase}, or in the encoding of {@link BinaryNodeCodec} if
+ * <code>embeddedDbFormat</code> is set to <code>binary</code>. Nodes are read
+ * from either format. On first start, the XML files of an existing
+ * XmlDatabase in the db directory are imported into the log. If the import
+ * is interrupted, it is completed on the next start.
+ *
+ * The database is selected by setting <code>embeddedDbImpl</code> to
+ * <code>helma.objectmodel.dom.LogDatabase</code> in app.properties
+ * and is configured with the following settings:
+ * <ul>
+ * <li><code>logDatabase.segmentSize</code> - the size at which a new segment
+ *     file is started, e.g. 64m (default 64m)</li>
+ * <li><code>logDatabase.sync</code> - whether commits are synced to disk
+ *     before they return (default true)</li>
+ * <li><code>logDatabase.compactThreshold</code> - the fraction of overwritten
+ *     and deleted data at which a segment is compacted (default 0.5)</li>
+ * <li><code>logDatabase.compactInterval</code> - the number of seconds between
+ *     compaction runs, 0 to disable compaction (default 60)</li>
+ * </ul>
+ */
+public final class LogDatabase implements IDatabase, Runnable {
+
+    // the key the id generator value is stored with
+    static final String IDGEN_KEY = "#idgen";
+    // the key marking the import of the XML files as complete
+    static final String IMPORTED_KEY = "#imported";
+
+    protected File dbHomeDir;
+    protected Application app;
+    protected NodeManager nmgr;
+    protected XmlIDGenerator idgen;
+
+    // character encoding to use when writing nodes.
+    // use standard encoding by default.
+    protected String encoding = null;
+
+    // write nodes in binary format
+    protected boolean binary = false;
+    protected BinaryNodeCodec codec;
+
+    private SegmentLog log;
+    private Thread compactor;
+    private long compactInterval;
+
+    /**
+     * Initializes the database from an application.
+     * @param app
+     * @throws DatabaseException
+     */
+    public void init(File dbHome, Application app) throws DatabaseException {
+        this.app = app;
+        nmgr = app.getNodeManager();
+        dbHomeDir = dbHome;
+
+        if (!dbHomeDir.exists() && !dbHomeDir.mkdirs()) {
+            throw new DatabaseException("Can't create database directory "+dbHomeDir);
+        }
+
+        if (!dbHomeDir.canWrite()) {
+            throw new DatabaseException("No write permission for database directory "+dbHomeDir);
+        }
+
+        this.encoding = app.getCharset();
+        this.binary = "binary".equalsIgnoreCase(app.getProperty("embeddedDbFormat"));
+        this.codec = new BinaryNodeCodec(nmgr);
+
+        try {
+            log = openLog(dbHomeDir, app.getProperty("logDatabase.segmentSize"),
+                    app.getProperty("logDatabase.sync"),
+                    app.getProperty("logDatabase.compactThreshold"));
+            if (log.getBytesTruncated() > 0) {
+                app.logEvent("Truncated " + log.getBytesTruncated() + " bytes of " +
+                        "incomplete commits in database log " + dbHomeDir);
+            }
+            if (!log.contains(IMPORTED_KEY)) {
+                long start = System.currentTimeMillis();
+                int count = importXmlFiles(dbHomeDir, log);
+                if (count > 0) {
+                    app.logEvent("Imported " + count + " nodes from " + dbHomeDir +
+                            " in " + (System.currentTimeMillis() - start) + " ms. " +
+                            "The node files are no longer used and can be removed.");
+                }
+            }
+        } catch (IOException x) {
+            app.logError("Error opening database log in " + dbHomeDir, x);
+            throw new DatabaseException("Error opening database log: " + x);
+        }
+
+        // get the initial id generator value
+        long idBaseValue;
+        try {
+            idBaseValue = Long.parseLong(app.getProperty("idBaseValue", "1"));
+            // 0 and 1 are reserved for root nodes
+            idBaseValue = Math.max(1L, idBaseValue);
+        } catch (NumberFormatException ignore) {
+            idBaseValue = 1L;
+        }
+
+        ITransaction txn = null;
+
+        try {
+            txn = beginTransaction();
+
+            try {
+                idgen = getIDGenerator(txn);
+
+                if (idgen.getValue() < idBaseValue) {
+                    idgen.setValue(idBaseValue);
+                }
+            } catch (ObjectNotFoundException notfound) {
+                // will start with idBaseValue+1
+                idgen = new XmlIDGenerator(idBaseValue);
+            }
+
+            Node node = null;
+
+            try {
+                getNode(txn, "0");
+            } catch (ObjectNotFoundException notfound) {
+                node = new Node("root", "0", "Root", nmgr.safe);
+                node.setDbMapping(app.getDbMapping("root"));
+                insertNode(txn, node.getID(), node);
+            }
+
+            try {
+                getNode(txn, "1");
+            } catch (ObjectNotFoundException notfound) {
+                node = new Node("users", "1", null, nmgr.safe);
+                node.setDbMapping(app.getDbMapping("__userroot__"));
+                insertNode(txn, node.getID(), node);
+            }
+
+            commitTransaction(txn);
+        } catch (Exception x) {
+            app.logError("Error initializing db", x);
+
+            try {
+                abortTransaction(txn);
+            } catch (Exception ignore) {
+            }
+
+            throw (new DatabaseException("Error initializing db"));
+        }
+
+        compactInterval = 60000L;
+        try {
+            compactInterval = Long.parseLong(
+                    app.getProperty("logDatabase.compactInterval", "60").trim()) * 1000L;
+        } catch (NumberFormatException ignore) {
+            // use default interval
+        }
+        if (compactInterval > 0) {
+            compactor = new Thread(this, app.getName() + "-log-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    /**
+     * Open the log in the log subdirectory of a db directory.
+     */
+    static SegmentLog openLog(File dbHome, String segmentSize, String sync,
+                              String compactThreshold) throws IOException {
+        long size = 64L * 1024 * 1024;
+        if (segmentSize != null) {
+            String str = segmentSize.trim().toLowerCase();
+            long unit = 1;
+            if (str.endsWith("k")) {
+                unit = 1024;
+            } else if (str.endsWith("m")) {
+                unit = 1024 * 1024;
+            } else if (str.endsWith("g")) {
+                unit = 1024 * 1024 * 1024;
+            }
+            if (unit > 1) {
+                str = str.substring(0, str.length() - 1).trim();
+            }
+            try {
+                size = Math.max(4096, Long.parseLong(str) * unit);
+            } catch (NumberFormatException ignore) {
+                // use default size
+            }
+        }
+        double threshold = 0.5;
+        if (compactThreshold != null) {
+            try {
+                threshold = Double.parseDouble(compactThreshold.trim());
+            } catch (NumberFormatException ignore) {
+                // use default threshold
+            }
+        }
+        return new SegmentLog(new File(dbHome, "log"), size,
+                !"false".equalsIgnoreCase(sync), threshold);
+    }
+
+    /**
+     * Import the node files and the id generator of an XmlDatabase
+     * directory into a log. The files are imported unchanged since
+     * the log reads both the XML and the binary node format. If a node
+     * has files in both formats, the newer one is imported.
+     *
+     * The import is committed in several batches, with a marker key written
+     * in the last one. If the marker is missing when the log is opened, the
+     * import is redone, skipping the nodes imported before it was interrupted.
+     *
+     * @return the number of nodes imported by this call
+     */
+    static int importXmlFiles(File dbHome, SegmentLog log) throws IOException {
+        File[] files = dbHome.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && !name.equals("idgen.xml") &&
+                        (name.endsWith(".xml") || name.endsWith(".bin"));
+            }
+        });
+        Map nodeFiles = new LinkedHashMap();
+        for (int i = 0; files != null && i < files.length; i++) {
+            String name = files[i].getName();
+            String key = name.substring(0, name.length() - 4);
+            File other = (File) nodeFiles.get(key);
+            if (other == null || other.lastModified() < files[i].lastModified()) {
+                nodeFiles.put(key, files[i]);
+            }
+        }
+        Map writes = new LinkedHashMap();
+        int count = 0;
+        for (Iterator it = nodeFiles.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            if (log.contains((String) entry.getKey())) {
+                // imported before an interrupted import
+                continue;
+            }
+            writes.put(entry.getKey(), readFile((File) entry.getValue()));
+            count += 1;
+            if (writes.size() >= 1000) {
+                log.commit(writes);
+                writes.clear();
+            }
+        }
+        File idgenFile = new File(dbHome, "idgen.xml");
+        if (idgenFile.exists()) {
+            try {
+                long value = XmlIDGenerator.getIDGenerator(idgenFile).getValue();
+                writes.put(IDGEN_KEY, Long.toString(value).getBytes("US-ASCII"));
+            } catch (ObjectNotFoundException x) {
+                throw new IOException("Error reading " + idgenFile + ": " + x.getMessage());
+            }
+        }
+        writes.put(IMPORTED_KEY, new byte[0]);
+        log.commit(writes);
+        return count;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Compact the log periodically.
+     */
+    public void run() {
+        while (Thread.currentThread() == compactor) {
+            try {
+                Thread.sleep(compactInterval);
+            } catch (InterruptedException x) {
+                break;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                int count = log.compact();
+                if (count > 0) {
+                    app.logEvent("Compacted " + count + " database log segments in " +
+                            (System.currentTimeMillis() - start) + " ms");
+                }
+            } catch (IOException x) {
+                app.logError("Error compacting database log", x);
+            }
+        }
+    }
+
+    /**
+     * Shut down the database
+     */
+    public void shutdown() {
+        Thread t = compactor;
+        compactor = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(10000);
+            } catch (InterruptedException ignore) {
+                // go on
+            }
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Start a new transaction.
+     *
+     * @return the new tranaction object
+     */
+    public ITransaction beginTransaction() {
+        return new LogTransaction();
+    }
+
+    /**
+     * Commit the given transaction, making its changes persistent
+     *
+     * @param txn
+     * @throws DatabaseException
+     */
+    public void commitTransaction(ITransaction txn) throws DatabaseException {
+        if (idgen.dirty) {
+            try {
+                saveIDGenerator(txn);
+                idgen.dirty = false;
+            } catch (IOException x) {
+                throw new DatabaseException(x.toString());
+            }
+        }
+        txn.commit();
+    }
+
+    /**
+     * Abort the given transaction
+     *
+     * @param txn
+     * @throws DatabaseException
+     */
+    public void abortTransaction(ITransaction txn) throws DatabaseException {
+        txn.abort();
+    }
+
+    /**
+     * Get the id for the next new object to be stored.
+     *
+     * @return the id for the next new object to be stored
+     * @throws ObjectNotFoundException
+     */
+    public String nextID() throws ObjectNotFoundException {
+        if (idgen == null) {
+            getIDGenerator(null);
+        }
+
+        return idgen.newID();
+    }
+
+    /**
+     * Get the id-generator for this database.
+     *
+     * @param txn
+     * @return the id-generator for this database
+     * @throws ObjectNotFoundException
+     */
+    public XmlIDGenerator getIDGenerator(ITransaction txn)
+                               throws ObjectNotFoundException {
+        try {
+            byte[] value = log.get(IDGEN_KEY);
+            if (value == null) {
+                throw new ObjectNotFoundException("IDGenerator not found in database log");
+            }
+            this.idgen = new XmlIDGenerator(Long.parseLong(new String(value, "US-ASCII")));
+        } catch (IOException x) {
+            throw new ObjectNotFoundException(x.toString());
+        } catch (NumberFormatException x) {
+            throw new ObjectNotFoundException(x.toString());
+        }
+
+        return idgen;
+    }
+
+    /**
+     * Add the id-generator to a transaction.
+     *
+     * @param txn
+     * @throws IOException
+     */
+    public void saveIDGenerator(ITransaction txn)
+                         throws IOException {
+        byte[] value = Long.toString(idgen.getValue()).getBytes("US-ASCII");
+        txn.addResource(new Resource(IDGEN_KEY, value), ITransaction.ADDED);
+    }
+
+    /**
+     * Retrieves a Node from the database.
+     *
+     * @param txn the current transaction
+     * @param kstr the key
+     * @return the object associated with the given key
+     * @throws IOException if an I/O error occurred loading the object.
+     * @throws ObjectNotFoundException if no object is stored by this key.
+     */
+    public INode getNode(ITransaction txn, String kstr)
+                  throws IOException, ObjectNotFoundException {
+        byte[] data = log.get(kstr);
+
+        if (data == null) {
+            throw new ObjectNotFoundException("Object not found for key " + kstr);
+        }
+
+        try {
+            return codec.decode(data);
+        } catch (IOException x) {
+            app.logError("Error reading node " + kstr, x);
+            throw x;
+        }
+    }
+
+    /**
+     * Save a node with the given key. The node is written to the log
+     * when the transaction is committed.
+     *
+     * @param txn
+     * @param kstr
+     * @param node
+     * @throws java.io.IOException
+     */
+    public void insertNode(ITransaction txn, String kstr, INode node)
+                throws IOException {
+        if (log.contains(kstr)) {
+            throw new IOException("Object already exists for key " + kstr);
+        }
+
+        // apart from the above check insertNode() is equivalent to updateNode()
+        updateNode(txn, kstr, node);
+    }
+
+    /**
+     * Update a node with the given key. The node is written to the log
+     * when the transaction is committed.
+     *
+     * @param txn
+     * @param kstr
+     * @param node
+     * @throws java.io.IOException
+     */
+    public void updateNode(ITransaction txn, String kstr, INode node)
+                throws IOException {
+        if (binary) {
+            txn.addResource(new Resource(kstr, codec.encode(node)), ITransaction.ADDED);
+            return;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        XmlWriter writer;
+
+        if (encoding != null) {
+            writer = new XmlWriter(out, encoding);
+        } else {
+            writer = new XmlWriter(out);
+        }
+
+        writer.setMaxLevels(1);
+        writer.write(node);
+        writer.close();
+
+        txn.addResource(new Resource(kstr, out.toByteArray()), ITransaction.ADDED);
+    }
+
+    /**
+     * Marks an element from the database as deleted
+     *
+     * @param txn
+     * @param kstr
+     * @throws IOException
+     */
+    public void deleteNode(ITransaction txn, String kstr)
+                    throws IOException {
+        txn.addResource(new Resource(kstr, null), ITransaction.DELETED);
+    }
+
+    /**
+     * set the encoding to use for nodes
+     *
+     * @param encoding the database's encoding
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * get the encoding used by this database
+     *
+     * @return the encoding used by this database
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Get the statistics of the database log.
+     *
+     * @return a map with key, segment and byte counts and commit statistics
+     */
+    public Map<String,Object> getStatistics() {
+        return log.getStatistics();
+    }
+
+    class LogTransaction implements ITransaction {
+
+        // keys mapped to new values, or to null for deleted keys
+        LinkedHashMap writes = new LinkedHashMap();
+
+        /**
+         * Complete the transaction by appending its changes to the log.
+         */
+        public void commit() throws DatabaseException {
+            try {
+                log.commit(writes);
+            } catch (IOException x) {
+                app.logError("Error committing transaction", x);
+                throw new DatabaseException("Error committing transaction: " + x);
+            } finally {
+                writes.clear();
+            }
+        }
+
+        /**
+         * Rollback the transaction, forgetting the changed items
+         */
+        public void abort() throws DatabaseException {
+            writes.clear();
+        }
+
+        /**
+         * Adds a resource to the list of resources encompassed by this transaction
+         *
+         * @param res the resource to add
+         * @param status the status of the resource (ADDED|UPDATED|DELETED)
+         */
+        public void addResource(Object res, int status)
+               throws DatabaseException {
+            Resource r = (Resource) res;
+            // remove first so the key is moved to the end of the write order
+            writes.remove(r.key);
+            writes.put(r.key, status == DELETED ? null : r.data);
+        }
+
+    }
+
+    /**
+     * A holder class for a key and its new value
+     */
+    static class Resource {
+        String key;
+        byte[] data;
+
+        public Resource(String key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Convert the XML files of an XmlDatabase directory to a database log.
+     *
+     * @param args the db directory
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java helma.objectmodel.dom.LogDatabase <dbdir>");
+            System.exit(1);
+        }
+        File dbHome = new File(args[0]);
+        SegmentLog log = openLog(dbHome, null, null, null);
+        try {
+            if (log.contains(IMPORTED_KEY)) {
+                System.err.println("Database log in " + dbHome + " is already imported");
+                System.exit(1);
+            }
+            long start = System.currentTimeMillis();
+            int count = importXmlFiles(dbHome, log);
+            System.out.println("Imported " + count + " nodes in " +
+                    (System.currentTimeMillis() - start) + " ms: " + log.getStatistics());
+        } finally {
+            log.close();
+        }
+    }
+}
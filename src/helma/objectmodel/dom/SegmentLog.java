@@ -0,0 +1,755 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only key value store made of segment files. Each commit appends
+ * one checksummed batch record holding all writes of a transaction, so a
+ * transaction is either completely visible after a crash or not at all. The
+ * location of the current value of each key is kept in an in-memory index
+ * that is rebuilt by scanning the segments when the log is opened.
+ *
+ * Concurrent commits are written as a group: the first committer to find the
+ * log idle writes the batches of all transactions waiting at that time and
+ * syncs the file once for the whole group.
+ *
+ * Segments that contain mostly overwritten or deleted values are compacted
+ * in the background by copying their live values to the end of the log and
+ * deleting the segment file.
+ */
+final class SegmentLog {
+
+    // batch record marker
+    private static final int MAGIC = 0x484c4f47;
+    // size of the batch header: magic, body length and checksum
+    private static final int HEADER_SIZE = 12;
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    private final File dir;
+    private final long segmentSize;
+    private final boolean sync;
+    private final double compactThreshold;
+
+    // key -> Entry of the current value
+    private final ConcurrentHashMap index = new ConcurrentHashMap();
+    // segment id -> Segment, guarded by lock
+    private final TreeMap segments = new TreeMap();
+    // readers hold the read lock while reading a value, segments are
+    // added and removed while holding the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // the segment written to, only changed by the writing committer
+    private Segment active;
+
+    // group commit state, guarded by commitLock
+    private final Object commitLock = new Object();
+    private ArrayList pending = new ArrayList();
+    private boolean writing = false;
+    private boolean closed = false;
+
+    // statistics
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private long bytesTruncated = 0;
+
+    /**
+     * Open the log in the given directory, replaying all segments to
+     * rebuild the index. An incomplete batch at the end of the last segment,
+     * left by a crash during a commit, is truncated. Without sync, the end of
+     * any segment may be lost in a crash, so the segments are truncated at
+     * the first incomplete batch as well. With sync, segments are synced
+     * before the next one is started and an incomplete batch in a segment
+     * other than the last one is reported as an error.
+     *
+     * @param dir the directory holding the segment files
+     * @param segmentSize the size at which a new segment is started
+     * @param sync whether commits are synced to disk
+     * @param compactThreshold the fraction of garbage at which a segment is compacted
+     * @throws IOException if the log couldn't be read
+     */
+    SegmentLog(File dir, long segmentSize, boolean sync, double compactThreshold)
+            throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.compactThreshold = compactThreshold;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create log directory " + dir);
+        }
+
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return parseSegmentId(file.getName()) > 0;
+            }
+        });
+        for (int i = 0; i < files.length; i++) {
+            int id = parseSegmentId(files[i].getName());
+            segments.put(new Integer(id), new Segment(id, files[i]));
+        }
+        for (Iterator it = segments.values().iterator(); it.hasNext(); ) {
+            Segment segment = (Segment) it.next();
+            replay(segment, !it.hasNext());
+        }
+        if (segments.isEmpty()) {
+            active = createSegment(1);
+        } else {
+            active = (Segment) segments.get(segments.lastKey());
+        }
+    }
+
+    private static int parseSegmentId(String name) {
+        if (name.startsWith("segment-") && name.endsWith(".log")) {
+            try {
+                return Integer.parseInt(name.substring(8, name.length() - 4));
+            } catch (NumberFormatException x) {
+                // not a segment
+            }
+        }
+        return -1;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        String name = Integer.toString(id);
+        while (name.length() < 8) {
+            name = "0" + name;
+        }
+        Segment segment = new Segment(id, new File(dir, "segment-" + name + ".log"));
+        lock.writeLock().lock();
+        try {
+            segments.put(new Integer(id), segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return segment;
+    }
+
+    /**
+     * Apply the batches of a segment to the index.
+     */
+    private void replay(Segment segment, boolean last) throws IOException {
+        long position = 0;
+        long size = segment.channel.size();
+        while (position < size) {
+            byte[] body = readBatch(segment, position, size);
+            if (body == null) {
+                if (!last && sync) {
+                    throw new IOException("Corrupt batch at " + position + " in " + segment.file);
+                }
+                // incomplete commit at the end of the log or, without sync,
+                // at the end of a segment whose tail wasn't written to disk
+                segment.channel.truncate(position);
+                bytesTruncated += size - position;
+                break;
+            }
+            applyBatch(segment, position, body);
+            position += HEADER_SIZE + body.length;
+        }
+        segment.size = position;
+    }
+
+    /**
+     * Read the body of the batch at the given position, returning null if
+     * the batch is incomplete or its checksum doesn't match.
+     */
+    private byte[] readBatch(Segment segment, long position, long size) throws IOException {
+        if (position + HEADER_SIZE > size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.channel, header, position);
+        header.flip();
+        int magic = header.getInt();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (magic != MAGIC || length < 4 || position + HEADER_SIZE + length > size) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        readFully(segment.channel, ByteBuffer.wrap(body), position + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == checksum ? body : null;
+    }
+
+    /**
+     * Apply the writes of a batch to the index.
+     */
+    private void applyBatch(Segment segment, long position, byte[] body) {
+        lock.readLock().lock();
+        try {
+            applyWrites(segment, position, body);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void applyWrites(Segment segment, long position, byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int start = buffer.position();
+            byte op = buffer.get();
+            byte[] keyBytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(keyBytes);
+            String key = decodeKey(keyBytes);
+            Entry old;
+            if (op == PUT) {
+                int length = buffer.getInt();
+                long offset = position + HEADER_SIZE + buffer.position();
+                buffer.position(buffer.position() + length);
+                Entry entry = new Entry(segment.id, offset, length,
+                                        buffer.position() - start);
+                old = (Entry) index.put(key, entry);
+                segment.liveBytes.addAndGet(entry.size);
+            } else {
+                old = (Entry) index.remove(key);
+            }
+            if (old != null) {
+                Segment oldSegment = (Segment) segments.get(new Integer(old.segment));
+                if (oldSegment != null) {
+                    oldSegment.liveBytes.addAndGet(-old.size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the current value of a key.
+     *
+     * @param key the key
+     * @return the value, or null if the key doesn't exist
+     * @throws IOException if the value couldn't be read
+     */
+    byte[] get(String key) throws IOException {
+        lock.readLock().lock();
+        try {
+            Entry entry = (Entry) index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            Segment segment = (Segment) segments.get(new Integer(entry.segment));
+            byte[] value = new byte[entry.length];
+            readFully(segment.channel, ByteBuffer.wrap(value), entry.offset);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of bytes of incomplete batches truncated when the
+     * log was opened.
+     */
+    long getBytesTruncated() {
+        return bytesTruncated;
+    }
+
+    /**
+     * Check whether a key exists.
+     */
+    boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get the number of keys in the log.
+     */
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Commit a map of writes, mapping keys to their new values or to null
+     * for deleted keys. The method returns once the writes are on disk.
+     *
+     * @param writes the writes of the transaction
+     * @throws IOException if the writes couldn't be committed
+     */
+    void commit(Map writes) throws IOException {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List ops = new ArrayList(writes.size());
+        for (Iterator it = writes.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            byte[] value = (byte[]) entry.getValue();
+            ops.add(new Op(value == null ? DELETE : PUT, (String) entry.getKey(), value, null));
+        }
+        write(new Batch(ops, false));
+    }
+
+    /**
+     * Add a batch to the next commit group and wait until it is written.
+     * If no group is being written, the calling thread writes the group.
+     */
+    private void write(Batch batch) throws IOException {
+        List group;
+        synchronized (commitLock) {
+            if (closed) {
+                throw new IOException("Log is closed: " + dir);
+            }
+            pending.add(batch);
+            try {
+                while (writing && !batch.done) {
+                    commitLock.wait();
+                }
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException("Interrupted waiting for commit");
+            }
+            if (batch.done) {
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                return;
+            }
+            writing = true;
+            group = pending;
+            pending = new ArrayList();
+        }
+
+        IOException error = null;
+        try {
+            writeGroup(group);
+        } catch (IOException x) {
+            error = x;
+        } catch (RuntimeException x) {
+            error = new IOException(x.toString());
+        }
+
+        synchronized (commitLock) {
+            for (int i = 0; i < group.size(); i++) {
+                Batch b = (Batch) group.get(i);
+                b.error = error;
+                b.done = true;
+            }
+            writing = false;
+            commitLock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Write a group of batches with a single write and sync, then apply
+     * them to the index. Only one thread at a time executes this method.
+     */
+    private void writeGroup(List group) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[group.size()];
+        // keys written by earlier batches of the group
+        HashSet written = new HashSet();
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            Batch batch = (Batch) group.get(i);
+            // conditions of compaction writes are checked right before they are
+            // written, so they can't overwrite newer values on replay
+            boolean[] apply = batch.conditional ? batch.checkConditions(index, written) : null;
+            buffers[i] = batch.encode(apply);
+            length += buffers[i].remaining();
+            for (int j = 0; j < batch.ops.size(); j++) {
+                if (apply == null || apply[j]) {
+                    written.add(((Op) batch.ops.get(j)).key);
+                }
+            }
+        }
+
+        if (active.size > 0 && active.size + length > segmentSize) {
+            Segment next = createSegment(active.id + 1);
+            if (sync) {
+                active.channel.force(false);
+            }
+            active = next;
+        }
+
+        long position = active.size;
+        long start = position;
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            while (buffer.hasRemaining()) {
+                position += active.channel.write(buffer, position);
+            }
+        }
+        if (sync) {
+            active.channel.force(false);
+            syncs.incrementAndGet();
+        }
+
+        position = start;
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            byte[] body = new byte[buffer.limit() - HEADER_SIZE];
+            System.arraycopy(buffer.array(), HEADER_SIZE, body, 0, body.length);
+            applyBatch(active, position, body);
+            position += buffer.limit();
+        }
+        active.size = position;
+
+        commits.addAndGet(group.size());
+        groups.incrementAndGet();
+        bytesWritten.addAndGet(length);
+    }
+
+    /**
+     * Compact all segments other than the one being written to whose share
+     * of overwritten and deleted values reached the compaction threshold.
+     *
+     * @return the number of compacted segments
+     * @throws IOException if compaction failed
+     */
+    int compact() throws IOException {
+        List candidates = new ArrayList();
+        lock.readLock().lock();
+        try {
+            for (Iterator it = segments.values().iterator(); it.hasNext(); ) {
+                Segment segment = (Segment) it.next();
+                if (segment != active && segment.size > 0 &&
+                        1.0 - (double) segment.liveBytes.get() / segment.size >= compactThreshold) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            compact((Segment) candidates.get(i));
+        }
+        return candidates.size();
+    }
+
+    /**
+     * Copy the live values of a segment to the end of the log and delete it.
+     */
+    private void compact(Segment segment) throws IOException {
+        boolean oldest;
+        lock.readLock().lock();
+        try {
+            oldest = segments.firstKey().equals(new Integer(segment.id));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List ops = new ArrayList();
+        long position = 0;
+        while (position < segment.size) {
+            byte[] body = readBatch(segment, position, segment.size);
+            if (body == null) {
+                throw new IOException("Corrupt batch at " + position + " in " + segment.file);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte op = buffer.get();
+                byte[] keyBytes = new byte[buffer.getShort() & 0xffff];
+                buffer.get(keyBytes);
+                String key = decodeKey(keyBytes);
+                if (op == PUT) {
+                    int length = buffer.getInt();
+                    long offset = position + HEADER_SIZE + buffer.position();
+                    Entry entry = (Entry) index.get(key);
+                    if (entry != null && entry.segment == segment.id && entry.offset == offset) {
+                        byte[] value = new byte[length];
+                        buffer.get(value);
+                        ops.add(new Op(PUT, key, value, entry));
+                    } else {
+                        buffer.position(buffer.position() + length);
+                    }
+                } else if (!oldest && !index.containsKey(key)) {
+                    // keep the delete, an older segment may still contain the key
+                    ops.add(new Op(DELETE, key, null, null));
+                }
+            }
+            position += HEADER_SIZE + body.length;
+        }
+
+        if (!ops.isEmpty()) {
+            write(new Batch(ops, true));
+        }
+
+        if (segment.liveBytes.get() != 0) {
+            // shouldn't happen, keep the segment
+            throw new IOException("Segment " + segment.file + " still has " +
+                    segment.liveBytes.get() + " live bytes after compaction");
+        }
+        lock.writeLock().lock();
+        try {
+            segments.remove(new Integer(segment.id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        segment.close();
+        if (!segment.file.delete()) {
+            throw new IOException("Can't delete compacted segment " + segment.file);
+        }
+        compactions.incrementAndGet();
+        bytesReclaimed.addAndGet(segment.size);
+    }
+
+    /**
+     * Close the log. Commits arriving after this fail.
+     */
+    void close() {
+        synchronized (commitLock) {
+            closed = true;
+            try {
+                while (writing) {
+                    commitLock.wait();
+                }
+            } catch (InterruptedException x) {
+                // go on
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (Iterator it = segments.values().iterator(); it.hasNext(); ) {
+                ((Segment) it.next()).close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the statistics of the log.
+     *
+     * @return a map with key, segment and byte counts and commit statistics
+     */
+    Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        long size = 0, live = 0;
+        int count;
+        lock.readLock().lock();
+        try {
+            count = segments.size();
+            for (Iterator it = segments.values().iterator(); it.hasNext(); ) {
+                Segment segment = (Segment) it.next();
+                size += segment.size;
+                live += segment.liveBytes.get();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long c = commits.get();
+        long g = groups.get();
+        stats.put("keys", index.size());
+        stats.put("segments", count);
+        stats.put("size", size);
+        stats.put("liveBytes", live);
+        stats.put("commits", c);
+        stats.put("commitGroups", g);
+        stats.put("averageGroupSize", g == 0 ? 0.0 : (double) c / g);
+        stats.put("syncs", syncs.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("compactions", compactions.get());
+        stats.put("bytesReclaimed", bytesReclaimed.get());
+        return stats;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    static byte[] encodeKey(String key) {
+        try {
+            return key.getBytes("UTF-8");
+        } catch (IOException x) {
+            throw new RuntimeException(x.toString());
+        }
+    }
+
+    static String decodeKey(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException x) {
+            throw new RuntimeException(x.toString());
+        }
+    }
+
+    /**
+     * A segment file.
+     */
+    static final class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        // the number of valid bytes in the segment
+        volatile long size;
+        // the size of the entries the index points to
+        final AtomicLong liveBytes = new AtomicLong();
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException ignore) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * The location of a value in the log.
+     */
+    static final class Entry {
+        final int segment;
+        final long offset;
+        final int length;
+        // the size of the whole entry in the batch
+        final int size;
+
+        Entry(int segment, long offset, int length, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A single write.
+     */
+    static final class Op {
+        final byte type;
+        final String key;
+        final byte[] value;
+        // for compaction writes: the entry the key must still point to,
+        // or null if the key must not exist
+        final Entry expected;
+
+        Op(byte type, String key, byte[] value, Entry expected) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * The writes of one commit, waiting to be written with a commit group.
+     */
+    static final class Batch {
+        final List ops;
+        final boolean conditional;
+        volatile boolean done = false;
+        volatile IOException error = null;
+
+        Batch(List ops, boolean conditional) {
+            this.ops = ops;
+            this.conditional = conditional;
+        }
+
+        /**
+         * Check which writes of a compaction batch still apply.
+         */
+        boolean[] checkConditions(Map index, Set written) {
+            boolean[] apply = new boolean[ops.size()];
+            for (int i = 0; i < apply.length; i++) {
+                Op op = (Op) ops.get(i);
+                Object current = index.get(op.key);
+                apply[i] = !written.contains(op.key) &&
+                        (op.expected == null ? current == null : current == op.expected);
+            }
+            return apply;
+        }
+
+        /**
+         * Encode the writes as a batch record.
+         *
+         * @param apply the writes to include, or null for all
+         */
+        ByteBuffer encode(boolean[] apply) {
+            int count = 0;
+            int length = HEADER_SIZE + 4;
+            byte[][] keys = new byte[ops.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                if (apply != null && !apply[i]) {
+                    continue;
+                }
+                Op op = (Op) ops.get(i);
+                keys[i] = encodeKey(op.key);
+                if (keys[i].length > 0xffff) {
+                    throw new IllegalArgumentException("Key too long: " + op.key);
+                }
+                length += 3 + keys[i].length + (op.type == PUT ? 4 + op.value.length : 0);
+                count += 1;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.position(HEADER_SIZE);
+            buffer.putInt(count);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) {
+                    continue;
+                }
+                Op op = (Op) ops.get(i);
+                buffer.put(op.type);
+                buffer.putShort((short) keys[i].length);
+                buffer.put(keys[i]);
+                if (op.type == PUT) {
+                    buffer.putInt(op.value.length);
+                    buffer.put(op.value);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), HEADER_SIZE, length - HEADER_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, length - HEADER_SIZE);
+            buffer.putInt(8, (int) crc.getValue());
+            buffer.position(0);
+            return buffer;
+        }
+    }
+}
@@ -20,15 +20,45 @@ import helma.objectmodel.*;
 import helma.objectmodel.db.NodeManager;
 import helma.objectmodel.db.Node;
 import helma.framework.core.Application;
+import helma.util.LatencyHistogram;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import org.xml.sax.SAXException;
 
 /**
- * A simple XML-database
+ * A simple XML-database. Nodes are stored as one file per node, either as
+ * XML or, if <code>embeddedDbFormat</code> is set to <code>binary</code> in
+ * app.properties, in the encoding of {@link BinaryNodeCodec}. Nodes are read
+ * from either format, so existing XML files remain readable after switching
+ * to the binary format and are replaced as nodes are updated.
+ *
+ * Transactions committing at the same time are committed as a group: the
+ * first transaction to find no group in progress moves the files of all
+ * waiting transactions to their final names with atomic renames.
+ *
+ * If <code>xmlDatabase.sync</code> is set to <code>true</code> in
+ * app.properties, commits are on disk when they return. Each group is then
+ * appended to a commit journal in the database directory, which is synced
+ * once per group before the files are moved. The files themselves are synced
+ * at checkpoints, when the journal reaches its size limit and on shutdown,
+ * after which the journal is emptied. After a crash, the groups in the
+ * journal are written again when the database is opened.
  */
 public final class XmlDatabase implements IDatabase {
 
@@ -41,6 +71,49 @@ public final class XmlDatabase implements IDatabase {
     // use standard encoding by default.
     protected String encoding = null;
 
+    // write nodes in binary format
+    protected boolean binary = false;
+    protected BinaryNodeCodec codec;
+
+    // sync commits to disk before they return
+    protected boolean sync = false;
+
+    // group commit state, guarded by commitLock
+    private final Object commitLock = new Object();
+    private ArrayList pendingCommits = new ArrayList();
+    private boolean committing = false;
+    // false if the platform can't sync directories
+    private volatile boolean syncDirectory = NIO2;
+
+    // the commit journal and its valid length, used by the committing
+    // thread if sync is enabled
+    private RandomAccessFile journal;
+    private long journalSize = 0;
+    // files written since the last checkpoint
+    private HashSet uncheckpointedFiles = new HashSet();
+
+    // commit statistics
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final AtomicLong commitGroups = new AtomicLong();
+    private final AtomicLong committedFiles = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+
+    // the name of the commit journal
+    private static final String JOURNAL_NAME = "commit.journal";
+    // the journal size at which a checkpoint is made
+    private static final long JOURNAL_LIMIT = 4L * 1024 * 1024;
+    // journal record marker
+    private static final int JOURNAL_MAGIC = 0x484a524e;
+    // size of a journal record header: magic, body length and checksum
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    private static final byte JOURNAL_WRITE = 1;
+    private static final byte JOURNAL_DELETE = 2;
+
+    // whether java.nio.file (Java 7) is available for atomic
+    // moves and directory syncs
+    private static final boolean NIO2 = isNio2Available();
+
     /**
      * Initializes the database from an application.
      * @param app
@@ -66,6 +139,25 @@ public final class XmlDatabase implements IDatabase {
         }
 
         this.encoding = app.getCharset();
+        this.binary = "binary".equalsIgnoreCase(app.getProperty("embeddedDbFormat"));
+        this.codec = new BinaryNodeCodec(nmgr);
+        this.sync = "true".equalsIgnoreCase(app.getProperty("xmlDatabase.sync"));
+
+        try {
+            recoverJournal();
+            if (sync) {
+                journal = new RandomAccessFile(new File(dbHomeDir, JOURNAL_NAME), "rw");
+                journal.setLength(0);
+                journalSize = 0;
+                if (!NIO2) {
+                    app.logEvent("Can't sync database directory " + dbHomeDir +
+                            " before Java 7, renames are synced by the file system");
+                }
+            }
+        } catch (IOException x) {
+            app.logError("Error opening commit journal in " + dbHomeDir, x);
+            throw new DatabaseException("Error opening commit journal: " + x);
+        }
 
         // get the initial id generator value
         long idBaseValue;
@@ -161,7 +253,32 @@ public final class XmlDatabase implements IDatabase {
      * Shut down the database
      */
     public void shutdown() {
-        // nothing to do
+        if (journal == null) {
+            return;
+        }
+        synchronized (commitLock) {
+            try {
+                while (committing) {
+                    commitLock.wait();
+                }
+            } catch (InterruptedException x) {
+                // go on
+            }
+            committing = true;
+        }
+        try {
+            checkpoint();
+            journal.close();
+            journal = null;
+            new File(dbHomeDir, JOURNAL_NAME).delete();
+        } catch (IOException x) {
+            app.logError("Error syncing database on shutdown", x);
+        } finally {
+            synchronized (commitLock) {
+                committing = false;
+                commitLock.notifyAll();
+            }
+        }
     }
 
     /**
@@ -181,14 +298,7 @@ public final class XmlDatabase implements IDatabase {
      * @throws DatabaseException
      */
     public void commitTransaction(ITransaction txn) throws DatabaseException {
-        if (idgen.dirty) {
-            try {
-                saveIDGenerator(txn);
-                idgen.dirty = false;
-            } catch (IOException x) {
-                throw new DatabaseException(x.toString());
-            }
-        }
+        // the id generator is saved once per commit group
         txn.commit();
     }
 
@@ -263,12 +373,28 @@ public final class XmlDatabase implements IDatabase {
      */
     public INode getNode(ITransaction txn, String kstr)
                   throws IOException, ObjectNotFoundException {
-        File f = new File(dbHomeDir, kstr + ".xml");
+        // look for the file in the format we write first, so we get the
+        // current version if an update was interrupted before the file in
+        // the other format was deleted
+        File f = getFile(kstr, binary);
+
+        if (!f.exists()) {
+            f = getFile(kstr, !binary);
+        }
 
         if (!f.exists()) {
             throw new ObjectNotFoundException("Object not found for key " + kstr);
         }
 
+        if (f.getName().endsWith(".bin")) {
+            try {
+                return codec.decode(readFile(f));
+            } catch (IOException x) {
+                app.logError("Error reading " +f, x);
+                throw x;
+            }
+        }
+
        try {
             XmlDatabaseReader reader = new XmlDatabaseReader(nmgr);
             Node node = reader.read(f);
@@ -282,6 +408,25 @@ public final class XmlDatabase implements IDatabase {
             throw new IOException(x.toString());
         }
     }
+
+    /**
+     * Get the file for a node in the binary or the XML format.
+     */
+    private File getFile(String kstr, boolean binary) {
+        return new File(dbHomeDir, kstr + (binary ? ".bin" : ".xml"));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
     /**
      * Save a node with the given key. Writes the node to a temporary file
      * which is copied to its final name when the transaction is committed.
@@ -293,9 +438,7 @@ public final class XmlDatabase implements IDatabase {
      */
     public void insertNode(ITransaction txn, String kstr, INode node)
                 throws IOException {
-        File f = new File(dbHomeDir, kstr + ".xml");
-
-        if (f.exists()) {
+        if (getFile(kstr, true).exists() || getFile(kstr, false).exists()) {
             throw new IOException("Object already exists for key " + kstr);
         }
 
@@ -314,25 +457,41 @@ public final class XmlDatabase implements IDatabase {
      */
     public void updateNode(ITransaction txn, String kstr, INode node)
                 throws IOException {
-        XmlWriter writer = null;
-        File tmp = File.createTempFile(kstr + ".xml.", ".tmp", dbHomeDir);
+        File file = getFile(kstr, binary);
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", dbHomeDir);
 
-        if (encoding != null) {
-            writer = new XmlWriter(tmp, encoding);
+        if (binary) {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(codec.encode(node));
+            } finally {
+                out.close();
+            }
         } else {
-            writer = new XmlWriter(tmp);
-        }
+            XmlWriter writer = null;
 
-        writer.setMaxLevels(1);
-        writer.write(node);
-        writer.close();
+            if (encoding != null) {
+                writer = new XmlWriter(tmp, encoding);
+            } else {
+                writer = new XmlWriter(tmp);
+            }
+
+            writer.setMaxLevels(1);
+            writer.write(node);
+            writer.close();
+        }
 
-        File file = new File(dbHomeDir, kstr+".xml");
         if (file.exists() && !file.canWrite()) {
             throw new IOException("No write permission for "+file);
         }
         Resource res = new Resource(file, tmp);
         txn.addResource(res, ITransaction.ADDED);
+
+        // remove the node's file in the other format
+        File other = getFile(kstr, !binary);
+        if (other.exists()) {
+            txn.addResource(new Resource(other, null), ITransaction.DELETED);
+        }
     }
 
     /**
@@ -344,7 +503,9 @@ public final class XmlDatabase implements IDatabase {
      */
     public void deleteNode(ITransaction txn, String kstr)
                     throws IOException {
-        Resource res = new Resource(new File(dbHomeDir, kstr+".xml"), null);
+        Resource res = new Resource(getFile(kstr, false), null);
+        txn.addResource(res, ITransaction.DELETED);
+        res = new Resource(getFile(kstr, true), null);
         txn.addResource(res, ITransaction.DELETED);
     }
 
@@ -375,44 +536,17 @@ public final class XmlDatabase implements IDatabase {
          * Complete the transaction by making its changes persistent.
          */
         public void commit() throws DatabaseException {
-            // move through updated/created files and persist them
-            int l = writeFiles.size();
-            for (int i=0; i<l; i++) {
-                Resource res = (Resource) writeFiles.get(i);
-                try {
-                    // because of a Java/Windows quirk, we have to delete
-                    // the existing file before trying to overwrite it
-                    if (res.file.exists()) {
-                        res.file.delete();
-                    }
-                    // move temporary file to permanent name
-                    if (res.tmpfile.renameTo(res.file)) {
-                        // success - delete tmp file
-                        res.tmpfile.delete();
-                    } else {
-                        // error - leave tmp file and print a message
-                        app.logError("*** Error committing "+res.file);
-                        app.logError("*** Committed version is in "+res.tmpfile);
-                    }
-                } catch (SecurityException ignore) {
-                    // shouldn't happen
-                }
-            }
-
-            // move through deleted files and delete them
-            l = deleteFiles.size();
-            for (int i=0; i<l; i++) {
-                Resource res = (Resource) deleteFiles.get(i);
-                // delete files enlisted as deleted
-                try {
-                    res.file.delete();
-                } catch (SecurityException ignore) {
-                    // shouldn't happen
-                }
+            long start = System.nanoTime();
+            try {
+                commitGroup(new CommitBatch(writeFiles, deleteFiles));
+            } catch (IOException x) {
+                app.logError("Error committing transaction", x);
+                throw new DatabaseException("Error committing transaction: " + x);
             }
+            commitLatency.record(System.nanoTime() - start);
             // clear registered resources
-            writeFiles.clear();
-            deleteFiles.clear();
+            writeFiles = new ArrayList();
+            deleteFiles = new ArrayList();
         }
 
         /**
@@ -452,6 +586,388 @@ public final class XmlDatabase implements IDatabase {
 
     }
 
+    /**
+     * Add a batch to the next commit group and wait until it is committed.
+     * If no group is being committed, the calling thread commits the group.
+     */
+    private void commitGroup(CommitBatch batch) throws IOException {
+        List group;
+        synchronized (commitLock) {
+            pendingCommits.add(batch);
+            try {
+                while (committing && !batch.done) {
+                    commitLock.wait();
+                }
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException("Interrupted waiting for commit");
+            }
+            if (batch.done) {
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                return;
+            }
+            committing = true;
+            group = pendingCommits;
+            pendingCommits = new ArrayList();
+        }
+
+        IOException error = null;
+        try {
+            writeGroup(group);
+        } catch (IOException x) {
+            error = x;
+        } catch (RuntimeException x) {
+            error = new IOException(x.toString());
+        }
+
+        synchronized (commitLock) {
+            for (int i = 0; i < group.size(); i++) {
+                CommitBatch b = (CommitBatch) group.get(i);
+                b.error = error;
+                b.done = true;
+            }
+            committing = false;
+            commitLock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Move the files of a commit group to their final names and delete
+     * the deleted files. Only one thread at a time executes this method.
+     */
+    private void writeGroup(List group) throws IOException {
+        List writes = new ArrayList();
+        List deletes = new ArrayList();
+
+        // save the id generator with a value covering all ids handed
+        // out to the transactions of the group
+        Resource idgenFile = null;
+        if (idgen.dirty) {
+            idgen.dirty = false;
+            XmlTransaction txn = new XmlTransaction();
+            try {
+                saveIDGenerator(txn);
+                idgenFile = (Resource) txn.writeFiles.get(0);
+                writes.add(idgenFile);
+            } catch (IOException x) {
+                // the nodes of the group are still committed
+                idgen.dirty = true;
+                txn.abort();
+                app.logError("Error saving id generator, retrying with the next commit", x);
+            }
+        }
+
+        for (int i = 0; i < group.size(); i++) {
+            CommitBatch batch = (CommitBatch) group.get(i);
+            writes.addAll(batch.writeFiles);
+            deletes.addAll(batch.deleteFiles);
+        }
+
+        if (journal != null && (writes.size() > 0 || deletes.size() > 0)) {
+            try {
+                appendJournal(writes, deletes);
+            } catch (IOException x) {
+                if (idgenFile != null) {
+                    idgenFile.tmpfile.delete();
+                    idgen.dirty = true;
+                }
+                throw x;
+            }
+        }
+
+        for (int i = 0; i < writes.size(); i++) {
+            moveFile((Resource) writes.get(i));
+        }
+        for (int i = 0; i < deletes.size(); i++) {
+            Resource res = (Resource) deletes.get(i);
+            // delete files enlisted as deleted
+            try {
+                res.file.delete();
+            } catch (SecurityException ignore) {
+                // shouldn't happen
+            }
+        }
+
+        if (journal != null) {
+            for (int i = 0; i < writes.size(); i++) {
+                uncheckpointedFiles.add(((Resource) writes.get(i)).file);
+            }
+            if (journalSize >= JOURNAL_LIMIT) {
+                try {
+                    checkpoint();
+                } catch (IOException x) {
+                    // the group is in the journal, retry with the next group
+                    app.logError("Error syncing database files", x);
+                }
+            }
+        }
+        commitGroups.incrementAndGet();
+        committedFiles.addAndGet(writes.size() + deletes.size());
+    }
+
+    /**
+     * Append the files of a commit group to the journal and sync it.
+     */
+    private void appendJournal(List writes, List deletes) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bout);
+        out.write(new byte[JOURNAL_HEADER_SIZE]);
+        out.writeInt(writes.size() + deletes.size());
+        for (int i = 0; i < writes.size(); i++) {
+            Resource res = (Resource) writes.get(i);
+            byte[] data = readFile(res.tmpfile);
+            out.writeByte(JOURNAL_WRITE);
+            out.writeUTF(res.file.getName());
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        for (int i = 0; i < deletes.size(); i++) {
+            out.writeByte(JOURNAL_DELETE);
+            out.writeUTF(((Resource) deletes.get(i)).file.getName());
+        }
+        out.close();
+
+        ByteBuffer record = ByteBuffer.wrap(bout.toByteArray());
+        int length = record.limit() - JOURNAL_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), JOURNAL_HEADER_SIZE, length);
+        record.putInt(0, JOURNAL_MAGIC);
+        record.putInt(4, length);
+        record.putInt(8, (int) crc.getValue());
+
+        FileChannel channel = journal.getChannel();
+        try {
+            long position = journalSize;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            channel.force(false);
+        } catch (IOException x) {
+            // drop the incomplete record so it doesn't hide later ones
+            try {
+                journal.setLength(journalSize);
+            } catch (IOException ignore) {
+                // overwritten by the next record
+            }
+            throw x;
+        }
+        journalSize += record.limit();
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Sync the files written since the last checkpoint and the database
+     * directory, then empty the journal.
+     */
+    private void checkpoint() throws IOException {
+        for (Iterator it = uncheckpointedFiles.iterator(); it.hasNext(); ) {
+            File file = (File) it.next();
+            if (file.exists()) {
+                syncFile(file);
+            }
+        }
+        syncDirectory();
+        uncheckpointedFiles.clear();
+        journal.setLength(0);
+        journal.getChannel().force(false);
+        journalSize = 0;
+        checkpoints.incrementAndGet();
+    }
+
+    /**
+     * Write the commit groups found in the journal again, in case the
+     * database wasn't shut down properly. Reading stops at the first
+     * incomplete record, left by a crash while a group was appended.
+     */
+    private void recoverJournal() throws IOException {
+        File file = new File(dbHomeDir, JOURNAL_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        byte[] data = readFile(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        HashSet files = new HashSet();
+        int groups = 0;
+        while (buffer.remaining() >= JOURNAL_HEADER_SIZE) {
+            int start = buffer.position();
+            int magic = buffer.getInt();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (magic != JOURNAL_MAGIC || length < 4 || length > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, start + JOURNAL_HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data,
+                    start + JOURNAL_HEADER_SIZE, length));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte op = in.readByte();
+                File target = new File(dbHomeDir, in.readUTF());
+                if (op == JOURNAL_WRITE) {
+                    byte[] content = new byte[in.readInt()];
+                    in.readFully(content);
+                    File tmp = File.createTempFile(target.getName() + ".", ".tmp", dbHomeDir);
+                    FileOutputStream out = new FileOutputStream(tmp);
+                    try {
+                        out.write(content);
+                    } finally {
+                        out.close();
+                    }
+                    moveFile(new Resource(target, tmp));
+                    files.add(target);
+                } else {
+                    target.delete();
+                    files.remove(target);
+                }
+            }
+            buffer.position(start + JOURNAL_HEADER_SIZE + length);
+            groups += 1;
+        }
+        for (Iterator it = files.iterator(); it.hasNext(); ) {
+            syncFile((File) it.next());
+        }
+        syncDirectory();
+        if (!file.delete()) {
+            throw new IOException("Can't delete commit journal " + file);
+        }
+        if (groups > 0) {
+            app.logEvent("Recovered " + groups + " commit groups from " + file);
+        }
+    }
+
+    /**
+     * Move a temporary file to its permanent name, replacing the
+     * previous version atomically where the platform supports it.
+     */
+    private void moveFile(Resource res) {
+        try {
+            if (NIO2) {
+                Nio2.move(res.tmpfile, res.file);
+            } else {
+                // because of a Java/Windows quirk, we have to delete
+                // the existing file before trying to overwrite it
+                if (res.file.exists()) {
+                    res.file.delete();
+                }
+                if (!res.tmpfile.renameTo(res.file)) {
+                    throw new IOException("Can't rename " + res.tmpfile);
+                }
+            }
+        } catch (IOException x) {
+            // error - leave tmp file and print a message
+            app.logError("*** Error committing "+res.file, x);
+            app.logError("*** Committed version is in "+res.tmpfile);
+        }
+    }
+
+    /**
+     * Flush the contents of a file to disk.
+     */
+    private void syncFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().force(false);
+        } finally {
+            raf.close();
+        }
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Flush the renames and deletes in the database directory to disk.
+     */
+    private void syncDirectory() {
+        if (!syncDirectory) {
+            return;
+        }
+        try {
+            Nio2.syncDirectory(dbHomeDir);
+            syncs.incrementAndGet();
+        } catch (IOException x) {
+            // not supported on some platforms, e.g. Windows
+            syncDirectory = false;
+            app.logEvent("Can't sync database directory " + dbHomeDir + ": " + x);
+        }
+    }
+
+    private static boolean isNio2Available() {
+        try {
+            Class.forName("java.nio.file.Files");
+            return true;
+        } catch (ClassNotFoundException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the commit statistics of the database.
+     *
+     * @return a map with the commit latency and commit group statistics
+     */
+    public Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        Map<String,Object> latency = new HashMap<String,Object>();
+        commitLatency.addStatistics(latency);
+        long commits = commitLatency.getCount();
+        long groups = commitGroups.get();
+        stats.put("commitLatency", latency);
+        stats.put("commits", commits);
+        stats.put("commitGroups", groups);
+        stats.put("averageGroupSize", groups == 0 ? 0.0 : (double) commits / groups);
+        stats.put("committedFiles", committedFiles.get());
+        stats.put("syncs", syncs.get());
+        stats.put("checkpoints", checkpoints.get());
+        stats.put("sync", sync);
+        return stats;
+    }
+
+    /**
+     * The files of a committed transaction, waiting to be moved with
+     * a commit group.
+     */
+    static class CommitBatch {
+        final List writeFiles;
+        final List deleteFiles;
+        volatile boolean done = false;
+        volatile IOException error = null;
+
+        CommitBatch(List writeFiles, List deleteFiles) {
+            this.writeFiles = writeFiles;
+            this.deleteFiles = deleteFiles;
+        }
+    }
+
+    /**
+     * File operations using java.nio.file, only loaded if it is available.
+     */
+    static final class Nio2 {
+
+        static void move(File tmpfile, File file) throws IOException {
+            try {
+                Files.move(tmpfile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException x) {
+                Files.move(tmpfile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        static void syncDirectory(File dir) throws IOException {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
     /**
      * A holder class for two files, the temporary file and the permanent one
      */
@@ -26,6 +26,7 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -71,6 +72,24 @@ public final class XmlDatabaseReader extends DefaultHandler implements XmlConsta
         return currentNode;
     }
 
+    /**
+     * read a node from a stream with xml-content.
+     */
+    public Node read(InputStream in)
+              throws ParserConfigurationException, SAXException, IOException {
+        if (nmgr == null) {
+            throw new RuntimeException("can't create a new Node without a NodeManager");
+        }
+
+        SAXParser parser = factory.newSAXParser();
+
+        currentNode = null;
+
+        parser.parse(in, this);
+
+        return currentNode;
+    }
+
     /**
      *
      *
@@ -457,6 +457,32 @@ public class HopObject extends ScriptableObject implements Wrapper, PropertyReco
         }
     }
 
+    /**
+     *  Return a cursor that iterates over the child objects of a relational
+     *  collection in batches, e.g. <code>this.cursor({batch: 500})</code>.
+     *  Processed batches are removed from the node cache unless the
+     *  <code>cache</code> option is set to true.
+     */
+    public Object jsFunction_cursor(Object options) {
+        int batchSize = 500;
+        boolean keepCached = false;
+        if (options instanceof Scriptable) {
+            Object batch = ScriptableObject.getProperty((Scriptable) options, "batch");
+            if (batch != Scriptable.NOT_FOUND && batch != Undefined.instance) {
+                batchSize = Math.max(1, (int) ScriptRuntime.toNumber(batch));
+            }
+            Object cache = ScriptableObject.getProperty((Scriptable) options, "cache");
+            if (cache != Scriptable.NOT_FOUND && cache != Undefined.instance) {
+                keepCached = ScriptRuntime.toBoolean(cache);
+            }
+        }
+        INode node = getNode();
+        if (!(node instanceof Node)) {
+            throw new EvaluatorException("Cursors are only supported for persistent objects");
+        }
+        return ((Node) node).getCursor(batchSize, keepCached);
+    }
+
     /**
      *  Clear the node's cache node.
      */
@@ -250,6 +250,9 @@ public abstract class AbstractServletClient extends HttpServlet {
                 }
             }
 
+            // let streamed responses send their headers when the first chunk is written
+            reqtrans.setHeaderWriter(new StreamHeaderWriter(request, response, resCookieDomain));
+
             ResponseTrans restrans = getApplication().execute(reqtrans);
 
             // delete uploads if any
@@ -266,18 +269,7 @@ public abstract class AbstractServletClient extends HttpServlet {
             }
 
             // set cookies
-            if (restrans.countCookies() > 0) {
-                CookieTrans[] resCookies = restrans.getCookies();
-
-                for (int i = 0; i < resCookies.length; i++)
-                    try {
-                        Cookie c = resCookies[i].getCookie("/", resCookieDomain);
-
-                        response.addCookie(c);
-                    } catch (Exception x) {
-                        getApplication().logEvent("Error adding cookie: " + x);
-                    }
-            }
+            addCookies(response, restrans, resCookieDomain);
 
             // write response
             writeResponse(request, response, reqtrans, restrans);
@@ -298,6 +290,25 @@ public abstract class AbstractServletClient extends HttpServlet {
         }
     }
 
+    /**
+     * Add the cookies set on the Helma response to the servlet response.
+     */
+    void addCookies(HttpServletResponse response, ResponseTrans restrans,
+                    String resCookieDomain) {
+        if (restrans.countCookies() > 0) {
+            CookieTrans[] resCookies = restrans.getCookies();
+
+            for (int i = 0; i < resCookies.length; i++)
+                try {
+                    Cookie c = resCookies[i].getCookie("/", resCookieDomain);
+
+                    response.addCookie(c);
+                } catch (Exception x) {
+                    getApplication().logEvent("Error adding cookie: " + x);
+                }
+        }
+    }
+
     protected void writeResponse(HttpServletRequest req, HttpServletResponse res,
                                  RequestTrans hopreq, ResponseTrans hopres)
             throws IOException {
@@ -315,35 +326,9 @@ public abstract class AbstractServletClient extends HttpServlet {
         } else if (hopres.getNotModified()) {
             res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
         } else {
-            if (!hopres.isCacheable() || !caching) {
-                // Disable caching of response.
-                if (isOneDotOne(req.getProtocol())) {
-                    // for HTTP 1.1
-                    res.setHeader("Cache-Control",
-                                  "no-cache, no-store, must-revalidate, max-age=0");
-                } else {
-                    // for HTTP 1.0
-                    res.setDateHeader("Expires", System.currentTimeMillis() - 10000);
-                    res.setHeader("Pragma", "no-cache");
-                }
-            }
-
-            if (hopres.getRealm() != null) {
-                res.setHeader("WWW-Authenticate", "Basic realm=\"" + hopres.getRealm() + "\"");
-            }
-
-            if (hopres.getStatus() > 0) {
-                res.setStatus(hopres.getStatus());
-            }
-
-            // set last-modified header to now
-            long modified = hopres.getLastModified();
-            if (modified > -1) {
-                res.setDateHeader("Last-Modified", modified);
-            }
+            writeHeaders(req, res, hopres);
 
             res.setContentLength(hopres.getContentLength());
-            res.setContentType(hopres.getContentType());
 
             if (!"HEAD".equalsIgnoreCase(req.getMethod())) {
                 byte[] content = hopres.getContent();
@@ -360,6 +345,64 @@ public abstract class AbstractServletClient extends HttpServlet {
         }
     }
 
+    /**
+     * Set the status, caching, authentication, last-modified and content type
+     * headers of a response.
+     */
+    void writeHeaders(HttpServletRequest req, HttpServletResponse res,
+                      ResponseTrans hopres) {
+        if (!hopres.isCacheable() || !caching) {
+            // Disable caching of response.
+            if (isOneDotOne(req.getProtocol())) {
+                // for HTTP 1.1
+                res.setHeader("Cache-Control",
+                              "no-cache, no-store, must-revalidate, max-age=0");
+            } else {
+                // for HTTP 1.0
+                res.setDateHeader("Expires", System.currentTimeMillis() - 10000);
+                res.setHeader("Pragma", "no-cache");
+            }
+        }
+
+        if (hopres.getRealm() != null) {
+            res.setHeader("WWW-Authenticate", "Basic realm=\"" + hopres.getRealm() + "\"");
+        }
+
+        if (hopres.getStatus() > 0) {
+            res.setStatus(hopres.getStatus());
+        }
+
+        // set last-modified header to now
+        long modified = hopres.getLastModified();
+        if (modified > -1) {
+            res.setDateHeader("Last-Modified", modified);
+        }
+
+        res.setContentType(hopres.getContentType());
+    }
+
+    /**
+     * Sends cookies and headers of a streamed response before its first
+     * chunk of content is written.
+     */
+    class StreamHeaderWriter implements ResponseHeaderWriter {
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        final String cookieDomain;
+
+        StreamHeaderWriter(HttpServletRequest request, HttpServletResponse response,
+                           String cookieDomain) {
+            this.request = request;
+            this.response = response;
+            this.cookieDomain = cookieDomain;
+        }
+
+        public void writeHeaders(ResponseTrans res) throws IOException {
+            addCookies(response, res, cookieDomain);
+            AbstractServletClient.this.writeHeaders(request, response, res);
+        }
+    }
+
     void sendError(HttpServletResponse response, int code, String message)
             throws IOException {
         if (response.isCommitted()) {
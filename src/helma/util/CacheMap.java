@@ -66,6 +66,13 @@ public class CacheMap implements ObjectCache {
     // the application to output messages to
     private Application app = null;
 
+    // Number of table rotations and entries dropped by them.
+    private long rotations = 0;
+    private long evictions = 0;
+
+    // Listener notified of entries dropped by table rotations
+    private volatile EvictionListener evictionListener = null;
+
     /**
      * Zero argument constructor. Creates a CacheMap with capacity of 1000
      * and load factor 0.75
@@ -139,14 +146,17 @@ public class CacheMap implements ObjectCache {
         }
     }
 
-    private synchronized void updateThreshold(int newThreshold) {
-        threshold = newThreshold;
-        eachCapacity = (int) (threshold / loadFactor) + 2;
-        // if newtable is larger than threshold, rotate.
-        if (newTable.size() > threshold) {
-            oldTable = newTable;
-            newTable = createTable(eachCapacity, loadFactor);
+    private void updateThreshold(int newThreshold) {
+        Map dropped = null;
+        synchronized (this) {
+            threshold = newThreshold;
+            eachCapacity = (int) (threshold / loadFactor) + 2;
+            // if newtable is larger than threshold, rotate.
+            if (newTable.size() > threshold) {
+                dropped = rotate();
+            }
         }
+        notifyEvicted(dropped);
     }
 
     /// Returns true if the specified object is an element of the hashtable.
@@ -238,27 +248,70 @@ public class CacheMap implements ObjectCache {
     // is equal to null.
     // @see LruHashtable#get
     // @return the old value of the key, or null if it did not have one.
-    public synchronized Object put(Object key, Object value) {
-
-        Object oldValue = newTable.put(key, value);
-        if (oldValue != null)
-            return oldValue;
-        oldValue = oldTable.get(key);
-        if (oldValue != null)
-            oldTable.remove(key);
-        // we put a key into newtable that wasn't there before. check if it
-        // grew beyond the threshold
-        if (newTable.size() >= threshold) {
-            // Rotate the tables.
-            if (app != null)
-                app.logEvent("Rotating Cache tables at " + newTable.size() +
-                        "/" + oldTable.size() + " (new/old)");
-            oldTable = newTable;
-            newTable = createTable(eachCapacity, loadFactor);
+    public Object put(Object key, Object value) {
+        Object oldValue;
+        Map dropped = null;
+        synchronized (this) {
+            oldValue = newTable.put(key, value);
+            if (oldValue != null)
+                return oldValue;
+            oldValue = oldTable.get(key);
+            if (oldValue != null)
+                oldTable.remove(key);
+            // we put a key into newtable that wasn't there before. check if it
+            // grew beyond the threshold
+            if (newTable.size() >= threshold) {
+                // Rotate the tables.
+                if (app != null)
+                    app.logEvent("Rotating Cache tables at " + newTable.size() +
+                            "/" + oldTable.size() + " (new/old)");
+                dropped = rotate();
+            }
         }
+        // the dropped table isn't reachable through the cache anymore,
+        // so the listener can process it without holding the lock
+        notifyEvicted(dropped);
         return oldValue;
     }
 
+    /// Drops the old table and replaces it with the new table. Must be
+    // called while holding the lock on this object.
+    // @return the dropped table
+    private Map rotate() {
+        Map dropped = oldTable;
+        rotations += 1;
+        evictions += oldTable.size();
+        oldTable = newTable;
+        newTable = createTable(eachCapacity, loadFactor);
+        return dropped;
+    }
+
+    /// Hands a table dropped by a rotation to the eviction listener.
+    private void notifyEvicted(Map dropped) {
+        EvictionListener listener = evictionListener;
+        if (listener != null && dropped != null && !dropped.isEmpty()) {
+            listener.evicted(dropped);
+        }
+    }
+
+    /// Sets the listener to notify of entries dropped by table rotations,
+    // or null to just drop them.
+    // @param listener the eviction listener
+    public void setEvictionListener(EvictionListener listener) {
+        evictionListener = listener;
+    }
+
+    /// Returns the number of table rotations since this cache was created.
+    public synchronized long getRotationCount() {
+        return rotations;
+    }
+
+    /// Returns the number of entries that were dropped from the cache by
+    // table rotations since this cache was created.
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
     /// Removes the element corresponding to the key. Does nothing if the
     // key is not present.
     // @param key the key that needs to be removed
@@ -306,6 +359,13 @@ public class CacheMap implements ObjectCache {
         }
     }
 
+    /**
+     * Get the keys in this cache. Keys used since the last rotation come
+     * first, followed by the keys that haven't been used since. The order
+     * within each of the two generations is arbitrary.
+     *
+     * @return the keys in this cache
+     */
     public synchronized Object[] getCachedObjects() {
         Object[] k1 = newTable.keySet().toArray();
         Object[] k2 = oldTable.keySet().toArray();
@@ -315,6 +375,16 @@ public class CacheMap implements ObjectCache {
         return k;
     }
 
+    /**
+     * Get the keys in this cache by generation.
+     *
+     * @return an array holding the keys used since the last rotation and
+     *         the keys that haven't been used since
+     */
+    public synchronized Object[][] getCachedObjectsByGeneration() {
+        return new Object[][] {newTable.keySet().toArray(), oldTable.keySet().toArray()};
+    }
+
     public String toString() {
         return newTable.toString() + oldTable.toString() + hashCode();
     }
@@ -331,10 +401,30 @@ public class CacheMap implements ObjectCache {
         return new HashMap(capacity, loadFactor);
     }
 
-    public Map<String,Object> getStatistics() {
+    /**
+     * Receives the entries a cache drops in order to make room for new ones,
+     * e.g. to keep them in a second cache tier. Entries removed explicitly
+     * or by clearing the cache are not reported.
+     */
+    public interface EvictionListener {
+
+        /**
+         * Called with the entries dropped by a table rotation. The map is no
+         * longer used by the cache and may be read without synchronization.
+         * This is called on the thread that caused the rotation, so
+         * implementations should return quickly.
+         *
+         * @param entries the dropped keys and values
+         */
+        void evicted(Map entries);
+    }
+
+    public synchronized Map<String,Object> getStatistics() {
         Map<String,Object> stats = new HashMap<String,Object>();
         stats.put("size", size());
         stats.put("threshold", threshold);
+        stats.put("rotations", rotations);
+        stats.put("evictions", evictions);
         return stats;
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.util;
+
+import helma.framework.core.Application;
+import helma.objectmodel.ObjectCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An ObjectCache that splits its capacity over a number of independent
+ * {@link CacheMap} segments. Each key is assigned to one segment by its hash
+ * code, so threads accessing different keys will usually lock different
+ * segments instead of contending for one monitor. Every segment keeps the
+ * two-generation rotation scheme of CacheMap.
+ *
+ * To use this class for the node cache, set <code>cacheimpl</code> to
+ * <code>helma.util.SegmentedCacheMap</code> in app.properties. The number
+ * of segments is read from the <code>cachesegments</code> property when the
+ * cache is initialized and defaults to 16.
+ */
+public class SegmentedCacheMap implements ObjectCache {
+
+    // The segments
+    private CacheMap[] segments;
+
+    // bit mask to map hash codes to segment indexes
+    private int segmentMask;
+
+    // the overall cache capacity
+    private int capacity;
+
+    // the application to output messages to
+    private Application app = null;
+
+    // the listener to notify of entries dropped by segment rotations
+    private CacheMap.EvictionListener evictionListener = null;
+
+    /**
+     * Zero argument constructor. Creates a SegmentedCacheMap with capacity
+     * of 1000 and 16 segments.
+     */
+    public SegmentedCacheMap() {
+        this(1000, 16);
+    }
+
+    /**
+     * Creates a new SegmentedCacheMap with the given overall capacity
+     * and the given number of segments. The number of segments is rounded
+     * up to the next power of two.
+     *
+     * @param capacity the overall capacity
+     * @param segmentCount the number of segments
+     */
+    public SegmentedCacheMap(int capacity, int segmentCount) {
+        if (capacity <= 0 || segmentCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        createSegments(segmentCount);
+    }
+
+    /**
+     * Create the segment array. The segment count is rounded up to the
+     * next power of two so we can use a bit mask to select segments.
+     */
+    private void createSegments(int segmentCount) {
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        CacheMap[] newSegments = new CacheMap[count];
+        int segmentCapacity = getSegmentCapacity(capacity, count);
+        for (int i = 0; i < count; i++) {
+            newSegments[i] = createSegment(segmentCapacity);
+            newSegments[i].setEvictionListener(evictionListener);
+        }
+        segmentMask = count - 1;
+        segments = newSegments;
+    }
+
+    /**
+     * Override this method to use custom segment implementations. The
+     * default implementation returns a helma.util.CacheMap instance.
+     *
+     * @param segmentCapacity the capacity of the segment
+     * @return a new CacheMap used as cache segment
+     */
+    protected CacheMap createSegment(int segmentCapacity) {
+        return new CacheMap(segmentCapacity);
+    }
+
+    private static int getSegmentCapacity(int capacity, int segmentCount) {
+        // make sure each segment can hold at least one entry per generation
+        return Math.max(2, capacity / segmentCount);
+    }
+
+    /**
+     * Get the segment for the given key.
+     */
+    private CacheMap segmentFor(Object key) {
+        int h = key.hashCode();
+        // spread higher bits downwards, DbKey hash codes are not very
+        // well distributed in the lower bits
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Set the capacity of the cache. The capacity is evenly distributed
+     * over all segments.
+     *
+     * @param newCapacity the new overall capacity
+     */
+    public void setCapacity(int newCapacity) {
+        if (newCapacity != capacity) {
+            if (app != null)
+                app.logEvent("Setting cache capacity to " + newCapacity);
+            capacity = newCapacity;
+            int segmentCapacity = getSegmentCapacity(capacity, segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                segments[i].setCapacity(segmentCapacity);
+            }
+        }
+    }
+
+    /**
+     * Set the listener to notify of entries dropped from any segment.
+     *
+     * @param listener the eviction listener, or null
+     */
+    public void setEvictionListener(CacheMap.EvictionListener listener) {
+        evictionListener = listener;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setEvictionListener(listener);
+        }
+    }
+
+    /**
+     * Set the application to use for debug and profiling output
+     */
+    public void init(Application app) {
+        this.app = app;
+        if (app != null) {
+            String segmentProp = app.getProperty("cachesegments");
+            if (segmentProp != null) {
+                try {
+                    createSegments(Integer.parseInt(segmentProp.trim()));
+                } catch (NumberFormatException x) {
+                    app.logError("Invalid cachesegments setting: " + segmentProp);
+                }
+            }
+            updateProperties(app.getProperties());
+        }
+    }
+
+    /**
+     * The app properties have been modified, reload settings. Note that
+     * the number of segments can't be changed on a running cache.
+     */
+    public void updateProperties(Properties props) {
+        try {
+            int cacheSize = Integer.parseInt(props.getProperty("cachesize", "1000"));
+            setCapacity(cacheSize);
+        } catch (Exception x) {
+            String message = "Invalid cachesize setting: " + props.getProperty("cachesize");
+            if (app != null) {
+                app.logError(message);
+            } else {
+                System.err.println(message);
+            }
+        }
+    }
+
+    /**
+     * Called when the application using this cache is stopped. We
+     * simply clear out our cache contents.
+     */
+    public void shutdown() {
+        clear();
+    }
+
+    public boolean containsKey(Object key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    public int containsKeys(Object[] keys) {
+        int notfound = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (segmentFor(keys[i]).containsKey(keys[i]))
+                keys[i] = null;
+            else
+                notfound++;
+        }
+        return notfound;
+    }
+
+    public Object get(Object key) {
+        return segmentFor(key).get(key);
+    }
+
+    public Object put(Object key, Object value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    public Object remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    public boolean clear() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].clear();
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            size += segments[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the keys in this cache. The keys used since the last rotation of
+     * their segment come first, followed by the keys that haven't been used
+     * since. The order within each of the two generations is arbitrary.
+     *
+     * @return the keys in this cache
+     */
+    public Object[] getCachedObjects() {
+        Object[][][] parts = new Object[segments.length][][];
+        int length = 0;
+        for (int i = 0; i < segments.length; i++) {
+            parts[i] = segments[i].getCachedObjectsByGeneration();
+            length += parts[i][0].length + parts[i][1].length;
+        }
+        Object[] k = new Object[length];
+        int pos = 0;
+        for (int generation = 0; generation < 2; generation++) {
+            for (int i = 0; i < parts.length; i++) {
+                Object[] keys = parts[i][generation];
+                System.arraycopy(keys, 0, k, pos, keys.length);
+                pos += keys.length;
+            }
+        }
+        return k;
+    }
+
+    public Map<String,Object> getStatistics() {
+        long rotations = 0, evictions = 0;
+        for (int i = 0; i < segments.length; i++) {
+            rotations += segments[i].getRotationCount();
+            evictions += segments[i].getEvictionCount();
+        }
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("size", size());
+        stats.put("threshold", capacity / 2);
+        stats.put("segments", segments.length);
+        stats.put("rotations", rotations);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+}
@@ -17,6 +17,9 @@
 package helma.util;
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.StringTokenizer;
 import java.util.Enumeration;
 import java.util.List;
@@ -105,4 +108,37 @@ public class StringUtils {
         return s1.substring(0, length);
     }
 
+    /**
+     * Write a string that may be null or longer than writeUTF() allows.
+     *
+     * @param out the stream to write to
+     * @param str the string, or null
+     * @throws IOException if the string couldn't be written
+     */
+    public static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the stream to read from
+     * @return the string, or null
+     * @throws IOException if the string couldn't be read
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
 }
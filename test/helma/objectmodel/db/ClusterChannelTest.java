@@ -0,0 +1,176 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends invalidation records between two cluster channels over the loopback
+ * interface. Run with <code>ant test</code>.
+ */
+public class ClusterChannelTest {
+
+    public static void main(String[] args) throws Exception {
+        testDelivery();
+        testRejectedSecret();
+        testRestartedSender();
+        testParsePort();
+        System.out.println("ClusterChannelTest ok");
+    }
+
+    /**
+     * Records published by one channel are delivered to its peer once,
+     * in order.
+     */
+    static void testDelivery() throws Exception {
+        Recorder recorder = new Recorder();
+        ClusterChannel receiver = new ClusterChannel("a", "test", "secret", recorder);
+        int port = receiver.listen(InetAddress.getByName("127.0.0.1"), 0);
+        receiver.start();
+        ClusterChannel sender = new ClusterChannel("b", "test", "secret", new Recorder());
+        sender.configure(0, 100);
+        sender.addPeer("127.0.0.1", port);
+        sender.start();
+        try {
+            sender.publish(records(new String[] {"E", "Story", "42"}));
+            sender.publish(records(new String[] {"D", "Comment"}));
+            recorder.await(2, 10000);
+            check(recorder.size() == 2, "expected 2 records, got " + recorder.size());
+            check(Arrays.equals(recorder.get(0), new String[] {"E", "Story", "42"}),
+                    "wrong first record " + Arrays.asList(recorder.get(0)));
+            check(Arrays.equals(recorder.get(1), new String[] {"D", "Comment"}),
+                    "wrong second record " + Arrays.asList(recorder.get(1)));
+            check("b".equals(recorder.sender), "wrong sender " + recorder.sender);
+            check(recorder.resets == 0, "unexpected reset");
+        } finally {
+            sender.stop(1000);
+            receiver.stop(0);
+        }
+    }
+
+    /**
+     * A peer presenting the wrong secret is rejected.
+     */
+    static void testRejectedSecret() throws Exception {
+        Recorder recorder = new Recorder();
+        ClusterChannel receiver = new ClusterChannel("a", "test", "secret", recorder);
+        int port = receiver.listen(InetAddress.getByName("127.0.0.1"), 0);
+        receiver.start();
+        ClusterChannel sender = new ClusterChannel("b", "test", "wrong", new Recorder());
+        sender.configure(0, 100);
+        sender.addPeer("127.0.0.1", port);
+        sender.start();
+        try {
+            sender.publish(records(new String[] {"E", "Story", "42"}));
+            recorder.await(1, 1500);
+            check(recorder.size() == 0, "records from rejected peer were delivered");
+        } finally {
+            sender.stop(0);
+            receiver.stop(0);
+        }
+    }
+
+    /**
+     * A sender that comes back with a new epoch makes the receiver reset
+     * its caches, since records queued by the old instance may be lost.
+     */
+    static void testRestartedSender() throws Exception {
+        Recorder recorder = new Recorder();
+        ClusterChannel receiver = new ClusterChannel("a", "test", null, recorder);
+        int port = receiver.listen(InetAddress.getByName("127.0.0.1"), 0);
+        receiver.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                ClusterChannel sender = new ClusterChannel("b", "test", null, new Recorder());
+                sender.configure(0, 100);
+                sender.addPeer("127.0.0.1", port);
+                sender.start();
+                sender.publish(records(new String[] {"E", "Story", String.valueOf(i)}));
+                recorder.await(i + 1, 10000);
+                sender.stop(1000);
+                // make sure the next sender gets a new epoch
+                Thread.sleep(20);
+            }
+            check(recorder.size() == 2, "expected 2 records, got " + recorder.size());
+            check(recorder.resets == 1, "expected 1 reset, got " + recorder.resets);
+        } finally {
+            receiver.stop(0);
+        }
+    }
+
+    /**
+     * Invalid cluster.port values are detected instead of failing startup.
+     */
+    static void testParsePort() {
+        check(ClusterInvalidator.parsePort(" 8081 ") == 8081, "valid port rejected");
+        check(ClusterInvalidator.parsePort("0") == 0, "port 0 rejected");
+        check(ClusterInvalidator.parsePort("http") == -1, "non-numeric port accepted");
+        check(ClusterInvalidator.parsePort("70000") == -1, "port out of range accepted");
+        check(ClusterInvalidator.parsePort("-1") == -1, "negative port accepted");
+    }
+
+    private static List records(String[] record) {
+        List list = new ArrayList();
+        list.add(record);
+        return list;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException("ClusterChannelTest failed: " + message);
+        }
+    }
+
+    /**
+     * A handler collecting the records it receives.
+     */
+    static class Recorder implements ClusterChannel.Handler {
+        private final List records = new ArrayList();
+        String sender;
+        int resets;
+
+        public synchronized void received(String sender, List list) {
+            this.sender = sender;
+            records.addAll(list);
+            notifyAll();
+        }
+
+        public synchronized void reset(String sender) {
+            resets += 1;
+        }
+
+        synchronized int size() {
+            return records.size();
+        }
+
+        synchronized String[] get(int index) {
+            return (String[]) records.get(index);
+        }
+
+        synchronized void await(int count, long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long wait;
+            while (records.size() < count &&
+                    (wait = deadline - System.currentTimeMillis()) > 0) {
+                wait(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.util.ResourceProperties;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Measures the memory held by the driver for a large result set, e.g. of
+ * 100k rows or more, with and without streaming. This is a benchmark, not a
+ * test, and isn't run by <code>ant test</code>.
+ */
+public class DbSourceBenchmark {
+
+    /**
+     * Compare the heap used by a large result set when it is buffered by the
+     * driver and when it is read with streaming enabled.
+     *
+     * @param args driver, url, user, password, query and an optional fetch size
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.out.println("usage: DbSourceBenchmark driver url user password query [fetchSize]");
+            return;
+        }
+        Runtime rt = Runtime.getRuntime();
+        for (int round = 0; round < 2; round++) {
+            boolean stream = round == 1;
+            ResourceProperties props = new ResourceProperties();
+            props.put("bench.driver", args[0]);
+            props.put("bench.url", args[1]);
+            props.put("bench.user", args[2]);
+            props.put("bench.password", args[3]);
+            props.put("bench.streaming", String.valueOf(stream));
+            if (args.length > 5) {
+                props.put("bench.fetchSize", args[5]);
+            }
+            DbSource source = new DbSource("bench", props);
+            Connection con = source.getConnection();
+            Statement stmt = con.createStatement();
+            source.configureFetch(con, stmt, null);
+
+            long base = usedMemory(rt);
+            long start = System.currentTimeMillis();
+            ResultSet rs = stmt.executeQuery(args[4]);
+            int rows = 0;
+            long firstRow = 0;
+            long peak = 0;
+            while (rs.next()) {
+                if (rows == 0) {
+                    firstRow = System.currentTimeMillis() - start;
+                    // whatever the driver buffered is reachable now
+                    peak = usedMemory(rt) - base;
+                }
+                rs.getObject(1);
+                rows += 1;
+            }
+            long time = System.currentTimeMillis() - start;
+            rs.close();
+            stmt.close();
+            source.releaseFetch(con);
+            con.close();
+
+            System.out.println((stream ? "streaming: " : "buffered:  ") + rows + " rows in " +
+                    time + " ms, first row after " + firstRow + " ms, " +
+                    (peak / 1024) + " kB heap held at first row");
+        }
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
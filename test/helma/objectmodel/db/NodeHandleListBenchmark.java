@@ -0,0 +1,67 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap used by a list of node handles in an ArrayList and in a
+ * NodeHandleList. This is a benchmark, not a test, and isn't run by
+ * <code>ant test</code>.
+ */
+public class NodeHandleListBenchmark {
+
+    /**
+     * Compares the heap used by an ArrayList of handles with the heap used by
+     * a NodeHandleList for the given number of ids.
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String storage = "Benchmark".intern();
+        Runtime rt = Runtime.getRuntime();
+
+        long before = usedMemory(rt);
+        List handles = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            handles.add(new NodeHandle(new DbKey(storage, Long.toString(1000000L + i))));
+        }
+        long arrayListBytes = usedMemory(rt) - before;
+        System.out.println("ArrayList:      " + (arrayListBytes / 1024) + " kB for " +
+                handles.size() + " handles");
+        handles = null;
+
+        before = usedMemory(rt);
+        NodeHandleList packed = new NodeHandleList(count);
+        for (int i = 0; i < count; i++) {
+            packed.add(new NodeHandle(new DbKey(storage, Long.toString(1000000L + i))));
+        }
+        long packedBytes = usedMemory(rt) - before;
+        System.out.println("NodeHandleList: " + (packedBytes / 1024) + " kB for " +
+                packed.size() + " handles");
+        if (packedBytes > 0) {
+            System.out.println("Reduction:      " + (arrayListBytes / packedBytes) + "x");
+        }
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.Map;
+
+/**
+ * Measures how many synthetic records an off-heap node cache retains
+ * within a memory budget and how fast they are stored and read back. This
+ * is a benchmark, not a test, and isn't run by <code>ant test</code>.
+ */
+public class OffHeapNodeCacheBenchmark {
+
+    /**
+     * Stores the given number of synthetic records in a cache with the given
+     * budget in MB, then checks which of them can be read back.
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : 64) << 20;
+        OffHeapNodeCache cache = new OffHeapNodeCache(null, budget, 1 << 20, true);
+        String storage = "Benchmark".intern();
+        Runtime rt = Runtime.getRuntime();
+        long heapBefore = usedMemory(rt);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            DbKey key = new DbKey(storage, Integer.toString(i));
+            StringBuffer b = new StringBuffer("node ").append(i).append(": ");
+            for (int j = 0; j < 12; j++) {
+                b.append("property").append(j).append('=').append(i % 1000).append(';');
+            }
+            byte[] payload = b.toString().getBytes("UTF-8");
+            byte[] keyBytes = OffHeapNodeCache.encodeKey(key);
+            byte[] record = cache.createRecord(key, keyBytes, payload);
+            synchronized (cache) {
+                cache.store(key.hashCode(), keyBytes, record, payload.length);
+            }
+        }
+        long storeMillis = System.currentTimeMillis() - start;
+        long heapBytes = usedMemory(rt) - heapBefore;
+        Map stats = cache.getStatistics();
+        int entries = ((Integer) stats.get("size")).intValue();
+        System.out.println("Stored " + count + " records in " + storeMillis + " ms, " +
+                entries + " retained, " + stats.get("recycled") + " recycled");
+        System.out.println("Compression ratio " + stats.get("compressionRatio") +
+                ", index heap " + (heapBytes / Math.max(1, entries)) + " bytes per record");
+
+        start = System.currentTimeMillis();
+        int found = 0, wrong = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] data = cache.take(new DbKey(storage, Integer.toString(i)));
+            if (data != null) {
+                found++;
+                if (!new String(data, "UTF-8").startsWith("node " + i + ":")) {
+                    wrong++;
+                }
+            }
+        }
+        long readMillis = System.currentTimeMillis() - start;
+        System.out.println("Read " + found + " records in " + readMillis + " ms, " +
+                wrong + " wrong, " + cache.getStatistics().get("size") + " left");
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.Hashtable;
+
+/**
+ * Compares the heap used per node and the read throughput of Hashtable and
+ * PropertyMap slot storage. This is a benchmark, not a test, and isn't run
+ * by <code>ant test</code>.
+ */
+public class PropertyMapBenchmark {
+
+    /**
+     * Compares heap per node and read throughput of hashtable and slot
+     * storage for nodes with the given number of columns.
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int ncols = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        Runtime rt = Runtime.getRuntime();
+
+        String[] names = new String[ncols];
+        for (int i = 0; i < ncols; i++) {
+            names[i] = ("property" + i).intern();
+        }
+        PropertyMap.Layout layout = new PropertyMap.Layout(names);
+
+        // share property objects, we only want to measure the container overhead
+        Property[] props = new Property[ncols];
+        for (int i = 0; i < ncols; i++) {
+            props[i] = new Property(names[i], null);
+        }
+
+        long before = usedMemory(rt);
+        Hashtable[] tables = new Hashtable[count];
+        for (int n = 0; n < count; n++) {
+            tables[n] = new Hashtable();
+            for (int i = 0; i < ncols; i++) {
+                tables[n].put(names[i], props[i]);
+            }
+        }
+        long tableBytes = usedMemory(rt) - before;
+
+        before = usedMemory(rt);
+        PropertyMap[] maps = new PropertyMap[count];
+        for (int n = 0; n < count; n++) {
+            maps[n] = new PropertyMap(layout);
+            for (int i = 0; i < ncols; i++) {
+                maps[n].put(names[i], props[i]);
+            }
+        }
+        long mapBytes = usedMemory(rt) - before;
+
+        System.out.println("Hashtable:   " + (tableBytes / count) + " bytes per node");
+        System.out.println("PropertyMap: " + (mapBytes / count) + " bytes per node");
+
+        // look up with non-interned names, as scripts do
+        String[] lookups = new String[ncols];
+        for (int i = 0; i < ncols; i++) {
+            lookups[i] = new String(names[i]);
+        }
+        int reads = 20000000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int r = 0; r < reads; r++) {
+                if (tables[r % count].get(lookups[r % ncols]) != null) {
+                    found++;
+                }
+            }
+            long tableNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < reads; r++) {
+                if (maps[r % count].get(lookups[r % ncols]) != null) {
+                    found++;
+                }
+            }
+            long mapNanos = System.nanoTime() - start;
+            System.out.println("Round " + round + ": Hashtable " + (reads * 1000L / tableNanos) +
+                    ", PropertyMap " + (reads * 1000L / mapNanos) + " reads/us (" + found + ")");
+        }
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+/**
+ * Measures the overhead of recording SQL statement statistics. This is a
+ * benchmark, not a test, and isn't run by <code>ant test</code>.
+ */
+public class SqlStatisticsBenchmark {
+
+    /**
+     * Measures the recording overhead.
+     */
+    public static void main(String[] args) {
+        SqlStatistics stats = new SqlStatistics();
+        String[] types = {"SELECT_BYKEY", "SELECT_IDS", "UPDATE"};
+        int n = 10000000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                stats.record(types[i % 3], "STORY", null, (i % 5000) * 1000L, 1);
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println("Round " + round + ": " + (nanos / n) + " ns per statement");
+        }
+        System.out.println(stats.toPrometheus("test"));
+    }
+}
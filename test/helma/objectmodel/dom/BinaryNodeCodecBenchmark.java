@@ -0,0 +1,150 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import helma.objectmodel.db.DbKey;
+import helma.objectmodel.db.DbMapping;
+import helma.objectmodel.db.Node;
+import helma.objectmodel.db.NodeHandle;
+import helma.objectmodel.db.NodeManager;
+import helma.objectmodel.db.Property;
+import helma.objectmodel.db.SubnodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Date;
+import java.util.Hashtable;
+
+/**
+ * Compares the size and speed of the binary node encoding with the XML
+ * format. This is a benchmark, not a test, and isn't run by
+ * <code>ant test</code>.
+ */
+public class BinaryNodeCodecBenchmark {
+
+    /**
+     * Benchmark the binary encoding against the XML format by encoding and
+     * decoding nodes with typical properties in a temporary application.
+     *
+     * @param args the number of nodes and the number of subnodes per node
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int children = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File home = File.createTempFile("helma-bench", "");
+        home.delete();
+        File code = new File(home, "code");
+        code.mkdirs();
+        // keep all benchmark nodes in the cache so XmlWriter can resolve subnodes
+        java.io.FileWriter props = new java.io.FileWriter(new File(code, "app.properties"));
+        props.write("cachesize = " + (count * 2) + "\n");
+        props.close();
+        helma.main.ServerConfig config = new helma.main.ServerConfig();
+        config.setHomeDir(home);
+        helma.main.Server server = new helma.main.Server(config);
+        server.init();
+        helma.framework.core.Application app = new helma.framework.core.Application("bench",
+                server, new helma.framework.repository.Repository[] {
+                        new helma.framework.repository.FileRepository(code)},
+                null, new File(home, "db"));
+        app.init();
+        NodeManager nmgr = app.getNodeManager();
+        BinaryNodeCodec codec = new BinaryNodeCodec(nmgr);
+
+        DbMapping dbmap = app.getDbMapping("HopObject");
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            Node node = new Node("node" + i, Integer.toString(i + 2), "HopObject", nmgr.safe,
+                                 System.currentTimeMillis(), System.currentTimeMillis());
+            node.setParentHandle(new NodeHandle(new DbKey(app.getDbMapping("root"), "0")));
+            Hashtable propMap = new Hashtable();
+            Property prop = new Property("title", node);
+            prop.setStringValue("Title of node <" + i + "> & some more text");
+            propMap.put("title", prop);
+            prop = new Property("body", node);
+            prop.setStringValue("A longer text body for node " + i +
+                                ", with several sentences. The quick brown fox jumps over the lazy dog.");
+            propMap.put("body", prop);
+            prop = new Property("counter", node);
+            prop.setIntegerValue(i * 31L);
+            propMap.put("counter", prop);
+            prop = new Property("score", node);
+            prop.setFloatValue(i / 7.0);
+            propMap.put("score", prop);
+            prop = new Property("published", node);
+            prop.setBooleanValue(i % 2 == 0);
+            propMap.put("published", prop);
+            prop = new Property("modified", node);
+            prop.setDateValue(new Date());
+            propMap.put("modified", prop);
+            prop = new Property("author", node);
+            prop.setNodeHandle(new NodeHandle(new DbKey(dbmap, "1")));
+            propMap.put("author", prop);
+            node.setPropMap(propMap);
+            SubnodeList subnodes = node.createSubnodeList();
+            for (int j = 0; j < children; j++) {
+                subnodes.add(new NodeHandle(new DbKey(dbmap, Integer.toString((i + j + 1) % count + 2))));
+            }
+            nodes[i] = node;
+            nmgr.registerNode(node);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long xmlBytes = 0, binBytes = 0;
+            long start = System.nanoTime();
+            byte[][] xml = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream(512);
+                XmlWriter writer = new XmlWriter(bout, "UTF-8");
+                writer.setMaxLevels(1);
+                writer.write(nodes[i]);
+                writer.close();
+                xml[i] = bout.toByteArray();
+                xmlBytes += xml[i].length;
+            }
+            long xmlWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                codec.readXml(new ByteArrayInputStream(xml[i]));
+            }
+            long xmlRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[][] bin = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                bin[i] = codec.encode(nodes[i]);
+                binBytes += bin[i].length;
+            }
+            long binWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                codec.decode(bin[i]);
+            }
+            long binRead = System.nanoTime() - start;
+
+            System.out.println("Round " + round + ", " + count + " nodes with " + children + " subnodes:");
+            System.out.println("  xml:    write " + (xmlWrite / 1000 / count) + " us, read " +
+                    (xmlRead / 1000 / count) + " us, " + (xmlBytes / count) + " bytes per node");
+            System.out.println("  binary: write " + (binWrite / 1000 / count) + " us, read " +
+                    (binRead / 1000 / count) + " us, " + (binBytes / count) + " bytes per node");
+        }
+
+        app.stop();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simulates crashes of a database log by cutting off the end of its segment
+ * files, then checks what is recovered when the log is reopened. Run with
+ * <code>ant test</code>.
+ */
+public class LogDatabaseRecoveryTest {
+
+    public static void main(String[] args) throws Exception {
+        testTornTail();
+        testTornSegment();
+        testInterruptedImport();
+        System.out.println("LogDatabaseRecoveryTest ok");
+    }
+
+    /**
+     * An incomplete batch at the end of the log is dropped, the batches
+     * before it are kept and the log can be written to again.
+     */
+    static void testTornTail() throws Exception {
+        File dir = createDir();
+        try {
+            SegmentLog log = new SegmentLog(dir, 1 << 20, true, 0.5);
+            commit(log, "a", "1");
+            commit(log, "b", "2");
+            log.close();
+            cut(segment(dir, 1), 3);
+
+            log = new SegmentLog(dir, 1 << 20, true, 0.5);
+            check(value(log, "a").equals("1"), "first commit lost");
+            check(!log.contains("b"), "torn commit applied");
+            check(log.getBytesTruncated() > 0, "torn commit not reported");
+            commit(log, "c", "3");
+            log.close();
+
+            log = new SegmentLog(dir, 1 << 20, true, 0.5);
+            check(value(log, "c").equals("3"), "commit after recovery lost");
+            check(log.getBytesTruncated() == 0, "recovered log truncated again");
+            log.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Without sync, a torn batch at the end of a segment other than the last
+     * one is truncated like a torn tail. With sync, it is an error.
+     */
+    static void testTornSegment() throws Exception {
+        File dir = createDir();
+        try {
+            SegmentLog log = new SegmentLog(dir, 4096, false, 0.5);
+            char[] chars = new char[1000];
+            Arrays.fill(chars, 'x');
+            String value = new String(chars);
+            for (int i = 0; i < 10; i++) {
+                commit(log, "k" + i, value);
+            }
+            log.close();
+            check(segment(dir, 2).exists(), "log has a single segment");
+            cut(segment(dir, 1), 3);
+
+            try {
+                new SegmentLog(dir, 4096, true, 0.5).close();
+                check(false, "torn segment accepted with sync");
+            } catch (IOException expected) {
+                // segments are synced before the next one is started
+            }
+
+            log = new SegmentLog(dir, 4096, false, 0.5);
+            check(log.getBytesTruncated() > 0, "torn segment not reported");
+            check(log.contains("k0"), "first commit lost");
+            check(value(log, "k9").equals(value), "commit in later segment lost");
+            check(log.size() == 9, "expected 9 keys, got " + log.size());
+            log.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An import that didn't write its marker is redone when the log
+     * is opened again.
+     */
+    static void testInterruptedImport() throws Exception {
+        File dbHome = createDir();
+        try {
+            write(new File(dbHome, "2.xml"), "two");
+            write(new File(dbHome, "3.xml"), "three");
+            write(new File(dbHome, "4.bin"), "four");
+
+            // crash while the import is committed
+            SegmentLog log = LogDatabase.openLog(dbHome, null, null, null);
+            check(LogDatabase.importXmlFiles(dbHome, log) == 3, "wrong import count");
+            log.close();
+            cut(segment(new File(dbHome, "log"), 1), 1);
+
+            log = LogDatabase.openLog(dbHome, null, null, null);
+            check(!log.contains(LogDatabase.IMPORTED_KEY), "torn import marked complete");
+            check(LogDatabase.importXmlFiles(dbHome, log) == 3, "wrong import count");
+            check(value(log, "2").equals("two"), "node 2 not imported");
+            log.close();
+
+            // crash after a part of the nodes was committed
+            delete(new File(dbHome, "log"));
+            log = LogDatabase.openLog(dbHome, null, null, null);
+            commit(log, "3", "three");
+            log.close();
+
+            log = LogDatabase.openLog(dbHome, null, null, null);
+            check(!log.contains(LogDatabase.IMPORTED_KEY), "partial import marked complete");
+            // node 3 was imported before the crash
+            check(LogDatabase.importXmlFiles(dbHome, log) == 2, "wrong import count");
+            log.close();
+
+            log = LogDatabase.openLog(dbHome, null, null, null);
+            check(log.contains(LogDatabase.IMPORTED_KEY), "import not marked complete");
+            check(value(log, "2").equals("two"), "node 2 not imported");
+            check(value(log, "3").equals("three"), "node 3 not imported");
+            check(value(log, "4").equals("four"), "node 4 not imported");
+            log.close();
+        } finally {
+            delete(dbHome);
+        }
+    }
+
+    private static void commit(SegmentLog log, String key, String value) throws IOException {
+        Map writes = new HashMap();
+        writes.put(key, value.getBytes("UTF-8"));
+        log.commit(writes);
+    }
+
+    private static String value(SegmentLog log, String key) throws IOException {
+        byte[] value = log.get(key);
+        return value == null ? null : new String(value, "UTF-8");
+    }
+
+    private static File segment(File dir, int id) {
+        String name = Integer.toString(id);
+        while (name.length() < 8) {
+            name = "0" + name;
+        }
+        return new File(dir, "segment-" + name + ".log");
+    }
+
+    // cut off the end of a file, as if it wasn't completely written
+    private static void cut(File file, int bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static File createDir() throws IOException {
+        File dir = File.createTempFile("logdb", null);
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can't create " + dir);
+        }
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException("LogDatabaseRecoveryTest failed: " + message);
+        }
+    }
+}
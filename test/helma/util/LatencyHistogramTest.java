@@ -0,0 +1,70 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.util;
+
+/**
+ * Checks the bucket boundaries and percentiles of the latency histogram.
+ * Run with <code>ant test</code>.
+ */
+public class LatencyHistogramTest {
+
+    public static void main(String[] args) {
+        testBuckets();
+        testPercentiles();
+        System.out.println("LatencyHistogramTest ok");
+    }
+
+    /**
+     * Every value falls into the bucket covering it, and buckets are no
+     * wider than an eighth of their values.
+     */
+    static void testBuckets() {
+        for (long v = 0; v < (1L << 30); v = v < 100 ? v + 1 : v + v / 7) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            check(v <= LatencyHistogram.bucketLimit(bucket) &&
+                    (bucket == 0 || v > LatencyHistogram.bucketLimit(bucket - 1)),
+                    "wrong bucket " + bucket + " for " + v);
+            check(LatencyHistogram.bucketLimit(bucket) <= v + v / 8,
+                    "bucket " + bucket + " too wide for " + v);
+        }
+    }
+
+    /**
+     * Percentiles are reported as the upper limit of their bucket.
+     */
+    static void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        check(LatencyHistogram.percentile(histogram.snapshot(), 0.5) == 0,
+                "percentile of empty histogram");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        long[] counts = histogram.snapshot();
+        long p50 = LatencyHistogram.percentile(counts, 0.5);
+        long p99 = LatencyHistogram.percentile(counts, 0.99);
+        check(p50 >= 50 && p50 <= 50 + 50 / 8, "wrong 50th percentile " + p50);
+        check(p99 >= 99 && p99 <= 99 + 99 / 8, "wrong 99th percentile " + p99);
+        check(histogram.getCount() == 100, "wrong count " + histogram.getCount());
+        check(histogram.getMaxNanos() == 100000L, "wrong maximum " + histogram.getMaxNanos());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException("LatencyHistogramTest failed: " + message);
+        }
+    }
+}
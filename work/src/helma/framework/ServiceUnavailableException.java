@@ -0,0 +1,34 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.framework;
+
+
+/**
+ * This is thrown when a request can't be served because all
+ * request evaluators are busy and the request could not be queued
+ * or waited too long for a free evaluator.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    /**
+     * Creates a new ServiceUnavailableException object.
+     *
+     * @param message the error message
+     */
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
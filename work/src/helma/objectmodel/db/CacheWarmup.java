@@ -0,0 +1,310 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.framework.core.Application;
+import helma.objectmodel.ObjectCache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Saves the keys of the relational nodes in the node cache when the
+ * application is stopped and loads them again in bulk when it is started,
+ * so the application doesn't start with an empty cache after a restart.
+ * Nodes are loaded on a background thread with one query per batch of ids
+ * of the same type. Since no request evaluator is available on that thread,
+ * onInit() is invoked on warmed up nodes when they are first accessed.
+ *
+ * The warm-up is configured with the following app.properties settings:
+ * <ul>
+ * <li><code>cacheWarmup.size</code> - the maximum number of keys to save when
+ *     the application is stopped. The warm-up is disabled if this isn't set.</li>
+ * <li><code>cacheWarmup.batchSize</code> - the number of nodes to load with one
+ *     query (default 200)</li>
+ * <li><code>cacheWarmup.wait</code> - the number of milliseconds the application
+ *     start waits for the warm-up to finish before requests are admitted (default 0)</li>
+ * </ul>
+ */
+final class CacheWarmup implements Runnable {
+
+    // the name of the snapshot file in the db directory
+    static final String SNAPSHOT_FILE = "cache-snapshot.txt";
+
+    private final NodeManager nmgr;
+    private final Application app;
+    private final File file;
+    private final int size;
+    private final int batchSize;
+    private final long wait;
+
+    private Thread thread;
+    private volatile boolean stopped = false;
+
+    // progress, written by the warm-up thread
+    private volatile String status = "idle";
+    private volatile int total = 0;
+    private volatile int loaded = 0;
+    private volatile int queries = 0;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    private CacheWarmup(NodeManager nmgr, File dbHome, int size, int batchSize, long wait) {
+        this.nmgr = nmgr;
+        this.app = nmgr.app;
+        this.file = new File(dbHome, SNAPSHOT_FILE);
+        this.size = size;
+        this.batchSize = batchSize;
+        this.wait = wait;
+    }
+
+    /**
+     * Create the cache warm-up for a node manager if it is enabled in the
+     * application properties.
+     *
+     * @param nmgr the node manager
+     * @param dbHome the directory to keep the snapshot in
+     * @param props the application properties
+     * @return the cache warm-up, or null if it isn't enabled
+     */
+    static CacheWarmup create(NodeManager nmgr, File dbHome, Properties props) {
+        int size = getInt(props, "cacheWarmup.size", 0);
+        if (size <= 0) {
+            return null;
+        }
+        return new CacheWarmup(nmgr, dbHome, size,
+                Math.max(1, getInt(props, "cacheWarmup.batchSize", 200)),
+                getInt(props, "cacheWarmup.wait", 0));
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException x) {
+                // use default value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Start loading the nodes listed in the snapshot, waiting for the
+     * configured time for the warm-up to finish.
+     */
+    void start() {
+        if (!file.exists()) {
+            return;
+        }
+        thread = new Thread(this, app.getName() + "-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        if (wait > 0) {
+            try {
+                thread.join(wait);
+            } catch (InterruptedException ir) {
+                // go on
+            }
+        }
+    }
+
+    /**
+     * Stop the warm-up if it is still running.
+     */
+    void stop() {
+        stopped = true;
+        Thread t = thread;
+        if (t != null) {
+            try {
+                t.join(2000);
+            } catch (InterruptedException ir) {
+                // go on
+            }
+        }
+    }
+
+    public void run() {
+        startTime = System.currentTimeMillis();
+        status = "running";
+        try {
+            Map keys = readSnapshot();
+            int count = 0;
+            for (Iterator it = keys.values().iterator(); it.hasNext(); ) {
+                count += ((List) it.next()).size();
+            }
+            total = count;
+            app.logEvent("Warming up node cache with " + total + " nodes of " +
+                    keys.size() + " types");
+
+            long lastReport = startTime;
+            for (Iterator it = keys.entrySet().iterator(); it.hasNext() && !stopped; ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                DbMapping dbm = app.getDbMapping((String) entry.getKey());
+                List ids = (List) entry.getValue();
+                if (dbm == null || !dbm.isRelational()) {
+                    continue;
+                }
+                for (int i = 0; i < ids.size() && !stopped; i += batchSize) {
+                    List batch = ids.subList(i, Math.min(ids.size(), i + batchSize));
+                    loaded += nmgr.warmUpNodes(dbm, batch);
+                    queries += 1;
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= 5000) {
+                        app.logEvent("Node cache warm-up: " + loaded + " of " + total +
+                                " nodes loaded in " + (now - startTime) + " ms");
+                        lastReport = now;
+                    }
+                }
+            }
+            status = stopped ? "stopped" : "done";
+        } catch (Exception x) {
+            status = "failed";
+            app.logError("Error warming up node cache", x);
+        } finally {
+            endTime = System.currentTimeMillis();
+            thread = null;
+        }
+        app.logEvent("Node cache warm-up " + status + ": " + loaded + " of " + total +
+                " nodes loaded with " + queries + " queries in " + (endTime - startTime) + " ms");
+    }
+
+    /**
+     * Read the snapshot, returning a map of storage names to lists of ids.
+     */
+    private Map readSnapshot() throws IOException {
+        Map keys = new LinkedHashMap();
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.startsWith("#") || tab < 1) {
+                    continue;
+                }
+                String storage = line.substring(0, tab);
+                List ids = (List) keys.get(storage);
+                if (ids == null) {
+                    ids = new ArrayList();
+                    keys.put(storage, ids);
+                }
+                ids.add(line.substring(tab + 1));
+            }
+        } finally {
+            in.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Write the keys of the relational nodes in the cache to the snapshot,
+     * grouped by type. Caches list their most recently used entries first,
+     * so those are saved if there are more than the configured number of keys.
+     *
+     * @param cache the node cache
+     */
+    void saveSnapshot(ObjectCache cache) {
+        Object[] cached = cache.getCachedObjects();
+        Map keys = new LinkedHashMap();
+        int count = 0;
+        for (int i = 0; i < cached.length && count < size; i++) {
+            if (!(cached[i] instanceof DbKey)) {
+                continue;
+            }
+            DbKey key = (DbKey) cached[i];
+            String storage = key.getStorageName();
+            String id = key.getID();
+            DbMapping dbm = storage == null ? null : app.getDbMapping(storage);
+            if (dbm == null || !dbm.isRelational() ||
+                    id.indexOf('\n') > -1 || id.indexOf('\r') > -1) {
+                continue;
+            }
+            List ids = (List) keys.get(storage);
+            if (ids == null) {
+                ids = new ArrayList();
+                keys.put(storage, ids);
+            }
+            ids.add(id);
+            count += 1;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            try {
+                out.write("# Node cache snapshot of " + app.getName() + ", " + new Date() + "\n");
+                for (Iterator it = keys.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    String storage = (String) entry.getKey();
+                    List ids = (List) entry.getValue();
+                    for (int i = 0; i < ids.size(); i++) {
+                        out.write(storage);
+                        out.write('\t');
+                        out.write((String) ids.get(i));
+                        out.write('\n');
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can't delete " + file);
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Can't rename " + tmp + " to " + file);
+            }
+            app.logEvent("Saved " + count + " node cache keys to " + file);
+        } catch (IOException x) {
+            app.logError("Error saving node cache snapshot", x);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Get the progress of the warm-up.
+     *
+     * @return a map with the status, node counts and elapsed time of the warm-up
+     */
+    Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("status", status);
+        stats.put("total", total);
+        stats.put("loaded", loaded);
+        stats.put("queries", queries);
+        long start = startTime;
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        stats.put("time", start == 0 ? 0 : end - start);
+        return stats;
+    }
+}
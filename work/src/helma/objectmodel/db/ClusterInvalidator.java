@@ -0,0 +1,261 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.framework.core.Application;
+import helma.framework.core.Prototype;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the node caches of several Helma instances running against the same
+ * relational database consistent. The invalidator listens to the node changes
+ * committed by the local application and sends the keys of updated and deleted
+ * nodes along with the data changes of their type mappings to the other
+ * instances, which evict the nodes from their caches and mark the mappings
+ * as changed so affected collections are refetched.
+ *
+ * The invalidator is configured with the following app.properties settings,
+ * which are read when the application starts:
+ * <ul>
+ * <li><code>cluster.port</code> - the port to receive invalidations from peers on</li>
+ * <li><code>cluster.bindAddress</code> - the address to listen on, all addresses by default</li>
+ * <li><code>cluster.peers</code> - comma separated list of <code>host:port</code>
+ *     addresses of the other instances</li>
+ * <li><code>cluster.id</code> - the unique name of this instance within the cluster,
+ *     defaults to the local host name and port</li>
+ * <li><code>cluster.secret</code> - a shared secret peers must present</li>
+ * <li><code>cluster.batchDelay</code> - milliseconds to collect invalidations
+ *     before they are sent (default 20)</li>
+ * <li><code>cluster.maxPending</code> - maximum number of invalidations queued per
+ *     peer while it is unreachable. If this is exceeded, the peer clears its
+ *     caches once it is reachable again (default 10000)</li>
+ * </ul>
+ */
+public final class ClusterInvalidator implements NodeChangeListener, ClusterChannel.Handler {
+
+    private final NodeManager nmgr;
+    private final Application app;
+    private final ClusterChannel channel;
+
+    // statistics
+    private final AtomicLong publishedCommits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong dataChanges = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+
+    private ClusterInvalidator(NodeManager nmgr, String id, String secret) {
+        this.nmgr = nmgr;
+        this.app = nmgr.app;
+        this.channel = new ClusterChannel(id, app.getName(), secret, this);
+    }
+
+    /**
+     * Create and start a cluster invalidator for the given node manager if
+     * the application properties define a cluster port or peers.
+     *
+     * @param nmgr the node manager
+     * @param props the application properties
+     * @return the running invalidator, or null if clustering isn't configured
+     * @throws IOException if the cluster port couldn't be opened
+     */
+    static ClusterInvalidator create(NodeManager nmgr, Properties props)
+            throws IOException {
+        String portProp = props.getProperty("cluster.port");
+        String peers = props.getProperty("cluster.peers");
+        if (portProp == null && peers == null) {
+            return null;
+        }
+        int port = portProp == null ? 0 : parsePort(portProp);
+        if (port < 0) {
+            nmgr.app.logError("Invalid cluster.port setting: " + portProp +
+                    ", cluster invalidation is disabled");
+            return null;
+        }
+        String id = props.getProperty("cluster.id");
+        if (id == null) {
+            id = InetAddress.getLocalHost().getHostName() + ":" + port;
+        }
+
+        ClusterInvalidator invalidator = new ClusterInvalidator(nmgr, id,
+                props.getProperty("cluster.secret"));
+        ClusterChannel channel = invalidator.channel;
+        channel.configure(getInt(props, "cluster.batchDelay", 20),
+                          getInt(props, "cluster.maxPending", 10000));
+
+        if (portProp != null) {
+            String bind = props.getProperty("cluster.bindAddress");
+            channel.listen(bind == null ? null : InetAddress.getByName(bind.trim()), port);
+        }
+
+        if (peers != null) {
+            StringTokenizer st = new StringTokenizer(peers, ", ");
+            while (st.hasMoreTokens()) {
+                String peer = st.nextToken();
+                int colon = peer.lastIndexOf(':');
+                int peerPort = colon < 1 ? -1 : parsePort(peer.substring(colon + 1));
+                if (peerPort <= 0) {
+                    nmgr.app.logError("Invalid cluster peer in cluster.peers setting: " +
+                            peer + ", expected host:port");
+                    continue;
+                }
+                channel.addPeer(peer.substring(0, colon), peerPort);
+            }
+        }
+
+        channel.start();
+        nmgr.addNodeChangeListener(invalidator);
+        nmgr.app.logEvent("Started cluster invalidation as " + id);
+        return invalidator;
+    }
+
+    /**
+     * Parse a port number, returning -1 if it isn't a valid port.
+     */
+    static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value.trim());
+            return port >= 0 && port <= 65535 ? port : -1;
+        } catch (NumberFormatException x) {
+            return -1;
+        }
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException x) {
+                // use default value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Send the invalidations for a committed transaction to the other instances.
+     */
+    public void nodesChanged(List inserted, List updated, List deleted, List parents) {
+        List records = new ArrayList();
+        // inserted nodes aren't cached anywhere else yet, the data
+        // changes take care of collections containing them
+        addKeys(records, updated);
+        addKeys(records, deleted);
+
+        Transactor tx = Transactor.getInstance();
+        Transactor.DataChanges changes = tx == null ? null : tx.getCommittedDataChanges();
+        if (changes != null) {
+            changes.addRecords(records);
+        }
+
+        if (!records.isEmpty()) {
+            publishedCommits.incrementAndGet();
+            channel.publish(records);
+        }
+    }
+
+    private void addKeys(List records, List nodes) {
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = (Node) nodes.get(i);
+            DbMapping dbm = node.getDbMapping();
+            Key key = node.getKey();
+            if (dbm != null && dbm.isRelational() && key instanceof DbKey) {
+                records.add(new String[] {"K", key.getStorageName(), key.getID()});
+            }
+        }
+    }
+
+    /**
+     * Apply the invalidations received from another instance.
+     */
+    public void received(String sender, List records) {
+        for (int i = 0; i < records.size(); i++) {
+            String[] record = (String[]) records.get(i);
+            if (record[0] == null || record[0].length() != 1) {
+                continue;
+            }
+            char kind = record[0].charAt(0);
+            if (kind == 'K' && record.length == 3 && record[1] != null && record[2] != null) {
+                // storage names of keys are interned
+                nmgr.evictCleanNode(new DbKey(record[1].intern(), record[2]));
+                evictions.incrementAndGet();
+            } else if (kind == 'D' && record.length == 2) {
+                DbMapping dbm = app.getDbMapping(record[1]);
+                if (dbm != null) {
+                    dbm.setLastDataChange();
+                    dataChanges.incrementAndGet();
+                }
+            } else if (kind == 'C' && record.length == 4) {
+                DbMapping dbm = app.getDbMapping(record[1]);
+                if (dbm != null) {
+                    dbm.setKeyedDataChange(record[2], record[3]);
+                    dataChanges.incrementAndGet();
+                }
+            } else if (kind == 'R') {
+                reset(sender);
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached nodes and collections after invalidations
+     * from another instance may have been lost.
+     */
+    public void reset(String sender) {
+        resets.incrementAndGet();
+        app.logEvent("Clearing caches after missing cluster invalidations from " + sender);
+        nmgr.clearCache();
+        for (Iterator it = app.getPrototypes().iterator(); it.hasNext(); ) {
+            DbMapping dbm = ((Prototype) it.next()).getDbMapping();
+            if (dbm != null && dbm.isRelational()) {
+                dbm.setLastDataChange();
+            }
+        }
+    }
+
+    /**
+     * Stop sending and receiving invalidations, waiting briefly for queued
+     * invalidations to be delivered.
+     */
+    void shutdown() {
+        nmgr.removeNodeChangeListener(this);
+        channel.stop(2000);
+    }
+
+    /**
+     * Get the statistics of the cluster invalidator.
+     *
+     * @return a map with the channel statistics and invalidation counts
+     */
+    Map<String,Object> getStatistics() {
+        Map<String,Object> stats = channel.getStatistics();
+        stats.put("publishedCommits", publishedCommits.get());
+        stats.put("receivedEvictions", evictions.get());
+        stats.put("receivedDataChanges", dataChanges.get());
+        stats.put("cacheResets", resets.get());
+        return stats;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.List;
+
+/**
+ * A segmented subnode list for very large collections that keeps numeric
+ * node ids in a packed long array. NodeHandles are only created when
+ * elements are accessed. This is used for collections with
+ * <code>loadmode = compact</code>.
+ */
+public class CompactSubnodeList extends SegmentedSubnodeList {
+
+    /**
+     * Creates a new subnode list
+     * @param node the node we belong to
+     */
+    public CompactSubnodeList(Node node) {
+        super(node);
+    }
+
+    /**
+     * Create a list that packs numeric ids of persistent nodes.
+     * @param capacity the initial capacity
+     * @return a new empty list
+     */
+    protected List createList(int capacity) {
+        return new NodeHandleList(capacity);
+    }
+}
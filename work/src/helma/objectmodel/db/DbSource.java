@@ -0,0 +1,762 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.util.ResourceProperties;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  This class describes a releational data source (URL, driver, user and password).
+ *
+ *  A db source may declare read replicas in db.properties using numbered
+ *  <code>replica.&lt;n&gt;.url</code> entries, starting with 1, each with optional
+ *  <code>replica.&lt;n&gt;.user</code> and <code>replica.&lt;n&gt;.password</code>
+ *  entries that default to the primary's credentials. Reads obtained through
+ *  {@link #getReadConnection()} are spread over the available replicas in round
+ *  robin order. A replica that can't provide a connection is skipped for
+ *  <code>replica.retryInterval</code> seconds (default 30).
+ */
+public class DbSource {
+    private static ResourceProperties defaultProps = null;
+    private Properties conProps;
+    private final String name;
+    private ResourceProperties props, subProps;
+    protected String url;
+    private String driver;
+    private boolean isOracle, isMySQL, isPostgreSQL, isH2;
+    private boolean preparedStatements;
+    // fetch settings for collection queries
+    private int fetchSize;
+    private boolean streaming, cursorFetch;
+    private long lastRead = 0L;
+    private Hashtable dbmappings = new Hashtable();
+    // compute hashcode statically because it's expensive and we need it often
+    private int hashcode;
+    // thread local connection holder for non-transactor threads
+    private final ThreadLocal connection = new ThreadLocal();
+    // the pool of connections to this db source
+    private final ConnectionPool pool;
+    // the read replicas of this db source
+    private volatile Replica[] replicas = new Replica[0];
+    // milliseconds a failed replica is skipped before it is tried again,
+    // configured in seconds by replica.retryInterval
+    private volatile long replicaRetryInterval = 30000L;
+    // fetch size used for streaming selects if none is configured
+    static final int DEFAULT_STREAMING_FETCH_SIZE = 500;
+    // used to pick replicas in round robin order
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * Creates a new DbSource object.
+     *
+     * @param name the db source name
+     * @param props the properties
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     */
+    public DbSource(String name, ResourceProperties props)
+             throws ClassNotFoundException {
+        this.name = name;
+        this.props = props;
+        this.pool = new ConnectionPool(this);
+        init();
+    }
+
+    /**
+     * Get a JDBC connection to the db source. Threads running a transactor
+     * borrow a connection from the pool for the duration of the transaction,
+     * other threads keep one for as long as they live.
+     *
+     * @return a JDBC connection
+     *
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     * @throws SQLException if the connection couldn't be created
+     */
+    public Connection getConnection()
+            throws ClassNotFoundException, SQLException {
+        checkPropertiesUpdated();
+
+        Transactor tx = Transactor.getInstance();
+        if (tx == null) {
+            return getThreadLocalConnection();
+        }
+
+        Connection con = tx.getConnection(this);
+        if (con == null || con.isClosed()) {
+            con = pool.getConnection(false);
+
+            // If we wanted to use SQL transactions, we'd set autoCommit to
+            // false here and make commit/rollback invocations in Transactor methods;
+            tx.registerConnection(this, con);
+        }
+
+        return con;
+    }
+
+    /**
+     * Get a JDBC connection for read-only queries. If this db source has read
+     * replicas, the connection is borrowed from one of them, unless the current
+     * transactor has modified objects or written to this db source before, in
+     * which case reads have to see the transactor's own changes and go to the
+     * primary database. Threads not running a transactor always use the primary.
+     *
+     * @return a JDBC connection to either a replica or the primary database
+     *
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     * @throws SQLException if the connection couldn't be created
+     */
+    public Connection getReadConnection()
+            throws ClassNotFoundException, SQLException {
+        checkPropertiesUpdated();
+
+        Replica[] reps = replicas;
+        Transactor tx = Transactor.getInstance();
+        if (reps.length == 0 || tx == null || tx.readsFromPrimary(this)) {
+            return getConnection();
+        }
+
+        Connection con = tx.getReplicaConnection(this);
+        if (con != null && !con.isClosed()) {
+            return con;
+        }
+
+        con = borrowReplicaConnection(reps);
+        if (con == null) {
+            // no replica available, fall back to the primary database
+            return getConnection();
+        }
+        tx.registerReplicaConnection(this, con);
+        return con;
+    }
+
+    /**
+     * Borrow a connection from the next available replica.
+     *
+     * @return a connection, or null if no replica is available
+     */
+    private Connection borrowReplicaConnection(Replica[] reps) {
+        long now = System.currentTimeMillis();
+        int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % reps.length;
+        for (int i = 0; i < reps.length; i++) {
+            Replica replica = reps[(start + i) % reps.length];
+            if (replica.downUntil > now) {
+                continue;
+            }
+            try {
+                return replica.pool.getConnection(false);
+            } catch (Exception x) {
+                replica.markDown(now, x);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the pool the given connection was borrowed from.
+     */
+    private ConnectionPool getPool(Connection con) {
+        Replica[] reps = replicas;
+        for (int i = 0; i < reps.length; i++) {
+            if (reps[i].pool.isBorrowed(con)) {
+                return reps[i].pool;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Used for connections not managed by a Helma transactor
+     * @return a thread local tested connection
+     */
+    private Connection getThreadLocalConnection()
+            throws ClassNotFoundException, SQLException {
+        Connection con = (Connection) connection.get();
+        if (con != null) {
+            // test if connection is still ok
+            if (pool.checkConnection(con)) {
+                return con;
+            }
+            pool.discardConnection(con);
+        }
+        con = pool.getConnection(true);
+        connection.set(con);
+        return con;
+    }
+
+    /**
+     * Open a new physical connection to the database. This is called
+     * by the connection pool.
+     *
+     * @return a new JDBC connection
+     * @throws SQLException if the connection couldn't be created
+     */
+    Connection openConnection() throws SQLException {
+        String conUrl;
+        Properties conProperties;
+        synchronized (this) {
+            conUrl = url;
+            conProperties = conProps;
+        }
+        return DriverManager.getConnection(conUrl, conProperties);
+    }
+
+    /**
+     * Return a connection borrowed by a transactor to the pool.
+     *
+     * @param con the connection
+     * @param revalidate true if the connection should be validated before it is reused
+     */
+    void releaseConnection(Connection con, boolean revalidate) {
+        pool.releaseConnection(con, revalidate);
+    }
+
+    /**
+     * Close a connection borrowed by a transactor and remove it from the pool.
+     *
+     * @param con the connection
+     */
+    void discardConnection(Connection con) {
+        pool.discardConnection(con);
+    }
+
+    /**
+     * Return a replica connection borrowed by a transactor to its pool.
+     * The connection is closed if its replica has been removed in the meantime.
+     *
+     * @param con the connection
+     * @param revalidate true if the connection should be validated before it is reused
+     */
+    void releaseReplicaConnection(Connection con, boolean revalidate) {
+        ConnectionPool replicaPool = getPool(con);
+        if (replicaPool != pool) {
+            replicaPool.releaseConnection(con, revalidate);
+        } else {
+            closeQuietly(con);
+        }
+    }
+
+    /**
+     * Close a replica connection borrowed by a transactor and remove it from its pool.
+     *
+     * @param con the connection
+     */
+    void discardReplicaConnection(Connection con) {
+        ConnectionPool replicaPool = getPool(con);
+        if (replicaPool != pool) {
+            replicaPool.discardConnection(con);
+        } else {
+            closeQuietly(con);
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (Exception ignore) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Get a prepared statement for the given SQL on a connection obtained
+     * from this db source. Statements are cached per pooled connection and
+     * must be released using {@link #releaseStatement(Connection, PreparedStatement)}
+     * rather than closed.
+     *
+     * @param con a connection obtained through {@link #getConnection()}
+     * @param sql the SQL statement
+     * @return the prepared statement
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql)
+            throws SQLException {
+        return getPool(con).prepareStatement(con, sql);
+    }
+
+    /**
+     * Release a statement obtained through {@link #prepareStatement(Connection, String)}.
+     *
+     * @param con the connection the statement was prepared on
+     * @param stmt the statement
+     */
+    public void releaseStatement(Connection con, PreparedStatement stmt) {
+        getPool(con).releaseStatement(con, stmt);
+    }
+
+    /**
+     * Re-initialize the db source and discard pooled connections if
+     * db.properties has been modified.
+     */
+    private synchronized void checkPropertiesUpdated() throws ClassNotFoundException {
+        boolean fileUpdated = props.lastModified() > lastRead ||
+                (defaultProps != null && defaultProps.lastModified() > lastRead);
+
+        if (fileUpdated) {
+            init();
+            pool.reset();
+        }
+    }
+
+    /**
+     * Return a map with statistics about this db source's connection pool.
+     *
+     * @return the connection pool statistics
+     */
+    public Map getPoolStatistics() {
+        Map<String,Object> stats = pool.getStatistics();
+        Replica[] reps = replicas;
+        if (reps.length > 0) {
+            List replicaStats = new ArrayList();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < reps.length; i++) {
+                Map<String,Object> map = new HashMap<String,Object>();
+                map.put("url", reps[i].url);
+                map.put("available", reps[i].downUntil <= now);
+                map.put("failures", reps[i].failures.get());
+                map.put("pool", reps[i].pool.getStatistics());
+                replicaStats.add(map);
+            }
+            stats.put("replicas", replicaStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Close the idle connections in this db source's connection pools.
+     */
+    public void shutdown() {
+        pool.shutdown();
+        shutdownReplicas(replicas);
+    }
+
+    private static void shutdownReplicas(Replica[] reps) {
+        for (int i = 0; i < reps.length; i++) {
+            reps[i].pool.shutdown();
+        }
+    }
+
+    /**
+     * Set the db properties to newProps, and return the old properties.
+     * @param newProps the new properties to use for this db source
+     * @return the old properties
+     * @throws ClassNotFoundException if jdbc driver class couldn't be found
+     */
+    public synchronized ResourceProperties switchProperties(ResourceProperties newProps) 
+            throws ClassNotFoundException {
+        ResourceProperties oldProps = props;
+        props = newProps;
+        init();
+        pool.reset();
+        return oldProps;
+    }
+
+    /**
+     * Initialize the db source from the properties
+     *
+     * @throws ClassNotFoundException if the JDBC driver couldn't be loaded
+     */
+    private synchronized void init() throws ClassNotFoundException {
+        lastRead = (defaultProps == null) ? props.lastModified()
+                                          : Math.max(props.lastModified(),
+                                                     defaultProps.lastModified());
+        // refresh sub-properties for this DbSource
+        subProps = props.getSubProperties(name + '.');
+        // use properties hashcode for ourselves
+        hashcode = subProps.hashCode();
+        // get JDBC URL and driver class name
+        url = subProps.getProperty("url");
+        driver = subProps.getProperty("driver");
+        // sanity checks
+        if (url == null) {
+            throw new NullPointerException(name+".url is not defined in db.properties");
+        }
+        if (driver == null) {
+            throw new NullPointerException(name+".driver class not defined in db.properties");
+        }
+        // test if this is an Oracle or MySQL driver
+        isOracle = driver.startsWith("oracle.jdbc.driver");
+        isMySQL = driver.startsWith("com.mysql.jdbc") ||
+                  driver.startsWith("org.gjt.mm.mysql");
+        isPostgreSQL = driver.equals("org.postgresql.Driver");
+        isH2 = driver.equals("org.h2.Driver");
+        // check if relational selects should use prepared statements with bind values
+        preparedStatements = "true".equalsIgnoreCase(subProps.getProperty("preparedStatements"));
+        // fetch size and streaming cursors for collection queries
+        try {
+            String size = subProps.getProperty("fetchSize");
+            fetchSize = size == null ? 0 : Integer.parseInt(size.trim());
+        } catch (NumberFormatException x) {
+            fetchSize = 0;
+        }
+        streaming = "true".equalsIgnoreCase(subProps.getProperty("streaming"));
+        // MySQL only uses server side cursors for positive fetch sizes with useCursorFetch
+        cursorFetch = url.indexOf("useCursorFetch=true") > -1 ||
+                      "true".equalsIgnoreCase(subProps.getProperty("useCursorFetch"));
+        // test if driver class is available
+        Class.forName(driver);
+
+        // set up connection pool
+        pool.configure(subProps);
+
+        // set up driver connection properties
+        conProps=new Properties();
+        String prop = subProps.getProperty("user");
+        if (prop != null) {
+            conProps.put("user", prop);
+        }
+        prop = subProps.getProperty("password");
+        if (prop != null) {
+            conProps.put("password", prop);
+        }
+
+        // read any remaining extra properties to be passed to the driver
+        for (Enumeration e = subProps.keys(); e.hasMoreElements(); ) {
+            String key = (String) e.nextElement();
+
+            // filter out properties we alread have
+            if ("url".equalsIgnoreCase(key) ||
+                "driver".equalsIgnoreCase(key) ||
+                "user".equalsIgnoreCase(key) ||
+                "password".equalsIgnoreCase(key) ||
+                "preparedStatements".equalsIgnoreCase(key) ||
+                "fetchSize".equalsIgnoreCase(key) ||
+                "streaming".equalsIgnoreCase(key) ||
+                key.toLowerCase().startsWith("pool.") ||
+                key.toLowerCase().startsWith("replica.")) {
+                continue;
+            }
+            conProps.setProperty(key, subProps.getProperty(key));
+        }
+
+        // set up read replicas, closing the pools of the previous ones
+        String retry = subProps.getProperty("replica.retryInterval");
+        try {
+            replicaRetryInterval = retry == null ? 30000L : Long.parseLong(retry.trim()) * 1000L;
+        } catch (NumberFormatException x) {
+            replicaRetryInterval = 30000L;
+        }
+        ArrayList list = new ArrayList();
+        for (int i = 1; subProps.getProperty("replica." + i + ".url") != null; i++) {
+            Properties replicaProps = new Properties();
+            replicaProps.putAll(conProps);
+            String prefix = "replica." + i + ".";
+            prop = subProps.getProperty(prefix + "user");
+            if (prop != null) {
+                replicaProps.put("user", prop);
+            }
+            prop = subProps.getProperty(prefix + "password");
+            if (prop != null) {
+                replicaProps.put("password", prop);
+            }
+            Replica replica = new Replica(i, subProps.getProperty(prefix + "url"), replicaProps);
+            replica.pool.configure(subProps);
+            list.add(replica);
+        }
+        Replica[] oldReplicas = replicas;
+        replicas = (Replica[]) list.toArray(new Replica[list.size()]);
+        shutdownReplicas(oldReplicas);
+    }
+
+    /**
+     * Return the class name of the JDBC driver
+     *
+     * @return the class name of the JDBC driver
+     */
+    public String getDriverName() {
+        return driver;
+    }
+
+    /**
+     * Return the name of the db dource
+     *
+     * @return the name of the db dource
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the default (server-wide) properties
+     *
+     * @param props server default db.properties
+     */
+    public static void setDefaultProps(ResourceProperties props) {
+        defaultProps = props;
+    }
+
+    /**
+     * Check if this DbSource represents an Oracle database
+     *
+     * @return true if we're using an oracle JDBC driver
+     */
+    public boolean isOracle() {
+        return isOracle;
+    }
+
+    /**
+     * Check if this DbSource represents a MySQL database
+     *
+     * @return true if we're using a MySQL JDBC driver
+     */
+    public boolean isMySQL() {
+        return isMySQL;
+    }
+
+    /**
+     * Check if this DbSource represents a PostgreSQL database
+     *
+     * @return true if we're using a PostgreSQL JDBC driver
+     */
+    public boolean isPostgreSQL() {
+        return isPostgreSQL;
+    }
+
+    /**
+     * Check if this DbSource represents a H2 database
+     *
+     * @return true if we're using a H2 JDBC driver
+     */
+    public boolean isH2() {
+        return isH2;
+    }
+
+    /**
+     * Check if relational selects on this DbSource should be executed as
+     * prepared statements with bind values. This is enabled by setting
+     * <code>preparedStatements</code> to true in db.properties.
+     *
+     * @return true if prepared statements should be used
+     */
+    public boolean usePreparedStatements() {
+        return preparedStatements;
+    }
+
+    /**
+     * Configure a select statement loading a collection or a batch of nodes
+     * to fetch its rows in chunks of the configured fetch size. The fetch size
+     * and streaming flag are set with <code>fetchSize</code> and
+     * <code>streaming</code> in db.properties and can be overridden with the
+     * <code>fetchsize</code> and <code>streaming</code> options of a relation.
+     *
+     * With streaming enabled, rows are read through a cursor instead of being
+     * buffered completely by the driver before the first row is returned.
+     * PostgreSQL only uses cursors within a transaction, so auto-commit is
+     * turned off until {@link #releaseFetch(Connection)} is called. MySQL
+     * uses cursors if <code>useCursorFetch=true</code> is set, otherwise rows
+     * are streamed one by one and the connection can't run other statements
+     * until the result set is closed.
+     *
+     * @param con the connection the statement belongs to
+     * @param stmt the statement
+     * @param rel the relation being loaded, or null to use the db source settings
+     * @throws SQLException if a setting is rejected by the driver
+     */
+    void configureFetch(Connection con, Statement stmt, Relation rel)
+            throws SQLException {
+        int size = rel != null && rel.fetchSize > 0 ? rel.fetchSize : fetchSize;
+        boolean stream = rel != null && rel.streaming != null ?
+                rel.streaming.booleanValue() : streaming;
+
+        if (stream) {
+            if (size <= 0) {
+                size = DEFAULT_STREAMING_FETCH_SIZE;
+            }
+            if (isMySQL && !cursorFetch) {
+                stmt.setFetchSize(Integer.MIN_VALUE);
+                return;
+            }
+            if (isPostgreSQL && con.getAutoCommit()) {
+                con.setAutoCommit(false);
+            }
+        }
+        stmt.setFetchSize(Math.max(0, size));
+    }
+
+    /**
+     * Restore auto-commit on a connection after a streaming select
+     * configured by {@link #configureFetch(Connection, Statement, Relation)}
+     * has been closed.
+     *
+     * @param con the connection
+     * @throws SQLException if auto-commit couldn't be restored
+     */
+    void releaseFetch(Connection con) throws SQLException {
+        // helma always runs connections in auto-commit mode otherwise
+        if (isPostgreSQL && !con.getAutoCommit()) {
+            con.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Register a dbmapping by its table name.
+     *
+     * @param dbmap the DbMapping instance to register
+     */
+    protected void registerDbMapping(DbMapping dbmap) {
+        if (!dbmap.inheritsStorage() && dbmap.getTableName() != null) {
+            dbmappings.put(dbmap.getTableName().toUpperCase(), dbmap);
+        }
+    }
+
+    /**
+     * Look up a DbMapping instance for the given table name.
+     *
+     * @param tablename the table name
+     * @return the matching DbMapping instance
+     */
+    protected DbMapping getDbMapping(String tablename) {
+        return (DbMapping) dbmappings.get(tablename.toUpperCase());
+    }
+
+    /**
+     * Get the number of read replicas of this db source.
+     *
+     * @return the number of replicas
+     */
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     */
+    public int hashCode() {
+        return hashcode;
+    }
+
+    /**
+     * Indicates whether some other object is "equal to" this one.
+     */
+    public boolean equals(Object obj) {
+        return obj instanceof DbSource && subProps.equals(((DbSource) obj).subProps);
+    }
+
+    // for testing: compares the heap used by a large result set when it is
+    // buffered by the driver and when it is read with streaming enabled.
+    // usage: DbSource driver url user password query [fetchSize]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.out.println("usage: DbSource driver url user password query [fetchSize]");
+            return;
+        }
+        Runtime rt = Runtime.getRuntime();
+        for (int round = 0; round < 2; round++) {
+            boolean stream = round == 1;
+            ResourceProperties props = new ResourceProperties();
+            props.put("bench.driver", args[0]);
+            props.put("bench.url", args[1]);
+            props.put("bench.user", args[2]);
+            props.put("bench.password", args[3]);
+            props.put("bench.streaming", String.valueOf(stream));
+            if (args.length > 5) {
+                props.put("bench.fetchSize", args[5]);
+            }
+            DbSource source = new DbSource("bench", props);
+            Connection con = source.getConnection();
+            Statement stmt = con.createStatement();
+            source.configureFetch(con, stmt, null);
+
+            long base = usedMemory(rt);
+            long start = System.currentTimeMillis();
+            ResultSet rs = stmt.executeQuery(args[4]);
+            int rows = 0;
+            long firstRow = 0;
+            long peak = 0;
+            while (rs.next()) {
+                if (rows == 0) {
+                    firstRow = System.currentTimeMillis() - start;
+                    // whatever the driver buffered is reachable now
+                    peak = usedMemory(rt) - base;
+                }
+                rs.getObject(1);
+                rows += 1;
+            }
+            long time = System.currentTimeMillis() - start;
+            rs.close();
+            stmt.close();
+            source.releaseFetch(con);
+            con.close();
+
+            System.out.println((stream ? "streaming: " : "buffered:  ") + rows + " rows in " +
+                    time + " ms, first row after " + firstRow + " ms, " +
+                    (peak / 1024) + " kB heap held at first row");
+        }
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * A read replica of this db source with its own connection pool.
+     */
+    final class Replica {
+        final int index;
+        final String url;
+        final Properties props;
+        final ConnectionPool pool;
+        // the time until which this replica is skipped after a failure
+        volatile long downUntil = 0L;
+        final AtomicInteger failures = new AtomicInteger();
+
+        Replica(int index, String url, Properties props) {
+            this.index = index;
+            this.url = url;
+            this.props = props;
+            this.pool = new ConnectionPool(DbSource.this, this);
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        /**
+         * Open a new physical connection to this replica. This is called
+         * by the replica's connection pool.
+         */
+        Connection openConnection() throws SQLException {
+            return DriverManager.getConnection(url, props);
+        }
+
+        /**
+         * Skip this replica for the retry interval after it failed to
+         * provide a connection.
+         */
+        void markDown(long now, Exception x) {
+            failures.incrementAndGet();
+            downUntil = now + replicaRetryInterval;
+            pool.getLog().warn("Replica " + url + " of " + name + " is unavailable, " +
+                    "retrying in " + (replicaRetryInterval / 1000) + " seconds: " + x);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of NodeHandles that stores the numeric ids of persistent nodes
+ * in a packed long array instead of keeping a NodeHandle, DbKey and String
+ * object per element. Handles are created on demand in {@link #get(int)}.
+ *
+ * Elements that can't be packed are kept in a parallel array that is only
+ * allocated when needed: non-numeric ids of the shared storage are kept as
+ * plain strings, anything else (transient nodes, keys of other storages,
+ * group-by keys) as the original object. Null elements are supported.
+ */
+final class NodeHandleList extends AbstractList implements RandomAccess, Serializable {
+
+    static final long serialVersionUID = 2739426146624218372L;
+
+    // marks null elements in the id array
+    private static final long NULL_ID = Long.MIN_VALUE;
+
+    // the interned storage name shared by all packed keys
+    private String storageName;
+
+    // the packed ids
+    private long[] ids;
+
+    // elements that can't be packed, allocated on demand
+    private Object[] others;
+
+    private int size = 0;
+
+    /**
+     * Create a new list with the given initial capacity.
+     * @param capacity the initial capacity
+     */
+    NodeHandleList(int capacity) {
+        ids = new long[Math.max(capacity, 10)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Object get(int index) {
+        checkIndex(index);
+        return decode(index);
+    }
+
+    public Object set(int index, Object element) {
+        checkIndex(index);
+        Object old = decode(index);
+        store(index, element);
+        return old;
+    }
+
+    public void add(int index, Object element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        if (index < size) {
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            if (others != null) {
+                System.arraycopy(others, index, others, index + 1, size - index);
+            }
+        }
+        if (others != null) {
+            others[index] = null;
+        }
+        size += 1;
+        modCount += 1;
+        store(index, element);
+    }
+
+    public Object remove(int index) {
+        checkIndex(index);
+        Object old = decode(index);
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(ids, index + 1, ids, index, moved);
+            if (others != null) {
+                System.arraycopy(others, index + 1, others, index, moved);
+            }
+        }
+        size -= 1;
+        if (others != null) {
+            others[size] = null;
+        }
+        modCount += 1;
+        return old;
+    }
+
+    public void clear() {
+        size = 0;
+        others = null;
+        modCount += 1;
+    }
+
+    public int indexOf(Object o) {
+        if (o == null) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == NULL_ID && (others == null || others[i] == null)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        long id = packedId(o);
+        if (id != NULL_ID) {
+            // packed elements can be compared without creating handles
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+        }
+        // handles of transient nodes are kept unpacked, and keep being found
+        // by equality after their node has become persistent
+        if (others != null) {
+            for (int i = 0; i < size; i++) {
+                if (others[i] != null && o.equals(decode(i))) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(Object o) {
+        return indexOf(o) > -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+            long[] newIds = new long[newCapacity];
+            System.arraycopy(ids, 0, newIds, 0, size);
+            ids = newIds;
+            if (others != null) {
+                Object[] newOthers = new Object[newCapacity];
+                System.arraycopy(others, 0, newOthers, 0, size);
+                others = newOthers;
+            }
+        }
+    }
+
+    /**
+     * Create the element at the given index.
+     */
+    private Object decode(int index) {
+        Object other = others == null ? null : others[index];
+        if (other instanceof String) {
+            return new NodeHandle(new DbKey(storageName, (String) other));
+        } else if (other != null) {
+            return other;
+        } else if (ids[index] == NULL_ID) {
+            return null;
+        }
+        return new NodeHandle(new DbKey(storageName, Long.toString(ids[index])));
+    }
+
+    /**
+     * Store an element at the given index, packing it if possible.
+     */
+    private void store(int index, Object element) {
+        if (others != null) {
+            others[index] = null;
+        }
+        ids[index] = NULL_ID;
+        if (element == null) {
+            return;
+        }
+        DbKey key = sharedKey(element);
+        if (key != null) {
+            long id = parseId(key.getID());
+            if (id != NULL_ID) {
+                ids[index] = id;
+            } else {
+                setOther(index, key.getID());
+            }
+        } else {
+            setOther(index, element);
+        }
+    }
+
+    private void setOther(int index, Object value) {
+        if (others == null) {
+            others = new Object[ids.length];
+        }
+        others[index] = value;
+    }
+
+    /**
+     * Get the key of an element if it is a persistent node handle in the shared
+     * storage, adopting the element's storage if none has been set yet.
+     */
+    private DbKey sharedKey(Object element) {
+        if (!(element instanceof NodeHandle)) {
+            return null;
+        }
+        NodeHandle handle = (NodeHandle) element;
+        if (handle.hasNode() || !(handle.getKey() instanceof DbKey)) {
+            return null;
+        }
+        DbKey key = (DbKey) handle.getKey();
+        String keyStorage = key.getStorageName();
+        if (keyStorage == null) {
+            return null;
+        }
+        if (storageName == null) {
+            storageName = keyStorage;
+        }
+        // storage names are interned
+        return keyStorage == storageName ? key : null;
+    }
+
+    /**
+     * Get the id of an element as packed in this list, or NULL_ID if
+     * the element isn't packed.
+     */
+    private long packedId(Object o) {
+        if (!(o instanceof NodeHandle)) {
+            return NULL_ID;
+        }
+        NodeHandle handle = (NodeHandle) o;
+        if (handle.hasNode() || !(handle.getKey() instanceof DbKey)) {
+            return NULL_ID;
+        }
+        DbKey key = (DbKey) handle.getKey();
+        if (storageName == null || key.getStorageName() != storageName) {
+            return NULL_ID;
+        }
+        return parseId(key.getID());
+    }
+
+    /**
+     * Parse an id that is the canonical string representation of a long,
+     * returning NULL_ID for ids that can't be packed.
+     */
+    static long parseId(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18) {
+            return NULL_ID;
+        }
+        int start = id.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (id.charAt(start) == '0' && length > start + 1)
+                || (start == 1 && length == 2 && id.charAt(1) == '0')) {
+            return NULL_ID;
+        }
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return NULL_ID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return start == 1 ? -value : value;
+    }
+
+    private void readObject(ObjectInputStream stream)
+            throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        if (storageName != null) {
+            storageName = storageName.intern();
+        }
+    }
+
+    // for testing: compares the heap used by an ArrayList of handles
+    // with the heap used by a NodeHandleList for the given number of ids
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String storage = "Benchmark".intern();
+        Runtime rt = Runtime.getRuntime();
+
+        long before = usedMemory(rt);
+        List handles = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            handles.add(new NodeHandle(new DbKey(storage, Long.toString(1000000L + i))));
+        }
+        long arrayListBytes = usedMemory(rt) - before;
+        System.out.println("ArrayList:      " + (arrayListBytes / 1024) + " kB for " +
+                handles.size() + " handles");
+        handles = null;
+
+        before = usedMemory(rt);
+        NodeHandleList packed = new NodeHandleList(count);
+        for (int i = 0; i < count; i++) {
+            packed.add(new NodeHandle(new DbKey(storage, Long.toString(1000000L + i))));
+        }
+        long packedBytes = usedMemory(rt) - before;
+        System.out.println("NodeHandleList: " + (packedBytes / 1024) + " kB for " +
+                packed.size() + " handles");
+        if (packedBytes > 0) {
+            System.out.println("Reduction:      " + (arrayListBytes / packedBytes) + "x");
+        }
+    }
+
+    private static long usedMemory(Runtime rt) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
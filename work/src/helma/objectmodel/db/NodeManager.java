@@ -0,0 +1,2816 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.framework.RequestTrans;
+import helma.framework.core.Application;
+import helma.framework.core.RequestEvaluator;
+import helma.objectmodel.*;
+import helma.objectmodel.dom.LogDatabase;
+import helma.objectmodel.dom.XmlDatabase;
+import helma.util.CacheMap;
+import helma.util.SegmentedCacheMap;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The NodeManager is responsible for fetching Nodes from the internal or
+ * external data sources, caching them in a least-recently-used Hashtable,
+ * and writing changes back to the databases.
+ */
+public final class NodeManager {
+
+    protected Application app;
+    private ObjectCache cache;
+    protected IDatabase db;
+    protected IDGenerator idgen;
+    boolean logSql;
+    private Log sqlLog = null;
+    private Log slowQueryLog = null;
+    // latency histograms and row counts of sql statements
+    private final SqlStatistics sqlStats = new SqlStatistics();
+    // maximum number of writes sent to the database in one JDBC batch on commit
+    private int sqlBatchSize = 100;
+    private ArrayList listeners = new ArrayList();
+
+    // hit, miss and load time counters for the node cache
+    private final NodeCacheStatistics cacheStats = new NodeCacheStatistics();
+    // shared cache for collection count and id query results
+    private final QueryResultCache queryCache = new QueryResultCache();
+    // broadcasts invalidations to other instances, null if not clustered
+    private ClusterInvalidator cluster;
+    // second cache tier for clean nodes dropped from the node cache
+    private OffHeapNodeCache offHeapCache;
+    // saves and reloads the keys of cached nodes across restarts, null if disabled
+    private CacheWarmup warmup;
+
+    // lock stripes used to make compound cache operations atomic for a given key
+    // without locking the whole cache
+    private final Object[] cacheLocks = new Object[64];
+
+    // a wrapper that catches some Exceptions while accessing this NM
+    public final WrappedNodeManager safe;
+
+    /**
+     *  Create a new NodeManager for Application app.
+     */
+    public NodeManager(Application app) {
+        this.app = app;
+        safe = new WrappedNodeManager(this);
+        for (int i = 0; i < cacheLocks.length; i++) {
+            cacheLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Initialize the NodeManager for the given dbHome and
+     * application properties. An embedded database will be
+     * created in dbHome if one doesn't already exist.
+     */
+    public void init(File dbHome, Properties props)
+            throws DatabaseException, ClassNotFoundException,
+                   IllegalAccessException, InstantiationException {
+        String cacheImpl = props.getProperty("cacheimpl", "helma.util.CacheMap");
+
+        cache = (ObjectCache) Class.forName(cacheImpl).newInstance();
+        cache.init(app);
+
+        String idgenImpl = props.getProperty("idGeneratorImpl");
+
+        if (idgenImpl != null) {
+            idgen = (IDGenerator) Class.forName(idgenImpl).newInstance();
+            idgen.init(app);
+        }
+
+        logSql = "true".equalsIgnoreCase(props.getProperty("logsql"));
+        sqlBatchSize = getSqlBatchSize(props);
+        sqlStats.updateProperties(props);
+        queryCache.updateProperties(props);
+
+        String dbImpl = props.getProperty("embeddedDbImpl",
+                                          "helma.objectmodel.dom.XmlDatabase");
+
+        db = (IDatabase) Class.forName(dbImpl).newInstance();
+        db.init(dbHome, app);
+
+        warmup = CacheWarmup.create(this, dbHome, props);
+        offHeapCache = OffHeapNodeCache.create(this, props);
+        if (offHeapCache != null) {
+            if (cache instanceof CacheMap) {
+                ((CacheMap) cache).setEvictionListener(offHeapCache);
+            } else if (cache instanceof SegmentedCacheMap) {
+                ((SegmentedCacheMap) cache).setEvictionListener(offHeapCache);
+            } else {
+                app.logError("Off-heap node cache is not supported by " + cacheImpl);
+                offHeapCache.shutdown();
+                offHeapCache = null;
+            }
+        }
+
+        try {
+            cluster = ClusterInvalidator.create(this, props);
+        } catch (IOException x) {
+            throw new DatabaseException("Error starting cluster invalidation: " + x);
+        }
+    }
+
+    /**
+     * Gets the application's root node.
+     */
+    public Node getRootNode() throws Exception {
+        DbMapping rootMapping = app.getRootMapping();
+        DbKey key = new DbKey(rootMapping, app.getRootId());
+        Node node = getNode(key);
+        if (node != null && rootMapping != null) {
+            node.setDbMapping(rootMapping);
+            node.setPrototype(rootMapping.getTypeName());
+        }
+        return node;
+    }
+    /**
+     * Checks if the given node is the application's root node.
+     */
+    public boolean isRootNode(Node node) {
+        return node.getState() != Node.TRANSIENT && app.getRootId().equals(node.getID()) &&
+               DbMapping.areStorageCompatible(app.getRootMapping(), node.getDbMapping());
+    }
+
+    /**
+     *  app.properties file has been updated. Reread some settings.
+     */
+    public void updateProperties(Properties props) {
+        // notify the cache about the properties update
+        cache.updateProperties(props);
+        logSql = "true".equalsIgnoreCase(props.getProperty("logsql"));
+        sqlBatchSize = getSqlBatchSize(props);
+        sqlStats.updateProperties(props);
+        queryCache.updateProperties(props);
+    }
+
+    private int getSqlBatchSize(Properties props) {
+        String size = props.getProperty("sqlBatchSize");
+        if (size != null) {
+            try {
+                return Integer.parseInt(size.trim());
+            } catch (NumberFormatException x) {
+                app.logError("Invalid sqlBatchSize setting: " + size);
+            }
+        }
+        return 100;
+    }
+
+    /**
+     * Create a StatementBatch to collect the relational writes of a transactor
+     * commit, or return null if batching is disabled by setting the
+     * <code>sqlBatchSize</code> app property to a value lower than 2.
+     */
+    StatementBatch createStatementBatch() {
+        return sqlBatchSize > 1 ? new StatementBatch(this, sqlBatchSize) : null;
+    }
+
+    /**
+     * Start loading the nodes that were cached when the application was
+     * last stopped, if the cache warm-up is enabled. This is called when
+     * the application is started.
+     */
+    public void startCacheWarmup() {
+        if (warmup != null) {
+            warmup.start();
+        }
+    }
+
+    /**
+     *  Shut down this node manager. This is called when the application
+     *  using this node manager is stopped.
+     */
+    public void shutdown() throws DatabaseException {
+        if (cluster != null) {
+            cluster.shutdown();
+            cluster = null;
+        }
+
+        if (warmup != null) {
+            warmup.stop();
+            if (cache != null) {
+                warmup.saveSnapshot(cache);
+            }
+            warmup = null;
+        }
+
+        db.shutdown();
+
+        if (offHeapCache != null) {
+            offHeapCache.shutdown();
+            offHeapCache = null;
+        }
+
+        if (cache != null) {
+            cache.shutdown();
+            cache = null;
+        }
+
+        queryCache.clear();
+
+        if (idgen != null) {
+            idgen.shutdown();
+        }
+    }
+
+    /**
+     *  Delete a node from the database.
+     */
+    public void deleteNode(Node node) throws Exception {
+        if (node != null) {
+            synchronized (this) {
+                Transactor tx = Transactor.getInstanceOrFail();
+
+                node.setState(Node.INVALID);
+                deleteNode(db, tx.txn, node);
+            }
+        }
+    }
+
+    /**
+     *  Get a node by key. This is called from a node that already holds
+     *  a reference to another node via a NodeHandle/Key.
+     */
+    public Node getNode(Key key) throws Exception {
+        Transactor tx = Transactor.getInstanceOrFail();
+
+        // See if Transactor has already come across this node
+        Node node = tx.getCleanNode(key);
+
+        if ((node != null) && (node.getState() != Node.INVALID)) {
+            return node;
+        }
+
+        // try to get the node from the shared cache
+        node = (Node) cache.get(key);
+
+        if ((node == null) || (node.getState() == Node.INVALID)) {
+            // The requested node isn't in the shared cache.
+            long loadStart = System.currentTimeMillis();
+            if (key instanceof SyntheticKey) {
+                Node parent = getNode(key.getParentKey());
+                Relation rel = parent.dbmap.getPropertyRelation(key.getID());
+
+                if (rel != null) {
+                    return getNode(parent, key.getID(), rel);
+                } else {
+                    return null;
+                }
+            } else if (key instanceof DbKey) {
+                // load pending references to the same table along with this node
+                List batch = tx.takePendingReferences((DbKey) key);
+                if (batch != null && batch.size() > 1) {
+                    prefetchReferences((DbKey) key, batch);
+                    node = (Node) cache.get(key);
+                    if (node != null && node.getState() == Node.INVALID) {
+                        node = null;
+                    }
+                }
+                if (node == null) {
+                    node = getNodeByKey(tx.txn, (DbKey) key);
+                }
+            }
+
+            cacheStats.miss(node == null ? key.getStorageName() : node.getPrototype(),
+                            System.currentTimeMillis() - loadStart);
+
+            if (node != null) {
+                node = registerNewNode(node, null);
+            }
+        } else {
+            cacheStats.hit(node.getPrototype());
+            checkPendingInit(node);
+        }
+
+        if (node != null) {
+            tx.visitCleanNode(key, node);
+        }
+
+        return node;
+    }
+
+    /**
+     *  Get a node by relation, using the home node, the relation and a key to apply.
+     *  In contrast to getNode (Key key), this is usually called when we don't yet know
+     *  whether such a node exists.
+     */
+    public Node getNode(Node home, String kstr, Relation rel)
+                 throws Exception {
+        if (kstr == null) {
+            return null;
+        }
+
+        Transactor tx = Transactor.getInstanceOrFail();
+
+        Key key;
+        DbMapping otherDbm = rel == null ? null : rel.otherType;
+        // check what kind of object we're looking for and make an appropriate key
+        if (rel.isComplexReference()) {
+            // a key for a complex reference
+            key = new MultiKey(rel.otherType, rel.getKeyParts(home));
+            otherDbm = app.getDbMapping(key.getStorageName());
+        } else if (rel.createOnDemand()) {
+            // a key for a virtually defined object that's never actually  stored in the db
+            // or a key for an object that represents subobjects grouped by some property,
+            // generated on the fly
+            key = new SyntheticKey(home.getKey(), kstr);
+        } else {
+            // Not a relation we can use getNodeByRelation() for.
+            return null;
+        }
+
+        // See if Transactor has already come across this node
+        Node node = tx.getCleanNode(key);
+
+        if (node != null && node.getState() != Node.INVALID) {
+            // we used to refresh the node in the main cache here to avoid the primary key
+            // entry being flushed from cache before the secondary one
+            // (risking duplicate nodes in cache) but we don't need to since we fetched
+            // the node from the threadlocal transactor cache and didn't refresh it in the
+            // main cache.
+            return node;
+        }
+
+        // try to get the node from the shared cache
+        node = (Node) cache.get(key);
+
+        // check if we can use the cached node without further checks.
+        // we need further checks for subnodes fetched by name if the subnodes were changed.
+        if (node != null && node.getState() != Node.INVALID) {
+            // check if node is null node (cached null)
+            if (node.isNullNode()) {
+                // do not check reference nodes against child collection
+                if (rel.isComplexReference() || node.created != home.getLastSubnodeChange()) {
+                    node = null; //  cached null not valid anymore
+                }
+            } else if (!rel.virtual) {
+                // apply different consistency checks for groupby nodes and database nodes:
+                // for group nodes, check if they're contained
+                if (rel.groupby != null) {
+                    if (home.contains(node) < 0) {
+                        node = null;
+                    }
+
+                // for database nodes, check if constraints are fulfilled
+                } else if (!rel.usesPrimaryKey()) {
+                    if (!rel.checkConstraints(home, node)) {
+                        node = null;
+                    }
+                }
+            }
+        }
+
+        if (node == null || node.getState() == Node.INVALID) {
+            // The requested node isn't in the shared cache.
+            // Synchronize with key to make sure only one version is fetched
+            // from the database.
+            long loadStart = System.currentTimeMillis();
+            node = getNodeByRelation(tx.txn, home, kstr, rel, otherDbm);
+            cacheStats.miss(otherDbm == null ? null : otherDbm.getTypeName(),
+                            System.currentTimeMillis() - loadStart);
+
+            if (node != null && node.getState() != Node.DELETED) {
+                Node newNode = node;
+                if (key.equals(node.getKey())) {
+                    node = registerNewNode(node, null);
+                } else {
+                    node = registerNewNode(node, key);
+                }
+                // reset create time of old node, otherwise Relation.checkConstraints
+                // will reject it under certain circumstances.
+                if (node != newNode) {
+                    node.created = node.lastmodified;
+                }
+            } else {
+                // node fetched from db is null, cache result using nullNode.
+                // do not use child collection timestamp as cache guard for object references
+                long lastchange = rel.isComplexReference() ? 0 : home.getLastSubnodeChange();
+                cache.put(key, new Node(lastchange));
+
+                // we ignore the case that onother thread has created the node in the meantime
+                return null;
+            }
+        } else if (node.isNullNode()) {
+            // the nullNode caches a null value, i.e. an object that doesn't exist
+            cacheStats.hit(otherDbm == null ? null : otherDbm.getTypeName());
+            return null;
+        } else {
+            cacheStats.hit(node.getPrototype());
+            checkPendingInit(node);
+            // update primary key in cache to keep it from being flushed, see above
+            if (!rel.usesPrimaryKey() && node.getState() != Node.TRANSIENT) {
+                synchronized (getCacheLock(node.getKey())) {
+                    Node old = (Node) cache.put(node.getKey(), node);
+
+                    if (old != node && old != null && !old.isNullNode() &&
+                            old.getState() != Node.INVALID) {
+                        cache.put(node.getKey(), old);
+                        cache.put(key, old);
+                        node = old;
+                    }
+                }
+            }
+        }
+
+        if (node != null) {
+            tx.visitCleanNode(key, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Register a newly created node in the node cache unless it it is already contained.
+     * If so, the previously registered node is kept and returned. Otherwise, the onInit()
+     * function is called on the new node and it is returned.
+     * @param node the node to register
+     * @return the newly registered node, or the one that was already registered with the node's key
+     */
+    private Node registerNewNode(Node node, Key secondaryKey) {
+        Key key = node.getKey();
+        RequestEvaluator reval = app.getCurrentRequestEvaluator();
+        // if no request evaluator is associated with current thread, do not cache node
+        // as we cannot invoke onInit() on it.
+        if (reval == null) {
+            Node old = (Node) cache.get(key);
+            if (old != null && !old.isNullNode() && old.getState() != INode.INVALID) {
+                return old;
+            }
+            return node;
+        }
+
+        Node old;
+        synchronized (getCacheLock(key)) {
+            old = (Node) cache.put(key, node);
+
+            if (old != null && !old.isNullNode() && old.getState() != INode.INVALID) {
+                cache.put(key, old);
+                if (secondaryKey != null) {
+                    cache.put(secondaryKey, old);
+                }
+            } else {
+                old = null;
+                if (secondaryKey != null) {
+                    cache.put(secondaryKey, node);
+                }
+            }
+        }
+        if (old != null) {
+            // the old node may have been loaded by the cache warm-up
+            checkPendingInit(old);
+            return old;
+        }
+        // New node is going ot be used, invoke onInit() on it
+        invokeOnInit(node, reval);
+        return node;
+    }
+
+    /**
+     * Invoke onInit() on a node if it is defined by the node's prototype.
+     */
+    private void invokeOnInit(Node node, RequestEvaluator reval) {
+        try {
+            // We need to reach deap into helma.framework.core to invoke onInit(),
+            // but the functionality is really worth it.
+            reval.invokeDirectFunction(node, "onInit", RequestEvaluator.EMPTY_ARGS);
+        } catch (Exception x) {
+            app.logError("Error invoking onInit()", x);
+        }
+    }
+
+    /**
+     * Invoke onInit() on a node loaded by the cache warm-up when it is first
+     * accessed by a thread that has a request evaluator.
+     */
+    private void checkPendingInit(Node node) {
+        if (node.needsInit) {
+            RequestEvaluator reval = app.getCurrentRequestEvaluator();
+            if (reval != null) {
+                boolean claimed;
+                synchronized (node) {
+                    claimed = node.needsInit;
+                    node.needsInit = false;
+                }
+                if (claimed) {
+                    invokeOnInit(node, reval);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the lock object guarding compound cache operations for the given key.
+     * Operations that check and replace a cache entry synchronize on this
+     * instead of the cache itself, so threads working on unrelated keys
+     * don't block each other.
+     */
+    private Object getCacheLock(Key key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return cacheLocks[h & (cacheLocks.length - 1)];
+    }
+
+    /**
+     * Register a node in the node cache.
+     */
+    public void registerNode(Node node) {
+        cache.put(node.getKey(), node);
+    }
+
+    /**
+     * Register a node in the node cache using the key argument.
+     */
+    protected void registerNode(Node node, Key key) {
+        cache.put(key, node);
+    }
+
+    /**
+     * Remove a node from the node cache. If at a later time it is accessed again,
+     * it will be refetched from the database.
+     */
+    public void evictNode(Node node) {
+        node.setState(INode.INVALID);
+        cache.remove(node.getKey());
+        evictOffHeap(node.getKey());
+        cacheStats.evict(node.getPrototype());
+    }
+
+    /**
+     * Remove a node from the node cache. If at a later time it is accessed again,
+     * it will be refetched from the database.
+     */
+    public void evictNodeByKey(Key key) {
+        Node n = (Node) cache.remove(key);
+        evictOffHeap(key);
+
+        if (n != null) {
+            n.setState(INode.INVALID);
+            cacheStats.evict(n.isNullNode() ? null : n.getPrototype());
+
+            if (!(key instanceof DbKey)) {
+                cache.remove(n.getKey());
+            }
+        }
+    }
+
+    /**
+     * Remove a node from the off-heap cache tier, if it is enabled.
+     */
+    private void evictOffHeap(Key key) {
+        OffHeapNodeCache offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.remove(key);
+        }
+    }
+
+    /**
+     * Remove a node from the node cache after it has been changed by another
+     * instance of the application. Nodes that are being modified by a local
+     * transaction are left alone, as invalidating them would drop their changes.
+     */
+    void evictCleanNode(Key key) {
+        synchronized (getCacheLock(key)) {
+            Node n = (Node) cache.get(key);
+            if (n != null && n.getState() != Node.MODIFIED && n.getState() != Node.DELETED) {
+                evictNodeByKey(key);
+            } else if (n == null) {
+                evictOffHeap(key);
+            }
+        }
+    }
+
+    /**
+     * Used when a key stops being valid for a node. The cached node itself
+     * remains valid, if it is present in the cache by other keys.
+     */
+    public void evictKey(Key key) {
+        cache.remove(key);
+        // also drop key from thread-local transactor cache
+        Transactor tx = Transactor.getInstance();
+        if (tx != null) {
+            tx.dropCleanNode(key);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    // methods to do the actual db work
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     *  Insert a new node in the embedded database or a relational database table,
+     *  depending on its db mapping.
+     */
+    public void insertNode(IDatabase db, ITransaction txn, Node node)
+                    throws IOException, SQLException, ClassNotFoundException {
+        invokeOnPersist(node);
+        insertNode(db, txn, node, null);
+    }
+
+    /**
+     *  Insert a new node, adding relational inserts to the given statement
+     *  batch if it is not null. The node's onPersist() callback must have
+     *  been invoked by the caller.
+     */
+    void insertNode(IDatabase db, ITransaction txn, Node node, StatementBatch batch)
+                    throws IOException, SQLException, ClassNotFoundException {
+        DbMapping dbm = node.getDbMapping();
+
+        if ((dbm == null) || !dbm.isRelational()) {
+            db.insertNode(txn, node.getID(), node);
+        } else {
+            String versionField = dbm.getVersionField();
+            if (versionField != null) {
+                // new rows start with version 1
+                node.setRowVersion(1, dbm.columnNameToProperty(versionField));
+            }
+            insertRelationalNode(node, dbm, getWriteConnection(dbm), batch);
+        }
+    }
+
+    /**
+     *  Insert a node into a different (relational) database than its default one.
+     */
+    public void exportNode(Node node, DbSource dbs)
+                    throws SQLException, ClassNotFoundException {
+        if (node == null) {
+            throw new IllegalArgumentException("Node can't be null in exportNode");
+        }
+
+        DbMapping dbm = node.getDbMapping();
+
+        if (dbs == null) {
+            throw new IllegalArgumentException("DbSource can't be null in exportNode");
+        } else if ((dbm == null) || !dbm.isRelational()) {
+            throw new IllegalArgumentException("Can't export into non-relational database");
+        } else {
+            insertRelationalNode(node, dbm, dbs.getConnection());
+        }
+    }
+
+    /**
+     *  Insert a node into a different (relational) database than its default one.
+     */
+    public void exportNode(Node node, DbMapping dbm)
+                    throws SQLException, ClassNotFoundException {
+        if (node == null) {
+            throw new IllegalArgumentException("Node can't be null in exportNode");
+        }
+
+        if (dbm == null) {
+            throw new IllegalArgumentException("DbMapping can't be null in exportNode");
+        } else if (!dbm.isRelational()) {
+            throw new IllegalArgumentException("Can't export into non-relational database");
+        } else {
+            insertRelationalNode(node, dbm, dbm.getConnection());
+        }
+    }
+
+    /**
+     * Insert a node into a relational database.
+     */
+    protected void insertRelationalNode(Node node, DbMapping dbm, Connection con)
+                throws ClassNotFoundException, SQLException {
+        insertRelationalNode(node, dbm, con, null);
+    }
+
+    /**
+     * Insert a node into a relational database, adding the insert to the given
+     * statement batch if it is not null.
+     */
+    private void insertRelationalNode(Node node, DbMapping dbm, Connection con,
+                                      StatementBatch batch)
+                throws ClassNotFoundException, SQLException {
+
+        if (con == null) {
+            throw new NullPointerException("Error inserting relational node: Connection is null");
+        }
+
+        // set connection to write mode
+        if (con.isReadOnly()) con.setReadOnly(false);
+
+        String insertString = dbm.getInsert();
+
+        if (batch != null) {
+            PreparedStatement stmt = batch.prepare(con, insertString,
+                    "INSERT", dbm.getTableName());
+            bindInsertValues(stmt, node, dbm);
+            batch.add();
+            return;
+        }
+
+        PreparedStatement stmt = con.prepareStatement(insertString);
+
+        // app.logEvent ("inserting relational node: " + node.getID ());
+        long logTimeStart = System.nanoTime();
+        int rows = 0;
+
+        try {
+            bindInsertValues(stmt, node, dbm);
+            rows = stmt.executeUpdate();
+
+        } finally {
+            logSqlStatement("INSERT", dbm.getTableName(), null,
+                            logTimeStart, rows, insertString, null);
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (Exception ignore) {}
+            }
+        }
+    }
+
+    /**
+     * Get the connection used to write nodes of the given mapping, set to
+     * write mode. Within a transactor commit, the connection is enlisted in
+     * the commit's database transaction.
+     */
+    private Connection getWriteConnection(DbMapping dbm)
+                throws ClassNotFoundException, SQLException {
+        Connection con = dbm.getConnection();
+        // set connection to write mode
+        if (con.isReadOnly()) con.setReadOnly(false);
+        Transactor tx = Transactor.getInstance();
+        if (tx != null) {
+            tx.enlistConnection(con);
+        }
+        return con;
+    }
+
+    /**
+     * Bind the column values of a node to an insert statement.
+     */
+    private void bindInsertValues(PreparedStatement stmt, Node node, DbMapping dbm)
+                throws ClassNotFoundException, SQLException {
+        DbColumn[] columns = dbm.getColumns();
+        int columnNumber = 1;
+
+        for (int i = 0; i < columns.length; i++) {
+            DbColumn col = columns[i];
+            if (!col.isMapped())
+                continue;
+            if (col.isIdField()) {
+                setStatementValue(stmt, columnNumber, node.getID(), col);
+            } else if (col.isPrototypeField()) {
+                setStatementValue(stmt, columnNumber, dbm.getExtensionId(), col);
+            } else if (col.isVersionField()) {
+                stmt.setLong(columnNumber, Math.max(node.rowVersion, 1));
+            } else {
+                Relation rel = col.getRelation();
+                Property p = rel == null ? null : node.getProperty(rel.getPropName());
+
+                if (p != null) {
+                    setStatementValue(stmt, columnNumber, p, col.getType());
+                } else if (col.isNameField()) {
+                    stmt.setString(columnNumber, node.getName());
+                } else {
+                    stmt.setNull(columnNumber, col.getType());
+                }
+            }
+            columnNumber += 1;
+        }
+    }
+
+    /**
+     *  calls onPersist function for the HopObject
+     */
+    void invokeOnPersist(Node node) {
+        try {
+            // We need to reach deap into helma.framework.core to invoke onPersist(),
+            // but the functionality is really worth it.
+            RequestEvaluator reval = app.getCurrentRequestEvaluator();
+            if (reval != null) {
+                reval.invokeDirectFunction(node, "onPersist", RequestEvaluator.EMPTY_ARGS);
+            }
+        } catch (Exception x) {
+            app.logError("Error invoking onPersist()", x);
+        }
+    }
+
+    /**
+     *  Updates a modified node in the embedded db or an external relational database, depending
+     * on its database mapping.
+     *
+     * @return true if the DbMapping of the updated Node is to be marked as updated via
+     *              DbMapping.setLastDataChange
+     */
+    public boolean updateNode(IDatabase db, ITransaction txn, Node node)
+                    throws IOException, SQLException, ClassNotFoundException {
+        invokeOnPersist(node);
+        return updateNode(db, txn, node, null);
+    }
+
+    /**
+     *  Updates a modified node, adding relational updates to the given statement
+     *  batch if it is not null. The node's onPersist() callback must have been
+     *  invoked by the caller.
+     */
+    boolean updateNode(IDatabase db, ITransaction txn, Node node, StatementBatch batch)
+                    throws IOException, SQLException, ClassNotFoundException {
+
+        DbMapping dbm = node.getDbMapping();
+        boolean markMappingAsUpdated = false;
+
+        if ((dbm == null) || !dbm.isRelational()) {
+            db.updateNode(txn, node.getID(), node);
+        } else {
+            // a copy of the node may have been dropped to the off-heap cache
+            // by a table rotation while the node was being modified
+            evictOffHeap(node.getKey());
+            PropertyMap propMap = node.getPropMap();
+            Property[] props = propMap == null ? new Property[0] : propMap.toArray();
+
+            // make sure table meta info is loaded by dbmapping
+            dbm.getColumns();
+
+            StringBuffer b = dbm.getUpdate();
+
+            // the version column, if the mapping uses optimistic concurrency control
+            String versionField = dbm.getVersionField();
+
+            // comma flag set after the first dirty column, also tells as
+            // if there are dirty columns at all
+            boolean comma = false;
+
+            for (int i = 0; i < props.length; i++) {
+                // skip clean properties
+                if ((props[i] == null) || !props[i].dirty) {
+                    // null out clean property so we don't consider it later
+                    props[i] = null;
+                    continue;
+                }
+
+                Relation rel = dbm.propertyToRelation(props[i].getName());
+
+                // skip readonly, virtual and collection relations as well as
+                // the version column, which is maintained by the node manager
+                if ((rel == null) || rel.readonly || rel.virtual ||
+                        (!rel.isPrimitiveOrReference()) ||
+                        (versionField != null && versionField.equalsIgnoreCase(rel.getDbField()))) {
+                    // null out property so we don't consider it later
+                    props[i] = null;
+                    continue;
+                }
+
+                if (comma) {
+                    b.append(", ");
+                } else {
+                    comma = true;
+                }
+
+                b.append(rel.getDbField());
+                b.append(" = ?");
+            }
+
+            // if no columns were updated, return false
+            if (!comma) {
+                return false;
+            }
+
+            // the row version this update writes
+            long nextVersion = node.rowVersion < 0 ? 1 : node.rowVersion + 1;
+            if (versionField != null) {
+                b.append(", ").append(versionField).append(" = ?");
+            }
+
+            // bind the id so updates of the same columns share their SQL
+            QueryParameters params = new QueryParameters();
+            b.append(" WHERE ");
+            dbm.appendCondition(b, dbm.getIDField(), node.getID(), params);
+
+            // only update the row if nobody else has updated it since we read it
+            if (versionField != null) {
+                b.append(" AND ");
+                if (node.rowVersion < 0) {
+                    b.append(dbm.getTableName()).append(".").append(versionField)
+                     .append(" IS NULL");
+                } else {
+                    dbm.appendCondition(b, versionField,
+                            Long.toString(node.rowVersion), params);
+                }
+            }
+
+            Connection con = getWriteConnection(dbm);
+
+            // versioned updates are executed immediately since we need their update count
+            if (batch != null && versionField != null) {
+                batch.flush();
+                batch = null;
+            }
+            PreparedStatement stmt = batch == null ?
+                    con.prepareStatement(b.toString()) :
+                    batch.prepare(con, b.toString(), "UPDATE", dbm.getTableName());
+
+            int stmtNumber = 0;
+            int rows = 0;
+            long logTimeStart = System.nanoTime();
+
+            try {
+                for (int i = 0; i < props.length; i++) {
+                    Property p = props[i];
+
+                    if (p == null) {
+                        continue;
+                    }
+
+                    Relation rel = dbm.propertyToRelation(p.getName());
+
+                    stmtNumber++;
+                    setStatementValue(stmt, stmtNumber, p, rel.getColumnType());
+
+                    p.dirty = false;
+
+                    if (!rel.isPrivate()) {
+                        markMappingAsUpdated = true;
+                    }
+                }
+
+                if (versionField != null) {
+                    stmtNumber++;
+                    stmt.setLong(stmtNumber, nextVersion);
+                }
+
+                params.bind(stmt, stmtNumber + 1);
+
+                if (batch != null) {
+                    batch.add();
+                } else {
+                    rows = stmt.executeUpdate();
+                    if (versionField != null) {
+                        if (rows == 0) {
+                            // the row was updated or deleted by another process. The
+                            // transactor rolls back the writes of the commit and aborts,
+                            // evicting the stale node, and the request is retried with
+                            // fresh data.
+                            throw new ConcurrencyException("Tried to update " + node +
+                                    " with version " + node.rowVersion +
+                                    " which was modified by another process.");
+                        }
+                        node.setRowVersion(nextVersion, dbm.columnNameToProperty(versionField));
+                    }
+                }
+
+            } finally {
+                // batched statements are logged and closed by the batch
+                if (batch == null) {
+                    logSqlStatement("UPDATE", dbm.getTableName(), null,
+                                    logTimeStart, rows, b.toString(), params);
+                    try {
+                        stmt.close();
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+
+        // update may cause changes in the node's parent subnode array
+        // TODO: is this really needed anymore?
+        if (markMappingAsUpdated && node.isAnonymous()) {
+            Node parent = node.getCachedParent();
+
+            if (parent != null) {
+                parent.markSubnodesChanged();
+            }
+        }
+
+        return markMappingAsUpdated;
+    }
+
+    /**
+     *  Performs the actual deletion of a node from either the embedded or an external
+     *  SQL database.
+     */
+    public void deleteNode(IDatabase db, ITransaction txn, Node node)
+                    throws Exception {
+        deleteNode(db, txn, node, null);
+    }
+
+    /**
+     *  Performs the actual deletion of a node, adding relational deletes to the
+     *  given statement batch if it is not null.
+     */
+    void deleteNode(IDatabase db, ITransaction txn, Node node, StatementBatch batch)
+                    throws Exception {
+        DbMapping dbm = node.getDbMapping();
+
+        if ((dbm == null) || !dbm.isRelational()) {
+            db.deleteNode(txn, node.getID());
+        } else if (batch != null) {
+            QueryParameters params = new QueryParameters();
+            StringBuffer b = new StringBuffer("DELETE FROM ").append(dbm.getTableName())
+                                                             .append(" WHERE ");
+            dbm.appendCondition(b, dbm.getIDField(), node.getID(), params);
+
+            Connection con = getWriteConnection(dbm);
+
+            PreparedStatement stmt = batch.prepare(con, b.toString(),
+                    "DELETE", dbm.getTableName());
+            params.bind(stmt, 1);
+            batch.add();
+        } else {
+            Statement st = null;
+            int rows = 0;
+            long logTimeStart = System.nanoTime();
+            String str = new StringBuffer("DELETE FROM ").append(dbm.getTableName())
+                                                         .append(" WHERE ")
+                                                         .append(dbm.getIDField())
+                                                         .append(" = ")
+                                                         .append(node.getID())
+                                                         .toString();
+
+            try {
+                Connection con = getWriteConnection(dbm);
+
+                st = con.createStatement();
+
+                rows = st.executeUpdate(str);
+
+            } finally {
+                logSqlStatement("DELETE", dbm.getTableName(), null,
+                                logTimeStart, rows, str, null);
+                if (st != null) {
+                    try {
+                        st.close();
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+
+        evictOffHeap(node.getKey());
+        // node may still be cached via non-primary keys. mark as invalid
+        node.setState(Node.INVALID);
+    }
+
+
+    /**
+     * Generate a new ID for a given type, delegating to our IDGenerator if set.
+     */
+    public String generateID(DbMapping map) throws Exception {
+        if (idgen != null) {
+            // use our custom IDGenerator
+            return idgen.generateID(map);
+        } else {
+            return doGenerateID(map);
+        }
+    }
+
+    /**
+     * Actually generates an ID, using a method matching the given DbMapping.
+     */
+    public String doGenerateID(DbMapping map) throws Exception {
+        if ((map == null) || !map.isRelational()) {
+            // use embedded db id generator
+            return generateEmbeddedID(map);
+        }
+        String idMethod = map.getIDgen();
+        if (idMethod != null && idMethod.toLowerCase().startsWith("[table")) {
+            // reserve blocks of ids in an id table
+            return generateBlockID(map);
+        } else if (idMethod == null || "[max]".equalsIgnoreCase(idMethod) || map.isMySQL()) {
+            // use select max as id generator
+            return generateMaxID(map);
+        } else if ("[hop]".equalsIgnoreCase(idMethod)) {
+            // use embedded db id generator
+            return generateEmbeddedID(map);
+        } else if (map.getIDBlockSize() > 1) {
+            // reserve blocks of ids from a db sequence
+            return generateBlockID(map);
+        } else {
+            // use db sequence as id generator
+            return generateSequenceID(map);
+        }
+    }
+
+    /**
+     * Generates an ID from a block of IDs reserved for the mapping's table.
+     * A new block is reserved in the database when the current one is used up,
+     * either from the id table given by <code>_idgen = [table]</code> or
+     * <code>_idgen = [table:tablename]</code>, or from a sequence whose increment
+     * matches <code>_idgen.blocksize</code>. Only threads generating ids for the
+     * same table wait for each other while a new block is reserved.
+     */
+    String generateBlockID(DbMapping map) throws Exception {
+        IDBlock block = map.getIDBlock();
+        synchronized (block) {
+            long id = block.next();
+            if (id < 0) {
+                String idMethod = map.getIDgen();
+                int blockSize = map.getIDBlockSize();
+                long start;
+                if (idMethod.toLowerCase().startsWith("[table")) {
+                    if (blockSize <= 0) {
+                        blockSize = 100;
+                    }
+                    start = reserveTableIDBlock(map, getIDTableName(idMethod), blockSize);
+                } else {
+                    // a sequence incremented by blockSize, we own [value, value + blockSize)
+                    start = Long.parseLong(generateSequenceID(map));
+                }
+                block.reserve(start, start + blockSize);
+                id = block.next();
+            }
+            return Long.toString(id);
+        }
+    }
+
+    /**
+     * Get the id table name from a <code>[table]</code> or
+     * <code>[table:tablename]</code> id generator setting.
+     */
+    private String getIDTableName(String idMethod) {
+        int colon = idMethod.indexOf(':');
+        int end = idMethod.lastIndexOf(']');
+        if (colon > -1 && end > colon + 1) {
+            return idMethod.substring(colon + 1, end).trim();
+        }
+        return "HELMA_IDGEN";
+    }
+
+    /**
+     * Reserve a block of IDs in the given id table. The id table has one row per
+     * mapped table, holding the next free id in the NEXT_ID column and the name
+     * of the table in the SEQ_NAME column:
+     *
+     * <pre>CREATE TABLE HELMA_IDGEN (SEQ_NAME VARCHAR(255) PRIMARY KEY, NEXT_ID BIGINT)</pre>
+     *
+     * The next free id is advanced with a conditional UPDATE, so several Helma
+     * instances can share the table without database transactions. If there is
+     * no row for the mapped table yet, one is created starting above the current
+     * maximum id of the table.
+     *
+     * @return the first ID of the reserved block
+     */
+    private long reserveTableIDBlock(DbMapping map, String idTable, int blockSize)
+            throws Exception {
+        String name = map.getTableName();
+        String select = new StringBuffer("SELECT NEXT_ID FROM ").append(idTable)
+                .append(" WHERE SEQ_NAME = ?").toString();
+        String update = new StringBuffer("UPDATE ").append(idTable)
+                .append(" SET NEXT_ID = ? WHERE SEQ_NAME = ? AND NEXT_ID = ?").toString();
+        String insert = new StringBuffer("INSERT INTO ").append(idTable)
+                .append(" (SEQ_NAME, NEXT_ID) VALUES (?, ?)").toString();
+
+        Connection con = map.getConnection();
+        if (con.isReadOnly()) con.setReadOnly(false);
+
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long logTimeStart = System.nanoTime();
+            long current = -1;
+            PreparedStatement stmt = con.prepareStatement(select);
+            try {
+                stmt.setString(1, name);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    current = rs.getLong(1);
+                }
+            } finally {
+                logSqlStatement("SELECT_IDBLOCK", idTable, null,
+                                logTimeStart, current < 0 ? 0 : 1, select, null);
+                try {
+                    stmt.close();
+                } catch (Exception ignore) {
+                }
+            }
+
+            logTimeStart = System.nanoTime();
+            int rows = 0;
+            if (current < 0) {
+                // no row for this table yet, start above the current maximum
+                long start = Long.parseLong(generateMaxID(map));
+                stmt = con.prepareStatement(insert);
+                try {
+                    stmt.setString(1, name);
+                    stmt.setLong(2, start + blockSize);
+                    rows = stmt.executeUpdate();
+                    return start;
+                } catch (SQLException x) {
+                    // another instance created the row in the meantime, try again
+                } finally {
+                    logSqlStatement("INSERT_IDBLOCK", idTable, null,
+                                    logTimeStart, rows, insert, null);
+                    try {
+                        stmt.close();
+                    } catch (Exception ignore) {
+                    }
+                }
+            } else {
+                stmt = con.prepareStatement(update);
+                try {
+                    stmt.setLong(1, current + blockSize);
+                    stmt.setString(2, name);
+                    stmt.setLong(3, current);
+                    rows = stmt.executeUpdate();
+                    if (rows == 1) {
+                        return current;
+                    }
+                    // another instance reserved a block in the meantime, try again
+                } finally {
+                    logSqlStatement("UPDATE_IDBLOCK", idTable, null,
+                                    logTimeStart, rows, update, null);
+                    try {
+                        stmt.close();
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+
+        throw new SQLException("Unable to reserve a block of ids for " + name + " in " + idTable);
+    }
+
+    /**
+     * Gererates an ID for use with the embedded database.
+     */
+    synchronized String generateEmbeddedID(DbMapping map) throws Exception {
+        return db.nextID();
+    }
+
+    /**
+     * Generates an ID for the table by finding out the maximum current value.
+     * IDs are unique within this instance because DbMapping.getNewID() never
+     * returns the same value twice, so there's no need to lock the node manager.
+     */
+    String generateMaxID(DbMapping map)
+                                      throws Exception {
+        String retval = null;
+        Statement stmt = null;
+        long logTimeStart = System.nanoTime();
+        String q = new StringBuffer("SELECT MAX(").append(map.getIDField())
+                                                  .append(") FROM ")
+                                                  .append(map.getTableName())
+                                                  .toString();
+
+        try {
+            Connection con = map.getConnection();
+            // set connection to read-only mode
+            if (!con.isReadOnly()) con.setReadOnly(true);
+
+            stmt = con.createStatement();
+
+            ResultSet rs = stmt.executeQuery(q);
+
+            // check for empty table
+            if (!rs.next()) {
+                long currMax = map.getNewID(0);
+
+                retval = Long.toString(currMax);
+            } else {
+                long currMax = rs.getLong(1);
+
+                currMax = map.getNewID(currMax);
+                retval = Long.toString(currMax);
+            }
+        } finally {
+            logSqlStatement("SELECT_MAX", map.getTableName(), null,
+                            logTimeStart, 1, q, null);
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    String generateSequenceID(DbMapping map) throws Exception {
+        Statement stmt = null;
+        String retval = null;
+        long logTimeStart = System.nanoTime();
+        String q;
+        if (map.isOracle()) {
+            q = new StringBuffer("SELECT ").append(map.getIDgen())
+                    .append(".nextval FROM dual").toString();
+        } else if (map.isPostgreSQL() || map.isH2()) {
+            q = new StringBuffer("SELECT nextval('")
+                    .append(map.getIDgen()).append("')").toString();
+        } else {
+            throw new RuntimeException("Unable to generate sequence: unknown DB");
+        }
+
+        try {
+            Connection con = map.getConnection();
+            // TODO is it necessary to set connection to write mode here?
+            if (con.isReadOnly()) con.setReadOnly(false);
+
+            stmt = con.createStatement();
+
+            ResultSet rs = stmt.executeQuery(q);
+
+            if (!rs.next()) {
+                throw new SQLException("Error creating ID from Sequence: empty recordset");
+            }
+
+            retval = rs.getString(1);
+        } finally {
+            logSqlStatement("SELECT_NEXTVAL", map.getTableName(), null,
+                            logTimeStart, 1, q, null);
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     *  Loades subnodes via subnode relation. Only the ID index is loaded, the nodes are
+     *  loaded later on demand.
+     */
+    public List getNodeIDs(Node home, Relation rel) throws Exception {
+        return getNodeIDs(home, rel, new ArrayList());
+    }
+
+    /**
+     *  Loades subnodes via subnode relation into the given list. Only the ID index
+     *  is loaded, the nodes are loaded later on demand.
+     */
+    public List getNodeIDs(Node home, Relation rel, List retval) throws Exception {
+        DbMapping type = rel == null ? null : rel.otherType;
+        if (type == null || !type.isRelational()) {
+            // this should never be called for embedded nodes
+            throw new RuntimeException("getNodeIDs called for non-relational node " + home);
+        }
+
+        // if we do a groupby query (creating an intermediate layer of groupby nodes),
+        // retrieve the value of that field instead of the primary key
+        StringBuffer b = rel.getIdSelect();
+        QueryParameters params = null;
+        String query;
+
+        if (home.getSubnodeRelation() != null) {
+            // subnode relation was explicitly set
+            query = b.append(" ").append(home.getSubnodeRelation()).toString();
+        } else {
+            // let relation object build the query
+            params = createQueryParameters(type);
+            rel.buildQuery(b, home, true, false, params);
+            query = b.toString();
+        }
+
+        // problem: how do we derive a SyntheticKey from a not-yet-persistent Node?
+        Key k = (rel.groupby != null) ? home.getKey() : null;
+
+        // look up the ids in the query cache
+        long cacheTtl = home.getSubnodeRelation() == null ? queryCache.getTtl(rel) : 0;
+        Object cacheKey = null;
+        long dataChange = 0;
+        List cachedIds = null;
+        if (cacheTtl > 0) {
+            cacheKey = QueryResultCache.createKey(type, query, params);
+            dataChange = rel.getDataChange(home);
+            String[] ids = (String[]) queryCache.get(cacheKey, dataChange);
+            if (ids != null) {
+                for (int i = 0; i < ids.length; i++) {
+                    addNodeHandle(retval, rel, k, ids[i]);
+                }
+                return retval;
+            }
+            cachedIds = new ArrayList();
+        }
+
+        Connection con = type.getReadConnection();
+        // set connection to read-only mode
+        if (!con.isReadOnly()) con.setReadOnly(true);
+
+        Statement stmt = null;
+        ResultSet result = null;
+        int initialSize = retval.size();
+        long logTimeStart = System.nanoTime();
+
+        try {
+            stmt = createBulkSelectStatement(type, con, query, params, rel.maxSize, rel);
+            result = executeSelect(stmt, query, params);
+
+            while (result.next()) {
+                String kstr = result.getString(1);
+
+                // jump over null values - this can happen especially when the selected
+                // column is a group-by column.
+                if (kstr == null) {
+                    continue;
+                }
+
+                addNodeHandle(retval, rel, k, kstr);
+                if (cachedIds != null) {
+                    cachedIds.add(kstr);
+                }
+            }
+        } finally {
+            logSqlStatement("SELECT_IDS", type.getTableName(), rel,
+                    logTimeStart, retval.size() - initialSize, query, params);
+            releaseSelectStatement(type, con, stmt, result, params);
+        }
+
+        if (cachedIds != null && queryCache.acceptsIds(cachedIds.size())) {
+            queryCache.putIds(cacheKey, dataChange, cacheTtl, cachedIds);
+        }
+
+        return retval;
+    }
+
+    /**
+     * Add a handle for a node id selected by a collection query to the given list.
+     */
+    private void addNodeHandle(List retval, Relation rel, Key k, String kstr) {
+        // make the proper key for the object, either a generic DB key or a groupby key
+        Key key = (rel.groupby == null)
+                ? (Key) new DbKey(rel.otherType, kstr)
+                : (Key) new SyntheticKey(k, kstr);
+        retval.add(new NodeHandle(key));
+
+        // if these are groupby nodes, evict nullNode keys
+        if (rel.groupby != null) {
+            Node n = (Node) cache.get(key);
+
+            if ((n != null) && n.isNullNode()) {
+                evictKey(key);
+            }
+        }
+    }
+
+    /**
+     *  Loades subnodes via subnode relation. This is similar to getNodeIDs, but it
+     *  actually loades all nodes in one go, which is better for small node collections.
+     *  This method is used when xxx.loadmode=aggressive is specified.
+     */
+    public List getNodes(Node home, Relation rel) throws Exception {
+        // This does not apply for groupby nodes - use getNodeIDs instead
+        assert rel.groupby == null;
+
+        if ((rel == null) || (rel.otherType == null) || !rel.otherType.isRelational()) {
+            // this should never be called for embedded nodes
+            throw new RuntimeException("getNodes called for non-relational node " +
+                                       home);
+        }
+
+        List retval = new ArrayList();
+        DbMapping dbm = rel.otherType;
+
+        Connection con = dbm.getReadConnection();
+        // set connection to read-only mode
+        if (!con.isReadOnly()) con.setReadOnly(true);
+
+        Statement stmt = null;
+        ResultSet rs = null;
+        QueryParameters params = null;
+        DbColumn[] columns = dbm.getColumns();
+        Relation[] joins = dbm.getJoins();
+        String query = null;
+        long logTimeStart = System.nanoTime();
+
+        try {
+            StringBuffer b = dbm.getSelect(rel);
+
+            if (home.getSubnodeRelation() != null) {
+                b.append(home.getSubnodeRelation());
+            } else {
+                // let relation object build the query
+                params = createQueryParameters(dbm);
+                rel.buildQuery(b, home, true, false, params);
+            }
+
+            query = b.toString();
+
+            stmt = createBulkSelectStatement(dbm, con, query, params, rel.maxSize, rel);
+            rs = executeSelect(stmt, query, params);
+
+            while (rs.next()) {
+                // create new Nodes.
+                Node node = createNode(rel.otherType, rs, columns, 0);
+                if (node == null) {
+                    continue;
+                }
+                Key primKey = node.getKey();
+
+                retval.add(new NodeHandle(primKey));
+
+                registerNewNode(node, null);
+
+                fetchJoinedNodes(rs, joins, columns.length);
+            }
+
+        } finally {
+            logSqlStatement("SELECT_ALL", dbm.getTableName(), rel,
+                    logTimeStart, retval.size(), query, params);
+            releaseSelectStatement(dbm, con, stmt, rs, params);
+        }
+
+        return retval;
+    }
+
+    /**
+     *  Load the next batch of subnodes for a cursor. The batch contains the
+     *  first batchSize nodes of the collection with an id greater than lastKey,
+     *  ordered by id. Nodes that are already cached are reused. Nodes that were
+     *  added to the cache by this call are added to the loaded list, so the
+     *  cursor can release them once they have been processed.
+     *
+     * @param home the node holding the collection
+     * @param rel the collection relation
+     * @param lastKey the id of the last node of the previous batch, or null
+     * @param batchSize the maximum number of nodes to load
+     * @param loaded a list to add nodes to that were added to the cache
+     * @return the list of nodes in the batch
+     */
+    public List getNodeBatch(Node home, Relation rel, String lastKey, int batchSize,
+                             List loaded) throws Exception {
+        DbMapping dbm = rel == null ? null : rel.otherType;
+        if (dbm == null || !dbm.isRelational() || rel.groupby != null) {
+            throw new RuntimeException("Cursor is only supported for relational " +
+                                       "collections without group-by: " + home);
+        }
+
+        List retval = new ArrayList(batchSize);
+
+        Connection con = dbm.getReadConnection();
+        // set connection to read-only mode
+        if (!con.isReadOnly()) con.setReadOnly(true);
+
+        Statement stmt = null;
+        ResultSet rs = null;
+        QueryParameters params = createQueryParameters(dbm);
+        DbColumn[] columns = dbm.getColumns();
+        Relation[] joins = dbm.getJoins();
+        String query = null;
+        long logTimeStart = System.nanoTime();
+
+        try {
+            StringBuffer b = dbm.getSelect(rel);
+            rel.buildKeysetQuery(b, home, lastKey, batchSize, params);
+            query = b.toString();
+
+            stmt = createSelectStatement(dbm, con, query, params, batchSize);
+            rs = executeSelect(stmt, query, params);
+
+            while (rs.next()) {
+                Node node = createNode(dbm, rs, columns, 0);
+                if (node == null) {
+                    continue;
+                }
+
+                Node cached = registerNewNode(node, null);
+                if (cached == node) {
+                    loaded.add(node);
+                }
+                retval.add(cached);
+
+                fetchJoinedNodes(rs, joins, columns.length);
+            }
+        } finally {
+            logSqlStatement("SELECT_BATCH", dbm.getTableName(), rel,
+                    logTimeStart, retval.size(), query, params);
+            releaseSelectStatement(dbm, con, stmt, rs, params);
+        }
+
+        return retval;
+    }
+
+    /**
+     * Remove a node loaded by a cursor from the node cache, unless it has been
+     * replaced or modified in the meantime. Unlike evictNode(), this doesn't
+     * invalidate the node, so it can still be used by code holding a reference.
+     *
+     * @param node the node to release
+     */
+    public void releaseNode(Node node) {
+        Key key = node.getKey();
+        synchronized (getCacheLock(key)) {
+            if (cache.get(key) == node && node.getState() == Node.CLEAN) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    protected List collectMissingKeys(SubnodeList list, int start, int length) {
+        List retval = null;
+        for (int i = start; i < start + length; i++) {
+            NodeHandle handle = list.get(i);
+            if (handle != null && !cache.containsKey(handle.getKey())) {
+                if (retval == null) {
+                    retval = new ArrayList();
+                }
+                retval.add(handle.getKey().getID());
+            }
+        }
+        return retval;
+    }
+
+    /**
+     *
+     */
+    public void prefetchNodes(Node home, Relation rel, SubnodeList list, int start, int length)
+                       throws Exception {
+        DbMapping dbm = rel.otherType;
+
+        // this does nothing for objects in the embedded database
+        if (dbm != null && dbm.isRelational()) {
+            // int missing = cache.containsKeys(keys);
+            List missing = collectMissingKeys(list, start, length);
+
+            if (missing != null) {
+                Connection con = dbm.getReadConnection();
+                // set connection to read-only mode
+                if (!con.isReadOnly()) con.setReadOnly(true);
+
+                Statement stmt = null;
+                ResultSet rs = null;
+                QueryParameters params = null;
+                DbColumn[] columns = dbm.getColumns();
+                Relation[] joins = dbm.getJoins();
+                String query = null;
+                int rows = 0;
+                long logTimeStart = System.nanoTime();
+
+                try {
+                    StringBuffer b = dbm.getSelect(null).append(" WHERE ");
+                    String idfield = (rel.groupby != null) ? rel.groupby : dbm.getIDField();
+                    String[] ids = (String[]) missing.toArray(new String[missing.size()]);
+
+                    params = createQueryParameters(dbm);
+                    dbm.appendCondition(b, idfield, ids, params);
+                    dbm.addJoinConstraints(b, " AND ");
+
+                    if (rel.groupby != null) {
+                        rel.renderConstraints(b, home, " AND ", params);
+
+                        if (rel.order != null) {
+                            b.append(" ORDER BY ");
+                            b.append(rel.order);
+                        }
+                    }
+
+                    query = b.toString();
+
+                    stmt = createBulkSelectStatement(dbm, con, query, params, 0, rel);
+                    rs = executeSelect(stmt, query, params);
+
+                    String groupbyProp = null;
+                    HashMap groupbySubnodes = null;
+
+                    if (rel.groupby != null) {
+                        groupbyProp = dbm.columnNameToProperty(rel.groupby);
+                        groupbySubnodes = new HashMap();
+                    }
+
+                    String accessProp = null;
+
+                    if ((rel.accessName != null) && !rel.usesPrimaryKey()) {
+                        accessProp = dbm.columnNameToProperty(rel.accessName);
+                    }
+
+                    while (rs.next()) {
+                        rows += 1;
+                        // create new Nodes.
+                        Node node = createNode(dbm, rs, columns, 0);
+                        if (node == null) {
+                            continue;
+                        }
+                        Key key = node.getKey();
+                        Key secondaryKey = null;
+
+                        // for grouped nodes, collect subnode lists for the intermediary
+                        // group nodes.
+                        String groupName = null;
+
+                        if (groupbyProp != null) {
+                            groupName = node.getString(groupbyProp);
+                            if (groupName != null) {
+                                Node groupNode = (Node) groupbySubnodes.get(groupName);
+
+                                if (groupNode == null) {
+                                    groupNode = home.getGroupbySubnode(groupName, true);
+                                    groupbySubnodes.put(groupName, groupNode);
+                                }
+
+                                SubnodeList subnodes = groupNode.getSubnodeList();
+                                if (subnodes == null) {
+                                    subnodes = groupNode.createSubnodeList();
+                                    // mark subnodes as up-to-date
+                                    subnodes.lastSubnodeFetch = subnodes.getLastSubnodeChange();
+                                }
+                                subnodes.add(new NodeHandle(key));
+                            }
+                        }
+
+                        // if relation doesn't use primary key as accessName, get secondary key
+                        if (accessProp != null) {
+                            String accessName = node.getString(accessProp);
+                            if (accessName != null) {
+                                if (groupName == null) {
+                                    secondaryKey = new SyntheticKey(home.getKey(), accessName);
+                                } else {
+                                    Key groupKey = new SyntheticKey(home.getKey(), groupName);
+                                    secondaryKey = new SyntheticKey(groupKey, accessName);
+                                }
+                            }
+
+                        }
+
+                        // register new nodes with the cache. If an up-to-date copy
+                        // existed in the cache, use that.
+                        registerNewNode(node, secondaryKey);
+                        fetchJoinedNodes(rs, joins, columns.length);
+                    }
+
+                } catch (Exception x) {
+                    app.logError("Error in prefetchNodes()", x);
+                } finally {
+                    logSqlStatement("SELECT_PREFETCH", dbm.getTableName(), rel,
+                                    logTimeStart, rows, query, params);
+                    releaseSelectStatement(dbm, con, stmt, rs, params);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Load the nodes with the given ids from the table of the given key with
+     *  a single query and register them with the cache. This is used to load
+     *  nodes referenced through relations with the <code>batchsize</code> option.
+     */
+    private void prefetchReferences(DbKey key, List ids) {
+        DbMapping dbm = app.getDbMapping(key.getStorageName());
+        if (dbm == null || !dbm.isRelational()) {
+            return;
+        }
+        loadNodesById(dbm, ids, false);
+    }
+
+    /**
+     * Load nodes listed in the cache warm-up snapshot with a single query
+     * and put them into the node cache unless they are already cached.
+     *
+     * @param dbm the type of the nodes
+     * @param ids the ids of the nodes
+     * @return the number of nodes added to the cache
+     */
+    int warmUpNodes(DbMapping dbm, List ids) {
+        return loadNodesById(dbm, ids, true);
+    }
+
+    /**
+     * Load the nodes with the given ids with a single query and register
+     * them with the cache.
+     */
+    private int loadNodesById(DbMapping dbm, List ids, boolean warmUp) {
+        Statement stmt = null;
+        Connection con = null;
+        ResultSet rs = null;
+        QueryParameters params = null;
+        String query = null;
+        long logTimeStart = System.nanoTime();
+        int loaded = 0;
+
+        try {
+            con = dbm.getReadConnection();
+            // set connection to read-only mode
+            if (!con.isReadOnly()) con.setReadOnly(true);
+
+            DbColumn[] columns = dbm.getColumns();
+            Relation[] joins = dbm.getJoins();
+            String[] idArray = (String[]) ids.toArray(new String[ids.size()]);
+
+            params = createQueryParameters(dbm);
+            StringBuffer b = dbm.getSelect(null).append(" WHERE ");
+            dbm.appendCondition(b, dbm.getIDField(), idArray, params);
+            dbm.addJoinConstraints(b, " AND ");
+            query = b.toString();
+
+            stmt = createSelectStatement(dbm, con, query, params, 0);
+            rs = executeSelect(stmt, query, params);
+
+            while (rs.next()) {
+                Node node = createNode(dbm, rs, columns, 0);
+                if (node == null) {
+                    continue;
+                }
+                if (warmUp) {
+                    if (registerWarmNode(node)) {
+                        loaded += 1;
+                    }
+                } else {
+                    registerNewNode(node, null);
+                    loaded += 1;
+                }
+                fetchJoinedNodes(rs, joins, columns.length);
+            }
+        } catch (Exception x) {
+            app.logError(warmUp ? "Error in warmUpNodes()" : "Error in prefetchReferences()", x);
+        } finally {
+            long loadMillis = (System.nanoTime() - logTimeStart) / 1000000L;
+            logSqlStatement(warmUp ? "SELECT_WARMUP" : "SELECT_REFERENCES", dbm.getTableName(),
+                            null, logTimeStart, loaded, query, params);
+            releaseSelectStatement(dbm, con, stmt, rs, params);
+            if (!warmUp) {
+                cacheStats.batchLoad(dbm.getTypeName(), loaded, loadMillis);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Put a node loaded by the cache warm-up into the cache unless a valid node
+     * is already cached. onInit() is invoked when the node is first accessed.
+     */
+    private boolean registerWarmNode(Node node) {
+        Key key = node.getKey();
+        synchronized (getCacheLock(key)) {
+            Node old = (Node) cache.get(key);
+            if (old != null && !old.isNullNode() && old.getState() != INode.INVALID) {
+                return false;
+            }
+            node.needsInit = true;
+            cache.put(key, node);
+            return true;
+        }
+    }
+
+    /**
+     * Count the nodes contained in the child collection of the home node
+     * which is defined by Relation rel.
+     */
+    public int countNodes(Node home, Relation rel) throws Exception {
+        DbMapping type = rel == null ? null : rel.otherType;
+        if (type == null || !type.isRelational()) {
+            // this should never be called for embedded nodes
+            throw new RuntimeException("countNodes called for non-relational node " + home);
+        }
+        int retval = 0;
+        StringBuffer b = rel.getCountSelect();
+        QueryParameters params = null;
+        String query;
+
+        if (home.getSubnodeRelation() != null) {
+            // use the manually set subnoderelation of the home node
+            query = b.append(" ").append(home.getSubnodeRelation()).toString();
+        } else {
+            // let relation object build the query
+            params = createQueryParameters(type);
+            rel.buildQuery(b, home, false, true, params);
+            query = b.toString();
+        }
+
+        // look up the count in the query cache
+        long cacheTtl = home.getSubnodeRelation() == null ? queryCache.getTtl(rel) : 0;
+        Object cacheKey = null;
+        long dataChange = 0;
+        if (cacheTtl > 0) {
+            cacheKey = QueryResultCache.createKey(type, query, params);
+            dataChange = rel.getDataChange(home);
+            Integer count = (Integer) queryCache.get(cacheKey, dataChange);
+            if (count != null) {
+                retval = count.intValue();
+                return (rel.maxSize > 0) ? Math.min(rel.maxSize, retval) : retval;
+            }
+        }
+
+        Connection con = type.getReadConnection();
+        // set connection to read-only mode
+        if (!con.isReadOnly()) con.setReadOnly(true);
+
+        Statement stmt = null;
+        ResultSet rs = null;
+        long logTimeStart = System.nanoTime();
+
+        try {
+            stmt = createSelectStatement(type, con, query, params, 0);
+            rs = executeSelect(stmt, query, params);
+
+            if (!rs.next()) {
+                retval = 0;
+            } else {
+                retval = rs.getInt(1);
+            }
+        } finally {
+            logSqlStatement("SELECT_COUNT", type.getTableName(), rel,
+                    logTimeStart, 1, query, params);
+            releaseSelectStatement(type, con, stmt, rs, params);
+        }
+
+        if (cacheKey != null) {
+            queryCache.put(cacheKey, dataChange, cacheTtl, new Integer(retval));
+        }
+
+        return (rel.maxSize > 0) ? Math.min(rel.maxSize, retval) : retval;
+    }
+
+    /**
+     *  Similar to getNodeIDs, but returns a List that contains the nodes property names instead of IDs
+     */
+    public Vector getPropertyNames(Node home, Relation rel)
+                            throws Exception {
+        DbMapping type = rel == null ? null : rel.otherType;
+        if (type == null || !type.isRelational()) {
+            // this should never be called for embedded nodes
+            throw new RuntimeException("getPropertyNames called for non-relational node " + home);
+        }
+        Vector retval = new Vector();
+
+        Connection con = rel.otherType.getReadConnection();
+        // set connection to read-only mode
+        if (!con.isReadOnly()) con.setReadOnly(true);
+
+        Statement stmt = null;
+        long logTimeStart = System.nanoTime();
+        String query = null;
+
+        try {
+            // NOTE: we explicitly convert tables StringBuffer to a String
+            // before appending to be compatible with JDK 1.3
+            StringBuffer b = rel.getNamesSelect();
+
+            if (home.getSubnodeRelation() != null) {
+                b.append(" ").append(home.getSubnodeRelation());
+            } else {
+                // let relation object build the query
+                rel.buildQuery(b, home, true, false);
+            }
+
+            stmt = con.createStatement();
+
+            query = b.toString();
+
+            ResultSet rs = stmt.executeQuery(query);
+
+            while (rs.next()) {
+                String n = rs.getString(1);
+
+                if (n != null) {
+                    retval.add(n);
+                }
+            }
+        } finally {
+            logSqlStatement("SELECT_ACCESSNAMES", type.getTableName(), rel,
+                    logTimeStart, retval.size(), query, null);
+
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////
+    // private getNode methods
+    ///////////////////////////////////////////////////////////////////////////////////////
+    private Node getNodeByKey(ITransaction txn, DbKey key)
+                       throws Exception {
+        // Note: Key must be a DbKey, otherwise will not work for relational objects
+        Node node = null;
+        DbMapping dbm = app.getDbMapping(key.getStorageName());
+        String kstr = key.getID();
+
+        if ((dbm == null) || !dbm.isRelational()) {
+            node = (Node) db.getNode(txn, kstr);
+            if ((node != null) && (dbm != null)) {
+                node.setDbMapping(dbm);
+            }
+        } else {
+            // check the off-heap cache before going to the database
+            OffHeapNodeCache offHeap = offHeapCache;
+            if (offHeap != null) {
+                node = offHeap.get(key);
+                if (node != null) {
+                    return node;
+                }
+            }
+
+            String idfield = dbm.getIDField();
+
+            Connection con = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            QueryParameters params = null;
+            String query = null;
+            long logTimeStart = System.nanoTime();
+
+            try {
+                con = dbm.getReadConnection();
+                // set connection to read-only mode
+                if (!con.isReadOnly()) con.setReadOnly(true);
+
+                DbColumn[] columns = dbm.getColumns();
+                Relation[] joins = dbm.getJoins();
+
+                params = createQueryParameters(dbm);
+                StringBuffer b = dbm.getSelect(null).append("WHERE ");
+                dbm.appendCondition(b, idfield, kstr, params);
+                dbm.addJoinConstraints(b, " AND ");
+                query = b.toString();
+
+                stmt = createSelectStatement(dbm, con, query, params, 0);
+                rs = executeSelect(stmt, query, params);
+
+                if (!rs.next()) {
+                    return null;
+                }
+                node = createNode(dbm, rs, columns, 0);
+
+                fetchJoinedNodes(rs, joins, columns.length);
+
+                if (rs.next()) {
+                    app.logError("Warning: More than one value returned for query " + query);
+                }
+            } finally {
+                logSqlStatement("SELECT_BYKEY", dbm.getTableName(), null,
+                                logTimeStart, node == null ? 0 : 1, query, params);
+                releaseSelectStatement(dbm, con, stmt, rs, params);
+            }
+        }
+
+        return node;
+    }
+
+    private Node getNodeByRelation(ITransaction txn, Node home, String kstr, Relation rel, DbMapping dbm)
+                            throws Exception {
+        Node node = null;
+
+        if (rel != null && rel.virtual) {
+            if (rel.needsPersistence()) {
+                node = (Node) home.createNode(kstr);
+            } else {
+                node = new Node(home, kstr, safe, rel.prototype);
+            }
+
+            // set prototype and dbmapping on the newly created virtual/collection node
+            node.setPrototype(rel.prototype);
+            node.setDbMapping(rel.getVirtualMapping());
+        } else if (rel != null && rel.groupby != null) {
+            node = home.getGroupbySubnode(kstr, false);
+
+            if (node == null && (dbm == null || !dbm.isRelational())) {
+                node = (Node) db.getNode(txn, kstr);
+            }
+            return node;
+        } else if (rel == null || dbm == null || !dbm.isRelational()) {
+            node = (Node) db.getNode(txn, kstr);
+            node.setDbMapping(dbm);
+            return node;
+        } else {
+            Connection con = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            QueryParameters params = null;
+            String query = null;
+            long logTimeStart = System.nanoTime();
+
+            try {
+                con = dbm.getReadConnection();
+                // set connection to read-only mode
+                if (!con.isReadOnly()) con.setReadOnly(true);
+                DbColumn[] columns = dbm.getColumns();
+                Relation[] joins = dbm.getJoins();
+                StringBuffer b = dbm.getSelect(rel);
+
+                params = createQueryParameters(dbm);
+                if (home.getSubnodeRelation() != null && !rel.isComplexReference()) {
+                    // combine our key with the constraints in the manually set subnode relation
+                    b.append(" WHERE ");
+                    dbm.appendCondition(b, rel.accessName, kstr, params);
+                    // add join contraints in case this is an old oracle style join
+                    dbm.addJoinConstraints(b, " AND ");
+                    // add potential constraints from manually set subnodeRelation
+                    String subrel = home.getSubnodeRelation().trim();
+                    if (subrel.length() > 5) {
+                        b.append(" AND (");
+                        b.append(subrel.substring(5).trim());
+                        b.append(")");
+                    }
+                } else {
+                    rel.buildQuery(b, home, dbm, kstr, false, false, params);
+                }
+
+                query = b.toString();
+
+                stmt = createSelectStatement(dbm, con, query, params, 0);
+                rs = executeSelect(stmt, query, params);
+
+                if (!rs.next()) {
+                    return null;
+                }
+
+                node = createNode(dbm, rs, columns, 0);
+
+                fetchJoinedNodes(rs, joins, columns.length);
+
+                if (rs.next()) {
+                    app.logError("Warning: More than one value returned for query " + query);
+                }
+
+            } finally {
+                logSqlStatement("SELECT_BYRELATION", dbm.getTableName(), rel,
+                                logTimeStart, node == null ? 0 : 1, query, params);
+                releaseSelectStatement(dbm, con, stmt, rs, params);
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     *  Create a new Node from a ResultSet.
+     */
+    public Node createNode(DbMapping dbm, ResultSet rs, DbColumn[] columns, int offset)
+                throws SQLException, IOException, ClassNotFoundException {
+        HashMap propBuffer = new HashMap();
+        String id = null;
+        String name = null;
+        String protoName = dbm.getTypeName();
+        DbMapping dbmap = dbm;
+
+        Node node = new Node(safe);
+
+        for (int i = 0; i < columns.length; i++) {
+
+            int columnNumber = i + 1 + offset;
+
+            // set prototype?
+            if (columns[i].isPrototypeField()) {
+                String protoId = rs.getString(columnNumber);
+                protoName = dbm.getPrototypeName(protoId);
+
+                if (protoName != null) {
+                    dbmap = getDbMapping(protoName);
+
+                    if (dbmap == null) {
+                        // invalid prototype name!
+                        app.logError("No prototype defined for prototype mapping \""
+                                + protoName + "\" - Using default prototype \""
+                                + dbm.getTypeName() + "\".");
+                        dbmap = dbm;
+                        protoName = dbmap.getTypeName();
+                    }
+                }
+            }
+
+            // set id?
+            if (columns[i].isIdField()) {
+                id = rs.getString(columnNumber);
+                // if id == null, the object doesn't actually exist - return null
+                if (id == null) {
+                    return null;
+                }
+            }
+
+            // set name?
+            if (columns[i].isNameField()) {
+                name = rs.getString(columnNumber);
+            }
+
+            // set row version?
+            if (columns[i].isVersionField()) {
+                long version = rs.getLong(columnNumber);
+                node.rowVersion = rs.wasNull() ? -1 : version;
+            }
+
+            Property newprop = new Property(node);
+
+            switch (columns[i].getType()) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    newprop.setBooleanValue(rs.getBoolean(columnNumber));
+
+                    break;
+
+                case Types.TINYINT:
+                case Types.BIGINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    newprop.setIntegerValue(rs.getLong(columnNumber));
+
+                    break;
+
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    newprop.setFloatValue(rs.getDouble(columnNumber));
+
+                    break;
+
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+
+                    BigDecimal num = rs.getBigDecimal(columnNumber);
+                    if (num == null) {
+                        break;
+                    }
+                    if (num.scale() > 0) {
+                        newprop.setFloatValue(num.doubleValue());
+                    } else {
+                        newprop.setIntegerValue(num.longValue());
+                    }
+
+                    break;
+
+                case Types.VARBINARY:
+                case Types.BINARY:
+                    newprop.setJavaObjectValue(rs.getBytes(columnNumber));
+
+                    break;
+
+                case Types.BLOB:
+                case Types.LONGVARBINARY:
+                    {
+                        InputStream in = rs.getBinaryStream(columnNumber);
+                        if (in == null) {
+                            break;
+                        }
+                        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[2048];
+                        int read;
+                        while ((read = in.read(buffer)) > -1) {
+                            bout.write(buffer, 0, read);
+                        }
+                        newprop.setJavaObjectValue(bout.toByteArray());
+                    }
+
+                    break;
+
+                case Types.LONGVARCHAR:
+                    try {
+                        newprop.setStringValue(rs.getString(columnNumber));
+                    } catch (SQLException x) {
+                        Reader in = rs.getCharacterStream(columnNumber);
+                        if (in == null) {
+                            newprop.setStringValue(null);
+                            break;
+                        }
+                        StringBuffer out = new StringBuffer();
+                        char[] buffer = new char[2048];
+                        int read;
+                        while ((read = in.read(buffer)) > -1) {
+                            out.append(buffer, 0, read);
+                        }
+                        newprop.setStringValue(out.toString());
+                    }
+
+                    break;
+
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.OTHER:
+                    newprop.setStringValue(rs.getString(columnNumber));
+
+                    break;
+
+                case Types.DATE:
+                case Types.TIME:
+                case Types.TIMESTAMP:
+                    newprop.setDateValue(rs.getTimestamp(columnNumber));
+
+                    break;
+
+                case Types.NULL:
+                    newprop.setStringValue(null);
+
+                    break;
+
+                case Types.CLOB:
+                    Clob cl = rs.getClob(columnNumber);
+                    if (cl == null) {
+                        newprop.setStringValue(null);
+                        break;
+                    }
+                    char[] c = new char[(int) cl.length()];
+                    Reader isr = cl.getCharacterStream();
+                    isr.read(c);
+                    newprop.setStringValue(String.copyValueOf(c));
+                    break;
+
+                default:
+                    newprop.setStringValue(rs.getString(columnNumber));
+
+                    break;
+            }
+
+            if (rs.wasNull()) {
+                newprop.setStringValue(null);
+            }
+
+            propBuffer.put(columns[i].getName(), newprop);
+
+            // mark property as clean, since it's fresh from the db
+            newprop.dirty = false;
+        }
+
+        if (id == null) {
+            return null;
+        } else {
+            Transactor tx = Transactor.getInstance();
+            if (tx != null) {
+                // Check if the node is already registered with the transactor -
+                // it may be in the process of being DELETED, but do return the
+                // new node if the old one has been marked as INVALID.
+                DbKey key = new DbKey(dbmap, id);
+                Node dirtyNode = tx.getDirtyNode(key);
+                if (dirtyNode != null && dirtyNode.getState() != Node.INVALID) {
+                    return dirtyNode;
+                }
+            }
+        }
+
+        Transactor tx = Transactor.getInstance();
+        DbColumn[] columns2 = dbmap.getColumns();
+        PropertyMap propMap = new PropertyMap(dbmap.getPropertyLayout());
+        for (int i=0; i<columns2.length; i++) {
+            Relation rel = columns2[i].getRelation();
+            if (rel != null && rel.isPrimitiveOrReference()) {
+                Property prop = (Property) propBuffer.get(columns2[i].getName());
+
+                if (prop == null) {
+                    continue;
+                }
+
+                prop.setName(rel.propName);
+
+                // if the property is a pointer to another node, change the property type to NODE
+                if (rel.isReference() && rel.usesPrimaryKey()) {
+                    // FIXME: References to anything other than the primary key are not supported
+                    prop.convertToNodeReference(rel);
+
+                    // remember the reference for batched loading
+                    if (tx != null && rel.batchSize > 1 && prop.getValue() != null) {
+                        Key refKey = ((NodeHandle) prop.getValue()).getKey();
+                        if (refKey instanceof DbKey && !cache.containsKey(refKey)) {
+                            tx.addPendingReference((DbKey) refKey, rel.batchSize);
+                        }
+                    }
+                }
+                propMap.put(rel.propName, prop);
+            }
+        }
+
+        node.init(dbmap, id, name, protoName, propMap);
+        return node;
+    }
+
+    /**
+     *  Fetch nodes that are fetched additionally to another node via join.
+     */
+    private void fetchJoinedNodes(ResultSet rs, Relation[] joins, int offset)
+            throws ClassNotFoundException, SQLException, IOException {
+        int resultSetOffset = offset;
+        // create joined objects
+        for (int i = 0; i < joins.length; i++) {
+            DbMapping jdbm = joins[i].otherType;
+            Node node = createNode(jdbm, rs, jdbm.getColumns(), resultSetOffset);
+            if (node != null) {
+                registerNewNode(node, null);
+            }
+            resultSetOffset += jdbm.getColumns().length;
+        }
+    }
+
+
+    /**
+     * Get a DbMapping for a given prototype name. This is just a proxy
+     * method to the app's getDbMapping() method.
+     */
+    public DbMapping getDbMapping(String protoname) {
+        return app.getDbMapping(protoname);
+    }
+
+    /**
+     *  Get an array of the the keys currently held in the object cache
+     */
+    public Object[] getCacheEntries() {
+        return cache.getCachedObjects();
+    }
+
+    /**
+     * Get the number of elements in the object cache
+     */
+    public int countCacheEntries() {
+        return cache.size();
+    }
+
+    /**
+     * Clear the object cache, causing all objects to be recreated.
+     */
+    public void clearCache() {
+        cache.clear();
+        queryCache.clear();
+        OffHeapNodeCache offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+    }
+
+    /**
+     * Returns a map with statistics about the cache. In addition to the
+     * statistics provided by the cache implementation, this contains
+     * hit and miss counts, the time spent loading nodes on cache misses and
+     * a per-prototype breakdown of these values in the "prototypes" entry.
+     */
+    public Map getCacheStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>(cache.getStatistics());
+        cacheStats.addStatistics(stats);
+        stats.put("queryCache", queryCache.getStatistics());
+        ClusterInvalidator clusterInvalidator = cluster;
+        if (clusterInvalidator != null) {
+            stats.put("cluster", clusterInvalidator.getStatistics());
+        }
+        OffHeapNodeCache offHeap = offHeapCache;
+        if (offHeap != null) {
+            stats.put("offHeap", offHeap.getStatistics());
+        }
+        CacheWarmup cacheWarmup = warmup;
+        if (cacheWarmup != null) {
+            stats.put("warmup", cacheWarmup.getStatistics());
+        }
+        if (db instanceof LogDatabase) {
+            stats.put("embeddedDb", ((LogDatabase) db).getStatistics());
+        } else if (db instanceof XmlDatabase) {
+            stats.put("embeddedDb", ((XmlDatabase) db).getStatistics());
+        }
+        return stats;
+    }
+
+    /**
+     * Reset the hit, miss and load time counters of the node cache
+     * and the query cache.
+     */
+    public void resetCacheStatistics() {
+        cacheStats.reset();
+        queryCache.resetStatistics();
+    }
+
+    /**
+     * Record whether a collection of the given prototype had to be refetched
+     * or was still valid when it was accessed.
+     */
+    void countCollectionUpdate(String prototype, boolean refetched) {
+        cacheStats.collectionUpdate(prototype, refetched);
+    }
+
+    /**
+     * Add a listener that is notified each time a transaction commits
+     * that adds, modifies or deletes any Nodes.
+     */
+    public void addNodeChangeListener(NodeChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a previously added NodeChangeListener.
+     */
+    public void removeNodeChangeListener(NodeChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Let transactors know if they should collect and fire NodeChangeListener
+     * events
+     */
+    protected boolean hasNodeChangeListeners() {
+        return listeners.size() > 0;
+    }
+
+    /**
+     * Called by transactors after committing.
+     */
+    protected void fireNodeChangeEvent(List inserted, List updated, List deleted, List parents) {
+        int l = listeners.size();
+
+        for (int i=0; i<l; i++) {
+            try {
+                ((NodeChangeListener) listeners.get(i)).nodesChanged(inserted, updated, deleted, parents);
+            } catch (Error e) {
+                e.printStackTrace();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void setStatementValue(PreparedStatement stmt, int columnNumber, String value, DbColumn col)
+            throws SQLException {
+        if (value == null) {
+            stmt.setNull(columnNumber, col.getType());
+        } else if (col.needsQuotes()) {
+            stmt.setString(columnNumber, value);
+        } else {
+            stmt.setLong(columnNumber, Long.parseLong(value));
+        }
+    }
+
+    private void setStatementValue(PreparedStatement stmt, int stmtNumber, Property p, int columnType)
+            throws SQLException {
+        if (p.getValue() == null) {
+            stmt.setNull(stmtNumber, columnType);
+        } else {
+            switch (columnType) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    stmt.setBoolean(stmtNumber, p.getBooleanValue());
+
+                    break;
+
+                case Types.TINYINT:
+                case Types.BIGINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    stmt.setLong(stmtNumber, p.getIntegerValue());
+
+                    break;
+
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    stmt.setDouble(stmtNumber, p.getFloatValue());
+
+                    break;
+
+                case Types.LONGVARBINARY:
+                case Types.VARBINARY:
+                case Types.BINARY:
+                case Types.BLOB:
+                    Object b = p.getJavaObjectValue();
+                    if (b instanceof byte[]) {
+                        byte[] buf = (byte[]) b;
+                        try {
+                            stmt.setBytes(stmtNumber, buf);
+                        } catch (SQLException x) {
+                            ByteArrayInputStream bout = new ByteArrayInputStream(buf);
+                            stmt.setBinaryStream(stmtNumber, bout, buf.length);
+                        }
+                    } else {
+                        throw new SQLException("expected byte[] for binary column '" +
+                                p.getName() + "', found " + b.getClass());
+                    }
+
+                    break;
+
+                case Types.LONGVARCHAR:
+                    try {
+                        stmt.setString(stmtNumber, p.getStringValue());
+                    } catch (SQLException x) {
+                        String str = p.getStringValue();
+                        Reader r = new StringReader(str);
+                        stmt.setCharacterStream(stmtNumber, r, str.length());
+                    }
+
+                    break;
+
+                case Types.CLOB:
+                    String val = p.getStringValue();
+                    Reader isr = new StringReader (val);
+                    stmt.setCharacterStream (stmtNumber,isr, val.length());
+
+                    break;
+
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.OTHER:
+                    stmt.setString(stmtNumber, p.getStringValue());
+
+                    break;
+
+                case Types.DATE:
+                case Types.TIME:
+                case Types.TIMESTAMP:
+                    stmt.setTimestamp(stmtNumber, p.getTimestampValue());
+
+                    break;
+
+                case Types.NULL:
+                    stmt.setNull(stmtNumber, 0);
+
+                    break;
+
+                default:
+                    stmt.setString(stmtNumber, p.getStringValue());
+
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Return a new QueryParameters object if selects on the given DbMapping
+     * should be run as prepared statements, or null to render literal values.
+     */
+    private QueryParameters createQueryParameters(DbMapping dbm)
+            throws SQLException, ClassNotFoundException {
+        DbSource source = dbm.getDbSource();
+        return source != null && source.usePreparedStatements() ?
+                new QueryParameters() : null;
+    }
+
+    /**
+     * Create a statement for a select query. If params is not null, a cached
+     * prepared statement is returned with the parameter values bound to it.
+     */
+    private Statement createSelectStatement(DbMapping dbm, Connection con, String query,
+                                            QueryParameters params, int maxRows)
+            throws SQLException, ClassNotFoundException {
+        Statement stmt;
+        if (params != null) {
+            PreparedStatement pstmt = dbm.getDbSource().prepareStatement(con, query);
+            params.bind(pstmt);
+            stmt = pstmt;
+        } else {
+            stmt = con.createStatement();
+        }
+        // always set max rows and fetch size as prepared statements may be reused
+        stmt.setMaxRows(Math.max(0, maxRows));
+        stmt.setFetchSize(0);
+        return stmt;
+    }
+
+    /**
+     * Create a statement for a select query loading a collection or a batch of
+     * nodes, using the fetch size and streaming settings of the relation or
+     * of the db source if rel is null.
+     */
+    private Statement createBulkSelectStatement(DbMapping dbm, Connection con, String query,
+                                                QueryParameters params, int maxRows,
+                                                Relation rel)
+            throws SQLException, ClassNotFoundException {
+        Statement stmt = createSelectStatement(dbm, con, query, params, maxRows);
+        try {
+            dbm.getDbSource().configureFetch(con, stmt, rel);
+        } catch (SQLException x) {
+            releaseSelectStatement(dbm, con, stmt, null, params);
+            throw x;
+        }
+        return stmt;
+    }
+
+    /**
+     * Execute a statement created by createSelectStatement()
+     */
+    private ResultSet executeSelect(Statement stmt, String query, QueryParameters params)
+            throws SQLException {
+        if (params != null) {
+            return ((PreparedStatement) stmt).executeQuery();
+        }
+        return stmt.executeQuery(query);
+    }
+
+    /**
+     * Release a statement created by createSelectStatement(). Cached prepared
+     * statements are kept open for reuse, only their result set is closed.
+     */
+    private void releaseSelectStatement(DbMapping dbm, Connection con, Statement stmt,
+                                        ResultSet rs, QueryParameters params) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (Exception ignore) {
+                // ignore
+            }
+        }
+        if (stmt != null) {
+            try {
+                if (params != null) {
+                    dbm.getDbSource().releaseStatement(con, (PreparedStatement) stmt);
+                } else {
+                    stmt.close();
+                }
+            } catch (Exception ignore) {
+                // ignore
+            }
+            try {
+                // end the transaction a streaming select may have started
+                dbm.getDbSource().releaseFetch(con);
+            } catch (Exception x) {
+                app.logError("Error restoring auto-commit after streaming select", x);
+            }
+        }
+    }
+
+    /**
+     * Render a query along with its parameter values for the sql log
+     */
+    private String queryToString(String query, QueryParameters params) {
+        if (query == null || params == null || params.size() == 0) {
+            return query;
+        }
+        return query + " " + params;
+    }
+
+    /**
+     * Record an executed SQL statement in the statement statistics, writing
+     * it to the sql log if <code>logSQL</code> is enabled and to the slow
+     * query log if it took longer than the slow query threshold.
+     *
+     * @param type the statement type, e.g. SELECT_IDS
+     * @param table the table name
+     * @param rel the relation the statement was issued for, or null
+     * @param logTimeStart the start time as returned by System.nanoTime()
+     * @param rows the number of rows read or written
+     * @param query the SQL statement
+     * @param params the bind values of the statement, or null
+     */
+    void logSqlStatement(String type, String table, Relation rel, long logTimeStart,
+                         int rows, String query, QueryParameters params) {
+        long nanos = System.nanoTime() - logTimeStart;
+        String relation = rel == null || rel.ownType == null ? null :
+                rel.ownType.getTypeName() + "." + rel.propName;
+        boolean slow = sqlStats.record(type, table, relation, nanos, rows);
+
+        if (logSql) {
+            // init sql-log if necessary
+            if (sqlLog == null) {
+                String sqlLogName = app.getProperty("sqlLog", "helma."+app.getName()+".sql");
+                sqlLog = LogFactory.getLog(sqlLogName);
+            }
+
+            sqlLog.info(new StringBuffer().append("SQL ")
+                                          .append(type)
+                                          .append(" ")
+                                          .append(table)
+                                          .append(" ")
+                                          .append(nanos / 1000000L)
+                                          .append(": ")
+                                          .append(queryToString(query, params))
+                                          .toString());
+        }
+
+        if (slow) {
+            if (slowQueryLog == null) {
+                String slowLogName = app.getProperty("slowQueryLog",
+                        "helma." + app.getName() + ".sql.slow");
+                slowQueryLog = LogFactory.getLog(slowLogName);
+            }
+            RequestEvaluator reval = app.getCurrentRequestEvaluator();
+            RequestTrans req = reval == null ? null : reval.getRequest();
+            String path = req == null ? null : req.getPath();
+            String statement = queryToString(query, params);
+
+            sqlStats.addSlowQuery(type, table, relation, nanos, rows, path, statement);
+            slowQueryLog.warn(new StringBuffer().append("SQL ")
+                                                .append(type)
+                                                .append(" ")
+                                                .append(table)
+                                                .append(relation == null ? "" : " " + relation)
+                                                .append(" ")
+                                                .append(nanos / 1000000L)
+                                                .append(" ms, ")
+                                                .append(rows)
+                                                .append(" rows, path ")
+                                                .append(path)
+                                                .append(": ")
+                                                .append(statement)
+                                                .toString());
+        }
+    }
+
+    /**
+     * Get the latency histograms and row counts of the SQL statements issued
+     * by this node manager, keyed by statement type, table and relation,
+     * along with the most recent slow queries.
+     */
+    public Map getSqlStatistics() {
+        return sqlStats.getStatistics();
+    }
+
+    /**
+     * Get the SQL statement statistics in the Prometheus text exposition format.
+     */
+    public String getSqlMetrics() {
+        return sqlStats.toPrometheus(app.getName());
+    }
+
+    /**
+     * Reset the SQL statement statistics.
+     */
+    public void resetSqlStatistics() {
+        sqlStats.reset();
+    }
+}
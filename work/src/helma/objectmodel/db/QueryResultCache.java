@@ -0,0 +1,277 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An application wide cache for the results of collection count and id
+ * queries, shared by all parent nodes and requests. Results are keyed by the
+ * generated SQL and its bind values, and are stored along with the data change
+ * number of the collection's relation at the time of the query. An entry is
+ * only used as long as that number hasn't changed, so results are invalidated
+ * by the same change tracking that decides when subnode lists are refetched.
+ *
+ * The cache is configured with the following app.properties settings:
+ * <ul>
+ * <li><code>queryCache.size</code> - the maximum number of cached results.
+ *     The cache is disabled unless this is set to a positive number.</li>
+ * <li><code>queryCache.ttl</code> - seconds after which a result expires even
+ *     if no change was tracked, e.g. because the table is also written by
+ *     other applications. 0 disables caching (default 60)</li>
+ * <li><code>queryCache.maxIds</code> - the maximum number of ids of a cached
+ *     collection, larger collections aren't cached (default 1000)</li>
+ * </ul>
+ *
+ * The time to live can be set per collection with the <code>cachettl</code>
+ * option in type.properties, where 0 disables caching for the collection.
+ */
+final class QueryResultCache {
+
+    private int maxSize = 0;
+    private int maxIds = 1000;
+    private long defaultTtl = 60000L;
+
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Read the cache settings from the application properties.
+     *
+     * @param props the application properties
+     */
+    void updateProperties(Properties props) {
+        int size = getInt(props, "queryCache.size", 0);
+        maxIds = getInt(props, "queryCache.maxIds", 1000);
+        defaultTtl = getInt(props, "queryCache.ttl", 60) * 1000L;
+        synchronized (entries) {
+            if (size < maxSize) {
+                entries.clear();
+            }
+            maxSize = size;
+        }
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException x) {
+                // use default value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get the time to live for results of the given collection relation.
+     *
+     * @param rel the collection relation
+     * @return the time to live in milliseconds, or 0 if results of the
+     *         relation are not cached
+     */
+    long getTtl(Relation rel) {
+        if (maxSize <= 0) {
+            return 0;
+        }
+        return rel.cacheTtl >= 0 ? rel.cacheTtl * 1000L : defaultTtl;
+    }
+
+    /**
+     * Check whether an id list of the given size can be cached.
+     *
+     * @param size the number of ids
+     * @return true if the ids can be cached
+     */
+    boolean acceptsIds(int size) {
+        return size <= maxIds;
+    }
+
+    /**
+     * Create the cache key for a query.
+     *
+     * @param type the type mapping the query is run against
+     * @param query the SQL query
+     * @param params the bind values of the query, or null
+     * @return the cache key
+     */
+    static Object createKey(DbMapping type, String query, QueryParameters params) {
+        return new QueryKey(type.getDbSourceName(), query,
+                params == null ? null : params.toArray());
+    }
+
+    /**
+     * Get a cached result if it is still valid.
+     *
+     * @param key the cache key
+     * @param dataChange the current data change number of the collection
+     * @return the cached result, or null
+     */
+    Object get(Object key, long dataChange) {
+        Entry entry;
+        synchronized (entries) {
+            entry = (Entry) entries.get(key);
+            if (entry != null && (entry.dataChange != dataChange ||
+                    entry.expires < System.currentTimeMillis())) {
+                entries.remove(key);
+                invalidations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.result;
+    }
+
+    /**
+     * Store a query result.
+     *
+     * @param key the cache key
+     * @param dataChange the data change number of the collection before the query was run
+     * @param ttl the time to live in milliseconds
+     * @param result the query result, which must not be modified afterwards
+     */
+    void put(Object key, long dataChange, long ttl, Object result) {
+        Entry entry = new Entry(result, dataChange, System.currentTimeMillis() + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Store an id list as an array of id strings.
+     *
+     * @see #put(Object, long, long, Object)
+     */
+    void putIds(Object key, long dataChange, long ttl, List ids) {
+        put(key, dataChange, ttl, ids.toArray(new String[ids.size()]));
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the statistics of this cache.
+     *
+     * @return a map containing the cache size and hit, miss, invalidation and eviction counts
+     */
+    Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        long h = hits.get();
+        long m = misses.get();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", NodeCacheStatistics.ratio(h, m));
+        stats.put("invalidations", invalidations.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Reset the statistics of this cache.
+     */
+    void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        invalidations.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * A cached result along with the data change number it is valid for.
+     */
+    static class Entry {
+        final Object result;
+        final long dataChange;
+        final long expires;
+
+        Entry(Object result, long dataChange, long expires) {
+            this.result = result;
+            this.dataChange = dataChange;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The key of a cached result, composed of the db source name, the SQL
+     * query and its bind values.
+     */
+    static class QueryKey {
+        final String source;
+        final String query;
+        final Object[] values;
+        final int hashcode;
+
+        QueryKey(String source, String query, Object[] values) {
+            this.source = source;
+            this.query = query;
+            this.values = values;
+            int h = query.hashCode();
+            if (source != null) {
+                h = h * 31 + source.hashCode();
+            }
+            hashcode = h * 31 + Arrays.hashCode(values);
+        }
+
+        public int hashCode() {
+            return hashcode;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) obj;
+            return hashcode == other.hashcode && query.equals(other.query) &&
+                    (source == null ? other.source == null : source.equals(other.source)) &&
+                    Arrays.equals(values, other.values);
+        }
+    }
+}
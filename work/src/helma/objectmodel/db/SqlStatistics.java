@@ -0,0 +1,297 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects latency histograms and row counts of the SQL statements issued
+ * by the node manager, keyed by statement type, table and relation. Latencies
+ * are recorded in a {@link LatencyHistogram}, at a fixed cost of one array
+ * increment per statement.
+ *
+ * Statements taking longer than the <code>slowQueryThreshold</code> app
+ * property (milliseconds, default 1000, 0 to disable) are written to the
+ * slow query log along with the path of the request that issued them, and
+ * the most recent ones are kept for the statistics.
+ */
+final class SqlStatistics {
+
+    // the maximum number of distinct statement shapes tracked
+    private static final int MAX_SHAPES = 2000;
+    // name used for shapes beyond the maximum
+    static final String OTHER = "[other]";
+    // the number of slow queries kept for the statistics
+    private static final int SLOW_QUERY_HISTORY = 50;
+
+    private final ConcurrentHashMap shapes = new ConcurrentHashMap();
+    private final LinkedList slowQueries = new LinkedList();
+    private volatile long slowThresholdNanos = 1000L * 1000000L;
+    private volatile long since = System.currentTimeMillis();
+
+    /**
+     * Read the slow query threshold from the application properties.
+     */
+    void updateProperties(Properties props) {
+        String value = props.getProperty("slowQueryThreshold");
+        long millis = 1000;
+        if (value != null) {
+            try {
+                millis = Long.parseLong(value.trim());
+            } catch (NumberFormatException x) {
+                // use default value
+            }
+        }
+        slowThresholdNanos = millis * 1000000L;
+    }
+
+    /**
+     * Record an executed statement.
+     *
+     * @param type the statement type, e.g. SELECT_IDS
+     * @param table the table name
+     * @param relation the name of the relation the statement was issued for, or null
+     * @param nanos the time the statement took in nanoseconds
+     * @param rows the number of rows read or written
+     * @return true if the statement exceeded the slow query threshold
+     */
+    boolean record(String type, String table, String relation, long nanos, int rows) {
+        Shape shape = getShape(type, table, relation);
+        shape.record(nanos, rows);
+        long threshold = slowThresholdNanos;
+        return threshold > 0 && nanos >= threshold;
+    }
+
+    /**
+     * Remember a slow statement for the statistics.
+     */
+    void addSlowQuery(String type, String table, String relation, long nanos,
+                      int rows, String path, String statement) {
+        Map<String,Object> entry = new HashMap<String,Object>();
+        entry.put("time", new Date());
+        entry.put("type", type);
+        entry.put("table", table);
+        entry.put("relation", relation);
+        entry.put("millis", nanos / 1000000L);
+        entry.put("rows", rows);
+        entry.put("path", path);
+        entry.put("statement", statement);
+        synchronized (slowQueries) {
+            slowQueries.addFirst(entry);
+            if (slowQueries.size() > SLOW_QUERY_HISTORY) {
+                slowQueries.removeLast();
+            }
+        }
+    }
+
+    private Shape getShape(String type, String table, String relation) {
+        String key = type + '|' + table + '|' + relation;
+        Shape shape = (Shape) shapes.get(key);
+        if (shape == null) {
+            if (shapes.size() >= MAX_SHAPES) {
+                type = table = relation = OTHER;
+                key = OTHER;
+                shape = (Shape) shapes.get(key);
+                if (shape != null) {
+                    return shape;
+                }
+            }
+            shape = new Shape(type, table, relation);
+            Shape existing = (Shape) shapes.putIfAbsent(key, shape);
+            if (existing != null) {
+                shape = existing;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Reset all histograms and the slow query history.
+     */
+    void reset() {
+        shapes.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the statistics of all statement shapes, ordered by the total time
+     * spent executing them, along with the recent slow queries.
+     *
+     * @return a map with "statements" and "slowQueries" lists
+     */
+    Map<String,Object> getStatistics() {
+        List list = getShapes();
+        List statements = new ArrayList(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            statements.add(((Shape) list.get(i)).toMap());
+        }
+        Map<String,Object> stats = new HashMap<String,Object>();
+        stats.put("since", new Date(since));
+        stats.put("slowQueryThreshold", slowThresholdNanos / 1000000L);
+        stats.put("statements", statements);
+        synchronized (slowQueries) {
+            stats.put("slowQueries", new ArrayList(slowQueries));
+        }
+        return stats;
+    }
+
+    /**
+     * Render the statistics in the Prometheus text exposition format as a
+     * summary of statement latencies with count and row totals.
+     *
+     * @param app the application name added as label to all samples
+     * @return the metrics
+     */
+    String toPrometheus(String app) {
+        List list = getShapes();
+        StringBuffer b = new StringBuffer();
+        b.append("# HELP helma_sql_statement_seconds Latency of SQL statements\n");
+        b.append("# TYPE helma_sql_statement_seconds summary\n");
+        for (int i = 0; i < list.size(); i++) {
+            Shape shape = (Shape) list.get(i);
+            long[] counts = shape.latency.snapshot();
+            String labels = shape.labels(app);
+            double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+            for (int q = 0; q < quantiles.length; q++) {
+                b.append("helma_sql_statement_seconds{").append(labels)
+                 .append(",quantile=\"").append(quantiles[q]).append("\"} ")
+                 .append(LatencyHistogram.percentile(counts, quantiles[q]) / 1e6).append('\n');
+            }
+            b.append("helma_sql_statement_seconds_sum{").append(labels).append("} ")
+             .append(shape.latency.getTotalNanos() / 1e9).append('\n');
+            b.append("helma_sql_statement_seconds_count{").append(labels).append("} ")
+             .append(shape.latency.getCount()).append('\n');
+        }
+        b.append("# HELP helma_sql_rows_total Rows read or written by SQL statements\n");
+        b.append("# TYPE helma_sql_rows_total counter\n");
+        for (int i = 0; i < list.size(); i++) {
+            Shape shape = (Shape) list.get(i);
+            b.append("helma_sql_rows_total{").append(shape.labels(app)).append("} ")
+             .append(shape.rows.get()).append('\n');
+        }
+        return b.toString();
+    }
+
+    private List getShapes() {
+        List list = new ArrayList(shapes.values());
+        Collections.sort(list, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long t1 = ((Shape) o1).latency.getTotalNanos();
+                long t2 = ((Shape) o2).latency.getTotalNanos();
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * The counters and latency histogram of one statement shape.
+     */
+    static final class Shape {
+        final String type;
+        final String table;
+        final String relation;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+
+        Shape(String type, String table, String relation) {
+            this.type = type;
+            this.table = table;
+            this.relation = relation;
+        }
+
+        void record(long nanos, int rowCount) {
+            if (rowCount > 0) {
+                rows.addAndGet(rowCount);
+            }
+            latency.record(nanos);
+        }
+
+        String labels(String app) {
+            StringBuffer b = new StringBuffer();
+            b.append("app=\"").append(escape(app)).append("\",type=\"").append(escape(type))
+             .append("\",table=\"").append(escape(table)).append('"');
+            if (relation != null) {
+                b.append(",relation=\"").append(escape(relation)).append('"');
+            }
+            return b.toString();
+        }
+
+        Map<String,Object> toMap() {
+            long n = latency.getCount();
+            Map<String,Object> map = new HashMap<String,Object>();
+            map.put("type", type);
+            map.put("table", table);
+            map.put("relation", relation);
+            map.put("rows", rows.get());
+            map.put("averageRows", n == 0 ? 0.0 : (double) rows.get() / n);
+            latency.addStatistics(map);
+            return map;
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuffer b = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n') {
+                if (b == null) {
+                    b = new StringBuffer(value.substring(0, i));
+                }
+                b.append('\\').append(c == '\n' ? 'n' : c);
+            } else if (b != null) {
+                b.append(c);
+            }
+        }
+        return b == null ? value : b.toString();
+    }
+
+    // for testing: measures the recording overhead
+    public static void main(String[] args) {
+        SqlStatistics stats = new SqlStatistics();
+        String[] types = {"SELECT_BYKEY", "SELECT_IDS", "UPDATE"};
+        int n = 10000000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                stats.record(types[i % 3], "STORY", null, (i % 5000) * 1000L, 1);
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println("Round " + round + ": " + (nanos / n) + " ns per statement");
+        }
+        System.out.println(stats.toPrometheus("test"));
+    }
+}
@@ -0,0 +1,951 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.db;
+
+import helma.objectmodel.DatabaseException;
+import helma.objectmodel.ITransaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * A subclass of thread that keeps track of changed nodes and triggers
+ * changes in the database when a transaction is commited.
+ */
+public class Transactor {
+
+    // The associated node manager
+    NodeManager nmgr;
+
+    // List of nodes to be updated
+    private Map dirtyNodes;
+
+    // List of visited clean nodes
+    private Map cleanNodes;
+
+    // List of nodes whose child index has been modified
+    private Set parentNodes;
+
+    // Ids of referenced nodes that haven't been loaded yet, grouped by
+    // storage name, used to load references in batches
+    private Map pendingReferences;
+
+    // Maximum number of pending reference ids remembered per table
+    private static final int MAX_PENDING_REFERENCES = 1000;
+
+    // The data changes applied by the commit in progress, while node change
+    // listeners are notified
+    private DataChanges committedDataChanges;
+
+    // Is a transaction in progress?
+    private volatile boolean active;
+    private volatile boolean killed;
+
+    // Transaction for the embedded database
+    protected ITransaction txn;
+
+    // Connections borrowed from the SQL data sources' connection pools
+    private Map<DbSource, Connection> sqlConnections;
+
+    // Connections written by the commit in progress, whose writes are
+    // committed or rolled back together. Null if no commit is writing.
+    private List<Connection> writeConnections;
+
+    // Read connections borrowed from the SQL data sources' replicas
+    private Map<DbSource, Connection> replicaConnections;
+
+    // SQL data sources written by this transactor, which must not be read
+    // from replicas for the rest of the request
+    private Set<DbSource> writtenSources;
+
+    // when did the current transaction start?
+    private long tstart;
+
+    // a name to log the transaction. For HTTP transactions this is the rerquest path
+    private String tname;
+
+    // the thread we're associated with
+    private Thread thread;
+
+    private static final ThreadLocal txtor = new ThreadLocal();
+
+    /**
+     * Creates a new Transactor object.
+     *
+     * @param nmgr the NodeManager used to fetch and persist nodes.
+     */
+    private Transactor(NodeManager nmgr) {
+        this.thread = Thread.currentThread();
+        this.nmgr = nmgr;
+
+        dirtyNodes = new LinkedHashMap();
+        cleanNodes = new HashMap();
+        parentNodes = new HashSet();
+        pendingReferences = new HashMap();
+
+        sqlConnections = new HashMap<DbSource, Connection>();
+        replicaConnections = new HashMap<DbSource, Connection>();
+        writtenSources = new HashSet<DbSource>();
+        active = false;
+        killed = false;
+    }
+
+    /**
+     * Get the transactor for the current thread or null if none exists.
+     * @return the transactor associated with the current thread
+     */
+    public static Transactor getInstance() {
+        return (Transactor) txtor.get();
+    }
+
+    /**
+     * Get the transactor for the current thread or throw a IllegalStateException if none exists.
+     * @return the transactor associated with the current thread
+     * @throws IllegalStateException if no transactor is associated with the current thread
+     */
+    public static Transactor getInstanceOrFail() throws IllegalStateException {
+        Transactor tx = (Transactor) txtor.get();
+        if (tx == null)
+            throw new IllegalStateException("Operation requires a Transactor, " +
+                "but current thread does not have one.");
+        return tx;
+    }
+
+    /**
+     * Get the transactor for the current thread, creating a new one if none exists.
+     * @param nmgr the NodeManager used to create the transactor
+     * @return the transactor associated with the current thread
+     */
+    public static Transactor getInstance(NodeManager nmgr) {
+        Transactor t = (Transactor) txtor.get();
+        if (t == null) {
+            t = new Transactor(nmgr);
+            txtor.set(t);
+        }
+        return t;
+    }
+
+    /**
+     * Mark a Node as modified/created/deleted during this transaction
+     *
+     * @param node ...
+     */
+    public void visitDirtyNode(Node node) {
+        if (node != null) {
+            Key key = node.getKey();
+
+            dirtyNodes.put(key, node);
+        }
+    }
+
+    /**
+     * Unmark a Node that has previously been marked as modified during the transaction
+     *
+     * @param node ...
+     */
+    public void dropDirtyNode(Node node) {
+        if (node != null) {
+            Key key = node.getKey();
+
+            dirtyNodes.remove(key);
+        }
+    }
+
+    /**
+     * Get a dirty Node from this transaction.
+     * @param key the key
+     * @return the dirty node associated with the key, or null
+     */
+    public Node getDirtyNode(Key key) {
+        return (Node) dirtyNodes.get(key);
+    }
+
+    /**
+     * Keep a reference to an unmodified Node local to this transaction
+     *
+     * @param node the node to register
+     */
+    public void visitCleanNode(Node node) {
+        if (node != null) {
+            Key key = node.getKey();
+
+            if (!cleanNodes.containsKey(key)) {
+                cleanNodes.put(key, node);
+            }
+        }
+    }
+
+    /**
+     * Keep a reference to an unmodified Node local to this transaction
+     *
+     * @param key the key to register with
+     * @param node the node to register
+     */
+    public void visitCleanNode(Key key, Node node) {
+        if (node != null) {
+            if (!cleanNodes.containsKey(key)) {
+                cleanNodes.put(key, node);
+            }
+        }
+    }
+
+    /**
+     * Drop a reference to an unmodified Node previously registered with visitCleanNode().
+     * @param key the key
+     */
+    public void dropCleanNode(Key key) {
+        cleanNodes.remove(key);
+    }
+
+    /**
+     * Get a reference to an unmodified Node local to this transaction
+     *
+     * @param key ...
+     *
+     * @return ...
+     */
+    public Node getCleanNode(Object key) {
+        return (key == null) ? null : (Node) cleanNodes.get(key);
+    }
+
+    /**
+     *
+     *
+     * @param node ...
+     */
+    public void visitParentNode(Node node) {
+        parentNodes.add(node);
+    }
+
+
+    /**
+     * Returns true if a transaction is currently active.
+     * @return true if currently a transaction is active
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Check whether the thread associated with this transactor is alive.
+     * This is a proxy to Thread.isAlive().
+     * @return true if the thread running this transactor is currently alive.
+     */
+    public boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Register a db connection with this transactor thread. The connection
+     * is returned to the db source's pool when the transaction ends.
+     * @param src the db source
+     * @param con the connection
+     */
+    public void registerConnection(DbSource src, Connection con) {
+        Connection old = sqlConnections.put(src, con);
+        if (old != null && old != con) {
+            src.discardConnection(old);
+        }
+    }
+
+    /**
+     * Get a db connection that was previously registered with this transactor thread.
+     * Connections are validated by the db source's connection pool before they
+     * are handed out, so no further checks are done here.
+     * @param src the db source
+     * @return the connection
+     */
+    public Connection getConnection(DbSource src) {
+        return sqlConnections.get(src);
+    }
+
+    /**
+     * Register a db connection borrowed from a replica of a db source with this
+     * transactor thread. The connection is returned to the replica's pool when
+     * the transaction ends.
+     * @param src the db source
+     * @param con the replica connection
+     */
+    public void registerReplicaConnection(DbSource src, Connection con) {
+        Connection old = replicaConnections.put(src, con);
+        if (old != null && old != con) {
+            src.discardReplicaConnection(old);
+        }
+    }
+
+    /**
+     * Get a replica connection that was previously registered with this transactor thread.
+     * @param src the db source
+     * @return the replica connection
+     */
+    public Connection getReplicaConnection(DbSource src) {
+        return replicaConnections.get(src);
+    }
+
+    /**
+     * Check whether reads from the given db source must go to the primary
+     * database because this transactor has modified objects that haven't been
+     * committed yet, or has written to the db source earlier in the request.
+     * @param src the db source
+     * @return true if replicas must not be used
+     */
+    public boolean readsFromPrimary(DbSource src) {
+        return !dirtyNodes.isEmpty() || writtenSources.contains(src);
+    }
+
+    /**
+     * Start a new transaction with the given name.
+     *
+     * @param name The name of the transaction. This is usually the request
+     * path for the underlying HTTP request.
+     *
+     * @throws Exception ...
+     */
+    public synchronized void begin(String name) throws Exception {
+        begin(name, false);
+    }
+
+    /**
+     * Start a new transaction with the given name.
+     *
+     * @param name The name of the transaction. This is usually the request
+     * path for the underlying HTTP request.
+     * @param continued true if the transaction continues the request of the
+     * previous transaction, so db sources written by the previous transaction
+     * keep being read from the primary database rather than from replicas
+     *
+     * @throws Exception ...
+     */
+    public synchronized void begin(String name, boolean continued) throws Exception {
+        if (killed) {
+            throw new DatabaseException("Transaction started on killed thread");
+        } else if (active) {
+            abort();
+        }
+
+        dirtyNodes.clear();
+        cleanNodes.clear();
+        parentNodes.clear();
+        if (!continued) {
+            writtenSources.clear();
+        }
+        txn = nmgr.db.beginTransaction();
+        active = true;
+        tstart = System.currentTimeMillis();
+        tname = name;
+    }
+
+    /**
+     * Commit the current transaction, persisting all changes to DB.
+     *
+     * @throws Exception ...
+     */
+    public synchronized void commit() throws Exception {
+        if (killed) {
+            throw new DatabaseException("commit() called on killed transactor thread");
+        } else if (!active) {
+            return;
+        }
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+
+        ArrayList insertedNodes = null;
+        ArrayList updatedNodes = null;
+        ArrayList deletedNodes = null;
+        ArrayList modifiedParentNodes = null;
+        // if nodemanager has listeners collect dirty nodes
+        boolean hasListeners = nmgr.hasNodeChangeListeners();
+
+        if (hasListeners) {
+            insertedNodes = new ArrayList();
+            updatedNodes = new ArrayList();
+            deletedNodes = new ArrayList();
+            modifiedParentNodes = new ArrayList();
+        }
+
+        if (!dirtyNodes.isEmpty()) {
+            // run callbacks before anything is written, so they never see
+            // a partly written commit or writes still pending in a batch
+            Object[] dirty = invokeOnPersist();
+
+            // collects DbMappings and keyed column values to be marked as changed
+            DataChanges dataChanges = new DataChanges();
+            Log eventLog = nmgr.app.getEventLog();
+            // collects relational writes into JDBC batches
+            StatementBatch batch = nmgr.createStatementBatch();
+            boolean written = false;
+            writeConnections = new ArrayList<Connection>();
+
+            try {
+                for (int i = 0; i < dirty.length; i++) {
+                    Node node = (Node) dirty[i];
+
+                    // update nodes in db
+                    int nstate = node.getState();
+
+                    if (nstate == Node.NEW || nstate == Node.MODIFIED || nstate == Node.DELETED) {
+                        markWritten(node.getDbMapping());
+                    }
+
+                    if (nstate == Node.NEW) {
+                        nmgr.insertNode(nmgr.db, txn, node, batch);
+                        dataChanges.prepare(node, false);
+                        dataChanges.add(node);
+                    } else if (nstate == Node.MODIFIED) {
+                        // collect keyed values before updateNode clears the dirty flags
+                        dataChanges.prepare(node, true);
+                        // only mark DbMapping as dirty if updateNode returns true
+                        if (nmgr.updateNode(nmgr.db, txn, node, batch)) {
+                            dataChanges.add(node);
+                        }
+                    } else if (nstate == Node.DELETED) {
+                        nmgr.deleteNode(nmgr.db, txn, node, batch);
+                        dataChanges.prepare(node, false);
+                        dataChanges.add(node);
+                    }
+                }
+
+                // send remaining batched writes to the database
+                if (batch != null) {
+                    batch.flush();
+                }
+                commitConnections();
+                written = true;
+            } finally {
+                if (batch != null) {
+                    batch.close();
+                }
+                if (!written) {
+                    // e.g. a ConcurrencyException from a versioned update: nothing
+                    // must be stored, so the request can be retried with fresh data
+                    rollbackConnections();
+                }
+                writeConnections = null;
+            }
+
+            // all writes have been executed, update node states and the cache
+            for (int i = 0; i < dirty.length; i++) {
+                Node node = (Node) dirty[i];
+                int nstate = node.getState();
+
+                if (nstate == Node.NEW) {
+                    node.setState(Node.CLEAN);
+
+                    // register node with nodemanager cache
+                    nmgr.registerNode(node);
+
+                    if (hasListeners) {
+                        insertedNodes.add(node);
+                    }
+
+                    inserted++;
+                    if (eventLog.isDebugEnabled()) {
+                        eventLog.debug("inserted node: " + node.getPrototype() + "/" +
+                                node.getID());
+                    }
+                } else if (nstate == Node.MODIFIED) {
+                    node.setState(Node.CLEAN);
+
+                    // update node with nodemanager cache
+                    nmgr.registerNode(node);
+
+                    if (hasListeners) {
+                        updatedNodes.add(node);
+                    }
+
+                    updated++;
+                    if (eventLog.isDebugEnabled()) {
+                        eventLog.debug("updated node: " + node.getPrototype() + "/" +
+                                node.getID());
+                    }
+                } else if (nstate == Node.DELETED) {
+                    // remove node from nodemanager cache
+                    nmgr.evictNode(node);
+
+                    if (hasListeners) {
+                        deletedNodes.add(node);
+                    }
+
+                    deleted++;
+                    if (eventLog.isDebugEnabled()) {
+                        eventLog.debug("removed node: " + node.getPrototype() + "/" +
+                                node.getID());
+                    }
+                }
+
+                node.clearWriteLock();
+            }
+
+            // set last data change times in db-mappings
+            dataChanges.apply();
+            committedDataChanges = dataChanges;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (!parentNodes.isEmpty()) {
+            // set last subnode change times in parent nodes
+            for (Iterator i = parentNodes.iterator(); i.hasNext(); ) {
+                Node node = (Node) i.next();
+                node.markSubnodesChanged();
+                if (hasListeners) {
+                    modifiedParentNodes.add(node);
+                }
+            }
+        }
+
+        if (hasListeners) {
+            nmgr.fireNodeChangeEvent(insertedNodes, updatedNodes,
+                                     deletedNodes, modifiedParentNodes);
+        }
+        committedDataChanges = null;
+
+        // clear the node collections
+        recycle();
+        // return JDBC connections to the pools
+        releaseConnections(false);
+
+        if (active) {
+            active = false;
+            nmgr.db.commitTransaction(txn);
+            txn = null;
+        }
+
+        StringBuffer msg = new StringBuffer(tname).append(" done in ")
+                .append(now - tstart).append(" millis");
+        if(inserted + updated + deleted > 0) {
+            msg.append(" [+")
+                    .append(inserted).append(", ~")
+                    .append(updated).append(", -")
+                    .append(deleted).append("]");
+        }
+        nmgr.app.logAccess(msg.toString());
+
+        // unset transaction name
+        tname = null;
+    }
+
+    /**
+     * Enlist a connection in the database transaction of the commit in
+     * progress, turning off its auto-commit mode. Does nothing if no commit
+     * is writing.
+     *
+     * @param con a connection about to be written
+     * @throws SQLException if auto-commit couldn't be turned off
+     */
+    void enlistConnection(Connection con) throws SQLException {
+        if (writeConnections != null && !writeConnections.contains(con)) {
+            if (con.getAutoCommit()) {
+                con.setAutoCommit(false);
+            }
+            writeConnections.add(con);
+        }
+    }
+
+    /**
+     * Commit the database transactions of the connections written by the
+     * commit in progress. Connections are committed one after the other, so
+     * a failure to commit one db source doesn't undo the others.
+     */
+    private void commitConnections() throws SQLException {
+        for (int i = 0; i < writeConnections.size(); i++) {
+            Connection con = writeConnections.get(i);
+            con.commit();
+            con.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Roll back the database transactions of the connections written by
+     * the commit in progress.
+     */
+    private void rollbackConnections() {
+        for (int i = 0; i < writeConnections.size(); i++) {
+            Connection con = writeConnections.get(i);
+            try {
+                // skip connections that were committed before a later one failed
+                if (!con.getAutoCommit()) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (Exception x) {
+                nmgr.app.logError("Error rolling back transaction " + tname, x);
+            }
+        }
+    }
+
+    /**
+     * Invoke the onPersist() callbacks of new and modified nodes. Nodes that
+     * become dirty in a callback are written with this commit, and get their
+     * own callback invoked.
+     *
+     * @return the dirty nodes to be written
+     */
+    private Object[] invokeOnPersist() {
+        IdentityHashMap invoked = new IdentityHashMap();
+        Object[] dirty;
+        boolean invokedAny;
+
+        do {
+            dirty = dirtyNodes.values().toArray();
+            invokedAny = false;
+            for (int i = 0; i < dirty.length; i++) {
+                Node node = (Node) dirty[i];
+                int nstate = node.getState();
+                if ((nstate == Node.NEW || nstate == Node.MODIFIED) &&
+                        invoked.put(node, node) == null) {
+                    nmgr.invokeOnPersist(node);
+                    invokedAny = true;
+                }
+            }
+        } while (invokedAny);
+
+        return dirty;
+    }
+
+    /**
+     * Abort the current transaction, rolling back all changes made.
+     */
+    public synchronized void abort() {
+        Object[] dirty = dirtyNodes.values().toArray();
+
+        // evict dirty nodes from cache
+        for (int i = 0; i < dirty.length; i++) {
+            Node node = (Node) dirty[i];
+
+            // Declare node as invalid, so it won't be used by other threads
+            // that want to write on it and remove it from cache
+            nmgr.evictNode(node);
+            node.clearWriteLock();
+        }
+
+        long now = System.currentTimeMillis();
+
+        // set last subnode change times in parent nodes
+        for (Iterator i = parentNodes.iterator(); i.hasNext(); ) {
+            Node node = (Node) i.next();
+            node.markSubnodesChanged();
+        }
+
+        // clear the node collections
+        recycle();
+        if (Thread.currentThread() == thread) {
+            // return JDBC connections to the pools, making sure they're
+            // validated before they're used again
+            releaseConnections(true);
+        } else {
+            // we're aborted from another thread that may still be using
+            // the connections, so close them
+            closeConnections();
+        }
+
+        if (active) {
+            active = false;
+
+            if (txn != null) {
+                nmgr.db.abortTransaction(txn);
+                txn = null;
+            }
+
+            nmgr.app.logAccess(tname + " aborted after " +
+                               (System.currentTimeMillis() - tstart) + " millis");
+        }
+
+        // unset transaction name
+        tname = null;
+    }
+
+    /**
+     * Kill this transaction thread. Used as last measure only.
+     */
+    public synchronized void kill() {
+
+        killed = true;
+        thread.interrupt();
+
+        // Interrupt the thread if it has not noticed the flag (e.g. because it is busy
+        // reading from a network socket).
+        if (thread.isAlive()) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException ir) {
+                // interrupted by other thread
+            }
+        }
+
+        if (thread.isAlive() && "true".equals(nmgr.app.getProperty("requestTimeoutStop"))) {
+            // still running - check if we ought to stop() it
+            try {
+                Thread.sleep(2000);
+                if (thread.isAlive()) {
+                    // thread is still running, pull emergency break
+                    nmgr.app.logEvent("Stopping Thread for Transactor " + this);
+                    thread.stop();
+                }
+            } catch (InterruptedException ir) {
+                // interrupted by other thread
+            }
+        }
+    }
+
+    /**
+     * Get the data changes applied by the commit in progress. This is only
+     * available to node change listeners called by the commit.
+     *
+     * @return the data changes, or null
+     */
+    DataChanges getCommittedDataChanges() {
+        return committedDataChanges;
+    }
+
+    /**
+     * Remember that the db source of the given mapping has been written,
+     * so it isn't read from replicas for the rest of the request.
+     */
+    private void markWritten(DbMapping dbm) {
+        if (dbm != null && dbm.isRelational()) {
+            DbSource src = dbm.getDbSource();
+            if (src != null) {
+                writtenSources.add(src);
+            }
+        }
+    }
+
+    /**
+     * Returns all JDBC connections held by this transactor to their pools.
+     * @param revalidate true if the connections should be validated before
+     *                   they are used again
+     */
+    private synchronized void releaseConnections(boolean revalidate) {
+        if (sqlConnections != null && !sqlConnections.isEmpty()) {
+            for (Iterator i = sqlConnections.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                DbSource src = (DbSource) entry.getKey();
+                src.releaseConnection((Connection) entry.getValue(), revalidate);
+            }
+
+            sqlConnections.clear();
+        }
+        if (replicaConnections != null && !replicaConnections.isEmpty()) {
+            for (Iterator i = replicaConnections.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                DbSource src = (DbSource) entry.getKey();
+                src.releaseReplicaConnection((Connection) entry.getValue(), revalidate);
+            }
+
+            replicaConnections.clear();
+        }
+    }
+
+    /**
+     * Closes all open JDBC connections
+     */
+    public synchronized void closeConnections() {
+        if (sqlConnections != null) {
+            for (Iterator i = sqlConnections.entrySet().iterator(); i.hasNext();) {
+                try {
+                    Map.Entry entry = (Map.Entry) i.next();
+                    DbSource src = (DbSource) entry.getKey();
+                    Connection con = (Connection) entry.getValue();
+
+                    src.discardConnection(con);
+                    nmgr.app.logEvent("Closing DB connection: " + con);
+                } catch (Exception ignore) {
+                    // exception closing db connection, ignore
+                }
+            }
+
+            sqlConnections.clear();
+        }
+        if (replicaConnections != null) {
+            for (Iterator i = replicaConnections.entrySet().iterator(); i.hasNext();) {
+                try {
+                    Map.Entry entry = (Map.Entry) i.next();
+                    DbSource src = (DbSource) entry.getKey();
+                    Connection con = (Connection) entry.getValue();
+
+                    src.discardReplicaConnection(con);
+                    nmgr.app.logEvent("Closing DB replica connection: " + con);
+                } catch (Exception ignore) {
+                    // exception closing db connection, ignore
+                }
+            }
+
+            replicaConnections.clear();
+        }
+    }
+
+    /**
+     * Clear collections and throw them away. They may have grown large,
+     * so the benefit of keeping them (less GC) needs to be weighted against
+     * the potential increas in memory usage.
+     */
+    private synchronized void recycle() {
+        // clear the node collections to ease garbage collection
+        dirtyNodes.clear();
+        cleanNodes.clear();
+        parentNodes.clear();
+        pendingReferences.clear();
+    }
+
+    /**
+     * Register the key of a node referenced by a node loaded in this transaction.
+     * When one of the registered nodes is requested, the node manager loads it
+     * along with the other pending references to the same table.
+     *
+     * @param key the key of the referenced node
+     * @param batchSize the maximum number of nodes to load with one query
+     */
+    void addPendingReference(DbKey key, int batchSize) {
+        PendingReferences refs = (PendingReferences) pendingReferences.get(key.getStorageName());
+        if (refs == null) {
+            refs = new PendingReferences();
+            pendingReferences.put(key.getStorageName(), refs);
+        }
+        refs.batchSize = Math.max(refs.batchSize, batchSize);
+        if (refs.ids.size() < MAX_PENDING_REFERENCES) {
+            refs.ids.add(key.getID());
+        }
+    }
+
+    /**
+     * Take the ids of pending references to the table of the given key, starting
+     * with the key's own id. Returns null if the key isn't a pending reference.
+     *
+     * @param key the key of the requested node
+     * @return a list of at most batchSize ids, or null
+     */
+    List takePendingReferences(DbKey key) {
+        PendingReferences refs = (PendingReferences) pendingReferences.get(key.getStorageName());
+        if (refs == null || !refs.ids.remove(key.getID())) {
+            return null;
+        }
+        List ids = new ArrayList();
+        ids.add(key.getID());
+        for (Iterator it = refs.ids.iterator(); it.hasNext() && ids.size() < refs.batchSize; ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
+    }
+
+    /**
+     * Return the name of the current transaction. This is usually the request
+     * path for the underlying HTTP request.
+     */
+    public String getTransactionName() {
+        return tname;
+    }
+
+    /**
+     * Return a string representation of this Transactor thread
+     *
+     * @return ...
+     */
+    public String toString() {
+        return "Transactor[" + tname + "]";
+    }
+
+    /**
+     * Pending reference ids for one table
+     */
+    static class PendingReferences {
+        final LinkedHashSet ids = new LinkedHashSet();
+        int batchSize;
+    }
+
+    /**
+     * Collects the data changes of a commit. Changes of rows whose keyed column
+     * values are known are recorded by these values, so only collections
+     * constrained on them are invalidated. Other changes mark the whole
+     * DbMapping as changed.
+     */
+    static class DataChanges {
+        // DbMappings with changes that can't be attributed to keyed values
+        final HashSet dbMappings = new HashSet();
+        // DbMapping, column, value triples of keyed changes
+        final ArrayList keyedChanges = new ArrayList();
+        // column/value pairs of the node passed to prepare()
+        final ArrayList values = new ArrayList();
+        boolean keyed;
+
+        /**
+         * Collect the keyed values of a node before it is written.
+         */
+        void prepare(Node node, boolean isUpdate) {
+            DbMapping dbm = node.getDbMapping();
+            values.clear();
+            keyed = dbm != null && dbm.collectKeyedValues(node, isUpdate, values);
+        }
+
+        /**
+         * Record the change of the node passed to the last call of prepare().
+         */
+        void add(Node node) {
+            DbMapping dbm = node.getDbMapping();
+            if (dbm == null) {
+                return;
+            }
+            if (keyed) {
+                for (int i = 0; i < values.size(); i += 2) {
+                    keyedChanges.add(dbm);
+                    keyedChanges.add(values.get(i));
+                    keyedChanges.add(values.get(i + 1));
+                }
+            } else {
+                dbMappings.add(dbm);
+            }
+        }
+
+        /**
+         * Add the collected changes as cluster invalidation records to the given list.
+         */
+        void addRecords(List records) {
+            for (Iterator i = dbMappings.iterator(); i.hasNext(); ) {
+                DbMapping dbm = (DbMapping) i.next();
+                if (dbm.isRelational()) {
+                    records.add(new String[] {"D", dbm.getTypeName()});
+                }
+            }
+            for (int i = 0; i < keyedChanges.size(); i += 3) {
+                DbMapping dbm = (DbMapping) keyedChanges.get(i);
+                records.add(new String[] {"C", dbm.getTypeName(),
+                        (String) keyedChanges.get(i + 1), (String) keyedChanges.get(i + 2)});
+            }
+        }
+
+        /**
+         * Mark the collected changes in the DbMappings.
+         */
+        void apply() {
+            for (Iterator i = dbMappings.iterator(); i.hasNext(); ) {
+                DbMapping dbm = (DbMapping) i.next();
+                dbm.setLastDataChange();
+            }
+            for (int i = 0; i < keyedChanges.size(); i += 3) {
+                DbMapping dbm = (DbMapping) keyedChanges.get(i);
+                dbm.setKeyedDataChange((String) keyedChanges.get(i + 1),
+                                       (String) keyedChanges.get(i + 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import helma.objectmodel.INode;
+import helma.objectmodel.IProperty;
+import helma.objectmodel.db.DbKey;
+import helma.objectmodel.db.DbMapping;
+import helma.objectmodel.db.Key;
+import helma.objectmodel.db.Node;
+import helma.objectmodel.db.NodeHandle;
+import helma.objectmodel.db.NodeManager;
+import helma.objectmodel.db.Property;
+import helma.objectmodel.db.PropertyMap;
+import helma.objectmodel.db.SubnodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * A binary encoding of embedded database nodes, used in place of the XML
+ * format written by {@link XmlWriter} and read by {@link XmlDatabaseReader}.
+ * It contains the same information as the XML format: the node's id, name,
+ * prototype and timestamps, a reference to its parent, its primitive and
+ * node reference properties, and references to its subnodes. Referenced
+ * nodes are encoded by their key, so they don't have to be fetched when a
+ * node is written.
+ *
+ * Encoded nodes start with a header that can't appear at the start of an
+ * XML document, so readers can tell the two formats apart with
+ * {@link #isBinary(byte[])}.
+ */
+public final class BinaryNodeCodec {
+
+    // marker at the start of encoded nodes
+    private static final byte[] MAGIC = {0, 'H', 'N', 'B'};
+    // encoding version, checked when decoding
+    private static final byte VERSION = 1;
+
+    private final NodeManager nmgr;
+
+    /**
+     * Create a codec for the nodes of a node manager.
+     *
+     * @param nmgr the node manager
+     */
+    public BinaryNodeCodec(NodeManager nmgr) {
+        this.nmgr = nmgr;
+    }
+
+    /**
+     * Check whether data is a binary encoded node.
+     *
+     * @param data the data
+     * @return true if the data starts with the binary node header
+     */
+    public static boolean isBinary(byte[] data) {
+        if (data == null || data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode a node.
+     *
+     * @param node the node
+     * @return the encoded node
+     * @throws IOException if the node couldn't be encoded
+     */
+    public byte[] encode(INode node) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bout);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeString(out, node.getID());
+        writeString(out, node.getName());
+        String prototype = node.getPrototype();
+        writeString(out, prototype == null || "".equals(prototype) ? "hopobject" : prototype);
+        out.writeLong(node.created());
+        out.writeLong(node.lastModified());
+
+        writeReference(out, node.getParent());
+
+        List props = getProperties(node);
+        out.writeInt(props.size());
+        for (int i = 0; i < props.size(); i++) {
+            Object[] entry = (Object[]) props.get(i);
+            writeString(out, (String) entry[0]);
+            writeValue(out, (IProperty) entry[1]);
+        }
+
+        SubnodeList subnodes = getSubnodes(node);
+        int count = subnodes == null ? 0 : subnodes.size();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            writeReference(out, subnodes.get(i));
+        }
+
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Get the properties to encode as a list of name and property pairs.
+     * Like the XML format, this skips internal properties starting with
+     * an underscore and Java object properties.
+     */
+    private List getProperties(INode node) {
+        List list = new ArrayList();
+        Enumeration e;
+        if (node instanceof Node) {
+            PropertyMap props = ((Node) node).getPropMap();
+            if (props == null) {
+                return list;
+            }
+            e = props.keys();
+        } else {
+            e = node.properties();
+        }
+        while (e.hasMoreElements()) {
+            String key = (String) e.nextElement();
+            if (key.charAt(0) == '_') {
+                continue;
+            }
+            IProperty prop = node.get(key);
+            if (prop != null && prop.getType() != IProperty.JAVAOBJECT) {
+                list.add(new Object[] {key, prop});
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the subnodes to encode, or null if the subnodes are stored
+     * in a relational database.
+     */
+    private SubnodeList getSubnodes(INode node) {
+        if (!(node instanceof Node)) {
+            return null;
+        }
+        Node dbNode = (Node) node;
+        DbMapping smap = dbNode.getDbMapping() == null ?
+                null : dbNode.getDbMapping().getSubnodeMapping();
+        if (smap != null && smap.isRelational()) {
+            return null;
+        }
+        return dbNode.getSubnodeList();
+    }
+
+    private void writeValue(DataOutputStream out, IProperty prop) throws IOException {
+        int type = prop.getType();
+        out.writeByte(type);
+        switch (type) {
+            case IProperty.STRING:
+                writeString(out, prop.getStringValue());
+                break;
+            case IProperty.BOOLEAN:
+                out.writeBoolean(prop.getBooleanValue());
+                break;
+            case IProperty.DATE:
+                Date date = prop.getDateValue();
+                out.writeBoolean(date != null);
+                if (date != null) {
+                    out.writeLong(date.getTime());
+                }
+                break;
+            case IProperty.INTEGER:
+                out.writeLong(prop.getIntegerValue());
+                break;
+            case IProperty.FLOAT:
+                out.writeDouble(prop.getFloatValue());
+                break;
+            case IProperty.NODE:
+                if (prop instanceof Property) {
+                    writeReference(out, ((Property) prop).getNodeHandle());
+                } else {
+                    writeReference(out, prop.getNodeValue());
+                }
+                break;
+            default:
+                throw new IOException("Can't encode property type " + type);
+        }
+    }
+
+    /**
+     * Write a reference to a node by its handle, avoiding to fetch the node
+     * if the handle contains its key.
+     */
+    private void writeReference(DataOutputStream out, NodeHandle handle) throws IOException {
+        Key key = handle == null ? null : handle.getKey();
+        if (key instanceof DbKey) {
+            out.writeBoolean(true);
+            writeString(out, key.getStorageName());
+            writeString(out, key.getID());
+        } else {
+            writeReference(out, handle == null ? null : handle.getNode(nmgr.safe));
+        }
+    }
+
+    /**
+     * Write a reference to a node, using the same key the XML reader
+     * would create for it.
+     */
+    private void writeReference(DataOutputStream out, INode node) throws IOException {
+        out.writeBoolean(node != null);
+        if (node != null) {
+            DbMapping dbmap = node instanceof Node ?
+                    ((Node) node).getDbMapping() : nmgr.getDbMapping(node.getPrototype());
+            writeString(out, dbmap == null ? null : dbmap.getStorageTypeName());
+            writeString(out, node.getID());
+        }
+    }
+
+    /**
+     * Decode a node. If the data isn't a binary encoded node, it is
+     * read as XML.
+     *
+     * @param data the encoded node
+     * @return the node
+     * @throws IOException if the data couldn't be decoded
+     */
+    public Node decode(byte[] data) throws IOException {
+        if (!isBinary(data)) {
+            return readXml(new ByteArrayInputStream(data));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(MAGIC.length);
+        if (in.readByte() != VERSION) {
+            throw new IOException("Unsupported node encoding");
+        }
+        String id = readString(in);
+        String name = readString(in);
+        String prototype = readString(in);
+        long created = in.readLong();
+        long lastModified = in.readLong();
+        Node node = new Node(name, id, prototype, nmgr.safe, created, lastModified);
+
+        NodeHandle parent = readReference(in);
+        if (parent != null) {
+            node.setParentHandle(parent);
+        }
+
+        int count = in.readInt();
+        if (count > 0) {
+            DbMapping dbmap = node.getDbMapping();
+            Hashtable propMap = new Hashtable(count * 2);
+            for (int i = 0; i < count; i++) {
+                String propName = readString(in);
+                Property prop = new Property(propName, node);
+                readValue(in, prop);
+                propMap.put(dbmap == null ? propName :
+                        dbmap.getApplication().correctPropertyName(propName), prop);
+            }
+            node.setPropMap(propMap);
+        }
+
+        count = in.readInt();
+        if (count > 0) {
+            SubnodeList subnodes = node.createSubnodeList();
+            for (int i = 0; i < count; i++) {
+                subnodes.add(readReference(in));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Read a node from an XML stream.
+     */
+    Node readXml(InputStream in) throws IOException {
+        try {
+            return new XmlDatabaseReader(nmgr).read(in);
+        } catch (javax.xml.parsers.ParserConfigurationException x) {
+            throw new IOException(x.toString());
+        } catch (org.xml.sax.SAXException x) {
+            throw new IOException(x.toString());
+        }
+    }
+
+    private void readValue(DataInputStream in, Property prop) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case IProperty.STRING:
+                prop.setStringValue(readString(in));
+                break;
+            case IProperty.BOOLEAN:
+                prop.setBooleanValue(in.readBoolean());
+                break;
+            case IProperty.DATE:
+                prop.setDateValue(in.readBoolean() ? new Date(in.readLong()) : null);
+                break;
+            case IProperty.INTEGER:
+                prop.setIntegerValue(in.readLong());
+                break;
+            case IProperty.FLOAT:
+                prop.setFloatValue(in.readDouble());
+                break;
+            case IProperty.NODE:
+                prop.setNodeHandle(readReference(in));
+                break;
+            default:
+                throw new IOException("Invalid property type: " + type);
+        }
+    }
+
+    private NodeHandle readReference(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String storage = readString(in);
+        String id = readString(in);
+        // the storage name is the name of the type holding the storage
+        DbMapping dbmap = storage == null ? null : nmgr.getDbMapping(storage);
+        return new NodeHandle(new DbKey(dbmap, id));
+    }
+
+    /**
+     * Write a string that may be null or longer than writeUTF() allows.
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by writeString().
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Benchmark the binary encoding against the XML format by encoding and
+     * decoding nodes with typical properties in a temporary application.
+     *
+     * @param args the number of nodes and the number of subnodes per node
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int children = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File home = File.createTempFile("helma-bench", "");
+        home.delete();
+        File code = new File(home, "code");
+        code.mkdirs();
+        // keep all benchmark nodes in the cache so XmlWriter can resolve subnodes
+        java.io.FileWriter props = new java.io.FileWriter(new File(code, "app.properties"));
+        props.write("cachesize = " + (count * 2) + "\n");
+        props.close();
+        helma.main.ServerConfig config = new helma.main.ServerConfig();
+        config.setHomeDir(home);
+        helma.main.Server server = new helma.main.Server(config);
+        server.init();
+        helma.framework.core.Application app = new helma.framework.core.Application("bench",
+                server, new helma.framework.repository.Repository[] {
+                        new helma.framework.repository.FileRepository(code)},
+                null, new File(home, "db"));
+        app.init();
+        NodeManager nmgr = app.getNodeManager();
+        BinaryNodeCodec codec = new BinaryNodeCodec(nmgr);
+
+        DbMapping dbmap = app.getDbMapping("HopObject");
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            Node node = new Node("node" + i, Integer.toString(i + 2), "HopObject", nmgr.safe,
+                                 System.currentTimeMillis(), System.currentTimeMillis());
+            node.setParentHandle(new NodeHandle(new DbKey(app.getDbMapping("root"), "0")));
+            Hashtable propMap = new Hashtable();
+            Property prop = new Property("title", node);
+            prop.setStringValue("Title of node <" + i + "> & some more text");
+            propMap.put("title", prop);
+            prop = new Property("body", node);
+            prop.setStringValue("A longer text body for node " + i +
+                                ", with several sentences. The quick brown fox jumps over the lazy dog.");
+            propMap.put("body", prop);
+            prop = new Property("counter", node);
+            prop.setIntegerValue(i * 31L);
+            propMap.put("counter", prop);
+            prop = new Property("score", node);
+            prop.setFloatValue(i / 7.0);
+            propMap.put("score", prop);
+            prop = new Property("published", node);
+            prop.setBooleanValue(i % 2 == 0);
+            propMap.put("published", prop);
+            prop = new Property("modified", node);
+            prop.setDateValue(new Date());
+            propMap.put("modified", prop);
+            prop = new Property("author", node);
+            prop.setNodeHandle(new NodeHandle(new DbKey(dbmap, "1")));
+            propMap.put("author", prop);
+            node.setPropMap(propMap);
+            SubnodeList subnodes = node.createSubnodeList();
+            for (int j = 0; j < children; j++) {
+                subnodes.add(new NodeHandle(new DbKey(dbmap, Integer.toString((i + j + 1) % count + 2))));
+            }
+            nodes[i] = node;
+            nmgr.registerNode(node);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long xmlBytes = 0, binBytes = 0;
+            long start = System.nanoTime();
+            byte[][] xml = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream(512);
+                XmlWriter writer = new XmlWriter(bout, "UTF-8");
+                writer.setMaxLevels(1);
+                writer.write(nodes[i]);
+                writer.close();
+                xml[i] = bout.toByteArray();
+                xmlBytes += xml[i].length;
+            }
+            long xmlWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                codec.readXml(new ByteArrayInputStream(xml[i]));
+            }
+            long xmlRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[][] bin = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                bin[i] = codec.encode(nodes[i]);
+                binBytes += bin[i].length;
+            }
+            long binWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                codec.decode(bin[i]);
+            }
+            long binRead = System.nanoTime() - start;
+
+            System.out.println("Round " + round + ", " + count + " nodes with " + children + " subnodes:");
+            System.out.println("  xml:    write " + (xmlWrite / 1000 / count) + " us, read " +
+                    (xmlRead / 1000 / count) + " us, " + (xmlBytes / count) + " bytes per node");
+            System.out.println("  binary: write " + (binWrite / 1000 / count) + " us, read " +
+                    (binRead / 1000 / count) + " us, " + (binBytes / count) + " bytes per node");
+        }
+
+        app.stop();
+    }
+}
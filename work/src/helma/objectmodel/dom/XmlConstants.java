@@ -0,0 +1,25 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+/**
+ * 
+ */
+public interface XmlConstants {
+    public final String NAMESPACE = "http://www.helma.org/docs/guide/features/database";
+    public final String DATEFORMAT = "dd.MM.yyyy HH:mm:ss z";
+}
@@ -0,0 +1,738 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.objectmodel.dom;
+
+import helma.objectmodel.*;
+import helma.objectmodel.db.NodeManager;
+import helma.objectmodel.db.Node;
+import helma.framework.core.Application;
+import helma.util.LatencyHistogram;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A simple XML-database. Nodes are stored as one file per node, either as
+ * XML or, if <code>embeddedDbFormat</code> is set to <code>binary</code> in
+ * app.properties, in the encoding of {@link BinaryNodeCodec}. Nodes are read
+ * from either format, so existing XML files remain readable after switching
+ * to the binary format and are replaced as nodes are updated.
+ *
+ * Transactions committing at the same time are committed as a group: each
+ * transaction syncs its own temporary files, then the first transaction to
+ * find no group in progress moves the files of all waiting transactions to
+ * their final names with atomic renames and syncs the database directory
+ * once for the whole group. Syncing can be disabled by setting
+ * <code>xmlDatabase.sync</code> to <code>false</code> in app.properties.
+ */
+public final class XmlDatabase implements IDatabase {
+
+    protected File dbHomeDir;
+    protected Application app;
+    protected NodeManager nmgr;
+    protected XmlIDGenerator idgen;
+
+    // character encoding to use when writing files.
+    // use standard encoding by default.
+    protected String encoding = null;
+
+    // write nodes in binary format
+    protected boolean binary = false;
+    protected BinaryNodeCodec codec;
+
+    // sync files to disk before a commit returns
+    protected boolean sync = true;
+
+    // group commit state, guarded by commitLock
+    private final Object commitLock = new Object();
+    private ArrayList pendingCommits = new ArrayList();
+    private boolean committing = false;
+    // false if the platform can't sync directories
+    private volatile boolean syncDirectory = true;
+
+    // commit statistics
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final AtomicLong commitGroups = new AtomicLong();
+    private final AtomicLong committedFiles = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * Initializes the database from an application.
+     * @param app
+     * @throws DatabaseException
+     */
+    public void init(File dbHome, Application app) throws DatabaseException {
+        this.app = app;
+        nmgr = app.getNodeManager();
+        dbHomeDir = dbHome;
+
+        if (!dbHomeDir.exists() && !dbHomeDir.mkdirs()) {
+            throw new DatabaseException("Can't create database directory "+dbHomeDir);
+        }
+
+        if (!dbHomeDir.canWrite()) {
+            throw new DatabaseException("No write permission for database directory "+dbHomeDir);
+        }
+
+        File stylesheet = new File(dbHomeDir, "helma.xsl");
+        // if style sheet doesn't exist, copy it
+        if (!stylesheet.exists()) {
+            copyStylesheet(stylesheet);
+        }
+
+        this.encoding = app.getCharset();
+        this.binary = "binary".equalsIgnoreCase(app.getProperty("embeddedDbFormat"));
+        this.codec = new BinaryNodeCodec(nmgr);
+        this.sync = !"false".equalsIgnoreCase(app.getProperty("xmlDatabase.sync"));
+
+        // get the initial id generator value
+        long idBaseValue;
+        try {
+            idBaseValue = Long.parseLong(app.getProperty("idBaseValue", "1"));
+            // 0 and 1 are reserved for root nodes
+            idBaseValue = Math.max(1L, idBaseValue);
+        } catch (NumberFormatException ignore) {
+            idBaseValue = 1L;
+        }
+
+        ITransaction txn = null;
+
+        try {
+            txn = beginTransaction();
+
+            try {
+                idgen = getIDGenerator(txn);
+
+                if (idgen.getValue() < idBaseValue) {
+                    idgen.setValue(idBaseValue);
+                }
+            } catch (ObjectNotFoundException notfound) {
+                // will start with idBaseValue+1
+                idgen = new XmlIDGenerator(idBaseValue);
+            }
+
+            // check if we need to set the id generator to a base value
+            Node node = null;
+
+            try {
+                getNode(txn, "0");
+            } catch (ObjectNotFoundException notfound) {
+                node = new Node("root", "0", "Root", nmgr.safe);
+                node.setDbMapping(app.getDbMapping("root"));
+                insertNode(txn, node.getID(), node);
+                // register node with nodemanager cache
+                // nmgr.registerNode(node);
+            }
+
+            try {
+                getNode(txn, "1");
+            } catch (ObjectNotFoundException notfound) {
+                node = new Node("users", "1", null, nmgr.safe);
+                node.setDbMapping(app.getDbMapping("__userroot__"));
+                insertNode(txn, node.getID(), node);
+                // register node with nodemanager cache
+                // nmgr.registerNode(node);
+            }
+
+            commitTransaction(txn);
+        } catch (Exception x) {
+            x.printStackTrace();
+
+            try {
+                abortTransaction(txn);
+            } catch (Exception ignore) {
+            }
+
+            throw (new DatabaseException("Error initializing db"));
+        }
+    }
+
+    /**
+     * Try to copy style sheet for XML files to database directory
+     */
+    private void copyStylesheet(File destination) {
+        InputStream in = null;
+        FileOutputStream out = null;
+        byte[] buffer = new byte[1024];
+        int read;
+
+        try {
+            in = getClass().getResourceAsStream("helma.xsl");
+            out = new FileOutputStream(destination);
+            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException iox) {
+            System.err.println("Error copying db style sheet: "+iox);
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+                if (in != null)
+                    in.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Shut down the database
+     */
+    public void shutdown() {
+        // nothing to do
+    }
+
+    /**
+     * Start a new transaction.
+     *
+     * @return the new tranaction object
+     * @throws DatabaseException
+     */
+    public ITransaction beginTransaction() throws DatabaseException {
+        return new XmlTransaction();
+    }
+
+    /**
+     * committ the given transaction, makint its changes persistent
+     *
+     * @param txn
+     * @throws DatabaseException
+     */
+    public void commitTransaction(ITransaction txn) throws DatabaseException {
+        // the id generator is saved once per commit group
+        txn.commit();
+    }
+
+    /**
+     * Abort the given transaction
+     *
+     * @param txn
+     * @throws DatabaseException
+     */
+    public void abortTransaction(ITransaction txn) throws DatabaseException {
+        txn.abort();
+    }
+
+    /**
+     * Get the id for the next new object to be stored.
+     *
+     * @return the id for the next new object to be stored
+     * @throws ObjectNotFoundException
+     */
+    public String nextID() throws ObjectNotFoundException {
+        if (idgen == null) {
+            getIDGenerator(null);
+        }
+
+        return idgen.newID();
+    }
+
+    /**
+     * Get the id-generator for this database.
+     *
+     * @param txn
+     * @return the id-generator for this database
+     * @throws ObjectNotFoundException
+     */
+    public XmlIDGenerator getIDGenerator(ITransaction txn)
+                               throws ObjectNotFoundException {
+        File file = new File(dbHomeDir, "idgen.xml");
+
+        this.idgen = XmlIDGenerator.getIDGenerator(file);
+
+        return idgen;
+    }
+
+    /**
+     * Write the id-generator to file.
+     *
+     * @param txn
+     * @throws IOException
+     */
+    public void saveIDGenerator(ITransaction txn)
+                         throws IOException {
+        File tmp = File.createTempFile("idgen.xml.", ".tmp", dbHomeDir);
+
+        XmlIDGenerator.saveIDGenerator(idgen, tmp);
+
+        File file = new File(dbHomeDir, "idgen.xml");
+        if (file.exists() && !file.canWrite()) {
+            throw new IOException("No write permission for "+file);
+        }
+        Resource res = new Resource(file, tmp);
+        txn.addResource(res, ITransaction.ADDED);
+    }
+
+    /**
+     * Retrieves a Node from the database.
+     *
+     * @param txn the current transaction
+     * @param kstr the key
+     * @return the object associated with the given key
+     * @throws IOException if an I/O error occurred loading the object.
+     * @throws ObjectNotFoundException if no object is stored by this key.
+     */
+    public INode getNode(ITransaction txn, String kstr)
+                  throws IOException, ObjectNotFoundException {
+        // look for the file in the format we write first, so we get the
+        // current version if an update was interrupted before the file in
+        // the other format was deleted
+        File f = getFile(kstr, binary);
+
+        if (!f.exists()) {
+            f = getFile(kstr, !binary);
+        }
+
+        if (!f.exists()) {
+            throw new ObjectNotFoundException("Object not found for key " + kstr);
+        }
+
+        if (f.getName().endsWith(".bin")) {
+            try {
+                return codec.decode(readFile(f));
+            } catch (IOException x) {
+                app.logError("Error reading " +f, x);
+                throw x;
+            }
+        }
+
+       try {
+            XmlDatabaseReader reader = new XmlDatabaseReader(nmgr);
+            Node node = reader.read(f);
+
+            return node;
+        } catch (ParserConfigurationException x) {
+            app.logError("Error reading " +f, x);
+            throw new IOException(x.toString());
+        } catch (SAXException x) {
+            app.logError("Error reading " +f, x);
+            throw new IOException(x.toString());
+        }
+    }
+
+    /**
+     * Get the file for a node in the binary or the XML format.
+     */
+    private File getFile(String kstr, boolean binary) {
+        return new File(dbHomeDir, kstr + (binary ? ".bin" : ".xml"));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Save a node with the given key. Writes the node to a temporary file
+     * which is copied to its final name when the transaction is committed.
+     *
+     * @param txn
+     * @param kstr
+     * @param node
+     * @throws java.io.IOException
+     */
+    public void insertNode(ITransaction txn, String kstr, INode node)
+                throws IOException {
+        if (getFile(kstr, true).exists() || getFile(kstr, false).exists()) {
+            throw new IOException("Object already exists for key " + kstr);
+        }
+
+        // apart from the above check insertNode() is equivalent to updateNode()
+        updateNode(txn, kstr, node);
+    }
+
+    /**
+     * Update a node with the given key. Writes the node to a temporary file
+     * which is copied to its final name when the transaction is committed.
+     *
+     * @param txn
+     * @param kstr
+     * @param node
+     * @throws java.io.IOException
+     */
+    public void updateNode(ITransaction txn, String kstr, INode node)
+                throws IOException {
+        File file = getFile(kstr, binary);
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", dbHomeDir);
+
+        if (binary) {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(codec.encode(node));
+            } finally {
+                out.close();
+            }
+        } else {
+            XmlWriter writer = null;
+
+            if (encoding != null) {
+                writer = new XmlWriter(tmp, encoding);
+            } else {
+                writer = new XmlWriter(tmp);
+            }
+
+            writer.setMaxLevels(1);
+            writer.write(node);
+            writer.close();
+        }
+
+        if (file.exists() && !file.canWrite()) {
+            throw new IOException("No write permission for "+file);
+        }
+        Resource res = new Resource(file, tmp);
+        txn.addResource(res, ITransaction.ADDED);
+
+        // remove the node's file in the other format
+        File other = getFile(kstr, !binary);
+        if (other.exists()) {
+            txn.addResource(new Resource(other, null), ITransaction.DELETED);
+        }
+    }
+
+    /**
+     * Marks an element from the database as deleted
+     *
+     * @param txn
+     * @param kstr
+     * @throws IOException
+     */
+    public void deleteNode(ITransaction txn, String kstr)
+                    throws IOException {
+        Resource res = new Resource(getFile(kstr, false), null);
+        txn.addResource(res, ITransaction.DELETED);
+        res = new Resource(getFile(kstr, true), null);
+        txn.addResource(res, ITransaction.DELETED);
+    }
+
+    /**
+     * set the file encoding to use
+     *
+     * @param encoding the database's file encoding
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * get the file encoding used by this database
+     *
+     * @return the file encoding used by this database
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    class XmlTransaction implements ITransaction {
+
+        ArrayList writeFiles = new ArrayList();
+        ArrayList deleteFiles = new ArrayList();
+
+        /**
+         * Complete the transaction by making its changes persistent.
+         */
+        public void commit() throws DatabaseException {
+            long start = System.nanoTime();
+            try {
+                if (sync) {
+                    // sync our files before they are moved, in parallel
+                    // with the other transactions of the commit group
+                    for (int i = 0; i < writeFiles.size(); i++) {
+                        syncFile(((Resource) writeFiles.get(i)).tmpfile);
+                    }
+                }
+                commitGroup(new CommitBatch(writeFiles, deleteFiles));
+            } catch (IOException x) {
+                app.logError("Error committing transaction", x);
+                throw new DatabaseException("Error committing transaction: " + x);
+            }
+            commitLatency.record(System.nanoTime() - start);
+            // clear registered resources
+            writeFiles = new ArrayList();
+            deleteFiles = new ArrayList();
+        }
+
+        /**
+         * Rollback the transaction, forgetting the changed items
+         */
+        public void abort() throws DatabaseException {
+            int l = writeFiles.size();
+            for (int i=0; i<l; i++) {
+                Resource res = (Resource) writeFiles.get(i);
+                // delete tmp files created by this transaction
+                try {
+                    res.tmpfile.delete();
+                } catch (SecurityException ignore) {
+                    // shouldn't happen
+                }
+            }
+
+            // clear registered resources
+            writeFiles.clear();
+            deleteFiles.clear();
+        }
+
+        /**
+         * Adds a resource to the list of resources encompassed by this transaction
+         *
+         * @param res the resource to add
+         * @param status the status of the resource (ADDED|UPDATED|DELETED)
+         */
+        public void addResource(Object res, int status)
+               throws DatabaseException {
+            if (status == DELETED) {
+                deleteFiles.add(res);
+            } else {
+                writeFiles.add(res);
+            }
+        }
+
+    }
+
+    /**
+     * Add a batch to the next commit group and wait until it is committed.
+     * If no group is being committed, the calling thread commits the group.
+     */
+    private void commitGroup(CommitBatch batch) throws IOException {
+        List group;
+        synchronized (commitLock) {
+            pendingCommits.add(batch);
+            try {
+                while (committing && !batch.done) {
+                    commitLock.wait();
+                }
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException("Interrupted waiting for commit");
+            }
+            if (batch.done) {
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                return;
+            }
+            committing = true;
+            group = pendingCommits;
+            pendingCommits = new ArrayList();
+        }
+
+        IOException error = null;
+        try {
+            writeGroup(group);
+        } catch (IOException x) {
+            error = x;
+        } catch (RuntimeException x) {
+            error = new IOException(x.toString());
+        }
+
+        synchronized (commitLock) {
+            for (int i = 0; i < group.size(); i++) {
+                CommitBatch b = (CommitBatch) group.get(i);
+                b.error = error;
+                b.done = true;
+            }
+            committing = false;
+            commitLock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Move the files of a commit group to their final names and delete
+     * the deleted files. Only one thread at a time executes this method.
+     */
+    private void writeGroup(List group) throws IOException {
+        // save the id generator with a value covering all ids handed
+        // out to the transactions of the group
+        if (idgen.dirty) {
+            idgen.dirty = false;
+            XmlTransaction txn = new XmlTransaction();
+            try {
+                saveIDGenerator(txn);
+                Resource res = (Resource) txn.writeFiles.get(0);
+                if (sync) {
+                    syncFile(res.tmpfile);
+                }
+                moveFile(res);
+            } catch (IOException x) {
+                idgen.dirty = true;
+                txn.abort();
+                throw x;
+            }
+        }
+
+        int files = 0;
+        for (int i = 0; i < group.size(); i++) {
+            CommitBatch batch = (CommitBatch) group.get(i);
+            for (int j = 0; j < batch.writeFiles.size(); j++) {
+                moveFile((Resource) batch.writeFiles.get(j));
+            }
+            for (int j = 0; j < batch.deleteFiles.size(); j++) {
+                Resource res = (Resource) batch.deleteFiles.get(j);
+                // delete files enlisted as deleted
+                try {
+                    res.file.delete();
+                } catch (SecurityException ignore) {
+                    // shouldn't happen
+                }
+            }
+            files += batch.writeFiles.size() + batch.deleteFiles.size();
+        }
+
+        if (sync && files > 0) {
+            syncDirectory();
+        }
+        commitGroups.incrementAndGet();
+        committedFiles.addAndGet(files);
+    }
+
+    /**
+     * Move a temporary file to its permanent name, replacing the
+     * previous version atomically.
+     */
+    private void moveFile(Resource res) {
+        Path tmp = res.tmpfile.toPath();
+        Path file = res.file.toPath();
+        try {
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException x) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException x) {
+            // error - leave tmp file and print a message
+            app.logError("*** Error committing "+res.file, x);
+            app.logError("*** Committed version is in "+res.tmpfile);
+        }
+    }
+
+    /**
+     * Flush the contents of a file to disk.
+     */
+    private void syncFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().force(false);
+        } finally {
+            raf.close();
+        }
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Flush the renames and deletes in the database directory to disk.
+     */
+    private void syncDirectory() {
+        if (!syncDirectory) {
+            return;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(dbHomeDir.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+            syncs.incrementAndGet();
+        } catch (IOException x) {
+            // not supported on some platforms, e.g. Windows
+            syncDirectory = false;
+            app.logEvent("Can't sync database directory " + dbHomeDir + ": " + x);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the commit statistics of the database.
+     *
+     * @return a map with the commit latency and commit group statistics
+     */
+    public Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<String,Object>();
+        Map<String,Object> latency = new HashMap<String,Object>();
+        commitLatency.addStatistics(latency);
+        long commits = commitLatency.getCount();
+        long groups = commitGroups.get();
+        stats.put("commitLatency", latency);
+        stats.put("commits", commits);
+        stats.put("commitGroups", groups);
+        stats.put("averageGroupSize", groups == 0 ? 0.0 : (double) commits / groups);
+        stats.put("committedFiles", committedFiles.get());
+        stats.put("syncs", syncs.get());
+        stats.put("sync", sync);
+        return stats;
+    }
+
+    /**
+     * The files of a committed transaction, waiting to be moved with
+     * a commit group.
+     */
+    static class CommitBatch {
+        final List writeFiles;
+        final List deleteFiles;
+        volatile boolean done = false;
+        volatile IOException error = null;
+
+        CommitBatch(List writeFiles, List deleteFiles) {
+            this.writeFiles = writeFiles;
+            this.deleteFiles = deleteFiles;
+        }
+    }
+
+    /**
+     * A holder class for two files, the temporary file and the permanent one
+     */
+    class Resource {
+        File tmpfile;
+        File file;
+
+        public Resource(File file, File tmpfile) {
+            this.file = file;
+            this.tmpfile = tmpfile;
+        }
+    }
+
+
+    class IDGenerator {
+
+    }
+
+}
+
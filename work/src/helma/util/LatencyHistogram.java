@@ -0,0 +1,176 @@
+/*
+ * Helma License Notice
+ *
+ * The contents of this file are subject to the Helma License
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. A copy of the License is available at
+ * http://adele.helma.org/download/helma/license.txt
+ *
+ * Copyright 1998-2003 Helma Software. All Rights Reserved.
+ *
+ * $RCSfile$
+ * $Author$
+ * $Revision$
+ * $Date$
+ */
+
+package helma.util;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram. Latencies are recorded in log-linear buckets
+ * with eight buckets per power of two, so percentiles are accurate to 12.5%
+ * over a range from one microsecond to several days, at a fixed cost of one
+ * array increment per recorded value.
+ */
+public final class LatencyHistogram {
+
+    // number of linear sub-buckets per power of two, as a power of two
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // highest power of two covered by the histogram, in microseconds
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        buckets.incrementAndGet(bucketOf(nanos / 1000L));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the sum of all recorded latencies in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Get the highest recorded latency in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Get a copy of the bucket counts, to be passed to {@link #percentile}.
+     */
+    public long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Add the count, total, average, maximum and the 50th, 90th, 99th and
+     * 99.9th percentile latencies in milliseconds to a statistics map.
+     *
+     * @param map the map to add the statistics to
+     */
+    public void addStatistics(Map<String,Object> map) {
+        long[] counts = snapshot();
+        long n = count.get();
+        map.put("count", n);
+        map.put("totalMillis", totalNanos.get() / 1000000L);
+        map.put("averageMillis", n == 0 ? 0.0 : totalNanos.get() / 1e6 / n);
+        map.put("maxMillis", maxNanos.get() / 1e6);
+        map.put("p50Millis", percentile(counts, 0.5) / 1e3);
+        map.put("p90Millis", percentile(counts, 0.9) / 1e3);
+        map.put("p99Millis", percentile(counts, 0.99) / 1e3);
+        map.put("p999Millis", percentile(counts, 0.999) / 1e3);
+    }
+
+    /**
+     * Get the histogram bucket of a latency.
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Get the highest latency in microseconds recorded in a bucket.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        long sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB_COUNT + sub) << (exponent - SUB_BITS)) + width - 1;
+    }
+
+    /**
+     * Get a percentile in microseconds from a histogram snapshot.
+     *
+     * @param counts the bucket counts returned by {@link #snapshot()}
+     * @param fraction the percentile as a fraction, e.g. 0.99
+     * @return the upper limit of the bucket containing the percentile
+     */
+    public static long percentile(long[] counts, double fraction) {
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketLimit(i);
+            }
+        }
+        return bucketLimit(counts.length - 1);
+    }
+
+    // for testing: checks the bucket boundaries
+    public static void main(String[] args) {
+        for (long v = 0; v < (1L << 30); v = v < 100 ? v + 1 : v + v / 7) {
+            int bucket = bucketOf(v);
+            if (v > bucketLimit(bucket) || (bucket > 0 && v <= bucketLimit(bucket - 1))) {
+                throw new RuntimeException("Wrong bucket " + bucket + " for " + v);
+            }
+            if (bucketLimit(bucket) > v + v / SUB_COUNT) {
+                throw new RuntimeException("Bucket " + bucket + " too wide for " + v);
+            }
+        }
+        System.out.println("Bucket boundaries ok");
+    }
+}